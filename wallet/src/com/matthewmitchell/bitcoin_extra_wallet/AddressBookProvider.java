@@ -17,7 +17,11 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
@@ -43,12 +47,77 @@ public class AddressBookProvider extends ContentProvider
 	public static final String SELECTION_IN = "in";
 	public static final String SELECTION_NOTIN = "notin";
 
+	private static final int RESOLVE_LABELS_BATCH_SIZE = 500;
+	private static final int LABEL_CACHE_SIZE = 1024;
+
+	private static final AddressLabelCache labelCache = new AddressLabelCache(LABEL_CACHE_SIZE, new AddressLabelCache.Database()
+	{
+		@Override
+		public Map<String, String> queryAllLabels(final Context context)
+		{
+			return AddressBookProvider.queryAllLabels(context);
+		}
+
+		@Override
+		public String queryLabel(final Context context, final String address)
+		{
+			return AddressBookProvider.queryLabel(context, address);
+		}
+
+		@Override
+		public Map<String, String> queryLabels(final Context context, final Collection<String> addresses)
+		{
+			return AddressBookProvider.queryLabels(context, addresses);
+		}
+	});
+
 	public static Uri contentUri(final String packageName)
 	{
 		return Uri.parse("content://" + packageName + '.' + DATABASE_TABLE);
 	}
 
 	public static String resolveLabel(final Context context, final String address)
+	{
+		return labelCache.resolveLabel(context, address);
+	}
+
+	/**
+	 * Resolves the labels of many addresses. Addresses without a label are missing from the returned map.
+	 */
+	public static Map<String, String> resolveLabels(final Context context, final Collection<String> addresses)
+	{
+		return labelCache.resolveLabels(context, addresses);
+	}
+
+	public static long getLabelCacheHits()
+	{
+		return labelCache.getHits();
+	}
+
+	public static long getLabelCacheMisses()
+	{
+		return labelCache.getMisses();
+	}
+
+	private static Map<String, String> queryAllLabels(final Context context)
+	{
+		final Cursor cursor = context.getContentResolver().query(contentUri(context.getPackageName()), new String[] { KEY_ADDRESS, KEY_LABEL },
+				null, null, null);
+		if (cursor == null)
+			return null;
+
+		final Map<String, String> labels = new HashMap<String, String>(cursor.getCount());
+		final int addressIndex = cursor.getColumnIndexOrThrow(KEY_ADDRESS);
+		final int labelIndex = cursor.getColumnIndexOrThrow(KEY_LABEL);
+		while (cursor.moveToNext())
+			labels.put(cursor.getString(addressIndex), cursor.getString(labelIndex));
+
+		cursor.close();
+
+		return labels;
+	}
+
+	private static String queryLabel(final Context context, final String address)
 	{
 		String label = null;
 
@@ -66,6 +135,47 @@ public class AddressBookProvider extends ContentProvider
 		return label;
 	}
 
+	/**
+	 * Queries the labels of many addresses using batched {@link #SELECTION_IN} queries.
+	 */
+	private static Map<String, String> queryLabels(final Context context, final Collection<String> addresses)
+	{
+		final Map<String, String> labels = new HashMap<String, String>();
+		final Uri uri = contentUri(context.getPackageName());
+		final Iterator<String> iterator = addresses.iterator();
+
+		while (iterator.hasNext())
+		{
+			final StringBuilder batch = new StringBuilder();
+			for (int i = 0; i < RESOLVE_LABELS_BATCH_SIZE && iterator.hasNext(); i++)
+			{
+				if (i > 0)
+					batch.append(',');
+				batch.append(iterator.next());
+			}
+
+			final Cursor cursor = context.getContentResolver().query(uri, new String[] { KEY_ADDRESS, KEY_LABEL }, SELECTION_IN,
+					new String[] { batch.toString() }, null);
+
+			if (cursor != null)
+			{
+				final int addressIndex = cursor.getColumnIndexOrThrow(KEY_ADDRESS);
+				final int labelIndex = cursor.getColumnIndexOrThrow(KEY_LABEL);
+
+				while (cursor.moveToNext())
+				{
+					final String label = cursor.getString(labelIndex);
+					if (label != null)
+						labels.put(cursor.getString(addressIndex), label);
+				}
+
+				cursor.close();
+			}
+		}
+
+		return labels;
+	}
+
 	private Helper helper;
 
 	@Override
@@ -91,6 +201,7 @@ public class AddressBookProvider extends ContentProvider
 		values.put(KEY_ADDRESS, address);
 
 		long rowId = helper.getWritableDatabase().insertOrThrow(DATABASE_TABLE, null, values);
+		labelCache.onLabelWritten(address, values.getAsString(KEY_LABEL));
 
 		final Uri rowUri = contentUri(getContext().getPackageName()).buildUpon().appendPath(address).appendPath(Long.toString(rowId)).build();
 
@@ -110,7 +221,12 @@ public class AddressBookProvider extends ContentProvider
 		final int count = helper.getWritableDatabase().update(DATABASE_TABLE, values, KEY_ADDRESS + "=?", new String[] { address });
 
 		if (count > 0)
+		{
+			if (values.containsKey(KEY_LABEL))
+				labelCache.onLabelWritten(address, values.getAsString(KEY_LABEL));
+
 			getContext().getContentResolver().notifyChange(uri, null);
+		}
 
 		return count;
 	}
@@ -127,7 +243,11 @@ public class AddressBookProvider extends ContentProvider
 		final int count = helper.getWritableDatabase().delete(DATABASE_TABLE, KEY_ADDRESS + "=?", new String[] { address });
 
 		if (count > 0)
+		{
+			labelCache.onAddressDeleted(address);
+
 			getContext().getContentResolver().notifyChange(uri, null);
+		}
 
 		return count;
 	}
@@ -185,11 +305,11 @@ public class AddressBookProvider extends ContentProvider
 
 	private static void appendAddresses(final SQLiteQueryBuilder qb, final String[] addresses)
 	{
-		for (final String address : addresses)
+		for (int i = 0; i < addresses.length; i++)
 		{
-			qb.appendWhereEscapeString(address.trim());
-			if (!address.equals(addresses[addresses.length - 1]))
+			if (i > 0)
 				qb.appendWhere(",");
+			qb.appendWhereEscapeString(addresses[i].trim());
 		}
 	}
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import android.content.Context;
+
+/**
+ * Process-wide cache of address book labels, keyed by address. The whole address book is read once; as long as it fits
+ * into the cache, a missing address means it has no label. Once an entry had to be evicted, misses fall back to single
+ * queries. {@link AddressBookProvider} updates the cache on every write, before it notifies observers.
+ */
+final class AddressLabelCache
+{
+	/**
+	 * Reads labels from the address book database.
+	 */
+	interface Database
+	{
+		/**
+		 * @return labels of all addresses, null for addresses without one; or null if the address book can't be read
+		 */
+		@Nullable
+		Map<String, String> queryAllLabels(Context context);
+
+		@Nullable
+		String queryLabel(Context context, String address);
+
+		/**
+		 * @return labels of the given addresses; addresses without a label are missing
+		 */
+		Map<String, String> queryLabels(Context context, Collection<String> addresses);
+	}
+
+	// stands in for "no label", compared by identity
+	private static final String NO_LABEL = new String();
+
+	private final int maxSize;
+	private final Database database;
+	private final Map<String, String> labels;
+	private volatile boolean loaded = false;
+	private volatile boolean complete = false;
+	private final AtomicInteger generation = new AtomicInteger();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	AddressLabelCache(final int maxSize, final Database database)
+	{
+		this.maxSize = maxSize;
+		this.database = database;
+		this.labels = new LinkedHashMap<String, String>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, String> eldest)
+			{
+				if (size() <= AddressLabelCache.this.maxSize)
+					return false;
+
+				complete = false;
+				return true;
+			}
+		};
+	}
+
+	@Nullable
+	String resolveLabel(final Context context, final String address)
+	{
+		if (!loaded)
+			load(context);
+
+		final String cached = getCached(address);
+		if (cached != null)
+		{
+			hits.incrementAndGet();
+			return cached != NO_LABEL ? cached : null;
+		}
+		else if (complete)
+		{
+			hits.incrementAndGet();
+			return null;
+		}
+
+		misses.incrementAndGet();
+		final int generation = this.generation.get();
+		final String label = database.queryLabel(context, address);
+		putIfUnchanged(generation, address, label);
+		return label;
+	}
+
+	Map<String, String> resolveLabels(final Context context, final Collection<String> addresses)
+	{
+		if (!loaded)
+			load(context);
+
+		final Map<String, String> result = new HashMap<String, String>();
+		final List<String> unknown = new ArrayList<String>();
+
+		for (final String address : addresses)
+		{
+			final String cached = getCached(address);
+			if (cached != null)
+			{
+				hits.incrementAndGet();
+				if (cached != NO_LABEL)
+					result.put(address, cached);
+			}
+			else if (complete)
+			{
+				hits.incrementAndGet();
+			}
+			else
+			{
+				misses.incrementAndGet();
+				unknown.add(address);
+			}
+		}
+
+		if (!unknown.isEmpty())
+		{
+			final int generation = this.generation.get();
+			final Map<String, String> queried = database.queryLabels(context, unknown);
+
+			for (final String address : unknown)
+			{
+				final String label = queried.get(address);
+				putIfUnchanged(generation, address, label);
+				if (label != null)
+					result.put(address, label);
+			}
+		}
+
+		return result;
+	}
+
+	@Nullable
+	private synchronized String getCached(final String address)
+	{
+		return labels.get(address);
+	}
+
+	/**
+	 * Remembers a label read from the database, unless the address book was written in the meantime.
+	 */
+	private synchronized void putIfUnchanged(final int generation, final String address, @Nullable final String label)
+	{
+		if (this.generation.get() == generation)
+			labels.put(address, label != null ? label : NO_LABEL);
+	}
+
+	synchronized void onLabelWritten(final String address, @Nullable final String label)
+	{
+		generation.incrementAndGet();
+		labels.put(address, label != null ? label : NO_LABEL);
+	}
+
+	synchronized void onAddressDeleted(final String address)
+	{
+		generation.incrementAndGet();
+		labels.remove(address);
+	}
+
+	long getHits()
+	{
+		return hits.get();
+	}
+
+	long getMisses()
+	{
+		return misses.get();
+	}
+
+	synchronized int size()
+	{
+		return labels.size();
+	}
+
+	private synchronized void load(final Context context)
+	{
+		if (loaded)
+			return;
+
+		final int generation = this.generation.get();
+		final Map<String, String> all = database.queryAllLabels(context);
+
+		if (all != null)
+		{
+			complete = all.size() <= maxSize;
+			for (final Map.Entry<String, String> entry : all.entrySet())
+				putIfUnchanged(generation, entry.getKey(), entry.getValue());
+		}
+
+		loaded = true;
+	}
+}
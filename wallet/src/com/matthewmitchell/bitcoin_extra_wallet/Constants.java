@@ -56,6 +56,18 @@ public final class Constants
 		/** How often the wallet is autosaved. */
 		public static final long WALLET_AUTOSAVE_DELAY_MS = 5 * DateUtils.SECOND_IN_MILLIS;
 
+		/** How often the wallet is written in full, if changes are journaled in between. */
+		public static final long WALLET_SNAPSHOT_DELAY_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+		/** Journal size that triggers an early full write of the wallet. */
+		public static final long WALLET_JOURNAL_MAX_BYTES = 1024 * 1024;
+
+		/** Filename of the summary the wallet screen shows while the wallet is loading. */
+		public static final String WALLET_SUMMARY_FILENAME = "wallet-summary" + FILENAME_NETWORK_SUFFIX;
+
+		/** Number of recent transactions kept in the summary. */
+		public static final int WALLET_SUMMARY_NUM_TRANSACTIONS = 20;
+
 		/** Filename of the automatic key backup (old format, can only be read). */
 		public static final String WALLET_KEY_BACKUP_BASE58 = "key-backup-base58" + FILENAME_NETWORK_SUFFIX;
 
@@ -83,6 +95,9 @@ public final class Constants
 		/** Filename of exported transactions. */
 		public static final String TX_EXPORT_NAME = "bitcoin-extra-transactions";
 
+		/** Filename of the last fetched exchange rates. */
+		public static final String EXCHANGE_RATES_FILENAME = "exchange-rates";
+
 	}
 
 	/** Maximum size of backups. Files larger will be rejected. */
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.matthewmitchell.bitcoin_extra_wallet.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * Somewhere to fetch a table of exchange rates from. Implementations are called from background threads, possibly
+ * concurrently.
+ */
+interface ExchangeRateSource
+{
+	String getName();
+
+	/**
+	 * @return rates by currency code, never empty
+	 * @throws IOException
+	 *             if the source couldn't be reached or didn't answer with any usable rate
+	 */
+	Map<String, ExchangeRate> requestExchangeRates(String userAgent) throws IOException;
+}
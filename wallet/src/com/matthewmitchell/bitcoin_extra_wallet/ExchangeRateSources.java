@@ -0,0 +1,262 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.matthewmitchell.bitcoin_extra_wallet.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * Fetches rates from the healthiest of several sources. If the preferred source takes longer than it usually does,
+ * a hedged request goes to the next source and whichever answers first wins. A source that fails is followed up by
+ * the next one straight away.
+ */
+final class ExchangeRateSources
+{
+	private final List<ExchangeRateSource> sources;
+	private final List<Health> health;
+	private final Executor executor;
+	private final long defaultHedgeDelayMs;
+
+	private static final int HEDGE_PERCENTILE = 90;
+	private static final long MIN_HEDGE_DELAY_MS = 200;
+	static final long DEFAULT_HEDGE_DELAY_MS = 2000;
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRateSources.class);
+
+	/**
+	 * @param sources
+	 *            in order of preference, until there is enough history to go by
+	 * @param executor
+	 *            runs the requests; must be able to run one per source concurrently
+	 * @param defaultHedgeDelayMs
+	 *            how long to wait before hedging on a source that has no latency history yet
+	 */
+	ExchangeRateSources(final List<? extends ExchangeRateSource> sources, final Executor executor, final long defaultHedgeDelayMs)
+	{
+		this.sources = new ArrayList<ExchangeRateSource>(sources);
+		this.health = new ArrayList<Health>(sources.size());
+		for (int i = 0; i < sources.size(); i++)
+			health.add(new Health());
+		this.executor = executor;
+		this.defaultHedgeDelayMs = defaultHedgeDelayMs;
+	}
+
+	/**
+	 * Blocks until the first source answers with usable rates, or all of them have failed.
+	 *
+	 * @return rates, or null if no source could deliver
+	 */
+	@Nullable
+	Map<String, ExchangeRate> requestExchangeRates(final String userAgent) throws InterruptedException
+	{
+		final List<Integer> order = preferredOrder();
+		final CompletionService<Map<String, ExchangeRate>> completion = new ExecutorCompletionService<Map<String, ExchangeRate>>(executor);
+		final List<Future<Map<String, ExchangeRate>>> futures = new ArrayList<Future<Map<String, ExchangeRate>>>(order.size());
+
+		try
+		{
+			futures.add(completion.submit(request(order.get(0), userAgent)));
+			int inFlight = 1;
+
+			while (inFlight > 0)
+			{
+				final Future<Map<String, ExchangeRate>> done;
+				if (futures.size() < order.size())
+				{
+					final int latest = order.get(futures.size() - 1);
+					done = completion.poll(hedgeDelayMs(latest), TimeUnit.MILLISECONDS);
+					if (done == null)
+					{
+						final int hedge = order.get(futures.size());
+						log.info("{} is slow, hedging with {}", sources.get(latest), sources.get(hedge));
+						futures.add(completion.submit(request(hedge, userAgent)));
+						inFlight++;
+						continue;
+					}
+				}
+				else
+				{
+					done = completion.take();
+				}
+
+				inFlight--;
+
+				try
+				{
+					return done.get();
+				}
+				catch (final ExecutionException x)
+				{
+					log.info("problem fetching exchange rates: {}", x.getCause().toString());
+
+					if (futures.size() < order.size())
+					{
+						futures.add(completion.submit(request(order.get(futures.size()), userAgent)));
+						inFlight++;
+					}
+				}
+			}
+
+			return null;
+		}
+		finally
+		{
+			// requests that are already running are left to finish, their outcome still counts towards source health
+			for (final Future<Map<String, ExchangeRate>> future : futures)
+				future.cancel(false);
+		}
+	}
+
+	/**
+	 * @return source indexes, cheapest expected fetch first
+	 */
+	List<Integer> preferredOrder()
+	{
+		final long[] costs = new long[sources.size()];
+		final List<Integer> order = new ArrayList<Integer>(sources.size());
+		for (int i = 0; i < sources.size(); i++)
+		{
+			costs[i] = health.get(i).expectedCostMs();
+			order.add(i);
+		}
+
+		// stable, so configured order breaks ties
+		Collections.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(final Integer lhs, final Integer rhs)
+			{
+				final long lhsCost = costs[lhs];
+				final long rhsCost = costs[rhs];
+				return lhsCost < rhsCost ? -1 : (lhsCost == rhsCost ? 0 : 1);
+			}
+		});
+
+		return order;
+	}
+
+	ExchangeRateSource getSource(final int index)
+	{
+		return sources.get(index);
+	}
+
+	private long hedgeDelayMs(final int index)
+	{
+		final long latency = health.get(index).latencyPercentileMs(HEDGE_PERCENTILE);
+		if (latency < 0)
+			return defaultHedgeDelayMs;
+		return Math.min(Math.max(latency, MIN_HEDGE_DELAY_MS), Constants.HTTP_TIMEOUT_MS);
+	}
+
+	private Callable<Map<String, ExchangeRate>> request(final int index, final String userAgent)
+	{
+		final ExchangeRateSource source = sources.get(index);
+		final Health health = this.health.get(index);
+
+		return new Callable<Map<String, ExchangeRate>>()
+		{
+			@Override
+			public Map<String, ExchangeRate> call() throws IOException
+			{
+				final long start = System.nanoTime();
+
+				try
+				{
+					final Map<String, ExchangeRate> rates = source.requestExchangeRates(userAgent);
+					health.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+					return rates;
+				}
+				catch (final IOException x)
+				{
+					health.recordFailure();
+					throw x;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Recent latencies and a decaying error rate of one source.
+	 */
+	static final class Health
+	{
+		private final long[] latencies = new long[NUM_LATENCIES];
+		private int numLatencies = 0;
+		private int nextLatency = 0;
+		private double errorRate = 0;
+
+		private static final int NUM_LATENCIES = 20;
+		private static final int MIN_LATENCIES = 3;
+		private static final double ERROR_WEIGHT = 0.2;
+		private static final long UNKNOWN_LATENCY_MS = 1000;
+
+		synchronized void recordSuccess(final long latencyMs)
+		{
+			latencies[nextLatency] = latencyMs;
+			nextLatency = (nextLatency + 1) % NUM_LATENCIES;
+			numLatencies = Math.min(numLatencies + 1, NUM_LATENCIES);
+			errorRate *= 1 - ERROR_WEIGHT;
+		}
+
+		synchronized void recordFailure()
+		{
+			errorRate = errorRate * (1 - ERROR_WEIGHT) + ERROR_WEIGHT;
+		}
+
+		/**
+		 * @return latency in milliseconds, or -1 if there isn't enough history yet
+		 */
+		synchronized long latencyPercentileMs(final int percentile)
+		{
+			if (numLatencies < MIN_LATENCIES)
+				return -1;
+
+			final long[] sorted = Arrays.copyOf(latencies, numLatencies);
+			Arrays.sort(sorted);
+			return sorted[(numLatencies - 1) * percentile / 100];
+		}
+
+		/**
+		 * Typical latency, plus a timeout's worth for the chance of failing.
+		 */
+		synchronized long expectedCostMs()
+		{
+			final long median = latencyPercentileMs(50);
+			return (median >= 0 ? median : UNKNOWN_LATENCY_MS) + (long) (errorRate * Constants.HTTP_TIMEOUT_MS);
+		}
+	}
+}
@@ -20,26 +20,29 @@ package com.matthewmitchell.bitcoin_extra_wallet;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Currency;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj_extra.core.Coin;
 import org.bitcoinj_extra.utils.Fiat;
-import org.bitcoinj_extra.utils.MonetaryFormat;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,12 +56,7 @@ import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.text.format.DateUtils;
 
-import com.google.common.base.Charsets;
-import com.google.common.base.Stopwatch;
-import com.google.common.base.Strings;
-
 import com.matthewmitchell.bitcoin_extra_wallet.util.GenericUtils;
-import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
 
 /**
  * @author Andreas Schildbach
@@ -94,54 +92,182 @@ public class ExchangeRatesProvider extends ContentProvider
 	private static final String KEY_RATE_COIN = "rate_coin";
 	private static final String KEY_RATE_FIAT = "rate_fiat";
 	private static final String KEY_SOURCE = "source";
+	private static final String KEY_LAST_UPDATED = "last_updated";
 
 	public static final String QUERY_PARAM_Q = "q";
 	private static final String QUERY_PARAM_OFFLINE = "offline";
 
 	private Configuration config;
 	private String userAgent;
+	private File exchangeRatesFile;
 
 	@Nullable
-	private Map<String, ExchangeRate> exchangeRates = null;
-	private long lastUpdated = 0;
+	private volatile Map<String, ExchangeRate> exchangeRates = null;
+	private volatile long lastUpdated = 0;
+	private volatile long lastAttempted = 0;
+
+	// single-flight: at most one request is in progress, all queries share its outcome
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
+	private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+	private ExchangeRateSources sources;
+
+	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long RETRY_FREQ_MS = DateUtils.MINUTE_IN_MILLIS;
+
+	/** Age after which rates should be presented as out of date. */
+	public static final long STALE_AFTER_MS = DateUtils.HOUR_IN_MILLIS;
 
-	private static final URL BITCOINAVERAGE_URL;
-	private static final String[] BITCOINAVERAGE_FIELDS = new String[] { "24h_avg", "last" };
-	private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
+	private static final int FILE_VERSION = 1;
 
-	static
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
+
+	@Override
+	public boolean onCreate()
 	{
+		final Context context = getContext();
+
+		this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context), context.getResources());
+
+		this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+
+		this.exchangeRatesFile = new File(context.getFilesDir(), Constants.Files.EXCHANGE_RATES_FILENAME);
+
 		try
 		{
-			BITCOINAVERAGE_URL = new URL("https://api.bitcoinaverage.com/custom/abw");
+			final List<ExchangeRateSource> sources = new ArrayList<ExchangeRateSource>();
+			sources.add(new HttpExchangeRateSource(new URL("https://api.bitcoinaverage.com/custom/abw"), "BitcoinAverage.com", "24h_avg", "last"));
+			sources.add(new HttpExchangeRateSource(new URL("https://blockchain.info/ticker"), "Blockchain.info", "15m", "last"));
+			this.sources = new ExchangeRateSources(sources, Executors.newCachedThreadPool(), ExchangeRateSources.DEFAULT_HEDGE_DELAY_MS);
 		}
 		catch (final MalformedURLException x)
 		{
 			throw new RuntimeException(x); // cannot happen
 		}
+
+		if (!loadExchangeRates())
+		{
+			final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
+			if (cachedExchangeRate != null)
+			{
+				final Map<String, ExchangeRate> exchangeRates = new TreeMap<String, ExchangeRate>();
+				exchangeRates.put(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate);
+				this.exchangeRates = exchangeRates;
+			}
+		}
+
+		return true;
 	}
 
-	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private boolean loadExchangeRates()
+	{
+		if (!exchangeRatesFile.exists())
+			return false;
 
-	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
+		DataInputStream is = null;
 
-	@Override
-	public boolean onCreate()
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(exchangeRatesFile)));
+
+			final Map<String, ExchangeRate> exchangeRates = new TreeMap<String, ExchangeRate>();
+			final long lastUpdated = readExchangeRates(is, exchangeRates);
+			if (exchangeRates.isEmpty())
+				return false;
+
+			this.exchangeRates = exchangeRates;
+			// a fetch time in the future means the clock was changed, refresh at the next opportunity
+			this.lastUpdated = lastUpdated <= System.currentTimeMillis() ? lastUpdated : 0;
+
+			log.info("loaded {} exchange rates fetched at {}", exchangeRates.size(), lastUpdated);
+			return true;
+		}
+		catch (final Exception x)
+		{
+			log.info("problem loading exchange rates: '" + exchangeRatesFile + "'", x);
+			return false;
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	private void saveExchangeRates(final Map<String, ExchangeRate> exchangeRates, final long lastUpdated)
 	{
-		final Context context = getContext();
+		final File tempFile = new File(exchangeRatesFile.getPath() + ".tmp");
 
-		this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context), context.getResources());
+		try
+		{
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
 
-		this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+			try
+			{
+				writeExchangeRates(os, exchangeRates, lastUpdated);
+			}
+			finally
+			{
+				os.close();
+			}
 
-		final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
-		if (cachedExchangeRate != null)
+			if (!tempFile.renameTo(exchangeRatesFile))
+				throw new IOException("failed to rename " + tempFile + " to " + exchangeRatesFile);
+		}
+		catch (final IOException x)
 		{
-			exchangeRates = new TreeMap<String, ExchangeRate>();
-			exchangeRates.put(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate);
+			log.info("problem saving exchange rates: '" + exchangeRatesFile + "'", x);
+			tempFile.delete();
 		}
+	}
 
-		return true;
+	static void writeExchangeRates(final DataOutputStream os, final Map<String, ExchangeRate> exchangeRates, final long lastUpdated)
+			throws IOException
+	{
+		os.writeInt(FILE_VERSION);
+		os.writeLong(lastUpdated);
+		os.writeInt(exchangeRates.size());
+
+		for (final ExchangeRate exchangeRate : exchangeRates.values())
+		{
+			os.writeUTF(exchangeRate.getCurrencyCode());
+			os.writeLong(exchangeRate.rate.coin.value);
+			os.writeLong(exchangeRate.rate.fiat.value);
+			os.writeBoolean(exchangeRate.source != null);
+			if (exchangeRate.source != null)
+				os.writeUTF(exchangeRate.source);
+		}
+	}
+
+	/**
+	 * @return time the rates were fetched at
+	 */
+	static long readExchangeRates(final DataInputStream is, final Map<String, ExchangeRate> exchangeRates) throws IOException
+	{
+		if (is.readInt() != FILE_VERSION)
+			throw new IOException("unknown version");
+
+		final long lastUpdated = is.readLong();
+		final int numRates = is.readInt();
+
+		for (int i = 0; i < numRates; i++)
+		{
+			final String currencyCode = is.readUTF();
+			final Coin rateCoin = Coin.valueOf(is.readLong());
+			final Fiat rateFiat = Fiat.valueOf(currencyCode, is.readLong());
+			final String source = is.readBoolean() ? is.readUTF() : null;
+			exchangeRates.put(currencyCode, new ExchangeRate(new org.bitcoinj_extra.utils.ExchangeRate(rateCoin, rateFiat), source));
+		}
+
+		return lastUpdated;
 	}
 
 	public static Uri contentUri(final String packageName, final boolean offline)
@@ -155,31 +281,21 @@ public class ExchangeRatesProvider extends ContentProvider
 	@Override
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
-		final long now = System.currentTimeMillis();
-
 		final boolean offline = uri.getQueryParameter(QUERY_PARAM_OFFLINE) != null;
 
-		if (!offline && (lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS))
-		{
-			Map<String, ExchangeRate> newExchangeRates = null;
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(BITCOINAVERAGE_URL, userAgent, BITCOINAVERAGE_SOURCE, BITCOINAVERAGE_FIELDS);
+		if (!offline)
+			maybeRefresh(System.currentTimeMillis());
 
-			if (newExchangeRates != null)
-			{
-				exchangeRates = newExchangeRates;
-				lastUpdated = now;
+		final Map<String, ExchangeRate> exchangeRates = this.exchangeRates;
+		final long lastUpdated = this.lastUpdated;
 
-				final ExchangeRate exchangeRateToCache = bestExchangeRate(config.getExchangeCurrencyCode());
-				if (exchangeRateToCache != null)
-					config.setCachedExchangeRate(exchangeRateToCache);
-			}
-		}
+		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE_COIN, KEY_RATE_FIAT, KEY_SOURCE,
+				KEY_LAST_UPDATED });
+		// loaders requery once fresh rates arrive
+		cursor.setNotificationUri(getContext().getContentResolver(), contentUri(getContext().getPackageName(), false));
 
 		if (exchangeRates == null)
-			return null;
-
-		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE_COIN, KEY_RATE_FIAT, KEY_SOURCE });
+			return cursor;
 
 		if (selection == null)
 		{
@@ -188,7 +304,7 @@ public class ExchangeRatesProvider extends ContentProvider
 				final ExchangeRate exchangeRate = entry.getValue();
 				final org.bitcoinj_extra.utils.ExchangeRate rate = exchangeRate.rate;
 				final String currencyCode = exchangeRate.getCurrencyCode();
-				cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source);
+				cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source).add(lastUpdated);
 			}
 		}
 		else if (selection.equals(QUERY_PARAM_Q))
@@ -201,25 +317,76 @@ public class ExchangeRatesProvider extends ContentProvider
 				final String currencyCode = exchangeRate.getCurrencyCode();
 				final String currencySymbol = GenericUtils.currencySymbol(currencyCode);
 				if (currencyCode.toLowerCase(Locale.US).contains(selectionArg) || currencySymbol.toLowerCase(Locale.US).contains(selectionArg))
-					cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source);
+					cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source).add(lastUpdated);
 			}
 		}
 		else if (selection.equals(KEY_CURRENCY_CODE))
 		{
 			final String selectionArg = selectionArgs[0];
-			final ExchangeRate exchangeRate = bestExchangeRate(selectionArg);
+			final ExchangeRate exchangeRate = bestExchangeRate(exchangeRates, selectionArg);
 			if (exchangeRate != null)
 			{
 				final org.bitcoinj_extra.utils.ExchangeRate rate = exchangeRate.rate;
 				final String currencyCode = exchangeRate.getCurrencyCode();
-				cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source);
+				cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source).add(lastUpdated);
 			}
 		}
 
 		return cursor;
 	}
 
-	private ExchangeRate bestExchangeRate(final String currencyCode)
+	/**
+	 * Starts a background request if the rates are stale and none is in progress yet. Never blocks.
+	 */
+	private void maybeRefresh(final long now)
+	{
+		if (lastUpdated != 0 && now - lastUpdated <= UPDATE_FREQ_MS)
+			return;
+		if (now - lastAttempted <= RETRY_FREQ_MS)
+			return;
+		if (!refreshing.compareAndSet(false, true))
+			return;
+
+		lastAttempted = now;
+
+		refreshExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					final Map<String, ExchangeRate> newExchangeRates = sources.requestExchangeRates(userAgent);
+
+					if (newExchangeRates != null)
+					{
+						final long now = System.currentTimeMillis();
+						exchangeRates = newExchangeRates;
+						lastUpdated = now;
+						saveExchangeRates(newExchangeRates, now);
+
+						final ExchangeRate exchangeRateToCache = bestExchangeRate(newExchangeRates, config.getExchangeCurrencyCode());
+						if (exchangeRateToCache != null)
+							config.setCachedExchangeRate(exchangeRateToCache);
+
+						final Context context = getContext();
+						context.getContentResolver().notifyChange(contentUri(context.getPackageName(), false), null);
+					}
+				}
+				catch (final InterruptedException x)
+				{
+					Thread.currentThread().interrupt();
+				}
+				finally
+				{
+					refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	@Nullable
+	private ExchangeRate bestExchangeRate(final Map<String, ExchangeRate> exchangeRates, final String currencyCode)
 	{
 		ExchangeRate rate = currencyCode != null ? exchangeRates.get(currencyCode) : null;
 		if (rate != null)
@@ -256,6 +423,19 @@ public class ExchangeRatesProvider extends ContentProvider
 		return new ExchangeRate(new org.bitcoinj_extra.utils.ExchangeRate(rateCoin, rateFiat), source);
 	}
 
+	/**
+	 * @return time the rate was fetched at, or 0 if unknown
+	 */
+	public static long getLastUpdated(final Cursor cursor)
+	{
+		return cursor.getLong(cursor.getColumnIndexOrThrow(KEY_LAST_UPDATED));
+	}
+
+	public static boolean isStale(final long lastUpdated)
+	{
+		return System.currentTimeMillis() - lastUpdated > STALE_AFTER_MS;
+	}
+
 	@Override
 	public Uri insert(final Uri uri, final ContentValues values)
 	{
@@ -279,108 +459,4 @@ public class ExchangeRatesProvider extends ContentProvider
 	{
 		throw new UnsupportedOperationException();
 	}
-
-	private static Map<String, ExchangeRate> requestExchangeRates(final URL url, final String userAgent, final String source, final String... fields)
-	{
-
-		HttpURLConnection connection = null;
-		Reader reader = null;
-
-		try
-		{
-
-			final Stopwatch watch = Stopwatch.createStarted();
-
-			connection = (HttpURLConnection) url.openConnection();
-
-			connection.setInstanceFollowRedirects(false);
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.addRequestProperty("User-Agent", userAgent);
-			connection.addRequestProperty("Accept-Encoding", "gzip");
-			connection.connect();
-
-			final int responseCode = connection.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK)
-			{
-				final String contentEncoding = connection.getContentEncoding();
-
-				InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
-				if ("gzip".equalsIgnoreCase(contentEncoding))
-					is = new GZIPInputStream(is);
-
-				reader = new InputStreamReader(is, Charsets.UTF_8);
-				final StringBuilder content = new StringBuilder();
-				final long length = Io.copy(reader, content);
-
-				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-
-				final JSONObject head = new JSONObject(content.toString());
-				for (final Iterator<String> i = head.keys(); i.hasNext();)
-				{
-					final String currencyCode = Strings.emptyToNull(i.next());
-					if (currencyCode != null && !"timestamp".equals(currencyCode) && !MonetaryFormat.CODE_BTC.equals(currencyCode)
-							&& !MonetaryFormat.CODE_MBTC.equals(currencyCode) && !MonetaryFormat.CODE_UBTC.equals(currencyCode))
-					{
-						final JSONObject o = head.getJSONObject(currencyCode);
-
-						for (final String field : fields)
-						{
-							final String rateStr = o.optString(field, null);
-
-							if (rateStr != null)
-							{
-								try
-								{
-									final Fiat rate = Fiat.parseFiat(currencyCode, rateStr);
-
-									if (rate.signum() > 0)
-									{
-										rates.put(currencyCode, new ExchangeRate(new org.bitcoinj_extra.utils.ExchangeRate(rate), source));
-										break;
-									}
-								}
-								catch (final NumberFormatException x)
-								{
-									log.warn("problem fetching {} exchange rate from {} ({}): {}", currencyCode, url, contentEncoding, x.getMessage());
-								}
-							}
-						}
-					}
-				}
-
-				watch.stop();
-				log.info("fetched exchange rates from {} ({}), {} chars, took {}", url, contentEncoding, length, watch);
-
-				return rates;
-			}
-			else
-			{
-				log.warn("http status {} when fetching exchange rates from {}", responseCode, url);
-			}
-		}
-		catch (final Exception x)
-		{
-			log.warn("problem fetching exchange rates from " + url, x);
-		}
-		finally
-		{
-			if (reader != null)
-			{
-				try
-				{
-					reader.close();
-				}
-				catch (final IOException x)
-				{
-					// swallow
-				}
-			}
-
-			if (connection != null)
-				connection.disconnect();
-		}
-
-		return null;
-	}
 }
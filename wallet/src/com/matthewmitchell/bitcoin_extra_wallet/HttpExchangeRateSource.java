@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bitcoinj_extra.utils.Fiat;
+import org.bitcoinj_extra.utils.MonetaryFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.matthewmitchell.bitcoin_extra_wallet.ExchangeRatesProvider.ExchangeRate;
+import com.matthewmitchell.bitcoin_extra_wallet.util.HttpClient;
+
+/**
+ * Ticker endpoint that answers with an object of per-currency objects, each holding one or more rate fields. This is
+ * the format of BitcoinAverage and of the blockchain.info ticker.
+ */
+final class HttpExchangeRateSource implements ExchangeRateSource
+{
+	private final URL url;
+	private final String name;
+	private final String[] fields;
+
+	private static final Logger log = LoggerFactory.getLogger(HttpExchangeRateSource.class);
+
+	/**
+	 * @param fields
+	 *            rate fields in order of preference
+	 */
+	HttpExchangeRateSource(final URL url, final String name, final String... fields)
+	{
+		this.url = url;
+		this.name = name;
+		this.fields = fields;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public Map<String, ExchangeRate> requestExchangeRates(final String userAgent) throws IOException
+	{
+		final Stopwatch watch = Stopwatch.createStarted();
+
+		final HttpClient.Response response = HttpClient.getInstance().get("exchange rates (" + name + ")", url, userAgent, null, true);
+
+		try
+		{
+			if (response.code != HttpURLConnection.HTTP_OK)
+				throw new IOException("http status " + response.code + " when fetching exchange rates from " + url);
+
+			final Map<String, ExchangeRate> rates = parseExchangeRates(new InputStreamReader(response.body(), Charsets.UTF_8), name, fields);
+			if (rates.isEmpty())
+				throw new IOException("no usable exchange rates from " + url);
+
+			watch.stop();
+			log.info("fetched {} exchange rates from {}{}, took {}", rates.size(), url, response.fromCache ? " (not modified)" : "", watch);
+
+			return rates;
+		}
+		catch (final IllegalStateException x)
+		{
+			// thrown by the json reader on unexpected structure
+			throw new IOException("malformed exchange rates from " + url, x);
+		}
+		finally
+		{
+			response.close();
+		}
+	}
+
+	/**
+	 * Streams through a ticker response, keeping the first positive rate of the given fields per currency and skipping
+	 * everything else.
+	 *
+	 * @param fields
+	 *            rate fields in order of preference
+	 */
+	static Map<String, ExchangeRate> parseExchangeRates(final Reader reader, final String source, final String... fields) throws IOException
+	{
+		final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+		final JsonReader json = new JsonReader(reader);
+
+		json.beginObject();
+		while (json.hasNext())
+		{
+			final String currencyCode = json.nextName();
+			if (currencyCode.isEmpty() || json.peek() != JsonToken.BEGIN_OBJECT || MonetaryFormat.CODE_BTC.equals(currencyCode)
+					|| MonetaryFormat.CODE_MBTC.equals(currencyCode) || MonetaryFormat.CODE_UBTC.equals(currencyCode))
+			{
+				json.skipValue();
+				continue;
+			}
+
+			Fiat bestRate = null;
+			int bestField = fields.length;
+
+			json.beginObject();
+			while (json.hasNext())
+			{
+				final int field = indexOf(fields, json.nextName());
+				final JsonToken token = json.peek();
+				if (field < bestField && (token == JsonToken.NUMBER || token == JsonToken.STRING))
+				{
+					final String rateStr = json.nextString();
+					try
+					{
+						final Fiat rate = Fiat.parseFiat(currencyCode, rateStr);
+						if (rate.signum() > 0)
+						{
+							bestRate = rate;
+							bestField = field;
+						}
+					}
+					catch (final NumberFormatException x)
+					{
+						log.warn("problem parsing {} exchange rate from {}: {}", currencyCode, source, x.getMessage());
+					}
+				}
+				else
+				{
+					json.skipValue();
+				}
+			}
+			json.endObject();
+
+			if (bestRate != null)
+				rates.put(currencyCode, new ExchangeRate(new org.bitcoinj_extra.utils.ExchangeRate(bestRate), source));
+		}
+		json.endObject();
+
+		return rates;
+	}
+
+	private static int indexOf(final String[] fields, final String name)
+	{
+		for (int i = 0; i < fields.length; i++)
+			if (fields[i].equals(name))
+				return i;
+		return fields.length;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
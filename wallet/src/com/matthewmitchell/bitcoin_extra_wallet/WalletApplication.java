@@ -19,12 +19,19 @@ package com.matthewmitchell.bitcoin_extra_wallet;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.UnknownHostException;
+import java.security.KeyStoreException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
+import org.bitcoinj_extra.core.NetworkParameters;
 import org.bitcoinj_extra.core.Transaction;
 import org.bitcoinj_extra.core.VerificationException;
 import org.bitcoinj_extra.core.VersionMessage;
@@ -41,15 +48,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.netki.WalletNameResolver;
+import com.netki.dns.DNSBootstrapService;
+import com.netki.dnssec.DNSSECResolver;
+import com.netki.tlsa.CACertService;
+import com.netki.tlsa.CertChainValidator;
+import com.netki.tlsa.TLSAValidator;
 
 import android.app.ActivityManager;
 import android.app.AlarmManager;
 import android.app.Application;
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
@@ -66,6 +85,7 @@ import com.matthewmitchell.bitcoin_extra_wallet.service.BlockchainService;
 import com.matthewmitchell.bitcoin_extra_wallet.service.BlockchainServiceImpl;
 import com.matthewmitchell.bitcoin_extra_wallet.util.CrashReporter;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
+import com.matthewmitchell.bitcoin_extra_wallet.util.WalletJournal;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
 
@@ -82,10 +102,23 @@ public class WalletApplication extends Application
 	private Intent blockchainServiceResetBlockchainIntent;
 
 	private File walletFile;
-	private Wallet wallet;
+	@Nullable
+	private WalletJournal walletJournal;
+	private volatile Wallet wallet;
+	private final CountDownLatch walletLoadedLatch = new CountDownLatch(1);
+	private boolean walletLoaded = false;
+	@Nullable
+	private WalletSummary walletSummary;
+	private final Object walletSummaryWriteLock = new Object();
 	private PackageInfo packageInfo;
+	private final Handler handler = new Handler();
+
+	private DNSSECResolver dnssecResolver;
+	private WalletNameResolver walletNameResolver;
+	private final Executor dnsExecutor = Executors.newSingleThreadExecutor();
 
 	public static final String ACTION_WALLET_REFERENCE_CHANGED = WalletApplication.class.getPackage().getName() + ".wallet_reference_changed";
+	public static final String ACTION_WALLET_LOADED = WalletApplication.class.getPackage().getName() + ".wallet_loaded";
 
 	public static final int VERSION_CODE_SHOW_BACKUP_REMINDER = 205;
 
@@ -126,8 +159,6 @@ public class WalletApplication extends Application
 			}
 		};
 
-		initMnemonicCode();
-
 		config = new Configuration(PreferenceManager.getDefaultSharedPreferences(this), getResources());
 		activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
 
@@ -138,24 +169,86 @@ public class WalletApplication extends Application
 
 		walletFile = getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
 
+		if (WalletJournal.isSupported())
+		{
+			walletJournal = new WalletJournal(walletFile.getParentFile(), Constants.Files.WALLET_FILENAME_PROTOBUF,
+					Constants.Files.WALLET_JOURNAL_MAX_BYTES, new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							saveWallet();
+						}
+					});
+		}
+
+		registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+
+		final boolean versionCodeCrossed = config.versionCodeCrossed(packageInfo.versionCode, VERSION_CODE_SHOW_BACKUP_REMINDER);
+		config.updateLastVersionCode(packageInfo.versionCode);
+
+		// activities draw from the wallet summary in the meantime
+		new Thread("wallet loader")
+		{
+			@Override
+			public void run()
+			{
+				org.bitcoinj_extra.core.Context.propagate(Constants.CONTEXT);
+
+				loadWallet(versionCodeCrossed);
+			}
+		}.start();
+	}
+
+	private void loadWallet(final boolean versionCodeCrossed)
+	{
+		final Stopwatch watch = Stopwatch.createStarted();
+
+		initMnemonicCode();
+
 		loadWalletFromProtobuf();
 
-		if (config.versionCodeCrossed(packageInfo.versionCode, VERSION_CODE_SHOW_BACKUP_REMINDER) && !wallet.getImportedKeys().isEmpty())
+		if (versionCodeCrossed && !wallet.getImportedKeys().isEmpty())
 		{
 			log.info("showing backup reminder once, because of imported keys being present");
 			config.armBackupReminder();
 		}
 
-		config.updateLastVersionCode(packageInfo.versionCode);
-
 		afterLoadWallet();
 
+		walletLoadedLatch.countDown();
+		watch.stop();
+		log.info("wallet ready, took {}", watch);
+
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				walletLoaded = true;
+				walletSummary = null;
+
+				final Intent broadcast = new Intent(ACTION_WALLET_LOADED);
+				broadcast.setPackage(getPackageName());
+				LocalBroadcastManager.getInstance(WalletApplication.this).sendBroadcast(broadcast);
+			}
+		});
+
 		cleanupFiles();
 	}
 
 	private void afterLoadWallet()
 	{
-		wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS, TimeUnit.MILLISECONDS, new WalletAutosaveEventListener());
+		if (walletJournal != null)
+		{
+			// changes are journaled right away, so the full wallet needs to be written only now and then
+			wallet.autosaveToFile(walletFile, Constants.Files.WALLET_SNAPSHOT_DELAY_MS, TimeUnit.MILLISECONDS, new WalletAutosaveEventListener());
+			walletJournal.attach(wallet);
+		}
+		else
+		{
+			wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS, TimeUnit.MILLISECONDS, new WalletAutosaveEventListener());
+		}
 
 		// clean up spam
 		wallet.cleanup();
@@ -231,19 +324,26 @@ public class WalletApplication extends Application
 		}
 	}
 
-	private static final class WalletAutosaveEventListener implements WalletFiles.Listener
+	private final class WalletAutosaveEventListener implements WalletFiles.Listener
 	{
 		@Override
 		public void onBeforeAutoSave(final File file)
 		{
+			if (walletJournal != null)
+				walletJournal.beforeSnapshot();
 		}
 
 		@Override
 		public void onAfterAutoSave(final File file)
 		{
+			if (walletJournal != null)
+				walletJournal.afterSnapshot();
+
 			// make wallets world accessible in test mode
 			if (Constants.TEST)
 				Io.chmod(file, 0777);
+
+			writeWalletSummary(wallet);
 		}
 	}
 
@@ -252,11 +352,126 @@ public class WalletApplication extends Application
 		return config;
 	}
 
+	/**
+	 * Blocks until the wallet is loaded, which happens in the background after start.
+	 */
 	public Wallet getWallet()
 	{
+		if (walletLoadedLatch.getCount() > 0)
+		{
+			if (Looper.myLooper() == Looper.getMainLooper())
+				log.info("waiting for wallet to load on main thread", new Throwable());
+
+			Uninterruptibles.awaitUninterruptibly(walletLoadedLatch);
+		}
+
 		return wallet;
 	}
 
+	/**
+	 * @return true once {@link #ACTION_WALLET_LOADED} has been broadcast; main thread only
+	 */
+	public boolean isWalletLoaded()
+	{
+		return walletLoaded;
+	}
+
+	/**
+	 * @return what the wallet looked like when it was last saved, for showing while it is loading; main thread only
+	 */
+	@Nullable
+	public WalletSummary getWalletSummary()
+	{
+		if (walletLoaded)
+			return null;
+
+		if (walletSummary == null)
+			walletSummary = WalletSummary.read(getFileStreamPath(Constants.Files.WALLET_SUMMARY_FILENAME));
+
+		return walletSummary;
+	}
+
+	/**
+	 * Called after both autosaves and explicit saves, which run on different threads. They share the temp file, and
+	 * the summary is taken inside the lock so the last write is also the most recent state.
+	 */
+	private void writeWalletSummary(final Wallet wallet)
+	{
+		synchronized (walletSummaryWriteLock)
+		{
+			try
+			{
+				final Stopwatch watch = Stopwatch.createStarted();
+				WalletSummary.write(getFileStreamPath(Constants.Files.WALLET_SUMMARY_FILENAME), wallet, this,
+						Constants.Files.WALLET_SUMMARY_NUM_TRANSACTIONS);
+				watch.stop();
+				log.debug("wallet summary written, took {}", watch);
+			}
+			catch (final IOException x)
+			{
+				log.info("problem writing wallet summary", x);
+			}
+		}
+	}
+
+	@Nullable
+	public WalletJournal getWalletJournal()
+	{
+		return walletJournal;
+	}
+
+	/**
+	 * Shared by all wallet name lookups, so resolvers and trust anchors are only set up once. Not on the main thread, as
+	 * the first call discovers the system DNS servers.
+	 */
+	public synchronized WalletNameResolver getWalletNameResolver() throws UnknownHostException, KeyStoreException
+	{
+		if (walletNameResolver == null)
+		{
+			final DNSSECResolver dnssecResolver = new DNSSECResolver(new DNSBootstrapService());
+			walletNameResolver = new WalletNameResolver(dnssecResolver, new TLSAValidator(dnssecResolver, CACertService.getInstance(),
+					new CertChainValidator()));
+			this.dnssecResolver = dnssecResolver;
+		}
+
+		return walletNameResolver;
+	}
+
+	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			if (intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false))
+				return;
+
+			final DNSSECResolver dnssecResolver;
+			synchronized (WalletApplication.this)
+			{
+				dnssecResolver = WalletApplication.this.dnssecResolver;
+			}
+			if (dnssecResolver == null)
+				return;
+
+			dnsExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (dnssecResolver.refreshSystemDnsServers())
+							log.info("system dns servers changed, now using {}", dnssecResolver.getSelectedDnsServer());
+					}
+					catch (final UnknownHostException x)
+					{
+						log.info("problem refreshing system dns servers", x);
+					}
+				}
+			});
+		}
+	};
+
 	private void loadWalletFromProtobuf()
 	{
 		if (walletFile.exists())
@@ -268,7 +483,33 @@ public class WalletApplication extends Application
 			{
 				final Stopwatch watch = Stopwatch.createStarted();
 				walletStream = new FileInputStream(walletFile);
-				wallet = new WalletProtobufSerializer().readWallet(walletStream);
+				final Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(walletStream);
+				final NetworkParameters params = NetworkParameters.fromID(walletProto.getNetworkIdentifier());
+				if (params == null)
+					throw new UnreadableWalletException("unknown wallet network parameters: " + walletProto.getNetworkIdentifier());
+
+				wallet = null;
+				if (walletJournal != null)
+				{
+					try
+					{
+						wallet = new WalletProtobufSerializer().readWallet(params, null, walletJournal.replay(walletProto));
+						if (!wallet.isConsistent())
+						{
+							log.warn("wallet inconsistent after replaying journal, using snapshot only");
+							wallet = null;
+						}
+					}
+					catch (final Exception x)
+					{
+						log.warn("problem replaying journal, using snapshot only", x);
+					}
+
+					if (wallet == null)
+						walletJournal.quarantine();
+				}
+				if (wallet == null)
+					wallet = new WalletProtobufSerializer().readWallet(params, null, walletProto);
 				watch.stop();
 
 				if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
@@ -276,11 +517,11 @@ public class WalletApplication extends Application
 
 				log.info("wallet loaded from: '{}', took {}", walletFile, watch);
 			}
-			catch (final FileNotFoundException x)
+			catch (final IOException x)
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				toast(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -288,7 +529,7 @@ public class WalletApplication extends Application
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				toast(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -309,7 +550,7 @@ public class WalletApplication extends Application
 
 			if (!wallet.isConsistent())
 			{
-				Toast.makeText(this, "inconsistent wallet: " + walletFile, Toast.LENGTH_LONG).show();
+				toast("inconsistent wallet: " + walletFile);
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -321,6 +562,14 @@ public class WalletApplication extends Application
 		{
 			wallet = new Wallet(Constants.NETWORK_PARAMETERS);
 
+			if (walletJournal != null)
+			{
+				// segments without a wallet file don't belong to the new wallet; full snapshots are rare, so write the new
+				// keys right away
+				walletJournal.quarantine();
+				saveWallet();
+			}
+
 			backupWallet();
 
 			config.armBackupReminder();
@@ -331,6 +580,9 @@ public class WalletApplication extends Application
 
 	private Wallet restoreWalletFromBackup()
 	{
+		if (walletJournal != null)
+			walletJournal.quarantine();
+
 		InputStream is = null;
 
 		try
@@ -344,7 +596,7 @@ public class WalletApplication extends Application
 
 			resetBlockchain();
 
-			Toast.makeText(this, R.string.toast_wallet_reset, Toast.LENGTH_LONG).show();
+			toast(getString(R.string.toast_wallet_reset));
 
 			log.info("wallet restored from backup: '" + Constants.Files.WALLET_KEY_BACKUP_PROTOBUF + "'");
 
@@ -371,6 +623,18 @@ public class WalletApplication extends Application
 		}
 	}
 
+	private void toast(final String text)
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Toast.makeText(WalletApplication.this, text, Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
 	public void saveWallet()
 	{
 		try
@@ -386,7 +650,20 @@ public class WalletApplication extends Application
 	private void protobufSerializeWallet(final Wallet wallet) throws IOException
 	{
 		final Stopwatch watch = Stopwatch.createStarted();
-		wallet.saveToFile(walletFile);
+		if (walletJournal != null)
+			walletJournal.beforeSnapshot();
+		try
+		{
+			wallet.saveToFile(walletFile);
+		}
+		catch (final IOException x)
+		{
+			if (walletJournal != null)
+				walletJournal.snapshotFailed();
+			throw x;
+		}
+		if (walletJournal != null)
+			walletJournal.afterSnapshot();
 		watch.stop();
 
 		// make wallets world accessible in test mode
@@ -394,6 +671,8 @@ public class WalletApplication extends Application
 			Io.chmod(walletFile, 0777);
 
 		log.debug("wallet saved to: '{}', took {}", walletFile, watch);
+
+		writeWalletSummary(wallet);
 	}
 
 	public void backupWallet()
@@ -472,6 +751,21 @@ public class WalletApplication extends Application
 		resetBlockchain();
 		wallet.shutdownAutosaveAndWait();
 
+		if (walletJournal != null)
+		{
+			// the journal must never be replayed onto the other wallet
+			walletJournal.detach();
+			walletJournal.discard();
+			try
+			{
+				protobufSerializeWallet(newWallet);
+			}
+			catch (final IOException x)
+			{
+				throw new RuntimeException(x);
+			}
+		}
+
 		wallet = newWallet;
 		config.maybeIncrementBestChainHeightEver(newWallet.getLastBlockSeenHeight());
 		afterLoadWallet();
@@ -483,6 +777,7 @@ public class WalletApplication extends Application
 
 	public void processDirectTransaction(final Transaction tx) throws VerificationException
 	{
+		final Wallet wallet = getWallet();
 		if (wallet.isTransactionRelevant(tx))
 		{
 			wallet.receivePending(tx, null);
@@ -60,8 +60,7 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 	@Override
 	public void onUpdate(final Context context, final AppWidgetManager appWidgetManager, final int[] appWidgetIds)
 	{
-		final WalletApplication application = (WalletApplication) context.getApplicationContext();
-		final Coin balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+		final Coin balance = balance((WalletApplication) context.getApplicationContext());
 
 		updateWidgets(context, appWidgetManager, appWidgetIds, balance);
 	}
@@ -73,12 +72,24 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 		if (newOptions != null)
 			log.info("app widget {} options changed: minWidth={}", appWidgetId, newOptions.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH));
 
-		final WalletApplication application = (WalletApplication) context.getApplicationContext();
-		final Coin balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+		final Coin balance = balance((WalletApplication) context.getApplicationContext());
 
 		updateWidget(context, appWidgetManager, appWidgetId, newOptions, balance);
 	}
 
+	private static Coin balance(final WalletApplication application)
+	{
+		// don't wait for the wallet to load if the last saved balance will do
+		if (!application.isWalletLoaded())
+		{
+			final WalletSummary summary = application.getWalletSummary();
+			if (summary != null)
+				return summary.balance;
+		}
+
+		return application.getWallet().getBalance(BalanceType.ESTIMATED);
+	}
+
 	public static void updateWidgets(final Context context, final Wallet wallet)
 	{
 		final AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
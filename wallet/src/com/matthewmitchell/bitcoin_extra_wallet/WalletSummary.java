@@ -0,0 +1,274 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj_extra.core.Address;
+import org.bitcoinj_extra.core.AddressFormatException;
+import org.bitcoinj_extra.core.Coin;
+import org.bitcoinj_extra.core.Transaction;
+import org.bitcoinj_extra.core.TransactionConfidence;
+import org.bitcoinj_extra.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj_extra.core.TxConfidenceTable;
+import org.bitcoinj_extra.wallet.Wallet;
+import org.bitcoinj_extra.wallet.Wallet.BalanceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+
+import com.matthewmitchell.bitcoin_extra_wallet.util.WalletUtils;
+
+/**
+ * Balance and most recent transaction rows, written next to the wallet file whenever the wallet is saved. Lets the
+ * wallet screen draw something meaningful while the wallet itself is still loading.
+ */
+public final class WalletSummary
+{
+	public final Coin balance;
+	public final long lastBlockSeenTimeSecs;
+	public final List<Row> rows;
+
+	private static final int VERSION = 1;
+
+	// keeps the confidence of summary transactions apart from the live wallet's
+	private static final TxConfidenceTable CONFIDENCE_TABLE = new TxConfidenceTable();
+
+	private static final Logger log = LoggerFactory.getLogger(WalletSummary.class);
+
+	public static final class Row
+	{
+		public final Transaction tx;
+		public final Coin value;
+		@Nullable
+		public final Coin fee;
+		public final boolean payToMany;
+		@Nullable
+		public final Address address;
+		@Nullable
+		public final String addressLabel;
+
+		private Row(final Transaction tx, final Coin value, @Nullable final Coin fee, final boolean payToMany, @Nullable final Address address,
+				@Nullable final String addressLabel)
+		{
+			this.tx = tx;
+			this.value = value;
+			this.fee = fee;
+			this.payToMany = payToMany;
+			this.address = address;
+			this.addressLabel = addressLabel;
+		}
+	}
+
+	private WalletSummary(final Coin balance, final long lastBlockSeenTimeSecs, final List<Row> rows)
+	{
+		this.balance = balance;
+		this.lastBlockSeenTimeSecs = lastBlockSeenTimeSecs;
+		this.rows = Collections.unmodifiableList(rows);
+	}
+
+	/**
+	 * Not safe to call concurrently for the same file, as the temp file is shared.
+	 */
+	public static void write(final File file, final Wallet wallet, final Context context, final int numRows) throws IOException
+	{
+		final Coin balance = wallet.getBalance(BalanceType.ESTIMATED);
+		final List<Transaction> transactions = wallet.getRecentTransactions(numRows, false);
+
+		final List<Coin> values = new ArrayList<Coin>(transactions.size());
+		final List<String> addresses = new ArrayList<String>(transactions.size());
+		for (final Transaction tx : transactions)
+		{
+			final Coin value = tx.getValue(wallet);
+			final Address address = value.signum() < 0 ? WalletUtils.getToAddressOfSent(tx, wallet)
+					: WalletUtils.getWalletAddressOfReceived(tx, wallet);
+			values.add(value);
+			addresses.add(address != null ? address.toBase58() : null);
+		}
+		final List<String> knownAddresses = new ArrayList<String>(addresses);
+		knownAddresses.removeAll(Collections.singleton(null));
+		final Map<String, String> labels = AddressBookProvider.resolveLabels(context, knownAddresses);
+
+		final File tempFile = new File(file.getPath() + ".tmp");
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+		try
+		{
+			os.writeInt(VERSION);
+			os.writeLong(balance.value);
+			os.writeLong(wallet.getLastBlockSeenTimeSecs());
+			os.writeInt(transactions.size());
+
+			for (int i = 0; i < transactions.size(); i++)
+			{
+				final Transaction tx = transactions.get(i);
+				final TransactionConfidence confidence = tx.getConfidence();
+				final ConfidenceType confidenceType = confidence.getConfidenceType();
+				final Coin fee = tx.getFee();
+				final String address = addresses.get(i);
+				final String label = address != null ? labels.get(address) : null;
+
+				final byte[] serialized = tx.unsafeBitcoinSerialize();
+				os.writeInt(serialized.length);
+				os.write(serialized);
+				os.writeLong(tx.getUpdateTime().getTime());
+				writeNullableString(os, tx.getMemo());
+				os.writeByte(tx.getPurpose().ordinal());
+				os.writeByte(confidence.getSource().ordinal());
+				os.writeByte(confidenceType.ordinal());
+				os.writeInt(confidenceType == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1);
+				os.writeInt(confidenceType == ConfidenceType.BUILDING ? confidence.getDepthInBlocks() : 0);
+				os.writeLong(values.get(i).value);
+				os.writeLong(fee != null ? fee.value : -1);
+				os.writeBoolean(WalletUtils.isPayToManyTransaction(tx));
+				writeNullableString(os, address);
+				writeNullableString(os, label);
+			}
+
+			os.flush();
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tempFile.renameTo(file))
+			throw new IOException("failed to rename " + tempFile + " to " + file);
+	}
+
+	/**
+	 * @return summary, or null if there is none or it can't be read
+	 */
+	@Nullable
+	public static WalletSummary read(final File file)
+	{
+		if (!file.exists())
+			return null;
+
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (is.readInt() != VERSION)
+				return null;
+
+			final Coin balance = Coin.valueOf(is.readLong());
+			final long lastBlockSeenTimeSecs = is.readLong();
+			final int numRows = is.readInt();
+			final List<Row> rows = new ArrayList<Row>(numRows);
+
+			for (int i = 0; i < numRows; i++)
+			{
+				final byte[] serialized = new byte[is.readInt()];
+				is.readFully(serialized);
+				final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS, serialized);
+				tx.setUpdateTime(new Date(is.readLong()));
+				tx.setMemo(readNullableString(is));
+				tx.setPurpose(Transaction.Purpose.values()[is.readByte()]);
+
+				final TransactionConfidence confidence = tx.getConfidence(CONFIDENCE_TABLE);
+				confidence.setSource(TransactionConfidence.Source.values()[is.readByte()]);
+				final ConfidenceType confidenceType = ConfidenceType.values()[is.readByte()];
+				final int appearedAtHeight = is.readInt();
+				final int depth = is.readInt();
+				if (confidenceType == ConfidenceType.BUILDING)
+				{
+					confidence.setAppearedAtChainHeight(appearedAtHeight);
+					confidence.setDepthInBlocks(depth);
+				}
+				else
+				{
+					confidence.setConfidenceType(confidenceType);
+				}
+
+				final Coin value = Coin.valueOf(is.readLong());
+				final long fee = is.readLong();
+				final boolean payToMany = is.readBoolean();
+				final String address = readNullableString(is);
+				final String label = readNullableString(is);
+
+				rows.add(new Row(tx, value, fee >= 0 ? Coin.valueOf(fee) : null, payToMany, address != null ? parseAddress(address) : null, label));
+			}
+
+			return new WalletSummary(balance, lastBlockSeenTimeSecs, rows);
+		}
+		catch (final Exception x)
+		{
+			log.info("problem reading wallet summary: '" + file + "'", x);
+			return null;
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	@Nullable
+	private static Address parseAddress(final String address)
+	{
+		try
+		{
+			return Address.fromBase58(Constants.NETWORK_PARAMETERS, address);
+		}
+		catch (final AddressFormatException x)
+		{
+			return null;
+		}
+	}
+
+	private static void writeNullableString(final DataOutputStream os, @Nullable final String str) throws IOException
+	{
+		os.writeBoolean(str != null);
+		if (str != null)
+			os.writeUTF(str);
+	}
+
+	@Nullable
+	private static String readNullableString(final DataInputStream is) throws IOException
+	{
+		return is.readBoolean() ? is.readUTF() : null;
+	}
+}
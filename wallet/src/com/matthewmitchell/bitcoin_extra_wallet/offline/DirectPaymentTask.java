@@ -20,8 +20,6 @@ package com.matthewmitchell.bitcoin_extra_wallet.offline;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
@@ -38,8 +36,10 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.os.Handler;
 import android.os.Looper;
-import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Bluetooth;
+import com.matthewmitchell.bitcoin_extra_wallet.util.HttpClient;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics.Phase;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
 
@@ -93,41 +93,19 @@ public abstract class DirectPaymentTask
 				{
 					log.info("trying to send tx to {}", url);
 
-					HttpURLConnection connection = null;
-					OutputStream os = null;
-					InputStream is = null;
+					HttpClient.Response response = null;
 
 					try
 					{
-						connection = (HttpURLConnection) new URL(url).openConnection();
-
-						connection.setInstanceFollowRedirects(false);
-						connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setUseCaches(false);
-						connection.setDoInput(true);
-						connection.setDoOutput(true);
-
-						connection.setRequestMethod("POST");
-						connection.setRequestProperty("Content-Type", PaymentProtocol.MIMETYPE_PAYMENT);
-						connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTACK);
-						connection.setRequestProperty("Content-Length", Integer.toString(payment.getSerializedSize()));
-						if (userAgent != null)
-							connection.addRequestProperty("User-Agent", userAgent);
-						connection.connect();
-
-						os = connection.getOutputStream();
-						payment.writeTo(os);
-						os.flush();
+						response = HttpClient.getInstance().post("direct payment", new URL(url), userAgent,
+								PaymentProtocol.MIMETYPE_PAYMENTACK, PaymentProtocol.MIMETYPE_PAYMENT, payment.toByteArray());
 
 						log.info("tx sent via http");
 
-						final int responseCode = connection.getResponseCode();
+						final int responseCode = response.code;
 						if (responseCode == HttpURLConnection.HTTP_OK)
 						{
-							is = connection.getInputStream();
-
-							final Protos.PaymentACK paymentAck = Protos.PaymentACK.parseFrom(is);
+							final Protos.PaymentACK paymentAck = Protos.PaymentACK.parseFrom(response.body());
 
 							final boolean ack = !"nack".equals(PaymentProtocol.parsePaymentAck(paymentAck).getMemo());
 
@@ -137,7 +115,7 @@ public abstract class DirectPaymentTask
 						}
 						else
 						{
-							final String responseMessage = connection.getResponseMessage();
+							final String responseMessage = response.message;
 
 							log.info("got http error {}: {}", responseCode, responseMessage);
 
@@ -152,32 +130,8 @@ public abstract class DirectPaymentTask
 					}
 					finally
 					{
-						if (os != null)
-						{
-							try
-							{
-								os.close();
-							}
-							catch (final IOException x)
-							{
-								// swallow
-							}
-						}
-
-						if (is != null)
-						{
-							try
-							{
-								is.close();
-							}
-							catch (final IOException x)
-							{
-								// swallow
-							}
-						}
-
-						if (connection != null)
-							connection.disconnect();
+						if (response != null)
+							response.close();
 					}
 				}
 			});
@@ -212,6 +166,7 @@ public abstract class DirectPaymentTask
 						throw new IllegalArgumentException("wrong transactions count");
 
 					final BluetoothDevice device = bluetoothAdapter.getRemoteDevice(Bluetooth.decompressMac(bluetoothMac));
+					final NetworkMetrics.Request request = NetworkMetrics.getInstance().begin("direct payment (bluetooth)");
 
 					BluetoothSocket socket = null;
 					DataOutputStream os = null;
@@ -221,6 +176,7 @@ public abstract class DirectPaymentTask
 					{
 						socket = device.createInsecureRfcommSocketToServiceRecord(Bluetooth.BIP70_PAYMENT_PROTOCOL_UUID);
 						socket.connect();
+						request.phaseDone(Phase.CONNECT);
 
 						log.info("connected to payment protocol {}", bluetoothMac);
 
@@ -229,12 +185,16 @@ public abstract class DirectPaymentTask
 
 						payment.writeDelimitedTo(os);
 						os.flush();
+						request.addBytesSent(payment.getSerializedSize());
 
 						log.info("tx sent via bluetooth");
 
 						final Protos.PaymentACK paymentAck = Protos.PaymentACK.parseDelimitedFrom(is);
+						request.phaseDone(Phase.FIRST_BYTE);
 
 						final boolean ack = "ack".equals(PaymentProtocol.parsePaymentAck(paymentAck).getMemo());
+						request.addBytesReceived(paymentAck.getSerializedSize());
+						request.succeeded(ack ? "ack" : "nack");
 
 						log.info("received {} via bluetooth", ack ? "ack" : "nack");
 
@@ -243,6 +203,7 @@ public abstract class DirectPaymentTask
 					catch (final IOException x)
 					{
 						log.info("problem sending", x);
+						request.failed(x);
 
 						onFail(R.string.error_io, x.getMessage());
 					}
@@ -44,5 +44,11 @@ public interface BlockchainService
 	@Nullable
 	List<Peer> getConnectedPeers();
 
-	List<StoredBlock> getRecentBlocks(int maxBlocks);
+	/**
+	 * @param before
+	 *            page cursor, the oldest block of the previous page; null for the first page
+	 * @return up to maxBlocks blocks of the best chain older than the cursor, newest first; fewer if the block store
+	 *         doesn't reach back further
+	 */
+	List<StoredBlock> getRecentBlocks(@Nullable StoredBlock before, int maxBlocks);
 }
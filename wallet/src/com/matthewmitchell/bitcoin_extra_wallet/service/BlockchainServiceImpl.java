@@ -109,6 +109,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private BlockStore blockStore;
 	private File blockChainFile;
 	private BlockChain blockChain;
+	private final RecentBlocks recentBlocks = new RecentBlocks(RECENT_BLOCKS_CAPACITY);
 	@Nullable
 	private PeerGroup peerGroup;
 
@@ -126,6 +127,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private long serviceCreatedAt;
 	private boolean resetBlockchainOnShutdown = false;
 
+	private static final int RECENT_BLOCKS_CAPACITY = 256;
+
 	private static final int MIN_COLLECT_HISTORY = 2;
 	private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
 	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
@@ -302,6 +305,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		@Override
 		public void onBlocksDownloaded(final Peer peer, final Block block, final FilteredBlock filteredBlock, final int blocksLeft)
 		{
+			recentBlocks.pushChainHead(blockChain.getChainHead());
+
 			delayHandler.removeCallbacksAndMessages(null);
 
 			final long now = System.currentTimeMillis();
@@ -791,17 +796,34 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	}
 
 	@Override
-	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
+	public List<StoredBlock> getRecentBlocks(@Nullable final StoredBlock before, final int maxBlocks)
 	{
 		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
 
 		try
 		{
-			StoredBlock block = blockChain.getChainHead();
+			if (before == null)
+				recentBlocks.pushChainHead(blockChain.getChainHead());
+
+			StoredBlock block;
+			if (recentBlocks.get(before, maxBlocks, blocks))
+			{
+				if (blocks.size() >= maxBlocks)
+					return blocks;
+
+				// ring exhausted, continue from the block store
+				final StoredBlock last = blocks.isEmpty() ? before : blocks.get(blocks.size() - 1);
+				block = last.getPrev(blockStore);
+			}
+			else
+			{
+				block = before != null ? before.getPrev(blockStore) : blockChain.getChainHead();
+			}
 
 			while (block != null)
 			{
 				blocks.add(block);
+				recentBlocks.appendOlder(block);
 
 				if (blocks.size() >= maxBlocks)
 					break;
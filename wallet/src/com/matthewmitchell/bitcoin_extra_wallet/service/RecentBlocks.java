@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.service;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj_extra.core.StoredBlock;
+
+/**
+ * Ring of the most recent headers of the best chain, newest at the head. The ring always holds a contiguous run of
+ * blocks; a new chain head that doesn't extend the current one (a reorganize) starts the ring over.
+ */
+final class RecentBlocks
+{
+	private final StoredBlock[] ring;
+	private int headHeight = -1;
+	private int size = 0;
+
+	RecentBlocks(final int capacity)
+	{
+		this.ring = new StoredBlock[capacity];
+	}
+
+	synchronized void pushChainHead(final StoredBlock chainHead)
+	{
+		final int height = chainHead.getHeight();
+		final StoredBlock head = size > 0 ? ring[index(headHeight)] : null;
+
+		if (head != null && head.getHeader().getHash().equals(chainHead.getHeader().getHash()))
+			return;
+
+		if (head != null && height == headHeight + 1 && chainHead.getHeader().getPrevBlockHash().equals(head.getHeader().getHash()))
+		{
+			size = Math.min(size + 1, ring.length);
+		}
+		else
+		{
+			for (int i = 0; i < ring.length; i++)
+				ring[i] = null;
+			size = 1;
+		}
+
+		headHeight = height;
+		ring[index(height)] = chainHead;
+	}
+
+	/**
+	 * Extends the ring at its old end, if the block is the predecessor of the oldest block and there is room left.
+	 */
+	synchronized void appendOlder(final StoredBlock block)
+	{
+		if (size == 0 || size == ring.length)
+			return;
+
+		final int oldestHeight = headHeight - size + 1;
+		final StoredBlock oldest = ring[index(oldestHeight)];
+		if (block.getHeight() == oldestHeight - 1 && oldest.getHeader().getPrevBlockHash().equals(block.getHeader().getHash()))
+		{
+			ring[index(block.getHeight())] = block;
+			size++;
+		}
+	}
+
+	/**
+	 * Adds blocks to the given list, newest first, until it holds maxBlocks or the ring runs out.
+	 *
+	 * @param before
+	 *            page cursor, only blocks older than this one are added; null to start at the chain head
+	 * @return true if the cursor was found in the ring, false if the caller must go to the block store
+	 */
+	synchronized boolean get(@Nullable final StoredBlock before, final int maxBlocks, final List<StoredBlock> blocks)
+	{
+		if (size == 0)
+			return false;
+
+		final int startHeight;
+		if (before == null)
+		{
+			startHeight = headHeight;
+		}
+		else
+		{
+			final StoredBlock cursor = get(before.getHeight());
+			if (cursor == null || !cursor.getHeader().getHash().equals(before.getHeader().getHash()))
+				return false;
+			startHeight = before.getHeight() - 1;
+		}
+
+		final int oldestHeight = headHeight - size + 1;
+		for (int height = startHeight; height >= oldestHeight && blocks.size() < maxBlocks; height--)
+			blocks.add(ring[index(height)]);
+
+		return true;
+	}
+
+	synchronized int size()
+	{
+		return size;
+	}
+
+	@Nullable
+	private StoredBlock get(final int height)
+	{
+		if (height > headHeight || height <= headHeight - size)
+			return null;
+
+		return ring[index(height)];
+	}
+
+	private int index(final int height)
+	{
+		return height % ring.length;
+	}
+}
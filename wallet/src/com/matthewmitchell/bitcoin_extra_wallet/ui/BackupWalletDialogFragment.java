@@ -19,21 +19,14 @@ package com.matthewmitchell.bitcoin_extra_wallet.ui;
 
 import static com.google.common.base.Preconditions.checkState;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.TimeZone;
 
 import javax.annotation.Nullable;
 
-import org.bitcoinj_extra.wallet.Protos;
 import org.bitcoinj_extra.wallet.Wallet;
-import org.bitcoinj_extra.wallet.WalletProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,11 +49,8 @@ import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.TextView;
 
-import com.google.common.base.Charsets;
-
 import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;
-import com.matthewmitchell.bitcoin_extra_wallet.util.Crypto;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Iso8601Format;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
@@ -259,50 +249,7 @@ public class BackupWalletDialogFragment extends DialogFragment
 
 	private void backupWallet(final String password)
 	{
-		final File file = determineBackupFile();
-
-		final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
-
-		Writer cipherOut = null;
-
-		try
-		{
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			walletProto.writeTo(baos);
-			baos.close();
-			final byte[] plainBytes = baos.toByteArray();
-
-			cipherOut = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
-			cipherOut.write(Crypto.encrypt(plainBytes, password.toCharArray()));
-			cipherOut.flush();
-
-			log.info("backed up wallet to: '" + file + "'");
-
-			ArchiveBackupDialogFragment.show(getFragmentManager(), file);
-		}
-		catch (final IOException x)
-		{
-			final DialogBuilder dialog = DialogBuilder.warn(activity, R.string.import_export_keys_dialog_failure_title);
-			dialog.setMessage(getString(R.string.export_keys_dialog_failure, x.getMessage()));
-			dialog.singleDismissButton(null);
-			dialog.show();
-
-			log.error("problem backing up wallet", x);
-		}
-		finally
-		{
-			if (cipherOut != null)
-			{
-				try
-				{
-					cipherOut.close();
-				}
-				catch (final IOException x)
-				{
-					// swallow
-				}
-			}
-		}
+		((WalletActivity) activity).backupWallet(determineBackupFile(), password);
 	}
 
 	private File determineBackupFile()
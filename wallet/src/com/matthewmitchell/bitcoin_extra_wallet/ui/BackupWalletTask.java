@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.ui;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import org.bitcoinj_extra.wallet.Protos;
+import org.bitcoinj_extra.wallet.Wallet;
+import org.bitcoinj_extra.wallet.WalletProtobufSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.common.base.Charsets;
+import com.matthewmitchell.bitcoin_extra_wallet.Constants;
+import com.matthewmitchell.bitcoin_extra_wallet.util.Crypto;
+
+/**
+ * Writes an encrypted wallet backup on the background handler. The wallet is serialized straight into the encrypting
+ * stream, so no plain or cipher text copy of the backup is held in memory.
+ */
+public abstract class BackupWalletTask
+{
+	private final Handler backgroundHandler;
+	private final Handler callbackHandler;
+
+	private static final Logger log = LoggerFactory.getLogger(BackupWalletTask.class);
+
+	public BackupWalletTask(final Handler backgroundHandler)
+	{
+		this.backgroundHandler = backgroundHandler;
+		this.callbackHandler = new Handler(Looper.myLooper());
+	}
+
+	public final void backupWallet(final Wallet wallet, final File file, final String password)
+	{
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				org.bitcoinj_extra.core.Context.propagate(Constants.CONTEXT);
+
+				try
+				{
+					final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+
+					final OutputStream os = Crypto.encryptingStream(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+							Charsets.UTF_8)), password.toCharArray());
+					try
+					{
+						walletProto.writeTo(os);
+					}
+					finally
+					{
+						os.close();
+					}
+
+					log.info("backed up wallet to: '" + file + "'");
+
+					callbackHandler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onSuccess(file);
+						}
+					});
+				}
+				catch (final IOException x)
+				{
+					log.error("problem backing up wallet", x);
+					file.delete();
+
+					callbackHandler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onFailure(x);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	protected abstract void onSuccess(File file);
+
+	protected abstract void onFailure(IOException x);
+}
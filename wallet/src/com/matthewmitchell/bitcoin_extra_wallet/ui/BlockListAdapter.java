@@ -20,13 +20,14 @@ package com.matthewmitchell.bitcoin_extra_wallet.ui;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj_extra.core.Address;
 import org.bitcoinj_extra.core.Block;
 import org.bitcoinj_extra.core.Coin;
+import org.bitcoinj_extra.core.Sha256Hash;
 import org.bitcoinj_extra.core.StoredBlock;
 import org.bitcoinj_extra.core.Transaction;
 import org.bitcoinj_extra.core.Transaction.Purpose;
@@ -65,7 +66,8 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
 	private MonetaryFormat format;
 
 	private final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
-	private Set<Transaction> transactions;
+	@Nullable
+	private Map<Sha256Hash, List<Transaction>> transactions;
 
 	private final String textCoinBase;
 	private final String textInternal;
@@ -112,7 +114,11 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
 		notifyDataSetChanged();
 	}
 
-	public void replaceTransactions(final Set<Transaction> transactions)
+	/**
+	 * @param transactions
+	 *            wallet transactions by the hash of the blocks they appear in
+	 */
+	public void replaceTransactions(final Map<Sha256Hash, List<Transaction>> transactions)
 	{
 		this.transactions = transactions;
 
@@ -165,27 +171,25 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
 		final int transactionChildCount = holder.transactionsViewGroup.getChildCount() - ROW_BASE_CHILD_COUNT;
 		int iTransactionView = 0;
 
-		if (transactions != null)
+		final List<Transaction> blockTransactions = transactions != null ? transactions.get(header.getHash()) : null;
+		if (blockTransactions != null)
 		{
-			for (final Transaction tx : transactions)
+			for (final Transaction tx : blockTransactions)
 			{
-				if (tx.getAppearsInHashes().containsKey(header.getHash()))
+				final View view;
+				if (iTransactionView < transactionChildCount)
+				{
+					view = holder.transactionsViewGroup.getChildAt(ROW_INSERT_INDEX + iTransactionView);
+				}
+				else
 				{
-					final View view;
-					if (iTransactionView < transactionChildCount)
-					{
-						view = holder.transactionsViewGroup.getChildAt(ROW_INSERT_INDEX + iTransactionView);
-					}
-					else
-					{
-						view = inflater.inflate(R.layout.block_row_transaction, null);
-						holder.transactionsViewGroup.addView(view, ROW_INSERT_INDEX + iTransactionView);
-					}
-
-					bindView(view, tx);
-
-					iTransactionView++;
+					view = inflater.inflate(R.layout.block_row_transaction, null);
+					holder.transactionsViewGroup.addView(view, ROW_INSERT_INDEX + iTransactionView);
 				}
+
+				bindView(view, tx);
+
+				iTransactionView++;
 			}
 		}
 
@@ -17,16 +17,30 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet.ui;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
+import org.bitcoinj_extra.core.Coin;
 import org.bitcoinj_extra.core.Sha256Hash;
 import org.bitcoinj_extra.core.StoredBlock;
 import org.bitcoinj_extra.core.Transaction;
+import org.bitcoinj_extra.core.TransactionConfidence;
+import org.bitcoinj_extra.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj_extra.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj_extra.utils.Threading;
 import org.bitcoinj_extra.wallet.Wallet;
+import org.bitcoinj_extra.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj_extra.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj_extra.wallet.listeners.WalletReorganizeEventListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,7 +97,8 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 	private static final int ID_BLOCK_LOADER = 0;
 	private static final int ID_TRANSACTION_LOADER = 1;
 
-	private static final int MAX_BLOCKS = 64;
+	private static final int BLOCKS_PER_PAGE = 64;
+	private static final int LOAD_MORE_THRESHOLD = 16;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockListFragment.class);
 
@@ -126,6 +141,7 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 		recyclerView = (RecyclerView) view.findViewById(R.id.block_list);
 		recyclerView.setLayoutManager(new LinearLayoutManager(activity));
 		recyclerView.setAdapter(adapter);
+		recyclerView.addOnScrollListener(scrollListener);
 
 		return view;
 	}
@@ -224,11 +240,21 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 		}
 	};
 
+	/**
+	 * Loads the best chain from its head down to the oldest page requested so far. Further pages are requested via
+	 * {@link #loadMore()}.
+	 */
 	private static class BlockLoader extends AsyncTaskLoader<List<StoredBlock>>
 	{
 		private LocalBroadcastManager broadcastManager;
 		private BlockchainService service;
 
+		// only touched from loadInBackground(), which the loader never runs concurrently
+		private List<StoredBlock> blocks = Collections.emptyList();
+
+		private final AtomicBoolean moreRequested = new AtomicBoolean(false);
+		private volatile boolean exhausted = false;
+
 		private BlockLoader(final Context context, final BlockchainService service)
 		{
 			super(context);
@@ -255,10 +281,57 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 			super.onStopLoading();
 		}
 
+		public void loadMore()
+		{
+			if (!exhausted && moreRequested.compareAndSet(false, true))
+				safeForceLoad();
+		}
+
+		public boolean isExhausted()
+		{
+			return exhausted;
+		}
+
 		@Override
 		public List<StoredBlock> loadInBackground()
 		{
-			return service.getRecentBlocks(MAX_BLOCKS);
+			final boolean more = moreRequested.get();
+			final List<StoredBlock> result;
+
+			if (more && !blocks.isEmpty())
+			{
+				final List<StoredBlock> page = service.getRecentBlocks(blocks.get(blocks.size() - 1), BLOCKS_PER_PAGE);
+				exhausted = page.size() < BLOCKS_PER_PAGE;
+
+				result = new ArrayList<StoredBlock>(blocks.size() + page.size());
+				result.addAll(blocks);
+				result.addAll(page);
+			}
+			else
+			{
+				// refresh every page loaded so far, a reorganize might have replaced any of them
+				final int maxBlocks = Math.max(blocks.size(), BLOCKS_PER_PAGE);
+				result = service.getRecentBlocks(null, maxBlocks);
+				exhausted = result.size() < maxBlocks;
+			}
+
+			blocks = result;
+			if (more)
+				moreRequested.set(false);
+
+			return result;
+		}
+
+		private void safeForceLoad()
+		{
+			try
+			{
+				forceLoad();
+			}
+			catch (final RejectedExecutionException x)
+			{
+				log.info("rejected execution: " + BlockLoader.this.toString());
+			}
 		}
 
 		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
@@ -266,14 +339,7 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 			@Override
 			public void onReceive(final Context context, final Intent intent)
 			{
-				try
-				{
-					forceLoad();
-				}
-				catch (final RejectedExecutionException x)
-				{
-					log.info("rejected execution: " + BlockLoader.this.toString());
-				}
+				safeForceLoad();
 			}
 		};
 	}
@@ -292,7 +358,7 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 			adapter.replace(blocks);
 			viewGroup.setDisplayedChild(1);
 
-			final Loader<Set<Transaction>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
+			final Loader<Map<Sha256Hash, List<Transaction>>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
 			if (transactionLoader != null && transactionLoader.isStarted())
 				transactionLoader.forceLoad();
 		}
@@ -304,10 +370,43 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 		}
 	};
 
-	private static class TransactionsLoader extends AsyncTaskLoader<Set<Transaction>>
+	private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener()
+	{
+		@Override
+		public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy)
+		{
+			if (dy <= 0)
+				return;
+
+			final int lastVisiblePosition = ((LinearLayoutManager) recyclerView.getLayoutManager()).findLastVisibleItemPosition();
+			if (lastVisiblePosition < adapter.getItemCount() - LOAD_MORE_THRESHOLD)
+				return;
+
+			final Loader<List<StoredBlock>> loader = loaderManager.getLoader(ID_BLOCK_LOADER);
+			if (loader != null && loader.isStarted())
+				((BlockLoader) loader).loadMore();
+		}
+	};
+
+	/**
+	 * Indexes wallet transactions by the blocks they appear in. The index is kept between loads; only transactions that
+	 * changed block membership since the last load are re-indexed.
+	 */
+	private static class TransactionsLoader extends AsyncTaskLoader<Map<Sha256Hash, List<Transaction>>>
 	{
 		private final Wallet wallet;
 
+		// only touched from loadInBackground(), which the loader never runs concurrently; lists are never mutated once
+		// put, so snapshots can share them
+		private final Map<Sha256Hash, List<Transaction>> index = new HashMap<Sha256Hash, List<Transaction>>();
+		private final Map<Sha256Hash, Set<Sha256Hash>> indexedBlocks = new HashMap<Sha256Hash, Set<Sha256Hash>>();
+		@Nullable
+		private Map<Sha256Hash, List<Transaction>> snapshot = null;
+
+		// filled from the wallet thread
+		private final Set<Sha256Hash> dirtyTransactions = new HashSet<Sha256Hash>();
+		private final AtomicBoolean rebuild = new AtomicBoolean(true);
+
 		private TransactionsLoader(final Context context, final Wallet wallet)
 		{
 			super(context);
@@ -316,40 +415,185 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 		}
 
 		@Override
-		public Set<Transaction> loadInBackground()
+		protected void onStartLoading()
+		{
+			super.onStartLoading();
+
+			wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
+			wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
+			wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
+			wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, walletListener);
+			rebuild.set(true); // changes while stopped went unnoticed
+
+			forceLoad();
+		}
+
+		@Override
+		protected void onStopLoading()
+		{
+			removeWalletListeners();
+
+			super.onStopLoading();
+		}
+
+		@Override
+		protected void onReset()
+		{
+			removeWalletListeners();
+
+			super.onReset();
+		}
+
+		private void removeWalletListeners()
+		{
+			wallet.removeTransactionConfidenceEventListener(walletListener);
+			wallet.removeReorganizeEventListener(walletListener);
+			wallet.removeCoinsSentEventListener(walletListener);
+			wallet.removeCoinsReceivedEventListener(walletListener);
+		}
+
+		@Override
+		public Map<Sha256Hash, List<Transaction>> loadInBackground()
 		{
 			org.bitcoinj_extra.core.Context.propagate(Constants.CONTEXT);
 
-			final Set<Transaction> transactions = wallet.getTransactions(true);
+			final Set<Sha256Hash> changedTransactions;
+			synchronized (dirtyTransactions)
+			{
+				changedTransactions = new HashSet<Sha256Hash>(dirtyTransactions);
+				dirtyTransactions.clear();
+			}
+
+			if (rebuild.getAndSet(false) || snapshot == null)
+			{
+				index.clear();
+				indexedBlocks.clear();
+
+				for (final Transaction tx : wallet.getTransactions(true))
+					add(tx);
+			}
+			else if (!changedTransactions.isEmpty())
+			{
+				for (final Sha256Hash hash : changedTransactions)
+				{
+					remove(hash);
+
+					final Transaction tx = wallet.getTransaction(hash);
+					if (tx != null)
+						add(tx);
+				}
+			}
+			else
+			{
+				return snapshot;
+			}
+
+			snapshot = Collections.unmodifiableMap(new HashMap<Sha256Hash, List<Transaction>>(index));
+			return snapshot;
+		}
+
+		private void add(final Transaction tx)
+		{
+			final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
+			if (appearsIn == null || appearsIn.isEmpty()) // TODO filter by updateTime
+				return;
+
+			final Set<Sha256Hash> blockHashes = new HashSet<Sha256Hash>(appearsIn.keySet());
+			indexedBlocks.put(tx.getHash(), blockHashes);
+
+			for (final Sha256Hash blockHash : blockHashes)
+			{
+				final List<Transaction> oldTransactions = index.get(blockHash);
+				final List<Transaction> transactions = new ArrayList<Transaction>(oldTransactions != null ? oldTransactions.size() + 1 : 1);
+				if (oldTransactions != null)
+					transactions.addAll(oldTransactions);
+				transactions.add(tx);
+				index.put(blockHash, Collections.unmodifiableList(transactions));
+			}
+		}
+
+		private void remove(final Sha256Hash hash)
+		{
+			final Set<Sha256Hash> blockHashes = indexedBlocks.remove(hash);
+			if (blockHashes == null)
+				return;
+
+			for (final Sha256Hash blockHash : blockHashes)
+			{
+				final List<Transaction> oldTransactions = index.get(blockHash);
+				if (oldTransactions == null)
+					continue;
+
+				final List<Transaction> transactions = new ArrayList<Transaction>(oldTransactions.size());
+				for (final Transaction tx : oldTransactions)
+					if (!tx.getHash().equals(hash))
+						transactions.add(tx);
+
+				if (transactions.isEmpty())
+					index.remove(blockHash);
+				else
+					index.put(blockHash, Collections.unmodifiableList(transactions));
+			}
+		}
 
-			final Set<Transaction> filteredTransactions = new HashSet<Transaction>(transactions.size());
-			for (final Transaction tx : transactions)
+		private void markDirty(final Transaction tx)
+		{
+			synchronized (dirtyTransactions)
 			{
-				final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-				if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-					filteredTransactions.add(tx);
+				dirtyTransactions.add(tx.getHash());
 			}
+		}
+
+		private final WalletListener walletListener = new WalletListener();
 
-			return filteredTransactions;
+		private final class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+				WalletReorganizeEventListener, TransactionConfidenceEventListener
+		{
+			@Override
+			public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+			{
+				markDirty(tx);
+			}
+
+			@Override
+			public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+			{
+				markDirty(tx);
+			}
+
+			@Override
+			public void onReorganize(final Wallet wallet)
+			{
+				rebuild.set(true);
+			}
+
+			@Override
+			public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+			{
+				// every new block bumps the depth of all building transactions; only the first block changes membership
+				final TransactionConfidence confidence = tx.getConfidence();
+				if (confidence.getConfidenceType() != ConfidenceType.BUILDING || confidence.getDepthInBlocks() <= 1)
+					markDirty(tx);
+			}
 		}
 	}
 
-	private final LoaderCallbacks<Set<Transaction>> transactionLoaderCallbacks = new LoaderCallbacks<Set<Transaction>>()
+	private final LoaderCallbacks<Map<Sha256Hash, List<Transaction>>> transactionLoaderCallbacks = new LoaderCallbacks<Map<Sha256Hash, List<Transaction>>>()
 	{
 		@Override
-		public Loader<Set<Transaction>> onCreateLoader(final int id, final Bundle args)
+		public Loader<Map<Sha256Hash, List<Transaction>>> onCreateLoader(final int id, final Bundle args)
 		{
 			return new TransactionsLoader(activity, wallet);
 		}
 
 		@Override
-		public void onLoadFinished(final Loader<Set<Transaction>> loader, final Set<Transaction> transactions)
+		public void onLoadFinished(final Loader<Map<Sha256Hash, List<Transaction>>> loader, final Map<Sha256Hash, List<Transaction>> transactions)
 		{
 			adapter.replaceTransactions(transactions);
 		}
 
 		@Override
-		public void onLoaderReset(final Loader<Set<Transaction>> loader)
+		public void onLoaderReset(final Loader<Map<Sha256Hash, List<Transaction>>> loader)
 		{
 			adapter.clearTransactions();
 		}
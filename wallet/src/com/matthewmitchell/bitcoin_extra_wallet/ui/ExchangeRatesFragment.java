@@ -20,20 +20,24 @@ package com.matthewmitchell.bitcoin_extra_wallet.ui;
 import javax.annotation.Nullable;
 
 import org.bitcoinj_extra.core.Coin;
-import org.bitcoinj_extra.wallet.Wallet;
 import org.bitcoinj_extra.wallet.Wallet.BalanceType;
 
 import android.app.Activity;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.CursorLoader;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
+import android.text.format.DateUtils;
 import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -64,9 +68,9 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 	private AbstractWalletActivity activity;
 	private WalletApplication application;
 	private Configuration config;
-	private Wallet wallet;
 	private Uri contentUri;
 	private LoaderManager loaderManager;
+	private LocalBroadcastManager broadcastManager;
 
 	private ExchangeRatesAdapter adapter;
 	private String query = null;
@@ -89,9 +93,9 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
-		this.wallet = application.getWallet();
 		this.contentUri = ExchangeRatesProvider.contentUri(activity.getPackageName(), false);
 		this.loaderManager = getLoaderManager();
+		this.broadcastManager = LocalBroadcastManager.getInstance(activity);
 	}
 
 	@Override
@@ -124,7 +128,10 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 	{
 		super.onResume();
 
-		loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
+		if (application.isWalletLoaded())
+			loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
+		else
+			broadcastManager.registerReceiver(walletLoadedReceiver, new IntentFilter(WalletApplication.ACTION_WALLET_LOADED));
 		loaderManager.initLoader(ID_BLOCKCHAIN_STATE_LOADER, null, blockchainStateLoaderCallbacks);
 
 		updateView();
@@ -133,6 +140,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 	@Override
 	public void onPause()
 	{
+		broadcastManager.unregisterReceiver(walletLoadedReceiver);
 		loaderManager.destroyLoader(ID_BALANCE_LOADER);
 		loaderManager.destroyLoader(ID_BLOCKCHAIN_STATE_LOADER);
 
@@ -186,6 +194,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 	{
 		final Cursor cursor = (Cursor) adapter.getItem(position);
 		final ExchangeRate exchangeRate = ExchangeRatesProvider.getExchangeRate(cursor);
+		final long lastUpdated = ExchangeRatesProvider.getLastUpdated(cursor);
 
 		activity.startActionMode(new ActionMode.Callback()
 		{
@@ -202,7 +211,11 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 			public boolean onPrepareActionMode(final ActionMode mode, final Menu menu)
 			{
 				mode.setTitle(exchangeRate.getCurrencyCode());
-				mode.setSubtitle(getString(R.string.exchange_rates_fragment_source, exchangeRate.source));
+				if (lastUpdated != 0)
+					mode.setSubtitle(getString(R.string.exchange_rates_fragment_source_updated, exchangeRate.source,
+							DateUtils.getRelativeTimeSpanString(activity, lastUpdated)));
+				else
+					mode.setSubtitle(getString(R.string.exchange_rates_fragment_source, exchangeRate.source));
 
 				return true;
 			}
@@ -231,7 +244,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 			{
 				config.setExchangeCurrencyCode(currencyCode);
 
-				WalletBalanceWidgetProvider.updateWidgets(activity, wallet);
+				WalletBalanceWidgetProvider.updateWidgets(activity, application.getWallet());
 			}
 		});
 	}
@@ -249,7 +262,8 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 
 	private void updateView()
 	{
-		balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+		if (application.isWalletLoaded())
+			balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
 
 		if (adapter != null)
 			adapter.setRateBase(config.getBtcBase());
@@ -271,7 +285,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 		{
 			final Cursor oldCursor = adapter.swapCursor(data);
 
-			if (data != null && oldCursor == null && defaultCurrency != null)
+			if (data != null && (oldCursor == null || oldCursor.getCount() == 0) && defaultCurrency != null)
 			{
 				final int defaultCurrencyPosition = findCurrencyCode(data, defaultCurrency);
 				if (defaultCurrencyPosition >= 0)
@@ -302,12 +316,23 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 		}
 	};
 
+	private final BroadcastReceiver walletLoadedReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			broadcastManager.unregisterReceiver(this);
+
+			loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
+		}
+	};
+
 	private final LoaderCallbacks<Coin> balanceLoaderCallbacks = new LoaderManager.LoaderCallbacks<Coin>()
 	{
 		@Override
 		public Loader<Coin> onCreateLoader(final int id, final Bundle args)
 		{
-			return new WalletBalanceLoader(activity, wallet);
+			return new WalletBalanceLoader(activity, application.getWallet());
 		}
 
 		@Override
@@ -366,6 +391,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 		public void bindView(final View view, final Context context, final Cursor cursor)
 		{
 			final ExchangeRate exchangeRate = ExchangeRatesProvider.getExchangeRate(cursor);
+			final boolean isStale = ExchangeRatesProvider.isStale(ExchangeRatesProvider.getLastUpdated(cursor));
 			final boolean isDefaultCurrency = exchangeRate.getCurrencyCode().equals(defaultCurrency);
 
 			view.setBackgroundResource(isDefaultCurrency ? R.color.bg_list_selected : R.color.bg_list);
@@ -379,6 +405,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 			final CurrencyTextView rateView = (CurrencyTextView) view.findViewById(R.id.exchange_rate_row_rate);
 			rateView.setFormat(!rateBase.isLessThan(Coin.COIN) ? Constants.LOCAL_FORMAT.minDecimals(2) : Constants.LOCAL_FORMAT.minDecimals(4));
 			rateView.setAmount(exchangeRate.rate.coinToFiat(rateBase));
+			rateView.setTextColor(getResources().getColor(isStale ? R.color.fg_insignificant : R.color.fg_significant));
 
 			final CurrencyTextView walletView = (CurrencyTextView) view.findViewById(R.id.exchange_rate_row_balance);
 			walletView.setFormat(Constants.LOCAL_FORMAT);
@@ -392,7 +419,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 				walletView.setText("n/a");
 				walletView.setStrikeThru(false);
 			}
-			walletView.setTextColor(getResources().getColor(R.color.fg_less_significant));
+			walletView.setTextColor(getResources().getColor(isStale ? R.color.fg_insignificant : R.color.fg_less_significant));
 		}
 	}
 }
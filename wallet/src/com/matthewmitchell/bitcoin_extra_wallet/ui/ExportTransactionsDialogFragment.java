@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.ui;
+
+import android.app.Activity;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.app.FragmentManager;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.RadioGroup;
+
+import com.matthewmitchell.bitcoin_extra_wallet.R;
+
+/**
+ * Asks which transactions to export before {@link WalletActivity} writes them.
+ */
+public final class ExportTransactionsDialogFragment extends DialogFragment
+{
+	private static final String FRAGMENT_TAG = ExportTransactionsDialogFragment.class.getName();
+
+	public static void show(final FragmentManager fm)
+	{
+		final DialogFragment newFragment = new ExportTransactionsDialogFragment();
+		newFragment.show(fm, FRAGMENT_TAG);
+	}
+
+	private WalletActivity activity;
+
+	@Override
+	public void onAttach(final Activity activity)
+	{
+		super.onAttach(activity);
+
+		this.activity = (WalletActivity) activity;
+	}
+
+	@Override
+	public Dialog onCreateDialog(final Bundle savedInstanceState)
+	{
+		final View view = LayoutInflater.from(activity).inflate(R.layout.export_transactions_dialog, null);
+		final RadioGroup directionView = (RadioGroup) view.findViewById(R.id.export_transactions_dialog_direction);
+		final RadioGroup periodView = (RadioGroup) view.findViewById(R.id.export_transactions_dialog_period);
+
+		final DialogBuilder dialog = new DialogBuilder(activity);
+		dialog.setTitle(R.string.export_transactions_dialog_title);
+		dialog.setView(view);
+		dialog.setPositiveButton(R.string.export_transactions_dialog_button_export, new DialogInterface.OnClickListener()
+		{
+			@Override
+			public void onClick(final DialogInterface dialog, final int which)
+			{
+				final WalletTransactionsFragment.Direction direction;
+				final int directionId = directionView.getCheckedRadioButtonId();
+				if (directionId == R.id.export_transactions_dialog_direction_received)
+					direction = WalletTransactionsFragment.Direction.RECEIVED;
+				else if (directionId == R.id.export_transactions_dialog_direction_sent)
+					direction = WalletTransactionsFragment.Direction.SENT;
+				else
+					direction = null;
+
+				final long fromTimeMs;
+				final int periodId = periodView.getCheckedRadioButtonId();
+				if (periodId == R.id.export_transactions_dialog_period_month)
+					fromTimeMs = System.currentTimeMillis() - 30 * DateUtils.DAY_IN_MILLIS;
+				else if (periodId == R.id.export_transactions_dialog_period_year)
+					fromTimeMs = System.currentTimeMillis() - DateUtils.YEAR_IN_MILLIS;
+				else
+					fromTimeMs = 0;
+
+				activity.exportTransactions(direction, fromTimeMs);
+			}
+		});
+		dialog.setNegativeButton(R.string.button_cancel, null);
+
+		return dialog.create();
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.ui;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj_extra.core.Address;
+import org.bitcoinj_extra.core.Coin;
+import org.bitcoinj_extra.core.Transaction;
+import org.bitcoinj_extra.utils.MonetaryFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+
+import com.google.common.base.Charsets;
+import com.matthewmitchell.bitcoin_extra_wallet.Constants;
+
+/**
+ * Writes a transactions snapshot to a CSV file on the background handler, row by row, reporting progress on the
+ * calling thread.
+ */
+public abstract class ExportTransactionsTask
+{
+	private final Handler backgroundHandler;
+	private final Handler callbackHandler;
+	private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final long PROGRESS_INTERVAL_MS = 100;
+
+	private static final String HEADER = "Date,Label,Amount (" + MonetaryFormat.CODE_BTC + "),Fee (" + MonetaryFormat.CODE_BTC
+			+ "),Address,Transaction Hash,Confirmations\n";
+
+	private static final Logger log = LoggerFactory.getLogger(ExportTransactionsTask.class);
+
+	public ExportTransactionsTask(final Handler backgroundHandler)
+	{
+		this.backgroundHandler = backgroundHandler;
+		this.callbackHandler = new Handler(Looper.myLooper());
+	}
+
+	/**
+	 * @param fromTimeMs
+	 *            only transactions updated at or after this time are exported; 0 for all
+	 * @param unknownAddress
+	 *            written in place of addresses that can't be determined
+	 */
+	public final void exportTransactions(final File file, final TransactionsLoader.Snapshot transactions, final long fromTimeMs,
+			final String unknownAddress)
+	{
+		final List<TransactionsAdapter.TransactionCacheEntry> cacheEntries = transactions.getCacheEntries();
+
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				org.bitcoinj_extra.core.Context.propagate(Constants.CONTEXT);
+
+				final int total = transactions.size();
+				int numRows = 0;
+
+				try
+				{
+					final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8), BUFFER_SIZE);
+
+					try
+					{
+						writer.write(HEADER);
+
+						final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm z", Locale.US);
+						dateFormat.setTimeZone(TimeZone.getDefault());
+						long lastMinute = -1;
+						String lastDate = null;
+						long lastProgressTime = 0;
+
+						for (int i = 0; i < total; i++)
+						{
+							if (cancelled.get())
+								break;
+
+							final Transaction tx = transactions.get(i);
+							final Date updateTime = tx.getUpdateTime();
+							if (updateTime.getTime() < fromTimeMs)
+								continue;
+
+							final TransactionsAdapter.TransactionCacheEntry cacheEntry = cacheEntries.get(i);
+
+							// the date column only has minute precision, so consecutive rows often share it
+							final long minute = updateTime.getTime() / DateUtils.MINUTE_IN_MILLIS;
+							if (minute != lastMinute)
+							{
+								lastMinute = minute;
+								lastDate = dateFormat.format(updateTime);
+							}
+
+							writer.write(lastDate);
+							writer.write(',');
+							writeField(writer, tx.getMemo());
+							writer.write(',');
+							writer.write(cacheEntry.getValue().toPlainString());
+							writer.write(',');
+							final Coin fee = cacheEntry.getFee();
+							if (fee != null)
+								writer.write(fee.toPlainString());
+							writer.write(',');
+							final Address address = cacheEntry.getAddress();
+							writer.write(address != null ? address.toBase58() : unknownAddress);
+							writer.write(',');
+							writer.write(tx.getHashAsString());
+							writer.write(',');
+							writer.write(Integer.toString(tx.getConfidence().getDepthInBlocks()));
+							writer.write('\n');
+							numRows++;
+
+							final long now = SystemClock.elapsedRealtime();
+							if (now - lastProgressTime >= PROGRESS_INTERVAL_MS)
+							{
+								lastProgressTime = now;
+								postProgress(i + 1, total);
+							}
+						}
+					}
+					finally
+					{
+						writer.close();
+					}
+				}
+				catch (final IOException x)
+				{
+					log.info("exporting transactions failed", x);
+					file.delete();
+
+					callbackHandler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onFailure(x);
+						}
+					});
+					return;
+				}
+
+				if (cancelled.get())
+				{
+					file.delete();
+					callbackHandler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onCancelled();
+						}
+					});
+					return;
+				}
+
+				if (numRows == 0)
+					file.delete();
+
+				log.info("exported {} of {} transactions to {}", numRows, total, file);
+
+				final int numRowsToReport = numRows;
+				callbackHandler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						onSuccess(file, numRowsToReport);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Stops the export after the current row. {@link #onCancelled()} is called once the partial file is deleted.
+	 */
+	public final void cancel()
+	{
+		cancelled.set(true);
+	}
+
+	private void postProgress(final int progress, final int max)
+	{
+		callbackHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!cancelled.get())
+					onProgress(progress, max);
+			}
+		});
+	}
+
+	private static void writeField(final Writer writer, @Nullable final String value) throws IOException
+	{
+		if (value == null)
+			return;
+
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++)
+		{
+			final char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if (!quote)
+		{
+			writer.write(value);
+			return;
+		}
+
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			final char c = value.charAt(i);
+			if (c == '"')
+				writer.write('"');
+			writer.write(c);
+		}
+		writer.write('"');
+	}
+
+	protected abstract void onProgress(int progress, int max);
+
+	/**
+	 * @param numRows
+	 *            number of exported transactions; if 0, no file was kept
+	 */
+	protected abstract void onSuccess(File file, int numRows);
+
+	protected abstract void onCancelled();
+
+	protected abstract void onFailure(IOException x);
+}
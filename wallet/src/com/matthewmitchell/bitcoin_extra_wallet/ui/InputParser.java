@@ -18,10 +18,8 @@
 package com.matthewmitchell.bitcoin_extra_wallet.ui;
 
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,7 +40,6 @@ import org.bitcoinj_extra.core.Transaction;
 import org.bitcoinj_extra.core.VerificationException;
 import org.bitcoinj_extra.core.VersionedChecksummedBytes;
 import org.bitcoinj_extra.crypto.BIP38PrivateKey;
-import org.bitcoinj_extra.crypto.TrustStoreLoader;
 import org.bitcoinj_extra.params.MainNetParams;
 import org.bitcoinj_extra.protocols.payments.PaymentProtocol;
 import org.bitcoinj_extra.protocols.payments.PaymentProtocol.PkiVerificationData;
@@ -64,6 +61,7 @@ import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.data.PaymentIntent;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Qr;
+import com.matthewmitchell.bitcoin_extra_wallet.util.TrustStore;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
 
@@ -370,8 +368,7 @@ public abstract class InputParser
 			final String pkiCaName;
 			if (!"none".equals(paymentRequest.getPkiType()))
 			{
-				final KeyStore keystore = new TrustStoreLoader.DefaultTrustStoreLoader().getKeyStore();
-				final PkiVerificationData verificationData = PaymentProtocol.verifyPaymentRequestPki(paymentRequest, keystore);
+				final PkiVerificationData verificationData = TrustStore.getInstance().verifyPaymentRequestPki(paymentRequest);
 				pkiName = verificationData.displayName;
 				pkiCaName = verificationData.rootAuthorityName;
 			}
@@ -419,10 +416,6 @@ public abstract class InputParser
 		{
 			throw new PaymentProtocolException(x);
 		}
-		catch (final FileNotFoundException x)
-		{
-			throw new RuntimeException(x);
-		}
 		catch (final KeyStoreException x)
 		{
 			throw new RuntimeException(x);
@@ -21,7 +21,6 @@ import java.util.List;
 
 import org.bitcoinj_extra.core.Transaction;
 import org.bitcoinj_extra.wallet.DeterministicUpgradeRequiresPassword;
-import org.bitcoinj_extra.wallet.Wallet;
 
 import android.app.Activity;
 import android.app.Fragment;
@@ -57,7 +56,7 @@ public class MaybeMaintenanceFragment extends Fragment
 		}
 	}
 
-	private Wallet wallet;
+	private WalletApplication application;
 	private LocalBroadcastManager broadcastManager;
 	private boolean dialogWasShown = false;
 
@@ -66,8 +65,7 @@ public class MaybeMaintenanceFragment extends Fragment
 	{
 		super.onAttach(activity);
 
-		final WalletApplication application = ((AbstractWalletActivity) activity).getWalletApplication();
-		this.wallet = application.getWallet();
+		this.application = ((AbstractWalletActivity) activity).getWalletApplication();
 		this.broadcastManager = LocalBroadcastManager.getInstance(activity);
 	}
 
@@ -114,7 +112,7 @@ public class MaybeMaintenanceFragment extends Fragment
 	{
 		try
 		{
-			final ListenableFuture<List<Transaction>> result = wallet.doMaintenance(null, false);
+			final ListenableFuture<List<Transaction>> result = application.getWallet().doMaintenance(null, false);
 			return !result.get().isEmpty();
 		}
 		catch (final DeterministicUpgradeRequiresPassword x)
@@ -22,8 +22,11 @@ import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.FragmentManager;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.os.Bundle;
 
+import com.matthewmitchell.bitcoin_extra_wallet.R;
+
 /**
  * @author Andreas Schildbach
  */
@@ -32,25 +35,49 @@ public class ProgressDialogFragment extends DialogFragment
 	private static final String FRAGMENT_TAG = ProgressDialogFragment.class.getName();
 
 	private static final String KEY_MESSAGE = "message";
+	private static final String KEY_CANCELABLE = "cancelable";
 
 	public static void showProgress(final FragmentManager fm, final String message)
 	{
-		final ProgressDialogFragment fragment = instance(message);
+		final ProgressDialogFragment fragment = instance(message, false);
+		fragment.show(fm, FRAGMENT_TAG);
+	}
+
+	/**
+	 * Shows a progress bar that stays indeterminate until the first {@link #updateProgress(FragmentManager, int, int)}.
+	 * Its cancel button is reported to the activity, which must implement {@link OnCancelProgressListener}.
+	 */
+	public static void showCancelableProgress(final FragmentManager fm, final String message)
+	{
+		final ProgressDialogFragment fragment = instance(message, true);
 		fragment.show(fm, FRAGMENT_TAG);
 	}
 
+	public static void updateProgress(final FragmentManager fm, final int progress, final int max)
+	{
+		final DialogFragment fragment = (DialogFragment) fm.findFragmentByTag(FRAGMENT_TAG);
+		final ProgressDialog dialog = fragment != null ? (ProgressDialog) fragment.getDialog() : null;
+		if (dialog != null)
+		{
+			dialog.setIndeterminate(false);
+			dialog.setMax(max);
+			dialog.setProgress(progress);
+		}
+	}
+
 	public static void dismissProgress(final FragmentManager fm)
 	{
 		final DialogFragment fragment = (DialogFragment) fm.findFragmentByTag(FRAGMENT_TAG);
 		fragment.dismiss();
 	}
 
-	private static ProgressDialogFragment instance(final String message)
+	private static ProgressDialogFragment instance(final String message, final boolean cancelable)
 	{
 		final ProgressDialogFragment fragment = new ProgressDialogFragment();
 
 		final Bundle args = new Bundle();
 		args.putString(KEY_MESSAGE, message);
+		args.putBoolean(KEY_CANCELABLE, cancelable);
 		fragment.setArguments(args);
 
 		return fragment;
@@ -80,6 +107,27 @@ public class ProgressDialogFragment extends DialogFragment
 		final Bundle args = getArguments();
 		final String message = args.getString(KEY_MESSAGE);
 
-		return ProgressDialog.show(activity, null, message, true);
+		if (!args.getBoolean(KEY_CANCELABLE))
+			return ProgressDialog.show(activity, null, message, true);
+
+		final ProgressDialog dialog = new ProgressDialog(activity);
+		dialog.setMessage(message);
+		dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		dialog.setIndeterminate(true);
+		dialog.setProgressNumberFormat(null);
+		dialog.setButton(DialogInterface.BUTTON_NEGATIVE, activity.getString(R.string.button_cancel), new DialogInterface.OnClickListener()
+		{
+			@Override
+			public void onClick(final DialogInterface dialog, final int which)
+			{
+				((OnCancelProgressListener) activity).onCancelProgress();
+			}
+		});
+		return dialog;
+	}
+
+	public interface OnCancelProgressListener
+	{
+		void onCancelProgress();
 	}
 }
@@ -50,6 +50,7 @@ import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.FileAttachmentProvider;
 import com.matthewmitchell.bitcoin_extra_wallet.util.CrashReporter;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
 
@@ -216,6 +217,20 @@ public abstract class ReportIssueDialogBuilder extends DialogBuilder implements
 			}
 		}
 
+		if (!NetworkMetrics.getInstance().isEmpty())
+		{
+			text.append("\n\n\n=== network metrics ===\n\n");
+
+			try
+			{
+				NetworkMetrics.getInstance().appendReport(text);
+			}
+			catch (final IOException x)
+			{
+				text.append(x.toString()).append('\n');
+			}
+		}
+
 		if (CrashReporter.hasSavedBackgroundTraces())
 		{
 			text.append("\n\n\n=== saved exceptions ===\n\n");
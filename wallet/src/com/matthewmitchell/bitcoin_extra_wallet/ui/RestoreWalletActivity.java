@@ -17,12 +17,9 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet.ui;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import org.bitcoinj_extra.wallet.Wallet;
 import org.bitcoinj_extra.wallet.Wallet.BalanceType;
@@ -35,18 +32,15 @@ import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.view.View;
 import android.widget.CheckBox;
 import android.widget.EditText;
 
-import com.google.common.base.Charsets;
-
 import com.matthewmitchell.bitcoin_extra_wallet.Configuration;
-import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;
-import com.matthewmitchell.bitcoin_extra_wallet.util.Crypto;
-import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
-import com.matthewmitchell.bitcoin_extra_wallet.util.WalletUtils;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
 
@@ -64,6 +58,9 @@ public final class RestoreWalletActivity extends AbstractWalletActivity
 
 	private Uri backupFileUri;
 
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
+
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
@@ -76,9 +73,21 @@ public final class RestoreWalletActivity extends AbstractWalletActivity
 
 		backupFileUri = getIntent().getData();
 
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
+
 		showDialog(DIALOG_RESTORE_WALLET);
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		backgroundThread.getLooper().quit();
+
+		super.onDestroy();
+	}
+
 	@Override
 	protected Dialog onCreateDialog(final int id)
 	{
@@ -172,37 +181,52 @@ public final class RestoreWalletActivity extends AbstractWalletActivity
 
 	private void restoreWalletFromEncrypted(final InputStream cipher, final String password)
 	{
-		try
+		ProgressDialogFragment.showProgress(getFragmentManager(), getString(R.string.restore_wallet_progress));
+
+		new RestoreWalletTask(backgroundHandler)
 		{
-			final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(cipher, Charsets.UTF_8));
-			final StringBuilder cipherText = new StringBuilder();
-			Io.copy(cipherIn, cipherText, Constants.BACKUP_MAX_CHARS);
-			cipherIn.close();
+			@Override
+			protected void onSuccess(final Wallet wallet)
+			{
+				ProgressDialogFragment.dismissProgress(getFragmentManager());
+
+				try
+				{
+					restoreWallet(wallet);
 
-			final byte[] plainText = Crypto.decryptBytes(cipherText.toString(), password.toCharArray());
-			final InputStream is = new ByteArrayInputStream(plainText);
+					log.info("successfully restored encrypted wallet from external source");
+				}
+				catch (final IOException x)
+				{
+					showRestoreWalletFailure(x);
+				}
+			}
 
-			restoreWallet(WalletUtils.restoreWalletFromProtobufOrBase58(is, Constants.NETWORK_PARAMETERS));
+			@Override
+			protected void onFailure(final IOException x)
+			{
+				ProgressDialogFragment.dismissProgress(getFragmentManager());
+				showRestoreWalletFailure(x);
+			}
+		}.restoreWalletFromEncrypted(cipher, password);
+	}
 
-			log.info("successfully restored encrypted wallet from external source");
-		}
-		catch (final IOException x)
+	private void showRestoreWalletFailure(final IOException x)
+	{
+		final DialogBuilder dialog = DialogBuilder.warn(this, R.string.import_export_keys_dialog_failure_title);
+		dialog.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()));
+		dialog.setPositiveButton(R.string.button_dismiss, finishListener).setOnCancelListener(finishListener);
+		dialog.setNegativeButton(R.string.button_retry, new DialogInterface.OnClickListener()
 		{
-			final DialogBuilder dialog = DialogBuilder.warn(this, R.string.import_export_keys_dialog_failure_title);
-			dialog.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()));
-			dialog.setPositiveButton(R.string.button_dismiss, finishListener).setOnCancelListener(finishListener);
-			dialog.setNegativeButton(R.string.button_retry, new DialogInterface.OnClickListener()
+			@Override
+			public void onClick(final DialogInterface dialog, final int id)
 			{
-				@Override
-				public void onClick(final DialogInterface dialog, final int id)
-				{
-					showDialog(DIALOG_RESTORE_WALLET);
-				}
-			});
-			dialog.show();
+				showDialog(DIALOG_RESTORE_WALLET);
+			}
+		});
+		dialog.show();
 
-			log.info("problem restoring wallet", x);
-		}
+		log.info("problem restoring wallet", x);
 	}
 
 	private void restoreWallet(final Wallet wallet) throws IOException
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.ui;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.bitcoinj_extra.wallet.Wallet;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.common.base.Charsets;
+import com.matthewmitchell.bitcoin_extra_wallet.Constants;
+import com.matthewmitchell.bitcoin_extra_wallet.util.Crypto;
+import com.matthewmitchell.bitcoin_extra_wallet.util.WalletUtils;
+
+/**
+ * Decrypts and reads a wallet backup on the background handler, streaming from the cipher text to the wallet parser.
+ */
+public abstract class RestoreWalletTask
+{
+	private final Handler backgroundHandler;
+	private final Handler callbackHandler;
+
+	public RestoreWalletTask(final Handler backgroundHandler)
+	{
+		this.backgroundHandler = backgroundHandler;
+		this.callbackHandler = new Handler(Looper.myLooper());
+	}
+
+	/**
+	 * @param cipher
+	 *            encrypted backup, closed when done
+	 */
+	public final void restoreWalletFromEncrypted(final InputStream cipher, final String password)
+	{
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				org.bitcoinj_extra.core.Context.propagate(Constants.CONTEXT);
+
+				try
+				{
+					final Wallet wallet;
+					final InputStream is = new BufferedInputStream(Crypto.decryptingStream(new InputStreamReader(cipher, Charsets.UTF_8),
+							password.toCharArray()));
+					try
+					{
+						wallet = WalletUtils.restoreWalletFromProtobufOrBase58(is, Constants.NETWORK_PARAMETERS);
+					}
+					finally
+					{
+						is.close();
+					}
+
+					callbackHandler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onSuccess(wallet);
+						}
+					});
+				}
+				catch (final IOException x)
+				{
+					try
+					{
+						cipher.close();
+					}
+					catch (final IOException x2)
+					{
+						// swallow
+					}
+
+					callbackHandler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onFailure(x);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	protected abstract void onSuccess(Wallet wallet);
+
+	protected abstract void onFailure(IOException x);
+}
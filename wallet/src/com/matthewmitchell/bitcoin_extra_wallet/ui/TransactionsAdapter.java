@@ -54,6 +54,7 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 import com.matthewmitchell.bitcoin_extra_wallet.AddressBookProvider;
 import com.matthewmitchell.bitcoin_extra_wallet.Constants;
+import com.matthewmitchell.bitcoin_extra_wallet.WalletSummary;
 import com.matthewmitchell.bitcoin_extra_wallet.util.CircularProgressView;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Formats;
 import com.matthewmitchell.bitcoin_extra_wallet.util.WalletUtils;
@@ -74,12 +75,15 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 	private final LayoutInflater inflater;
 
 	private final boolean useCards;
-	private final Wallet wallet;
+	@Nullable
+	private Wallet wallet;
+	private long summaryLastBlockSeenTimeSecs = 0;
 	private final int maxConnectedPeers;
 	@Nullable
 	private final OnClickListener onClickListener;
 
 	public final List<Transaction> transactions = new ArrayList<Transaction>();
+	private final List<TransactionCacheEntry> precomputedCacheEntries = new ArrayList<TransactionCacheEntry>();
 	private MonetaryFormat format;
 	private Warning warning = null;
 
@@ -100,28 +104,57 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 	private static final int VIEW_TYPE_TRANSACTION = 0;
 	private static final int VIEW_TYPE_WARNING = 1;
 
+	private static final int MAX_INCREMENTAL_CHANGES = 100;
+
+	private long snapshotVersion = 0;
+
 	private Map<Sha256Hash, TransactionCacheEntry> transactionCache = new HashMap<Sha256Hash, TransactionCacheEntry>();
 
-	private static class TransactionCacheEntry
+	/**
+	 * Everything a transaction row needs from the wallet and the address book, so binding it does neither wallet nor
+	 * database work.
+	 */
+	static final class TransactionCacheEntry
 	{
 		private final Coin value;
+		@Nullable
+		private final Coin fee;
 		private final boolean sent;
 		private final boolean showFee;
+		private final boolean payToMany;
 		@Nullable
 		private final Address address;
 		@Nullable
 		private final String addressLabel;
 
-		private TransactionCacheEntry(final Coin value, final boolean sent, final boolean showFee, final @Nullable Address address,
-				final @Nullable String addressLabel)
+		private TransactionCacheEntry(final Coin value, final @Nullable Coin fee, final boolean sent, final boolean showFee,
+				final boolean payToMany, final @Nullable Address address, final @Nullable String addressLabel)
 		{
 			this.value = value;
+			this.fee = fee;
 			this.sent = sent;
 			this.showFee = showFee;
+			this.payToMany = payToMany;
 			this.address = address;
 			this.addressLabel = addressLabel;
 		}
 
+		static TransactionCacheEntry create(final Transaction tx, final Wallet wallet)
+		{
+			final Coin value = tx.getValue(wallet);
+			final Coin fee = tx.getFee();
+			final boolean sent = value.signum() < 0;
+			final boolean showFee = sent && fee != null && !fee.isZero();
+			final Address address = sent ? WalletUtils.getToAddressOfSent(tx, wallet) : WalletUtils.getWalletAddressOfReceived(tx, wallet);
+
+			return new TransactionCacheEntry(value, fee, sent, showFee, WalletUtils.isPayToManyTransaction(tx), address, null);
+		}
+
+		TransactionCacheEntry withAddressLabel(final @Nullable String addressLabel)
+		{
+			return new TransactionCacheEntry(value, fee, sent, showFee, payToMany, address, addressLabel);
+		}
+
 		public Address getAddress() {
 			return address;
 		}
@@ -130,9 +163,29 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 			return value;
 		}
 
+		@Nullable
+		Coin getFee()
+		{
+			return fee;
+		}
+
+		@Nullable
+		String getAddressLabel()
+		{
+			return addressLabel;
+		}
+
+		boolean isSent()
+		{
+			return sent;
+		}
 	}
 
-	public TransactionsAdapter(final Context context, final Wallet wallet, final boolean useCards, final int maxConnectedPeers,
+	/**
+	 * @param wallet
+	 *            can be null until {@link #setWallet(Wallet)}, as long as only a {@link WalletSummary} is shown
+	 */
+	public TransactionsAdapter(final Context context, @Nullable final Wallet wallet, final boolean useCards, final int maxConnectedPeers,
 			final @Nullable OnClickListener onClickListener)
 	{
 		this.context = context;
@@ -159,6 +212,11 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 		setHasStableIds(true);
 	}
 
+	public void setWallet(final Wallet wallet)
+	{
+		this.wallet = wallet;
+	}
+
 	public void setFormat(final MonetaryFormat format)
 	{
 		this.format = format.noCode();
@@ -176,6 +234,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 	public void clear()
 	{
 		transactions.clear();
+		precomputedCacheEntries.clear();
 
 		notifyDataSetChanged();
 	}
@@ -184,6 +243,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 	{
 		transactions.clear();
 		transactions.add(tx);
+		precomputedCacheEntries.clear();
 
 		notifyDataSetChanged();
 	}
@@ -192,10 +252,78 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 	{
 		this.transactions.clear();
 		this.transactions.addAll(transactions);
+		precomputedCacheEntries.clear();
+		snapshotVersion = 0;
+
+		notifyDataSetChanged();
+	}
+
+	public void replace(final WalletSummary summary)
+	{
+		transactions.clear();
+		precomputedCacheEntries.clear();
+		for (final WalletSummary.Row row : summary.rows)
+		{
+			final boolean sent = row.value.signum() < 0;
+			final boolean showFee = sent && row.fee != null && !row.fee.isZero();
+			transactions.add(row.tx);
+			precomputedCacheEntries
+					.add(new TransactionCacheEntry(row.value, row.fee, sent, showFee, row.payToMany, row.address, row.addressLabel));
+		}
+		summaryLastBlockSeenTimeSecs = summary.lastBlockSeenTimeSecs;
+		snapshotVersion = 0;
 
 		notifyDataSetChanged();
 	}
 
+	public void replace(final TransactionsLoader.Snapshot snapshot)
+	{
+		final List<TransactionsLoader.Change> changes = snapshot.getChanges();
+		final boolean incremental = changes != null && snapshotVersion != 0 && snapshot.getPreviousVersion() == snapshotVersion
+				&& changes.size() <= MAX_INCREMENTAL_CHANGES;
+		final int previousSize = transactions.size();
+
+		transactions.clear();
+		transactions.addAll(snapshot);
+		precomputedCacheEntries.clear();
+		precomputedCacheEntries.addAll(snapshot.getCacheEntries());
+		snapshotVersion = snapshot.getVersion();
+
+		if (!incremental)
+		{
+			notifyDataSetChanged();
+			return;
+		}
+
+		final int offset = warning != null ? 1 : 0;
+
+		for (final TransactionsLoader.Change change : changes)
+		{
+			switch (change.type)
+			{
+				case INSERTED:
+					notifyItemInserted(offset + change.toPosition);
+					break;
+
+				case REMOVED:
+					notifyItemRemoved(offset + change.fromPosition);
+					break;
+
+				case MOVED:
+					notifyItemMoved(offset + change.fromPosition, offset + change.toPosition);
+					break;
+
+				case CHANGED:
+					notifyItemChanged(offset + change.toPosition);
+					break;
+			}
+		}
+
+		// the backup warning reads differently for the very first transaction
+		if (warning == Warning.BACKUP && (previousSize == 1) != (transactions.size() == 1))
+			notifyItemChanged(0);
+	}
+
 	public void setSelectedItemId(final long itemId)
 	{
 		selectedItemId = itemId;
@@ -289,8 +417,9 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 			final long itemId = getItemId(position);
 			transactionHolder.itemView.setActivated(itemId == selectedItemId);
 
-			final Transaction tx = transactions.get(position - (warning != null ? 1 : 0));
-			transactionHolder.bind(tx);
+			final int index = position - (warning != null ? 1 : 0);
+			final Transaction tx = transactions.get(index);
+			transactionHolder.bind(tx, !precomputedCacheEntries.isEmpty() ? precomputedCacheEntries.get(index) : getTxCache(tx));
 
 			transactionHolder.itemView.setOnClickListener(new View.OnClickListener()
 			{
@@ -345,26 +474,25 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 		void onWarningClick();
 	}
 
-	public TransactionCacheEntry getTxCache(final Transaction tx) {
+	private long lastBlockSeenTimeSecs()
+	{
+		return wallet != null ? wallet.getLastBlockSeenTimeSecs() : summaryLastBlockSeenTimeSecs;
+	}
 
+	private TransactionCacheEntry getTxCache(final Transaction tx)
+	{
 		TransactionCacheEntry txCache = transactionCache.get(tx.getHash());
 
-		if (txCache == null) {
-
-			final Coin value = tx.getValue(wallet);
-			final Coin fee = tx.getFee();
-			final boolean sent = value.signum() < 0;
-			final boolean showFee = sent && fee != null && !fee.isZero();
-			final Address address = WalletUtils.getAddressToDisplay(tx, wallet);
-			final String addressLabel = address != null ? AddressBookProvider.resolveLabel(context, address.toBase58()) : null;
+		if (txCache == null)
+		{
+			txCache = TransactionCacheEntry.create(tx, wallet);
+			if (txCache.address != null)
+				txCache = txCache.withAddressLabel(AddressBookProvider.resolveLabel(context, txCache.address.toBase58()));
 
-			txCache = new TransactionCacheEntry(value, sent, showFee, address, addressLabel);
 			transactionCache.put(tx.getHash(), txCache);
-
 		}
 
 		return txCache;
-
 	}
 
 	private class TransactionViewHolder extends RecyclerView.ViewHolder
@@ -408,7 +536,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 			menuView = (ImageButton) itemView.findViewById(R.id.transaction_row_menu);
 		}
 
-		private void bind(final Transaction tx)
+		private void bind(final Transaction tx, final TransactionCacheEntry txCache)
 		{
 			if (itemView instanceof CardView)
 				((CardView) itemView).setCardBackgroundColor(itemView.isActivated() ? colorBackgroundSelected : colorBackground);
@@ -418,11 +546,9 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 			final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
 			final boolean isCoinBase = tx.isCoinBase();
 			final Transaction.Purpose purpose = tx.getPurpose();
-			final Coin fee = tx.getFee();
+			final Coin fee = txCache.fee;
 			final String[] memo = Formats.sanitizeMemo(tx.getMemo());
 
-			TransactionCacheEntry txCache = getTxCache(tx);
-
 			final int textColor, lessSignificantColor, valueColor;
 			if (confidenceType == ConfidenceType.DEAD)
 			{
@@ -646,7 +772,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 				messageView.setTextColor(colorInsignificant);
 			}
 			else if (!txCache.sent && confidenceType == ConfidenceType.PENDING && (tx.getUpdateTime() == null
-					|| wallet.getLastBlockSeenTimeSecs() * 1000 - tx.getUpdateTime().getTime() > Constants.DELAYED_TRANSACTION_THRESHOLD_MS))
+					|| lastBlockSeenTimeSecs() * 1000 - tx.getUpdateTime().getTime() > Constants.DELAYED_TRANSACTION_THRESHOLD_MS))
 			{
 				extendMessageView.setVisibility(View.VISIBLE);
 				messageView.setText(R.string.transaction_row_message_received_unconfirmed_delayed);
@@ -670,7 +796,7 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 				messageView.setText(R.string.transaction_row_message_received_dead);
 				messageView.setTextColor(colorError);
 			}
-			else if (!txCache.sent && WalletUtils.isPayToManyTransaction(tx))
+			else if (!txCache.sent && txCache.payToMany)
 			{
 				extendMessageView.setVisibility(View.VISIBLE);
 				messageView.setText(R.string.transaction_row_message_received_pay_to_many);
@@ -19,47 +19,83 @@ package com.matthewmitchell.bitcoin_extra_wallet.ui;
 
 import android.content.AsyncTaskLoader;
 import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.os.Handler;
 import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
 
+import com.matthewmitchell.bitcoin_extra_wallet.AddressBookProvider;
 import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;
 import com.matthewmitchell.bitcoin_extra_wallet.util.ThrottlingWalletChangeListener;
 
+import org.bitcoinj_extra.core.Address;
+import org.bitcoinj_extra.core.Coin;
+import org.bitcoinj_extra.core.Sha256Hash;
 import org.bitcoinj_extra.core.Transaction;
 import org.bitcoinj_extra.core.TransactionConfidence;
 import org.bitcoinj_extra.utils.Threading;
 import org.bitcoinj_extra.wallet.Wallet;
+import org.bitcoinj_extra.wallet.WalletTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
-public class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
+/**
+ * Keeps a sorted index of the wallet transactions across loads. Only transactions reported by the wallet listeners are
+ * re-evaluated, and each delivered {@link Snapshot} carries the list of positional changes relative to the previous one.
+ * Row models including address book labels are prepared here, off the main thread.
+ */
+public class TransactionsLoader extends AsyncTaskLoader<TransactionsLoader.Snapshot> {
 
     private static final Logger log = LoggerFactory.getLogger(TransactionsLoader.class);
     private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 
+    private static final AtomicLong versionCounter = new AtomicLong(0);
+
     private LocalBroadcastManager broadcastManager;
+    private final ContentResolver contentResolver;
     private final Wallet wallet;
     @Nullable
     private final WalletTransactionsFragment.Direction direction;
 
+    // only touched from loadInBackground(), which the loader never runs concurrently
+    private final Map<Sha256Hash, Entry> entries = new HashMap<Sha256Hash, Entry>();
+    private final List<Entry> sorted = new ArrayList<Entry>();
+    private long version = 0;
+
+    // filled from the wallet thread
+    private final Set<Sha256Hash> dirtyTransactions = new HashSet<Sha256Hash>();
+    private final Set<Sha256Hash> dirtyConfidences = new HashSet<Sha256Hash>();
+    private final AtomicBoolean rebuild = new AtomicBoolean(true);
+    private final AtomicBoolean labelsChanged = new AtomicBoolean(false);
+
     TransactionsLoader(final Context context, final Wallet wallet, @Nullable final WalletTransactionsFragment.Direction direction) {
         super(context);
 
         this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+        this.contentResolver = context.getContentResolver();
         this.wallet = wallet;
         this.direction = direction;
     }
@@ -77,7 +113,9 @@ public class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
         wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
         wallet.addCoinsSentEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
         wallet.addChangeEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
         broadcastManager.registerReceiver(walletChangeReceiver, new IntentFilter(WalletApplication.ACTION_WALLET_REFERENCE_CHANGED));
+        contentResolver.registerContentObserver(AddressBookProvider.contentUri(getContext().getPackageName()), true, addressBookObserver);
         transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
 
         safeForceLoad();
@@ -85,7 +123,9 @@ public class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
 
     @Override
     protected void onStopLoading() {
+        contentResolver.unregisterContentObserver(addressBookObserver);
         broadcastManager.unregisterReceiver(walletChangeReceiver);
+        wallet.removeTransactionConfidenceEventListener(transactionAddRemoveListener);
         wallet.removeChangeEventListener(transactionAddRemoveListener);
         wallet.removeCoinsSentEventListener(transactionAddRemoveListener);
         wallet.removeCoinsReceivedEventListener(transactionAddRemoveListener);
@@ -96,7 +136,9 @@ public class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
 
     @Override
     protected void onReset() {
+        contentResolver.unregisterContentObserver(addressBookObserver);
         broadcastManager.unregisterReceiver(walletChangeReceiver);
+        wallet.removeTransactionConfidenceEventListener(transactionAddRemoveListener);
         wallet.removeChangeEventListener(transactionAddRemoveListener);
         wallet.removeCoinsSentEventListener(transactionAddRemoveListener);
         wallet.removeCoinsReceivedEventListener(transactionAddRemoveListener);
@@ -106,36 +148,221 @@ public class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
     }
 
     @Override
-    public List<Transaction> loadInBackground() {
+    public Snapshot loadInBackground() {
         org.bitcoinj_extra.core.Context.propagate(Constants.CONTEXT);
 
+        final Set<Sha256Hash> changedTransactions;
+        final Set<Sha256Hash> changedConfidences;
+        synchronized (dirtyTransactions) {
+            changedTransactions = new HashSet<Sha256Hash>(dirtyTransactions);
+            changedConfidences = new HashSet<Sha256Hash>(dirtyConfidences);
+            dirtyTransactions.clear();
+            dirtyConfidences.clear();
+        }
+
+        final long previousVersion = version;
+        version = versionCounter.incrementAndGet();
+
+        if (rebuild.getAndSet(false) || entries.size() != walletTransactionCount()) {
+            labelsChanged.set(false);
+            rebuildIndex();
+            resolveLabels(entries.values(), null);
+            return snapshot(previousVersion, null);
+        }
+
+        final List<Change> changes = new ArrayList<Change>();
+        final List<Entry> newEntries = new ArrayList<Entry>();
+
+        for (final Sha256Hash hash : changedTransactions)
+            update(hash, true, changes, newEntries);
+        for (final Sha256Hash hash : changedConfidences)
+            if (!changedTransactions.contains(hash))
+                update(hash, false, changes, newEntries);
+
+        if (labelsChanged.getAndSet(false))
+            resolveLabels(entries.values(), changes);
+        else
+            resolveLabels(newEntries, null);
+
+        return snapshot(previousVersion, changes);
+    }
+
+    private int walletTransactionCount() {
+        return wallet.getPoolSize(WalletTransaction.Pool.UNSPENT) + wallet.getPoolSize(WalletTransaction.Pool.SPENT)
+                + wallet.getPoolSize(WalletTransaction.Pool.PENDING) + wallet.getPoolSize(WalletTransaction.Pool.DEAD);
+    }
+
+    private void rebuildIndex() {
         final Set<Transaction> transactions = wallet.getTransactions(true);
-        final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
+
+        entries.clear();
+        sorted.clear();
 
         for (final Transaction tx : transactions) {
-            final boolean sent = tx.getValue(wallet).signum() < 0;
-            final boolean isInternal = tx.getPurpose() == Transaction.Purpose.KEY_ROTATION;
+            final Entry entry = new Entry(tx, TransactionsAdapter.TransactionCacheEntry.create(tx, wallet));
+            entries.put(tx.getHash(), entry);
+            if (entry.visible)
+                sorted.add(entry);
+        }
+
+        Collections.sort(sorted);
+    }
 
-            if ((direction == WalletTransactionsFragment.Direction.RECEIVED && !sent && !isInternal) || direction == null
-                    || (direction == WalletTransactionsFragment.Direction.SENT && sent && !isInternal))
-                filteredTransactions.add(tx);
+    private void update(final Sha256Hash hash, final boolean valueChanged, final List<Change> changes, final List<Entry> newEntries) {
+        final Entry oldEntry = entries.get(hash);
+        final Transaction tx = wallet.getTransaction(hash);
+        final int oldPosition = oldEntry != null && oldEntry.visible ? Collections.binarySearch(sorted, oldEntry) : -1;
+
+        if (tx == null) {
+            // transaction was removed from the wallet
+            if (oldEntry != null) {
+                entries.remove(hash);
+                if (oldPosition >= 0) {
+                    sorted.remove(oldPosition);
+                    changes.add(new Change(Change.Type.REMOVED, oldPosition, oldPosition, hash));
+                }
+            }
+            return;
         }
 
-        Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+        final Entry newEntry;
+        if (valueChanged || oldEntry == null) {
+            newEntry = new Entry(tx, TransactionsAdapter.TransactionCacheEntry.create(tx, wallet));
+            newEntries.add(newEntry);
+        } else {
+            newEntry = new Entry(tx, oldEntry.cacheEntry);
+        }
+        entries.put(hash, newEntry);
 
-        return filteredTransactions;
+        if (oldPosition >= 0 && newEntry.visible && newEntry.compareTo(oldEntry) == 0) {
+            sorted.set(oldPosition, newEntry);
+            changes.add(new Change(Change.Type.CHANGED, oldPosition, oldPosition, hash));
+            return;
+        }
+
+        if (oldPosition >= 0)
+            sorted.remove(oldPosition);
+
+        if (newEntry.visible) {
+            final int newPosition = -Collections.binarySearch(sorted, newEntry) - 1;
+            sorted.add(newPosition, newEntry);
+
+            if (oldPosition >= 0) {
+                changes.add(new Change(Change.Type.MOVED, oldPosition, newPosition, hash));
+                changes.add(new Change(Change.Type.CHANGED, newPosition, newPosition, hash));
+            } else {
+                changes.add(new Change(Change.Type.INSERTED, newPosition, newPosition, hash));
+            }
+        } else if (oldPosition >= 0) {
+            changes.add(new Change(Change.Type.REMOVED, oldPosition, oldPosition, hash));
+        }
     }
 
-    private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true, false) {
+    /**
+     * Looks up the labels of the given entries in one batch. If changes is non-null, rows whose label differs from
+     * before are reported as changed.
+     */
+    private void resolveLabels(final Collection<Entry> entriesToResolve, @Nullable final List<Change> changes) {
+        final Set<String> addresses = new HashSet<String>();
+        for (final Entry entry : entriesToResolve) {
+            final Address address = entry.cacheEntry.getAddress();
+            if (address != null)
+                addresses.add(address.toBase58());
+        }
+
+        if (addresses.isEmpty())
+            return;
+
+        final Map<String, String> labels = AddressBookProvider.resolveLabels(getContext(), addresses);
+
+        for (final Entry entry : entriesToResolve) {
+            final Address address = entry.cacheEntry.getAddress();
+            if (address == null)
+                continue;
+
+            final String label = labels.get(address.toBase58());
+            final String oldLabel = entry.cacheEntry.getAddressLabel();
+            if (label == null ? oldLabel == null : label.equals(oldLabel))
+                continue;
+
+            entry.cacheEntry = entry.cacheEntry.withAddressLabel(label);
+
+            if (changes != null && entry.visible) {
+                final int position = Collections.binarySearch(sorted, entry);
+                changes.add(new Change(Change.Type.CHANGED, position, position, entry.hash));
+            }
+        }
+    }
+
+    private Snapshot snapshot(final long previousVersion, @Nullable final List<Change> changes) {
+        final int size = sorted.size();
+        final Transaction[] transactions = new Transaction[size];
+        final TransactionsAdapter.TransactionCacheEntry[] cacheEntries = new TransactionsAdapter.TransactionCacheEntry[size];
+        for (int i = 0; i < size; i++) {
+            final Entry entry = sorted.get(i);
+            transactions[i] = entry.tx;
+            cacheEntries[i] = entry.cacheEntry;
+        }
+
+        return new Snapshot(transactions, cacheEntries, previousVersion, version, changes);
+    }
+
+    private boolean isVisible(final Transaction tx, final boolean sent) {
+        final boolean isInternal = tx.getPurpose() == Transaction.Purpose.KEY_ROTATION;
+
+        return (direction == WalletTransactionsFragment.Direction.RECEIVED && !sent && !isInternal) || direction == null
+                || (direction == WalletTransactionsFragment.Direction.SENT && sent && !isInternal);
+    }
+
+    private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true, true) {
         @Override
         public void onThrottledWalletChanged() {
             safeForceLoad();
         }
+
+        @Override
+        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance) {
+            markDirty(tx.getHash(), dirtyTransactions);
+            super.onCoinsReceived(wallet, tx, prevBalance, newBalance);
+        }
+
+        @Override
+        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance) {
+            markDirty(tx.getHash(), dirtyTransactions);
+            super.onCoinsSent(wallet, tx, prevBalance, newBalance);
+        }
+
+        @Override
+        public void onReorganize(final Wallet wallet) {
+            rebuild.set(true);
+            super.onReorganize(wallet);
+        }
+
+        @Override
+        public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
+            markDirty(tx.getHash(), dirtyConfidences);
+            super.onTransactionConfidenceChanged(wallet, tx);
+        }
+    };
+
+    private void markDirty(final Sha256Hash hash, final Set<Sha256Hash> dirty) {
+        synchronized (dirtyTransactions) {
+            dirty.add(hash);
+        }
+    }
+
+    private final ContentObserver addressBookObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(final boolean selfChange) {
+            labelsChanged.set(true);
+            safeForceLoad();
+        }
     };
 
     private final BroadcastReceiver walletChangeReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(final Context context, final Intent intent) {
+            rebuild.set(true);
             safeForceLoad();
         }
     };
@@ -148,24 +375,106 @@ public class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
         }
     }
 
-    private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>() {
+    /**
+     * Sort key and row model of a transaction, captured at the time it was indexed. Transactions are mutated by the
+     * wallet, so the index must not compare against their live state.
+     */
+    private final class Entry implements Comparable<Entry> {
+        private final Transaction tx;
+        private final Sha256Hash hash;
+        private final boolean pending;
+        private final long time;
+        private final boolean visible;
+        private TransactionsAdapter.TransactionCacheEntry cacheEntry;
+
+        private Entry(final Transaction tx, final TransactionsAdapter.TransactionCacheEntry cacheEntry) {
+            this.tx = tx;
+            this.hash = tx.getHash();
+            this.pending = tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.PENDING;
+            final Date updateTime = tx.getUpdateTime();
+            this.time = updateTime != null ? updateTime.getTime() : 0;
+            this.visible = isVisible(tx, cacheEntry.isSent());
+            this.cacheEntry = cacheEntry;
+        }
+
         @Override
-        public int compare(final Transaction tx1, final Transaction tx2) {
-            final boolean pending1 = tx1.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.PENDING;
-            final boolean pending2 = tx2.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.PENDING;
+        public int compareTo(final Entry other) {
+            if (pending != other.pending)
+                return pending ? -1 : 1;
 
-            if (pending1 != pending2)
-                return pending1 ? -1 : 1;
+            if (time != other.time)
+                return time > other.time ? -1 : 1;
 
-            final Date updateTime1 = tx1.getUpdateTime();
-            final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-            final Date updateTime2 = tx2.getUpdateTime();
-            final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
+            return hash.compareTo(other.hash);
+        }
+    }
 
-            if (time1 != time2)
-                return time1 > time2 ? -1 : 1;
+    /**
+     * A positional change between two consecutive snapshots, in the order the adapter has to replay it.
+     */
+    public static final class Change {
+        public enum Type {
+            INSERTED, REMOVED, MOVED, CHANGED
+        }
+
+        public final Type type;
+        public final int fromPosition;
+        public final int toPosition;
+        public final Sha256Hash hash;
 
-            return tx1.getHash().compareTo(tx2.getHash());
+        private Change(final Type type, final int fromPosition, final int toPosition, final Sha256Hash hash) {
+            this.type = type;
+            this.fromPosition = fromPosition;
+            this.toPosition = toPosition;
+            this.hash = hash;
         }
-    };
+    }
+
+    /**
+     * Immutable, sorted list of transactions. If {@link #getChanges()} is non-null, it turns the snapshot with version
+     * {@link #getPreviousVersion()} into this one.
+     */
+    public static final class Snapshot extends AbstractList<Transaction> implements RandomAccess {
+        private final Transaction[] transactions;
+        private final TransactionsAdapter.TransactionCacheEntry[] cacheEntries;
+        private final long previousVersion;
+        private final long version;
+        @Nullable
+        private final List<Change> changes;
+
+        private Snapshot(final Transaction[] transactions, final TransactionsAdapter.TransactionCacheEntry[] cacheEntries,
+                final long previousVersion, final long version, @Nullable final List<Change> changes) {
+            this.transactions = transactions;
+            this.cacheEntries = cacheEntries;
+            this.previousVersion = previousVersion;
+            this.version = version;
+            this.changes = changes != null ? Collections.unmodifiableList(changes) : null;
+        }
+
+        @Override
+        public Transaction get(final int location) {
+            return transactions[location];
+        }
+
+        @Override
+        public int size() {
+            return transactions.length;
+        }
+
+        List<TransactionsAdapter.TransactionCacheEntry> getCacheEntries() {
+            return Collections.unmodifiableList(Arrays.asList(cacheEntries));
+        }
+
+        public long getPreviousVersion() {
+            return previousVersion;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public @Nullable List<Change> getChanges() {
+            return changes;
+        }
+    }
 }
@@ -17,30 +17,22 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet.ui;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TimeZone;
 
-import org.bitcoinj_extra.core.Address;
+import javax.annotation.Nullable;
+
 import org.bitcoinj_extra.core.Transaction;
 import org.bitcoinj_extra.core.VerificationException;
 import org.bitcoinj_extra.core.VersionedChecksummedBytes;
-import org.bitcoinj_extra.utils.MonetaryFormat;
 import org.bitcoinj_extra.wallet.Wallet;
 import org.bitcoinj_extra.wallet.Wallet.BalanceType;
 
@@ -49,6 +41,8 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.LoaderManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
@@ -66,8 +60,11 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -78,8 +75,6 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
 
-import com.google.common.base.Charsets;
-
 import com.matthewmitchell.bitcoin_extra_wallet.Configuration;
 import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;
@@ -92,7 +87,6 @@ import com.matthewmitchell.bitcoin_extra_wallet.ui.send.SweepWalletActivity;
 import com.matthewmitchell.bitcoin_extra_wallet.util.CrashReporter;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Crypto;
 import com.matthewmitchell.bitcoin_extra_wallet.util.HttpGetThread;
-import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Iso8601Format;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Nfc;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Toast;
@@ -105,7 +99,7 @@ import com.matthewmitchell.bitcoin_extra_wallet.R;
  */
 public final class WalletActivity extends AbstractWalletActivity
 		implements ActivityCompat.OnRequestPermissionsResultCallback,
-		LoaderManager.LoaderCallbacks<List<Transaction>>
+		LoaderManager.LoaderCallbacks<TransactionsLoader.Snapshot>, ProgressDialogFragment.OnCancelProgressListener
 {
 	private static final int DIALOG_BACKUP_WALLET_PERMISSION = 0;
 	private static final int DIALOG_RESTORE_WALLET_PERMISSION = 1;
@@ -115,15 +109,22 @@ public final class WalletActivity extends AbstractWalletActivity
 	private static final int DIALOG_LOW_STORAGE_ALERT = 5;
 
     private static final int ID_TRANSACTION_LOADER = 0;
+    private static final String ARG_EXPORT_DIRECTION = "export_direction";
 
 	private static final String PREF_VERSION = "version";
 
 	private WalletApplication application;
 	private Configuration config;
-	private Wallet wallet;
+	private LocalBroadcastManager broadcastManager;
 
 	private Handler handler = new Handler();
 
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
+	@Nullable
+	private ExportTransactionsTask exportTask = null;
+	private long exportFromTimeMs = 0;
+
 	private static final int REQUEST_CODE_SCAN = 0;
 	private static final int REQUEST_CODE_BACKUP_WALLET = 1;
 	private static final int REQUEST_CODE_RESTORE_WALLET = 2;
@@ -135,7 +136,7 @@ public final class WalletActivity extends AbstractWalletActivity
 
 		application = getWalletApplication();
 		config = application.getConfiguration();
-		wallet = application.getWallet();
+		broadcastManager = LocalBroadcastManager.getInstance(this);
 
 		setContentView(R.layout.wallet_content);
 
@@ -147,6 +148,10 @@ public final class WalletActivity extends AbstractWalletActivity
 		handleIntent(getIntent());
 
 		MaybeMaintenanceFragment.add(getFragmentManager());
+
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
 	}
 
 	@Override
@@ -159,22 +164,49 @@ public final class WalletActivity extends AbstractWalletActivity
 			@Override
 			public void run()
 			{
-				// delayed start so that UI has enough time to initialize
-				getWalletApplication().startBlockchainService(true);
+				// delayed start so that UI has enough time to initialize; the service needs the wallet
+				if (application.isWalletLoaded())
+					application.startBlockchainService(true);
 			}
 		}, 1000);
 
+		if (!application.isWalletLoaded())
+			broadcastManager.registerReceiver(walletLoadedReceiver, new IntentFilter(WalletApplication.ACTION_WALLET_LOADED));
+
 		checkLowStorageAlert();
 	}
 
 	@Override
 	protected void onPause()
 	{
+		broadcastManager.unregisterReceiver(walletLoadedReceiver);
 		handler.removeCallbacksAndMessages(null);
 
 		super.onPause();
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		if (exportTask != null)
+			exportTask.cancel();
+		backgroundThread.getLooper().quit();
+
+		super.onDestroy();
+	}
+
+	private final BroadcastReceiver walletLoadedReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			broadcastManager.unregisterReceiver(this);
+
+			invalidateOptionsMenu();
+			application.startBlockchainService(true);
+		}
+	};
+
 	@Override
 	protected void onNewIntent(final Intent intent)
 	{
@@ -288,8 +320,9 @@ public final class WalletActivity extends AbstractWalletActivity
 		menu.findItem(R.id.wallet_options_restore_wallet).setEnabled(writable || readOnly);
 		menu.findItem(R.id.wallet_options_backup_wallet).setEnabled(writable);
 		menu.findItem(R.id.wallet_options_export).setEnabled(writable);
+		final boolean encrypted = application.isWalletLoaded() && application.getWallet().isEncrypted();
 		menu.findItem(R.id.wallet_options_encrypt_keys).setTitle(
-				wallet.isEncrypted() ? R.string.wallet_options_encrypt_keys_change : R.string.wallet_options_encrypt_keys_set);
+				encrypted ? R.string.wallet_options_encrypt_keys_change : R.string.wallet_options_encrypt_keys_set);
 
 		return true;
 	}
@@ -391,13 +424,36 @@ public final class WalletActivity extends AbstractWalletActivity
 	}
 
 	public void handleExportTransactions() {
+        ExportTransactionsDialogFragment.show(getFragmentManager());
+	}
+
+    /**
+     * @param direction
+     *            transactions to export, null for both directions
+     * @param fromTimeMs
+     *            oldest update time of transactions to export, 0 for all
+     */
+    public void exportTransactions(@Nullable final WalletTransactionsFragment.Direction direction, final long fromTimeMs) {
+        if (exportTask != null)
+            return;
 
         // First load the transactions.
 
-        ProgressDialogFragment.showProgress(getFragmentManager(), getString(R.string.export_transactions_progress));
-        getLoaderManager().initLoader(ID_TRANSACTION_LOADER, null, this);
+        exportFromTimeMs = fromTimeMs;
+        ProgressDialogFragment.showCancelableProgress(getFragmentManager(), getString(R.string.export_transactions_progress));
 
-	}
+        final Bundle args = new Bundle();
+        args.putSerializable(ARG_EXPORT_DIRECTION, direction);
+        getLoaderManager().restartLoader(ID_TRANSACTION_LOADER, args, this);
+    }
+
+    @Override
+    public void onCancelProgress() {
+        if (exportTask != null)
+            exportTask.cancel();
+        else
+            getLoaderManager().destroyLoader(ID_TRANSACTION_LOADER);
+    }
 
 	public void handleEncryptKeys()
 	{
@@ -566,7 +622,7 @@ public final class WalletActivity extends AbstractWalletActivity
 		});
 
 		final View replaceWarningView = alertDialog.findViewById(R.id.restore_wallet_from_storage_dialog_replace_warning);
-		final boolean hasCoins = wallet.getBalance(BalanceType.ESTIMATED).signum() > 0;
+		final boolean hasCoins = application.getWallet().getBalance(BalanceType.ESTIMATED).signum() > 0;
 		replaceWarningView.setVisibility(hasCoins ? View.VISIBLE : View.GONE);
 
 		final Spinner fileView = (Spinner) alertDialog.findViewById(R.id.import_keys_from_storage_file);
@@ -630,7 +686,7 @@ public final class WalletActivity extends AbstractWalletActivity
 		final String base = Constants.VERSION_URL + (versionNameSplit >= 0 ? packageInfo.versionName.substring(versionNameSplit) : "");
 		final String url = base + "?package=" + packageInfo.packageName + "&current=" + packageInfo.versionCode;
 
-		new HttpGetThread(url, application.httpUserAgent())
+		new HttpGetThread("version check", url, application.httpUserAgent())
 		{
 			@Override
 			protected void handleLine(final String line, final long serverTime)
@@ -742,7 +798,7 @@ public final class WalletActivity extends AbstractWalletActivity
 				@Override
 				protected CharSequence collectWalletDump()
 				{
-					return wallet.toString(false, true, true, null);
+					return application.getWallet().toString(false, true, true, null);
 				}
 			};
 
@@ -856,37 +912,89 @@ public final class WalletActivity extends AbstractWalletActivity
 
 	private void restoreWalletFromEncrypted(final File file, final String password)
 	{
+		final FileInputStream cipherIn;
 		try
 		{
-			final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
-			final StringBuilder cipherText = new StringBuilder();
-			Io.copy(cipherIn, cipherText, Constants.BACKUP_MAX_CHARS);
-			cipherIn.close();
-
-			final byte[] plainText = Crypto.decryptBytes(cipherText.toString(), password.toCharArray());
-			final InputStream is = new ByteArrayInputStream(plainText);
-
-			restoreWallet(WalletUtils.restoreWalletFromProtobufOrBase58(is, Constants.NETWORK_PARAMETERS));
-
-			log.info("successfully restored encrypted wallet: {}", file);
+			cipherIn = new FileInputStream(file);
 		}
 		catch (final IOException x)
 		{
-			final DialogBuilder dialog = DialogBuilder.warn(this, R.string.import_export_keys_dialog_failure_title);
-			dialog.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()));
-			dialog.setPositiveButton(R.string.button_dismiss, null);
-			dialog.setNegativeButton(R.string.button_retry, new DialogInterface.OnClickListener()
+			showRestoreWalletFailure(x);
+			return;
+		}
+
+		ProgressDialogFragment.showProgress(getFragmentManager(), getString(R.string.restore_wallet_progress));
+
+		new RestoreWalletTask(backgroundHandler)
+		{
+			@Override
+			protected void onSuccess(final Wallet wallet)
 			{
-				@Override
-				public void onClick(final DialogInterface dialog, final int id)
+				ProgressDialogFragment.dismissProgress(getFragmentManager());
+
+				try
 				{
-					showDialog(DIALOG_RESTORE_WALLET);
+					restoreWallet(wallet);
+
+					log.info("successfully restored encrypted wallet: {}", file);
 				}
-			});
-			dialog.show();
+				catch (final IOException x)
+				{
+					showRestoreWalletFailure(x);
+				}
+			}
 
-			log.info("problem restoring wallet", x);
-		}
+			@Override
+			protected void onFailure(final IOException x)
+			{
+				ProgressDialogFragment.dismissProgress(getFragmentManager());
+				showRestoreWalletFailure(x);
+			}
+		}.restoreWalletFromEncrypted(cipherIn, password);
+	}
+
+	private void showRestoreWalletFailure(final IOException x)
+	{
+		final DialogBuilder dialog = DialogBuilder.warn(this, R.string.import_export_keys_dialog_failure_title);
+		dialog.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()));
+		dialog.setPositiveButton(R.string.button_dismiss, null);
+		dialog.setNegativeButton(R.string.button_retry, new DialogInterface.OnClickListener()
+		{
+			@Override
+			public void onClick(final DialogInterface dialog, final int id)
+			{
+				showDialog(DIALOG_RESTORE_WALLET);
+			}
+		});
+		dialog.show();
+
+		log.info("problem restoring wallet", x);
+	}
+
+	public void backupWallet(final File file, final String password)
+	{
+		ProgressDialogFragment.showProgress(getFragmentManager(), getString(R.string.backup_wallet_progress));
+
+		new BackupWalletTask(backgroundHandler)
+		{
+			@Override
+			protected void onSuccess(final File file)
+			{
+				ProgressDialogFragment.dismissProgress(getFragmentManager());
+				ArchiveBackupDialogFragment.show(getFragmentManager(), file);
+			}
+
+			@Override
+			protected void onFailure(final IOException x)
+			{
+				ProgressDialogFragment.dismissProgress(getFragmentManager());
+
+				final DialogBuilder dialog = DialogBuilder.warn(WalletActivity.this, R.string.import_export_keys_dialog_failure_title);
+				dialog.setMessage(getString(R.string.export_keys_dialog_failure, x.getMessage()));
+				dialog.singleDismissButton(null);
+				dialog.show();
+			}
+		}.backupWallet(application.getWallet(), file, password);
 	}
 
 	private void restoreWalletFromProtobuf(final File file)
@@ -1000,77 +1108,60 @@ public final class WalletActivity extends AbstractWalletActivity
 	}
 
     @Override
-    public Loader<List<Transaction>> onCreateLoader(int id, Bundle args) {
-        return new TransactionsLoader(this, wallet, null);
+    public Loader<TransactionsLoader.Snapshot> onCreateLoader(int id, Bundle args) {
+        final WalletTransactionsFragment.Direction direction = args != null
+                ? (WalletTransactionsFragment.Direction) args.getSerializable(ARG_EXPORT_DIRECTION) : null;
+        return new TransactionsLoader(this, application.getWallet(), direction);
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Transaction>> loader, List<Transaction> txs) {
+    public void onLoadFinished(Loader<TransactionsLoader.Snapshot> loader, TransactionsLoader.Snapshot txs) {
 
-        // Create CSV file from transactions
+		// Ensure loader does not call onLoadFinished again
+        getLoaderManager().destroyLoader(ID_TRANSACTION_LOADER);
 
-        final File file = new File(Constants.Files.EXTERNAL_WALLET_BACKUP_DIR, Constants.Files.TX_EXPORT_NAME + "-" + Iso8601Format.getFileDate() + ".csv");
+        if (exportTask != null)
+            return;
 
-        try {
+        // Stream CSV file from transactions in the background
 
-            final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-            writer.append("Date,Label,Amount (" + MonetaryFormat.CODE_BTC + "),Fee (" + MonetaryFormat.CODE_BTC + "),Address,Transaction Hash,Confirmations\n");
+        final File file = new File(Constants.Files.EXTERNAL_WALLET_BACKUP_DIR, Constants.Files.TX_EXPORT_NAME + "-" + Iso8601Format.getFileDate() + ".csv");
 
-            if (txs.isEmpty()) {
-                new Toast(this).longToast(R.string.export_transactions_no_transactions);
-                log.error("exporting transactions failed");
-                return;
+        exportTask = new ExportTransactionsTask(backgroundHandler) {
+            @Override
+            protected void onProgress(final int progress, final int max) {
+                ProgressDialogFragment.updateProgress(getFragmentManager(), progress, max);
             }
 
-            final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm z");
-            dateFormat.setTimeZone(TimeZone.getDefault());
-
-            for (Transaction tx: txs) {
-
-                String memo = tx.getMemo();
-                String fee = tx.getFee() == null ? "" : tx.getFee().toPlainString();
-                Address address = WalletUtils.getAddressToDisplay(tx, wallet);
-                String addressStr = address == null ? getString(R.string.export_transactions_unknown) : address.toString();
-
-                if (memo == null)
-                    memo = "";
-
-                writer.append(dateFormat.format(tx.getUpdateTime()) + ",");
-                writer.append(memo + ",");
-                writer.append(tx.getValue(wallet).toPlainString() + ",");
-                writer.append(fee + ",");
-                writer.append(address + ",");
-                writer.append(tx.getHash().toString() + ",");
-                writer.append(tx.getConfidence().getDepthInBlocks() + "\n");
+            @Override
+            protected void onSuccess(final File file, final int numRows) {
+                exportTask = null;
+                ProgressDialogFragment.dismissProgress(getFragmentManager());
 
+                if (numRows == 0)
+                    new Toast(WalletActivity.this).longToast(R.string.export_transactions_no_transactions);
+                else
+                    ArchiveTxExportDialogFragment.show(getFragmentManager(), file);
             }
 
-            writer.flush();
-            writer.close();
-
-        } catch (IOException x) {
-            new Toast(this).longToast(R.string.export_transactions_mail_intent_failed);
-            log.error("exporting transactions failed", x);
-            return;
-        }
-
-        // Do dialog stuff outside of onLoadFinished, as Android doesn't like it
+            @Override
+            protected void onCancelled() {
+                exportTask = null;
+            }
 
-        handler.post(new Runnable() {
             @Override
-            public void run() {
+            protected void onFailure(final IOException x) {
+                exportTask = null;
                 ProgressDialogFragment.dismissProgress(getFragmentManager());
-                ArchiveTxExportDialogFragment.show(getFragmentManager(), file);
+                new Toast(WalletActivity.this).longToast(R.string.export_transactions_mail_intent_failed);
             }
-        });
-
-		// Ensure loader does not call onLoadFinished again
-        getLoaderManager().destroyLoader(ID_TRANSACTION_LOADER);
+        };
+        exportTask.exportTransactions(file, txs, exportFromTimeMs, getString(R.string.export_transactions_unknown));
 
     }
 
     @Override
-    public void onLoaderReset(Loader<List<Transaction>> loader) {
+    public void onLoaderReset(Loader<TransactionsLoader.Snapshot> loader) {
 
     }
 }
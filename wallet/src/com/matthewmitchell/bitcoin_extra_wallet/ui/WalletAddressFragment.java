@@ -72,6 +72,7 @@ public final class WalletAddressFragment extends Fragment implements NfcAdapter.
 	private WalletApplication application;
 	private Configuration config;
 	private LoaderManager loaderManager;
+	private LocalBroadcastManager broadcastManager;
 	@Nullable
 	private NfcAdapter nfcAdapter;
 
@@ -92,6 +93,7 @@ public final class WalletAddressFragment extends Fragment implements NfcAdapter.
 		this.application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
 		this.loaderManager = getLoaderManager();
+		this.broadcastManager = LocalBroadcastManager.getInstance(activity);
 		this.nfcAdapter = NfcAdapter.getDefaultAdapter(activity);
 	}
 
@@ -130,7 +132,10 @@ public final class WalletAddressFragment extends Fragment implements NfcAdapter.
 	{
 		super.onResume();
 
-		loaderManager.initLoader(ID_ADDRESS_LOADER, null, addressLoaderCallbacks);
+		if (application.isWalletLoaded())
+			loaderManager.initLoader(ID_ADDRESS_LOADER, null, addressLoaderCallbacks);
+		else
+			broadcastManager.registerReceiver(walletLoadedReceiver, new IntentFilter(WalletApplication.ACTION_WALLET_LOADED));
 
 		updateView();
 	}
@@ -138,11 +143,23 @@ public final class WalletAddressFragment extends Fragment implements NfcAdapter.
 	@Override
 	public void onPause()
 	{
+		broadcastManager.unregisterReceiver(walletLoadedReceiver);
 		loaderManager.destroyLoader(ID_ADDRESS_LOADER);
 
 		super.onPause();
 	}
 
+	private final BroadcastReceiver walletLoadedReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			broadcastManager.unregisterReceiver(this);
+
+			loaderManager.initLoader(ID_ADDRESS_LOADER, null, addressLoaderCallbacks);
+		}
+	};
+
 	private void updateView()
 	{
 		currentAddressQrView.setImageBitmap(currentAddressQrBitmap);
@@ -150,6 +167,9 @@ public final class WalletAddressFragment extends Fragment implements NfcAdapter.
 
 	private void handleShowQRCode()
 	{
+		if (currentAddressQrAddress == null)
+			return;
+
 		WalletAddressDialogFragment.show(getFragmentManager(), currentAddressQrBitmap, currentAddressQrAddress.address);
 	}
 
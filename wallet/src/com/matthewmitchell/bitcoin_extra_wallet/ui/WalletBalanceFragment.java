@@ -21,16 +21,19 @@ import javax.annotation.Nullable;
 
 import org.bitcoinj_extra.core.Coin;
 import org.bitcoinj_extra.utils.Fiat;
-import org.bitcoinj_extra.wallet.Wallet;
 
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.Loader;
 import android.database.Cursor;
 import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -45,6 +48,7 @@ import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.ExchangeRatesProvider;
 import com.matthewmitchell.bitcoin_extra_wallet.ExchangeRatesProvider.ExchangeRate;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;
+import com.matthewmitchell.bitcoin_extra_wallet.WalletSummary;
 import com.matthewmitchell.bitcoin_extra_wallet.service.BlockchainState;
 import com.matthewmitchell.bitcoin_extra_wallet.service.BlockchainStateLoader;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.send.SendCoinsActivity;
@@ -59,8 +63,8 @@ public final class WalletBalanceFragment extends Fragment
 	private WalletApplication application;
 	private AbstractWalletActivity activity;
 	private Configuration config;
-	private Wallet wallet;
 	private LoaderManager loaderManager;
+	private LocalBroadcastManager broadcastManager;
 
 	private View viewBalance;
 	private CurrencyTextView viewBalanceBtc;
@@ -75,6 +79,7 @@ public final class WalletBalanceFragment extends Fragment
 	private Coin balance = null;
 	@Nullable
 	private ExchangeRate exchangeRate = null;
+	private long exchangeRateLastUpdated = 0;
 	@Nullable
 	private BlockchainState blockchainState = null;
 
@@ -94,8 +99,8 @@ public final class WalletBalanceFragment extends Fragment
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
-		this.wallet = application.getWallet();
 		this.loaderManager = getLoaderManager();
+		this.broadcastManager = LocalBroadcastManager.getInstance(activity);
 
 		showLocalBalance = getResources().getBoolean(R.bool.show_local_balance);
 		installedFromGooglePlay = "com.android.vending".equals(application.getPackageManager().getInstallerPackageName(application.getPackageName()));
@@ -156,7 +161,18 @@ public final class WalletBalanceFragment extends Fragment
 	{
 		super.onResume();
 
-		loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
+		if (application.isWalletLoaded())
+		{
+			loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
+		}
+		else
+		{
+			final WalletSummary summary = application.getWalletSummary();
+			if (balance == null && summary != null)
+				balance = summary.balance;
+
+			broadcastManager.registerReceiver(walletLoadedReceiver, new IntentFilter(WalletApplication.ACTION_WALLET_LOADED));
+		}
 		loaderManager.initLoader(ID_RATE_LOADER, null, rateLoaderCallbacks);
 		loaderManager.initLoader(ID_BLOCKCHAIN_STATE_LOADER, null, blockchainStateLoaderCallbacks);
 
@@ -166,6 +182,7 @@ public final class WalletBalanceFragment extends Fragment
 	@Override
 	public void onPause()
 	{
+		broadcastManager.unregisterReceiver(walletLoadedReceiver);
 		loaderManager.destroyLoader(ID_BLOCKCHAIN_STATE_LOADER);
 		loaderManager.destroyLoader(ID_RATE_LOADER);
 		loaderManager.destroyLoader(ID_BALANCE_LOADER);
@@ -275,10 +292,11 @@ public final class WalletBalanceFragment extends Fragment
 					if (exchangeRate != null)
 					{
 						final Fiat localValue = exchangeRate.rate.coinToFiat(balance);
+						final boolean isStale = ExchangeRatesProvider.isStale(exchangeRateLastUpdated);
 						viewBalanceLocal.setVisibility(View.VISIBLE);
 						viewBalanceLocal.setFormat(Constants.LOCAL_FORMAT.code(0, Constants.PREFIX_ALMOST_EQUAL_TO + exchangeRate.getCurrencyCode()));
 						viewBalanceLocal.setAmount(localValue);
-						viewBalanceLocal.setTextColor(getResources().getColor(R.color.fg_less_significant));
+						viewBalanceLocal.setTextColor(getResources().getColor(isStale ? R.color.fg_insignificant : R.color.fg_less_significant));
 					}
 					else
 					{
@@ -300,6 +318,17 @@ public final class WalletBalanceFragment extends Fragment
 		}
 	}
 
+	private final BroadcastReceiver walletLoadedReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			broadcastManager.unregisterReceiver(this);
+
+			loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
+		}
+	};
+
 	private final LoaderCallbacks<BlockchainState> blockchainStateLoaderCallbacks = new LoaderManager.LoaderCallbacks<BlockchainState>()
 	{
 		@Override
@@ -327,7 +356,7 @@ public final class WalletBalanceFragment extends Fragment
 		@Override
 		public Loader<Coin> onCreateLoader(final int id, final Bundle args)
 		{
-			return new WalletBalanceLoader(activity, wallet);
+			return new WalletBalanceLoader(activity, application.getWallet());
 		}
 
 		@Override
@@ -360,6 +389,7 @@ public final class WalletBalanceFragment extends Fragment
 			{
 				data.moveToFirst();
 				exchangeRate = ExchangeRatesProvider.getExchangeRate(data);
+				exchangeRateLastUpdated = ExchangeRatesProvider.getLastUpdated(data);
 				updateView();
 			}
 		}
@@ -17,14 +17,11 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet.ui;
 
-import java.util.List;
-
 import javax.annotation.Nullable;
 
 import org.bitcoinj_extra.core.Address;
 import org.bitcoinj_extra.core.Transaction;
 import org.bitcoinj_extra.core.Transaction.Purpose;
-import org.bitcoinj_extra.utils.Threading;
 import org.bitcoinj_extra.wallet.Wallet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,25 +31,24 @@ import android.app.Fragment;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.app.admin.DevicePolicyManager;
-import android.content.ContentResolver;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.provider.Settings;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.SpannableStringBuilder;
-import android.text.format.DateUtils;
 import android.text.style.StyleSpan;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -67,11 +63,11 @@ import android.widget.ViewAnimator;
 import com.matthewmitchell.bitcoin_extra_wallet.AddressBookProvider;
 import com.matthewmitchell.bitcoin_extra_wallet.Configuration;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;
+import com.matthewmitchell.bitcoin_extra_wallet.WalletSummary;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.TransactionsAdapter.Warning;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.send.RaiseFeeDialogFragment;
 import com.matthewmitchell.bitcoin_extra_wallet.util.BitmapFragment;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Qr;
-import com.matthewmitchell.bitcoin_extra_wallet.util.ThrottlingWalletChangeListener;
 import com.matthewmitchell.bitcoin_extra_wallet.util.WalletUtils;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
@@ -79,7 +75,7 @@ import com.matthewmitchell.bitcoin_extra_wallet.R;
 /**
  * @author Andreas Schildbach
  */
-public class WalletTransactionsFragment extends Fragment implements LoaderCallbacks<List<Transaction>>, TransactionsAdapter.OnClickListener,
+public class WalletTransactionsFragment extends Fragment implements LoaderCallbacks<TransactionsLoader.Snapshot>, TransactionsAdapter.OnClickListener,
 		OnSharedPreferenceChangeListener
 {
 	public enum Direction
@@ -90,9 +86,10 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 	private AbstractWalletActivity activity;
 	private WalletApplication application;
 	private Configuration config;
+	@Nullable
 	private Wallet wallet;
-	private ContentResolver resolver;
 	private LoaderManager loaderManager;
+	private LocalBroadcastManager broadcastManager;
 	private DevicePolicyManager devicePolicyManager;
 
 	private ViewAnimator viewGroup;
@@ -103,26 +100,14 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 	@Nullable
 	private Direction direction;
 
-	private final Handler handler = new Handler();
-
 	private static final int ID_TRANSACTION_LOADER = 0;
 	private static final String ARG_DIRECTION = "direction";
 
-	private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 	private static final Uri KEY_ROTATION_URI = Uri.parse("https://bitcoin.org/en/alert/2013-08-11-android");
 	private static final int SHOW_QR_THRESHOLD_BYTES = 2500;
 
 	private static final Logger log = LoggerFactory.getLogger(WalletTransactionsFragment.class);
 
-	private final ContentObserver addressBookObserver = new ContentObserver(handler)
-	{
-		@Override
-		public void onChange(final boolean selfChange)
-		{
-			adapter.clearCacheAndNotifyDataSetChanged();
-		}
-	};
-
 	@Override
 	public void onAttach(final Activity activity)
 	{
@@ -131,9 +116,10 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
-		this.wallet = application.getWallet();
-		this.resolver = activity.getContentResolver();
+		if (application.isWalletLoaded())
+			this.wallet = application.getWallet();
 		this.loaderManager = getLoaderManager();
+		this.broadcastManager = LocalBroadcastManager.getInstance(activity);
 		this.devicePolicyManager = (DevicePolicyManager) application.getSystemService(Context.DEVICE_POLICY_SERVICE);
 	}
 
@@ -188,18 +174,23 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 	{
 		super.onResume();
 
-		resolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, addressBookObserver);
-
 		config.registerOnSharedPreferenceChangeListener(this);
 
-		final Bundle args = new Bundle();
-		args.putSerializable(ARG_DIRECTION, direction);
-		loaderManager.initLoader(ID_TRANSACTION_LOADER, args, this);
+		if (application.isWalletLoaded())
+		{
+			initLoader();
+		}
+		else
+		{
+			final WalletSummary summary = application.getWalletSummary();
+			if (summary != null && !summary.rows.isEmpty() && adapter.transactions.isEmpty())
+			{
+				adapter.replace(summary);
+				viewGroup.setDisplayedChild(2);
+			}
 
-		wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, transactionChangeListener);
-		wallet.addCoinsSentEventListener(Threading.SAME_THREAD, transactionChangeListener);
-		wallet.addChangeEventListener(Threading.SAME_THREAD, transactionChangeListener);
-		wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, transactionChangeListener);
+			broadcastManager.registerReceiver(walletLoadedReceiver, new IntentFilter(WalletApplication.ACTION_WALLET_LOADED));
+		}
 
 		updateView();
 	}
@@ -207,21 +198,38 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 	@Override
 	public void onPause()
 	{
-		wallet.removeTransactionConfidenceEventListener(transactionChangeListener);
-		wallet.removeChangeEventListener(transactionChangeListener);
-		wallet.removeCoinsSentEventListener(transactionChangeListener);
-		wallet.removeCoinsReceivedEventListener(transactionChangeListener);
-		transactionChangeListener.removeCallbacks();
-
+		broadcastManager.unregisterReceiver(walletLoadedReceiver);
 		loaderManager.destroyLoader(ID_TRANSACTION_LOADER);
 
 		config.unregisterOnSharedPreferenceChangeListener(this);
 
-		resolver.unregisterContentObserver(addressBookObserver);
-
 		super.onPause();
 	}
 
+	private void initLoader()
+	{
+		if (wallet == null)
+		{
+			wallet = application.getWallet();
+			adapter.setWallet(wallet);
+		}
+
+		final Bundle args = new Bundle();
+		args.putSerializable(ARG_DIRECTION, direction);
+		loaderManager.initLoader(ID_TRANSACTION_LOADER, args, this);
+	}
+
+	private final BroadcastReceiver walletLoadedReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			broadcastManager.unregisterReceiver(this);
+
+			initLoader();
+		}
+	};
+
 	@Override
 	public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater)
 	{
@@ -258,9 +266,12 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 
 		item.setChecked(true);
 
-		final Bundle args = new Bundle();
-		args.putSerializable(ARG_DIRECTION, direction);
-		loaderManager.restartLoader(ID_TRANSACTION_LOADER, args, this);
+		if (wallet != null)
+		{
+			final Bundle args = new Bundle();
+			args.putSerializable(ARG_DIRECTION, direction);
+			loaderManager.restartLoader(ID_TRANSACTION_LOADER, args, this);
+		}
 
 		return true;
 	}
@@ -268,6 +279,10 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 	@Override
 	public void onTransactionMenuClick(final View view, final Transaction tx)
 	{
+		// rows from the wallet summary have no wallet to act upon yet
+		if (wallet == null)
+			return;
+
 		final boolean txSent = tx.getValue(wallet).signum() < 0;
 		final Address txAddress = txSent ? WalletUtils.getToAddressOfSent(tx, wallet) : WalletUtils.getWalletAddressOfReceived(tx, wallet);
 		final byte[] txSerialized = tx.unsafeBitcoinSerialize();
@@ -359,13 +374,13 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 	}
 
 	@Override
-	public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args)
+	public Loader<TransactionsLoader.Snapshot> onCreateLoader(final int id, final Bundle args)
 	{
 		return new TransactionsLoader(activity, wallet, (Direction) args.getSerializable(ARG_DIRECTION));
 	}
 
 	@Override
-	public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions)
+	public void onLoadFinished(final Loader<TransactionsLoader.Snapshot> loader, final TransactionsLoader.Snapshot transactions)
 	{
 		final Direction direction = ((TransactionsLoader) loader).getDirection();
 
@@ -390,20 +405,11 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 	}
 
 	@Override
-	public void onLoaderReset(final Loader<List<Transaction>> loader)
+	public void onLoaderReset(final Loader<TransactionsLoader.Snapshot> loader)
 	{
 		// don't clear the adapter, because it will confuse users
 	}
 
-	private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(THROTTLE_MS)
-	{
-		@Override
-		public void onThrottledWalletChanged()
-		{
-			adapter.notifyDataSetChanged();
-		}
-	};
-
     @Override
 	public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key)
 	{
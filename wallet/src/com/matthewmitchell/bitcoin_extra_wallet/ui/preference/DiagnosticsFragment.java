@@ -31,11 +31,13 @@ import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceScreen;
+import com.matthewmitchell.bitcoin_extra_wallet.AddressBookProvider;
 import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.DialogBuilder;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.ReportIssueDialogBuilder;
 import com.matthewmitchell.bitcoin_extra_wallet.util.CrashReporter;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
 
@@ -48,6 +50,8 @@ public final class DiagnosticsFragment extends PreferenceFragment
 	private WalletApplication application;
 
 	private static final String PREFS_KEY_REPORT_ISSUE = "report_issue";
+	private static final String PREFS_KEY_NETWORK_METRICS = "network_metrics";
+	private static final String PREFS_KEY_ADDRESS_LABEL_CACHE = "address_label_cache";
 	private static final String PREFS_KEY_INITIATE_RESET = "initiate_reset";
 	private static final String PREFS_KEY_EXTENDED_PUBLIC_KEY = "extended_public_key";
 
@@ -80,6 +84,16 @@ public final class DiagnosticsFragment extends PreferenceFragment
 			handleReportIssue();
 			return true;
 		}
+		else if (PREFS_KEY_NETWORK_METRICS.equals(key))
+		{
+			handleNetworkMetrics();
+			return true;
+		}
+		else if (PREFS_KEY_ADDRESS_LABEL_CACHE.equals(key))
+		{
+			handleAddressLabelCache();
+			return true;
+		}
 		else if (PREFS_KEY_INITIATE_RESET.equals(key))
 		{
 			handleInitiateReset();
@@ -136,6 +150,43 @@ public final class DiagnosticsFragment extends PreferenceFragment
 		dialog.show();
 	}
 
+	private void handleNetworkMetrics()
+	{
+		final NetworkMetrics metrics = NetworkMetrics.getInstance();
+
+		final DialogBuilder dialog = new DialogBuilder(activity);
+		dialog.setTitle(R.string.preferences_network_metrics_title);
+		if (metrics.isEmpty())
+		{
+			dialog.setMessage(R.string.preferences_network_metrics_dialog_empty);
+		}
+		else
+		{
+			final StringBuilder report = new StringBuilder();
+			try
+			{
+				metrics.appendReport(report);
+			}
+			catch (final IOException x)
+			{
+				report.append(x.toString());
+			}
+			dialog.setMessage(report);
+		}
+		dialog.singleDismissButton(null);
+		dialog.show();
+	}
+
+	private void handleAddressLabelCache()
+	{
+		final DialogBuilder dialog = new DialogBuilder(activity);
+		dialog.setTitle(R.string.preferences_address_label_cache_title);
+		dialog.setMessage(getString(R.string.preferences_address_label_cache_dialog_message, AddressBookProvider.getLabelCacheHits(),
+				AddressBookProvider.getLabelCacheMisses()));
+		dialog.singleDismissButton(null);
+		dialog.show();
+	}
+
 	private void handleInitiateReset()
 	{
 		final DialogBuilder dialog = new DialogBuilder(activity);
@@ -38,10 +38,10 @@ import android.os.Looper;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 
-import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.data.PaymentIntent;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.InputParser;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Bluetooth;
+import com.matthewmitchell.bitcoin_extra_wallet.util.HttpClient;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
 
@@ -92,32 +92,17 @@ public abstract class RequestPaymentRequestTask
 				{
 					log.info("trying to request payment request from {}", url);
 
-					HttpURLConnection connection = null;
-					InputStream is = null;
+					HttpClient.Response response = null;
 
 					try
 					{
-						connection = (HttpURLConnection) new URL(url).openConnection();
-
-						connection.setInstanceFollowRedirects(false);
-						connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setUseCaches(false);
-						connection.setDoInput(true);
-						connection.setDoOutput(false);
-
-						connection.setRequestMethod("GET");
-						connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTREQUEST);
-						if (userAgent != null)
-							connection.addRequestProperty("User-Agent", userAgent);
-						connection.connect();
-
-						final int responseCode = connection.getResponseCode();
+						response = HttpClient.getInstance().get("payment request", new URL(url), userAgent, PaymentProtocol.MIMETYPE_PAYMENTREQUEST,
+								false);
+
+						final int responseCode = response.code;
 						if (responseCode == HttpURLConnection.HTTP_OK)
 						{
-							is = connection.getInputStream();
-
-							new InputParser.StreamInputParser(connection.getContentType(), is)
+							new InputParser.StreamInputParser(response.contentType, response.body())
 							{
 								@Override
 								protected void handlePaymentIntent(final PaymentIntent paymentIntent)
@@ -136,7 +121,7 @@ public abstract class RequestPaymentRequestTask
 						}
 						else
 						{
-							final String responseMessage = connection.getResponseMessage();
+							final String responseMessage = response.message;
 
 							log.info("got http error {}: {}", responseCode, responseMessage);
 
@@ -151,20 +136,8 @@ public abstract class RequestPaymentRequestTask
 					}
 					finally
 					{
-						if (is != null)
-						{
-							try
-							{
-								is.close();
-							}
-							catch (final IOException x)
-							{
-								// swallow
-							}
-						}
-
-						if (connection != null)
-							connection.disconnect();
+						if (response != null)
+							response.close();
 					}
 				}
 			});
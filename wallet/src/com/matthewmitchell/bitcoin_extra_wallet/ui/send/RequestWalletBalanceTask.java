@@ -52,6 +52,7 @@ import android.os.Looper;
 import com.google.common.base.Charsets;
 
 import com.matthewmitchell.bitcoin_extra_wallet.Constants;
+import com.matthewmitchell.bitcoin_extra_wallet.util.HttpClient;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
@@ -103,29 +104,16 @@ public final class RequestWalletBalanceTask
 
 				log.debug("trying to request wallet balance from {}", url);
 
-				HttpURLConnection connection = null;
-				Reader reader = null;
+				HttpClient.Response response = null;
 
 				try
 				{
-					connection = (HttpURLConnection) new URL(url.toString()).openConnection();
+					response = HttpClient.getInstance().get("wallet balance", new URL(url.toString()), userAgent, null, false);
 
-					connection.setInstanceFollowRedirects(false);
-					connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-					connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-					connection.setUseCaches(false);
-					connection.setDoInput(true);
-					connection.setDoOutput(false);
-
-					connection.setRequestMethod("GET");
-					if (userAgent != null)
-						connection.addRequestProperty("User-Agent", userAgent);
-					connection.connect();
-
-					final int responseCode = connection.getResponseCode();
+					final int responseCode = response.code;
 					if (responseCode == HttpURLConnection.HTTP_OK)
 					{
-						reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Charsets.UTF_8);
+						final Reader reader = new InputStreamReader(new BufferedInputStream(response.body(), 1024), Charsets.UTF_8);
 						final StringBuilder content = new StringBuilder();
 						Io.copy(reader, content);
 
@@ -193,7 +181,7 @@ public final class RequestWalletBalanceTask
 					}
 					else
 					{
-						final String responseMessage = connection.getResponseMessage();
+						final String responseMessage = response.message;
 
 						log.info("got http error '{}: {}' from {}", responseCode, responseMessage, url);
 
@@ -214,20 +202,8 @@ public final class RequestWalletBalanceTask
 				}
 				finally
 				{
-					if (reader != null)
-					{
-						try
-						{
-							reader.close();
-						}
-						catch (final IOException x)
-						{
-							// swallow
-						}
-					}
-
-					if (connection != null)
-						connection.disconnect();
+					if (response != null)
+						response.close();
 				}
 			}
 		});
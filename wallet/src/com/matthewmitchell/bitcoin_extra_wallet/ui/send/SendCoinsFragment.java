@@ -61,13 +61,8 @@ import org.spongycastle.crypto.params.KeyParameter;
 import com.google.common.base.Strings;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.DonateSelectionDialogFragment;
 import com.netki.WalletNameResolver;
-import com.netki.dns.DNSBootstrapService;
-import com.netki.dnssec.DNSSECResolver;
 import com.netki.exceptions.WalletNameCurrencyUnavailableException;
 import com.netki.exceptions.WalletNameLookupException;
-import com.netki.tlsa.CACertService;
-import com.netki.tlsa.CertChainValidator;
-import com.netki.tlsa.TLSAValidator;
 
 import android.app.Activity;
 import android.app.Fragment;
@@ -145,6 +140,7 @@ import com.matthewmitchell.bitcoin_extra_wallet.ui.ScanActivity;
 import com.matthewmitchell.bitcoin_extra_wallet.ui.TransactionsAdapter;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Bluetooth;
 import com.matthewmitchell.bitcoin_extra_wallet.util.Nfc;
+import com.matthewmitchell.bitcoin_extra_wallet.util.TrustStore;
 import com.matthewmitchell.bitcoin_extra_wallet.util.WalletUtils;
 
 import com.matthewmitchell.bitcoin_extra_wallet.R;
@@ -174,6 +170,8 @@ public final class SendCoinsFragment extends Fragment
 	private AutoCompleteTextView receivingAddressView;
 	private ReceivingAddressViewAdapter receivingAddressViewAdapter;
 	private ReceivingAddressLoaderCallbacks receivingAddressLoaderCallbacks;
+	private String walletNameConstraint = "";
+	private String walletNameLoaderConstraint = "";
 	private View receivingStaticView;
 	private TextView receivingStaticAddressView;
 	private TextView receivingStaticLabelView;
@@ -206,6 +204,10 @@ public final class SendCoinsFragment extends Fragment
 
 	private Transaction dryrunTransaction;
 	private Exception dryrunException;
+	private boolean dryrunPending = false;
+	private int dryrunSequence = 0;
+	@Nullable
+	private Runnable dryrunTask = null;
 
 	// SHAPESHIFT
 
@@ -252,6 +254,9 @@ public final class SendCoinsFragment extends Fragment
 	private static final int REQUEST_CODE_ENABLE_BLUETOOTH_FOR_PAYMENT_REQUEST = 1;
 	private static final int REQUEST_CODE_ENABLE_BLUETOOTH_FOR_DIRECT_PAYMENT = 2;
 
+	private static final long DRYRUN_DEBOUNCE_MS = 150;
+	private static final long WALLET_NAME_DEBOUNCE_MS = 500;
+
 	private static final Logger log = LoggerFactory.getLogger(SendCoinsFragment.class);
 
 	private enum State
@@ -287,7 +292,7 @@ public final class SendCoinsFragment extends Fragment
 
 			loaderManager.restartLoader(ID_RECEIVING_ADDRESS_BOOK_LOADER, args, receivingAddressLoaderCallbacks);
 			if (config.getLookUpWalletNames())
-				loaderManager.restartLoader(ID_RECEIVING_ADDRESS_NAME_LOADER, args, receivingAddressLoaderCallbacks);
+				scheduleWalletNameLookup(s.toString().trim());
 		}
 
 		@Override
@@ -328,7 +333,7 @@ public final class SendCoinsFragment extends Fragment
 		{
             updateShapeShift(false);
 			updateView();
-			handler.post(dryrunRunnable);
+			scheduleDryrun();
 		}
 
 		@Override
@@ -514,9 +519,47 @@ public final class SendCoinsFragment extends Fragment
 		}
 	}
 
+	/**
+	 * Waits for typing to pause before looking up a wallet name. Input that can't be a whole name yet is never looked
+	 * up, and clears any earlier result right away.
+	 */
+	private void scheduleWalletNameLookup(final String constraint)
+	{
+		handler.removeCallbacks(walletNameLookupRunnable);
+		walletNameConstraint = constraint;
+
+		if (WalletUtils.isPossiblyCompleteWalletName(constraint))
+			handler.postDelayed(walletNameLookupRunnable, WALLET_NAME_DEBOUNCE_MS);
+		else if (!walletNameLoaderConstraint.isEmpty())
+			restartWalletNameLoader("");
+	}
+
+	private final Runnable walletNameLookupRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			if (!walletNameConstraint.equals(walletNameLoaderConstraint))
+				restartWalletNameLoader(walletNameConstraint);
+		}
+	};
+
+	private void restartWalletNameLoader(final String constraint)
+	{
+		walletNameLoaderConstraint = constraint;
+
+		// cancels a lookup still running for earlier input
+		final Bundle args = new Bundle();
+		args.putString(ReceivingAddressLoaderCallbacks.ARG_CONSTRAINT, constraint);
+		loaderManager.restartLoader(ID_RECEIVING_ADDRESS_NAME_LOADER, args, receivingAddressLoaderCallbacks);
+	}
+
 	private static class ReceivingAddressNameLoader extends AsyncTaskLoader<Cursor>
 	{
 		private String constraint;
+		@Nullable
+		private Thread loadingThread;
+		private volatile boolean canceled = false;
 
 		public ReceivingAddressNameLoader(final Context context, final String constraint)
 		{
@@ -537,12 +580,16 @@ public final class SendCoinsFragment extends Fragment
 			final MatrixCursor cursor = new MatrixCursor(
 					new String[] { AddressBookProvider.KEY_ROWID, AddressBookProvider.KEY_LABEL, AddressBookProvider.KEY_ADDRESS }, 1);
 
-			if (constraint.indexOf('.') >= 0 || constraint.indexOf('@') >= 0)
+			if (WalletUtils.isPossiblyCompleteWalletName(constraint))
 			{
+				synchronized (this)
+				{
+					loadingThread = Thread.currentThread();
+				}
+
 				try
 				{
-					final WalletNameResolver resolver = new WalletNameResolver(new DNSSECResolver(new DNSBootstrapService()),
-							new TLSAValidator(new DNSSECResolver(new DNSBootstrapService()), CACertService.getInstance(), new CertChainValidator()));
+					final WalletNameResolver resolver = ((WalletApplication) getContext()).getWalletNameResolver();
 					final BitcoinURI resolvedUri = resolver.resolve(constraint, Constants.WALLET_NAME_CURRENCY_CODE, true);
 					if (resolvedUri != null)
 					{
@@ -561,17 +608,36 @@ public final class SendCoinsFragment extends Fragment
 				}
 				catch (final WalletNameLookupException x)
 				{
-					log.info("error looking up wallet name '" + constraint + "': " + x.getMessage());
+					if (!canceled)
+						log.info("error looking up wallet name '" + constraint + "': " + x.getMessage());
 				}
 				catch (final Exception x)
 				{
-					log.info("error looking up wallet name", x);
+					if (!canceled)
+						log.info("error looking up wallet name", x);
+				}
+				finally
+				{
+					synchronized (this)
+					{
+						loadingThread = null;
+						Thread.interrupted(); // don't leave the interrupt on the pooled thread
+					}
 				}
 			}
 
 			return cursor;
 		}
 
+		@Override
+		public synchronized void cancelLoadInBackground()
+		{
+			// lookups block on the network, so a superseded one is interrupted instead of being left to finish
+			canceled = true;
+			if (loadingThread != null)
+				loadingThread.interrupt();
+		}
+
 		private void safeForceLoad()
 		{
 			try
@@ -655,6 +721,9 @@ public final class SendCoinsFragment extends Fragment
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
 
+        // payment requests and wallet names are verified against it
+        TrustStore.preload();
+
     }
 
     @Override
@@ -889,12 +958,14 @@ public final class SendCoinsFragment extends Fragment
 		loaderManager.initLoader(ID_RECEIVING_ADDRESS_NAME_LOADER, null, receivingAddressLoaderCallbacks);
 
 		updateView();
-		handler.post(dryrunRunnable);
+		scheduleDryrun();
 	}
 
 	@Override
 	public void onPause()
 	{
+		handler.removeCallbacks(walletNameLookupRunnable);
+		walletNameLoaderConstraint = "";
 		loaderManager.destroyLoader(ID_RECEIVING_ADDRESS_NAME_LOADER);
 		loaderManager.destroyLoader(ID_RECEIVING_ADDRESS_BOOK_LOADER);
 		loaderManager.destroyLoader(ID_RATE_LOADER);
@@ -1234,7 +1305,7 @@ public final class SendCoinsFragment extends Fragment
                     if (maybeUpdateShapeShift())
                         return;
 
-                    handler.post(dryrunRunnable);
+                    scheduleDryrun();
                     handleShapeShiftError(networkCode, text);
                     futureUpdate(SHAPESHIFT_ERROR_DELAY);
 
@@ -1316,7 +1387,7 @@ public final class SendCoinsFragment extends Fragment
                             depositAddress = deposit;
                             lastSendAmountUpdate = System.currentTimeMillis();
 
-                            handler.post(dryrunRunnable);
+                            scheduleDryrun();
 
                             long delay = expiry - System.currentTimeMillis() - SHAPESHIFT_SEND_AMOUNT_GAP;
                             shapeShiftStatus = ShapeShiftStatus.NONE;
@@ -1822,7 +1893,7 @@ public final class SendCoinsFragment extends Fragment
 		this.feeCategory = feeCategory;
 
 		updateView();
-		handler.post(dryrunRunnable);
+		scheduleDryrun();
 	}
 
 	private void handleEmpty()
@@ -1833,28 +1904,65 @@ public final class SendCoinsFragment extends Fragment
         updateShapeShift(false);
 
 		updateView();
-		handler.post(dryrunRunnable);
+		scheduleDryrun();
+	}
+
+	/**
+	 * Schedules a dry run of the current input. Calls in quick succession are debounced, and a dry run that is
+	 * superseded before it finishes is dropped.
+	 */
+	private void scheduleDryrun()
+	{
+		dryrunPending = true;
+
+		handler.removeCallbacks(dryrunRunnable);
+		handler.postDelayed(dryrunRunnable, DRYRUN_DEBOUNCE_MS);
 	}
 
-	private Runnable dryrunRunnable = new Runnable()
+	private final Runnable dryrunRunnable = new Runnable()
 	{
 		@Override
 		public void run()
 		{
+			final int sequence = ++dryrunSequence;
+
+			if (dryrunTask != null)
+			{
+				backgroundHandler.removeCallbacks(dryrunTask);
+				dryrunTask = null;
+			}
+
 			if (state == State.INPUT)
-				executeDryrun();
+			{
+				final Coin amount = amountCalculatorLink.getAmount();
+				if (amount != null)
+				{
+					dryrunTask = newDryrunTask(sequence, paymentIntent, amount, feeCategory);
+					backgroundHandler.post(dryrunTask);
+					return;
+				}
+
+				dryrunTransaction = null;
+				dryrunException = null;
+			}
 
+			dryrunPending = false;
 			updateView();
 		}
+	};
 
-		private void executeDryrun()
+	private Runnable newDryrunTask(final int sequence, final PaymentIntent paymentIntent, final Coin amount, final FeeCategory feeCategory)
+	{
+		return new Runnable()
 		{
-			dryrunTransaction = null;
-			dryrunException = null;
-
-			final Coin amount = amountCalculatorLink.getAmount();
-			if (amount != null)
+			@Override
+			public void run()
 			{
+				org.bitcoinj_extra.core.Context.propagate(Constants.CONTEXT);
+
+				Transaction transaction = null;
+				Exception exception = null;
+
 				try
 				{
 					final Address dummy = wallet.currentReceiveAddress(); // won't be used, tx is never committed
@@ -1862,16 +1970,35 @@ public final class SendCoinsFragment extends Fragment
 					sendRequest.signInputs = false;
 					sendRequest.emptyWallet = paymentIntent.mayEditAmount() && amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
 					sendRequest.feePerKb = feeCategory.feePerKb;
-					wallet.completeTx(sendRequest);
-					dryrunTransaction = sendRequest.tx;
+					wallet.completeTx(sendRequest); // can take long
+					transaction = sendRequest.tx;
 				}
 				catch (final Exception x)
 				{
-					dryrunException = x;
+					exception = x;
 				}
+
+				final Transaction dryrunResultTransaction = transaction;
+				final Exception dryrunResultException = exception;
+
+				handler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (sequence != dryrunSequence)
+							return; // superseded
+
+						dryrunTask = null;
+						dryrunTransaction = dryrunResultTransaction;
+						dryrunException = dryrunResultException;
+						dryrunPending = false;
+						updateView();
+					}
+				});
 			}
-		}
-	};
+		};
+	}
 
     private void returnToInputAndUpdate() {
 
@@ -2112,7 +2239,7 @@ public final class SendCoinsFragment extends Fragment
 			}
 
 			viewCancel.setEnabled(state != State.REQUEST_PAYMENT_REQUEST && state != State.DECRYPTING && state != State.SIGNING && state != State.FINALISE_SHAPESHIFT);
-			viewGo.setEnabled(everythingPlausible() && dryrunTransaction != null);
+			viewGo.setEnabled(everythingPlausible() && dryrunTransaction != null && !dryrunPending);
 
 			if (state == null || state == State.REQUEST_PAYMENT_REQUEST)
 			{
@@ -2320,7 +2447,7 @@ public final class SendCoinsFragment extends Fragment
 
 					requestFocusFirst();
 					updateView();
-					handler.post(dryrunRunnable);
+					scheduleDryrun();
 				}
 			}
 		});
@@ -2350,7 +2477,7 @@ public final class SendCoinsFragment extends Fragment
 					setState(State.INPUT);
 					updateStateFrom(paymentIntent);
 					updateView();
-					handler.post(dryrunRunnable);
+					scheduleDryrun();
 				}
 				else
 				{
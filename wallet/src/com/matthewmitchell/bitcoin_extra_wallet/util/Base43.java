@@ -16,8 +16,6 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet.util;
 
-import com.google.common.base.Charsets;
-
 /**
  * Base43, derived from bitcoinj Base58. It's meant to be used for efficiently stuffing binary data into QR codes. The
  * alphabet is picked to match the 'Alphanumeric' input mode of QR codes as closely as possible, but at the same time be
@@ -39,42 +37,60 @@ public class Base43
 			INDEXES[ALPHABET[i]] = i;
 	}
 
-	public static String encode(byte[] input)
+	// 43^5, the largest power of 43 that keeps the long intermediates of the conversions below from overflowing
+	private static final int DIGITS_PER_LIMB = 5;
+	private static final long LIMB_BASE = 43L * 43 * 43 * 43 * 43;
+
+	public static String encode(final byte[] input)
 	{
 		if (input.length == 0)
 			return "";
 
-		input = copyOfRange(input, 0, input.length);
-
 		// Count leading zeroes.
 		int zeroCount = 0;
 		while (zeroCount < input.length && input[zeroCount] == 0)
 			++zeroCount;
 
-		// The actual encoding.
-		final byte[] temp = new byte[input.length * 2];
+		// Pack the remaining bytes into big endian 32 bit words.
+		final int numBytes = input.length - zeroCount;
+		final int[] words = new int[(numBytes + 3) / 4];
+		for (int i = zeroCount, w = (4 - numBytes % 4) % 4; i < input.length; i++, w++)
+			words[w / 4] = (words[w / 4] << 8) | (input[i] & 0xFF);
+
+		// The actual encoding, five base43 digits per division.
+		final char[] temp = new char[zeroCount + words.length * 7 + DIGITS_PER_LIMB];
 		int j = temp.length;
 
-		int startAt = zeroCount;
-		while (startAt < input.length)
+		int startAt = 0;
+		while (startAt < words.length)
 		{
-			byte mod = divmod43(input, startAt);
-			if (input[startAt] == 0)
+			long remainder = 0;
+			for (int i = startAt; i < words.length; i++)
+			{
+				final long dividend = (remainder << 32) | (words[i] & 0xFFFFFFFFL);
+				words[i] = (int) (dividend / LIMB_BASE);
+				remainder = dividend % LIMB_BASE;
+			}
+
+			while (startAt < words.length && words[startAt] == 0)
 				++startAt;
-			temp[--j] = (byte) ALPHABET[mod];
+
+			for (int d = 0; d < DIGITS_PER_LIMB; d++)
+			{
+				temp[--j] = ALPHABET[(int) (remainder % 43)];
+				remainder /= 43;
+			}
 		}
 
-		// Strip extra '1' if there are some after decoding.
+		// Strip extra '0' if there are some after encoding.
 		while (j < temp.length && temp[j] == ALPHABET[0])
 			++j;
 
-		// Add as many leading '1' as there were leading zeros.
+		// Add as many leading '0' as there were leading zeros.
 		while (--zeroCount >= 0)
-			temp[--j] = (byte) ALPHABET[0];
-
-		final byte[] output = copyOfRange(temp, j, temp.length);
+			temp[--j] = ALPHABET[0];
 
-		return new String(output, Charsets.US_ASCII);
+		return new String(temp, j, temp.length - j);
 	}
 
 	public static byte[] decode(final String input) throws IllegalArgumentException
@@ -82,9 +98,10 @@ public class Base43
 		if (input.length() == 0)
 			return new byte[0];
 
-		final byte[] input43 = new byte[input.length()];
-		// Transform the String to a base43 byte sequence
-		for (int i = 0; i < input.length(); ++i)
+		// Transform the String to base43 digits, counting leading zeroes.
+		int zeroCount = 0;
+		final int[] limbs = new int[(input.length() + DIGITS_PER_LIMB - 1) / DIGITS_PER_LIMB];
+		for (int i = 0, d = (DIGITS_PER_LIMB - input.length() % DIGITS_PER_LIMB) % DIGITS_PER_LIMB; i < input.length(); ++i, ++d)
 		{
 			final char c = input.charAt(i);
 
@@ -96,26 +113,38 @@ public class Base43
 			if (digit43 < 0)
 				throw new IllegalArgumentException("Illegal character " + c + " at " + i);
 
-			input43[i] = (byte) digit43;
-		}
+			if (digit43 == 0 && zeroCount == i)
+				++zeroCount;
 
-		// Count leading zeroes
-		int zeroCount = 0;
-		while (zeroCount < input43.length && input43[zeroCount] == 0)
-			++zeroCount;
+			limbs[d / DIGITS_PER_LIMB] = limbs[d / DIGITS_PER_LIMB] * 43 + digit43;
+		}
 
-		// The encoding
-		final byte[] temp = new byte[input.length()];
+		// The decoding, four bytes per division.
+		final byte[] temp = new byte[zeroCount + limbs.length * 4];
 		int j = temp.length;
 
-		int startAt = zeroCount;
-		while (startAt < input43.length)
+		int startAt = 0;
+		while (startAt < limbs.length && limbs[startAt] == 0)
+			++startAt;
+
+		while (startAt < limbs.length)
 		{
-			byte mod = divmod256(input43, startAt);
-			if (input43[startAt] == 0)
+			long remainder = 0;
+			for (int i = startAt; i < limbs.length; i++)
+			{
+				final long dividend = remainder * LIMB_BASE + limbs[i];
+				limbs[i] = (int) (dividend >>> 32);
+				remainder = dividend & 0xFFFFFFFFL;
+			}
+
+			while (startAt < limbs.length && limbs[startAt] == 0)
 				++startAt;
 
-			temp[--j] = mod;
+			for (int b = 0; b < 4; b++)
+			{
+				temp[--j] = (byte) remainder;
+				remainder >>>= 8;
+			}
 		}
 
 		// Do no add extra leading zeroes, move j to first non null byte.
@@ -125,44 +154,6 @@ public class Base43
 		return copyOfRange(temp, j - zeroCount, temp.length);
 	}
 
-	//
-	// number -> number / 43, returns number % 43
-	//
-	private static byte divmod43(final byte[] number, final int startAt)
-	{
-		int remainder = 0;
-		for (int i = startAt; i < number.length; i++)
-		{
-			final int digit256 = (int) number[i] & 0xFF;
-			final int temp = remainder * 256 + digit256;
-
-			number[i] = (byte) (temp / 43);
-
-			remainder = temp % 43;
-		}
-
-		return (byte) remainder;
-	}
-
-	//
-	// number -> number / 256, returns number % 256
-	//
-	private static byte divmod256(final byte[] number43, final int startAt)
-	{
-		int remainder = 0;
-		for (int i = startAt; i < number43.length; i++)
-		{
-			final int digit58 = (int) number43[i] & 0xFF;
-			final int temp = remainder * 43 + digit58;
-
-			number43[i] = (byte) (temp / 256);
-
-			remainder = temp % 256;
-		}
-
-		return (byte) remainder;
-	}
-
 	private static byte[] copyOfRange(final byte[] source, final int from, final int to)
 	{
 		final byte[] range = new byte[to - from];
@@ -45,6 +45,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 
+import com.matthewmitchell.bitcoin_extra_wallet.AddressBookProvider;
 import com.matthewmitchell.bitcoin_extra_wallet.Configuration;
 import com.matthewmitchell.bitcoin_extra_wallet.Constants;
 import com.matthewmitchell.bitcoin_extra_wallet.WalletApplication;;
@@ -269,6 +270,11 @@ public class CrashReporter
 		for (final String db : application.databaseList())
 			report.append(" " + db);
 		report.append("\n");
+		report.append("Address label cache: " + AddressBookProvider.getLabelCacheHits() + " hits, " + AddressBookProvider.getLabelCacheMisses()
+				+ " misses\n");
+		final WalletJournal walletJournal = application.getWalletJournal();
+		if (walletJournal != null)
+			report.append("Wallet journal: " + walletJournal.getStats() + "\n");
 
 		final File filesDir = application.getFilesDir();
 		report.append("\nContents of FilesDir " + filesDir + ":\n");
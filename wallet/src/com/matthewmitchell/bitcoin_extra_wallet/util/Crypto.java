@@ -16,12 +16,16 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet.util;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -32,12 +36,15 @@ import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.PBEParametersGenerator;
 import org.spongycastle.crypto.engines.AESFastEngine;
 import org.spongycastle.crypto.generators.OpenSSLPBEParametersGenerator;
+import org.spongycastle.crypto.io.CipherInputStream;
+import org.spongycastle.crypto.io.CipherOutputStream;
 import org.spongycastle.crypto.modes.CBCBlockCipher;
 import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 
 /**
  * This class encrypts and decrypts a string in a manner that is compatible with OpenSSL.
@@ -146,7 +153,12 @@ public class Crypto
 	 */
 	public static String encrypt(final byte[] plainTextAsBytes, final char[] password) throws IOException
 	{
-		final byte[] encryptedBytes = encryptRaw(plainTextAsBytes, password);
+		return encrypt(plainTextAsBytes, password, newSalt());
+	}
+
+	static String encrypt(final byte[] plainTextAsBytes, final char[] password, final byte[] salt) throws IOException
+	{
+		final byte[] encryptedBytes = encryptRaw(plainTextAsBytes, password, salt);
 
 		// OpenSSL prefixes the salt bytes + encryptedBytes with Salted___ and then base64 encodes it
 		final byte[] encryptedBytesPlusSaltedText = concat(OPENSSL_SALTED_BYTES, encryptedBytes);
@@ -161,22 +173,17 @@ public class Crypto
 	 *            The bytes to encrypt
 	 * @param password
 	 *            The password to use for encryption
+	 * @param salt
+	 *            The salt to use in key generation
 	 * @return SALT_LENGTH bytes of salt followed by the encrypted bytes.
 	 * @throws IOException
 	 */
-	private static byte[] encryptRaw(final byte[] plainTextAsBytes, final char[] password) throws IOException
+	private static byte[] encryptRaw(final byte[] plainTextAsBytes, final char[] password, final byte[] salt) throws IOException
 	{
 		try
 		{
-			// Generate salt - each encryption call has a different salt.
-			final byte[] salt = new byte[SALT_LENGTH];
-			secureRandom.nextBytes(salt);
-
-			final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
-
 			// The following code uses an AES cipher to encrypt the message.
-			final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
-			cipher.init(true, key);
+			final BufferedBlockCipher cipher = newCipher(true, password, salt);
 			final byte[] encryptedBytes = new byte[cipher.getOutputSize(plainTextAsBytes.length)];
 			final int processLen = cipher.processBytes(plainTextAsBytes, 0, plainTextAsBytes.length, encryptedBytes, 0);
 			final int doFinalLen = cipher.doFinal(encryptedBytes, processLen);
@@ -266,11 +273,8 @@ public class Crypto
 			final byte[] cipherBytes = new byte[bytesToDecode.length - SALT_LENGTH];
 			System.arraycopy(bytesToDecode, SALT_LENGTH, cipherBytes, 0, bytesToDecode.length - SALT_LENGTH);
 
-			final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
-
 			// decrypt the message
-			final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
-			cipher.init(false, key);
+			final BufferedBlockCipher cipher = newCipher(false, password, salt);
 
 			final byte[] decryptedBytes = new byte[cipher.getOutputSize(cipherBytes.length)];
 			final int processLen = cipher.processBytes(cipherBytes, 0, cipherBytes.length, decryptedBytes, 0);
@@ -288,6 +292,76 @@ public class Crypto
 		}
 	}
 
+	/**
+	 * Streaming variant of {@link #encrypt(byte[], char[])}. Bytes written to the returned stream are encrypted and
+	 * written to cipherOut in exactly the format encrypt() returns. Closing the stream completes the encryption and
+	 * closes cipherOut.
+	 * 
+	 * @param cipherOut
+	 *            Where to write the encrypted text
+	 * @param password
+	 *            The password to use for encryption
+	 * @return The stream to write the plain bytes to
+	 * @throws IOException
+	 */
+	public static OutputStream encryptingStream(final Writer cipherOut, final char[] password) throws IOException
+	{
+		return encryptingStream(cipherOut, password, newSalt());
+	}
+
+	static OutputStream encryptingStream(final Writer cipherOut, final char[] password, final byte[] salt) throws IOException
+	{
+		final OutputStream base64Out = BASE64_ENCRYPT.encodingStream(cipherOut);
+		base64Out.write(OPENSSL_SALTED_BYTES);
+		base64Out.write(salt);
+
+		return new CipherOutputStream(base64Out, newCipher(true, password, salt));
+	}
+
+	/**
+	 * Streaming variant of {@link #decryptBytes(String, char[])}. A wrong password or corrupt cipher text is reported as
+	 * an {@link IOException} when the end of the stream is reached.
+	 * 
+	 * @param cipherIn
+	 *            The encrypted text to read
+	 * @param password
+	 *            password to use for decryption
+	 * @return The stream to read the decrypted bytes from
+	 * @throws IOException
+	 */
+	public static InputStream decryptingStream(final Reader cipherIn, final char[] password) throws IOException
+	{
+		final InputStream base64In = BASE64_DECRYPT.decodingStream(cipherIn);
+
+		final byte[] header = new byte[OPENSSL_SALTED_BYTES.length + SALT_LENGTH];
+		try
+		{
+			ByteStreams.readFully(base64In, header);
+		}
+		catch (final EOFException x)
+		{
+			throw new IOException("out of salt");
+		}
+		final byte[] salt = Arrays.copyOfRange(header, OPENSSL_SALTED_BYTES.length, header.length);
+
+		return new CipherInputStream(base64In, newCipher(false, password, salt));
+	}
+
+	private static byte[] newSalt()
+	{
+		// each encryption has a different salt
+		final byte[] salt = new byte[SALT_LENGTH];
+		secureRandom.nextBytes(salt);
+		return salt;
+	}
+
+	private static BufferedBlockCipher newCipher(final boolean forEncryption, final char[] password, final byte[] salt)
+	{
+		final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+		cipher.init(forEncryption, getAESPasswordKey(password, salt));
+		return cipher;
+	}
+
 	/**
 	 * Concatenate two byte arrays.
 	 */
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+import com.matthewmitchell.bitcoin_extra_wallet.Constants;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics.Phase;
+
+/**
+ * Shared HTTP client for all outbound requests. Connections are never torn down explicitly, so the platform's
+ * keep-alive pool can reuse them. Responses are gzipped on the wire and decoded here, revalidating requests are answered
+ * from an in-memory cache on 304 Not Modified, and concurrent requests to one host are limited.
+ *
+ * Every {@link Response} must be closed, which also hands its connection back to the pool. Each request is recorded in
+ * {@link NetworkMetrics} under the operation it was made for.
+ */
+public final class HttpClient
+{
+	private final int maxRequestsPerHost;
+	private final NetworkMetrics metrics;
+	private final TimingSSLSocketFactory sslSocketFactory = new TimingSSLSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+	private final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+	private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest)
+		{
+			return size() > MAX_CACHE_ENTRIES;
+		}
+	};
+
+	private static final int MAX_REQUESTS_PER_HOST = 4;
+	private static final int MAX_CACHE_ENTRIES = 16;
+	private static final int MAX_CACHE_BODY_BYTES = 256 * 1024;
+	private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+	private static final HttpClient INSTANCE = new HttpClient(MAX_REQUESTS_PER_HOST, NetworkMetrics.getInstance());
+
+	private static final Logger log = LoggerFactory.getLogger(HttpClient.class);
+
+	public static HttpClient getInstance()
+	{
+		return INSTANCE;
+	}
+
+	HttpClient(final int maxRequestsPerHost, final NetworkMetrics metrics)
+	{
+		this.maxRequestsPerHost = maxRequestsPerHost;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param operation
+	 *            what the request is for, as shown in network metrics
+	 * @param accept
+	 *            media type for the Accept header, or null
+	 * @param revalidate
+	 *            whether the body may be cached and revalidated with If-None-Match/If-Modified-Since next time
+	 */
+	public Response get(final String operation, final URL url, @Nullable final String userAgent, @Nullable final String accept,
+			final boolean revalidate) throws IOException
+	{
+		return execute(operation, url, "GET", userAgent, accept, null, null, revalidate);
+	}
+
+	/**
+	 * @param operation
+	 *            what the request is for, as shown in network metrics
+	 */
+	public Response post(final String operation, final URL url, @Nullable final String userAgent, @Nullable final String accept,
+			final String contentType, final byte[] content) throws IOException
+	{
+		return execute(operation, url, "POST", userAgent, accept, contentType, content, false);
+	}
+
+	private Response execute(final String operation, final URL url, final String method, @Nullable final String userAgent,
+			@Nullable final String accept, @Nullable final String contentType, @Nullable final byte[] content, final boolean revalidate)
+			throws IOException
+	{
+		final NetworkMetrics.Request request = metrics.begin(operation);
+		final Semaphore permit;
+		try
+		{
+			permit = acquirePermit(url);
+		}
+		catch (final IOException x)
+		{
+			request.failed(x);
+			throw x;
+		}
+
+		final CacheEntry cached = revalidate ? cached(url) : null;
+		HttpURLConnection connection = null;
+		boolean handedOver = false;
+
+		try
+		{
+			// resolving up front is the only way to time it, the connection then finds the address in the resolver cache
+			InetAddress.getAllByName(url.getHost());
+			request.phaseDone(Phase.DNS);
+
+			connection = (HttpURLConnection) url.openConnection();
+			if (connection instanceof HttpsURLConnection)
+				((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
+			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
+			connection.setUseCaches(false);
+			connection.setRequestMethod(method);
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			if (accept != null)
+				connection.setRequestProperty("Accept", accept);
+			if (userAgent != null)
+				connection.setRequestProperty("User-Agent", userAgent);
+			if (cached != null && cached.etag != null)
+				connection.setRequestProperty("If-None-Match", cached.etag);
+			if (cached != null && cached.lastModified != null)
+				connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+
+			if (content != null)
+			{
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode(content.length);
+				connection.setRequestProperty("Content-Type", contentType);
+			}
+
+			sslSocketFactory.connect(connection, request);
+
+			if (content != null)
+			{
+				final OutputStream os = connection.getOutputStream();
+				os.write(content);
+				os.close();
+				request.addBytesSent(content.length);
+			}
+
+			final int code = connection.getResponseCode();
+			request.phaseDone(Phase.FIRST_BYTE);
+			final InputStream stream = code < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream();
+			final CountingInputStream raw = stream != null ? new CountingInputStream(stream) : null;
+
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null)
+			{
+				log.debug("{} not modified", url);
+				final Response response = new Response(HttpURLConnection.HTTP_OK, connection.getResponseMessage(), cached.contentType,
+						connection.getDate(), true, new ByteArrayInputStream(cached.body), raw, connection, permit, request);
+				handedOver = true;
+				response.close(); // nothing more to read from the connection
+				return response;
+			}
+
+			final InputStream body = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(new NonClosingInputStream(
+					raw)) : new NonClosingInputStream(raw);
+
+			final String etag = connection.getHeaderField("ETag");
+			final String lastModified = connection.getHeaderField("Last-Modified");
+			if (revalidate && code == HttpURLConnection.HTTP_OK && (etag != null || lastModified != null))
+			{
+				final byte[] bytes = ByteStreams.toByteArray(body);
+				if (bytes.length <= MAX_CACHE_BODY_BYTES)
+					cache(url, new CacheEntry(etag, lastModified, connection.getContentType(), bytes));
+
+				final Response response = new Response(code, connection.getResponseMessage(), connection.getContentType(), connection.getDate(),
+						false, new ByteArrayInputStream(bytes), raw, connection, permit, request);
+				handedOver = true;
+				response.close(); // body is buffered
+				return response;
+			}
+
+			final Response response = new Response(code, connection.getResponseMessage(), connection.getContentType(), connection.getDate(),
+					false, body, raw, connection, permit, request);
+			handedOver = true;
+			return response;
+		}
+		catch (final IOException x)
+		{
+			request.failed(x);
+			throw x;
+		}
+		finally
+		{
+			if (!handedOver)
+			{
+				if (connection != null)
+					connection.disconnect();
+				permit.release();
+			}
+		}
+	}
+
+	private Semaphore acquirePermit(final URL url) throws IOException
+	{
+		final String host = url.getHost().toLowerCase(Locale.US);
+		final Semaphore permit;
+		synchronized (hostPermits)
+		{
+			Semaphore existing = hostPermits.get(host);
+			if (existing == null)
+			{
+				existing = new Semaphore(maxRequestsPerHost, true);
+				hostPermits.put(host, existing);
+			}
+			permit = existing;
+		}
+
+		try
+		{
+			if (!permit.tryAcquire(Constants.HTTP_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+				throw new IOException("too many concurrent requests to " + host);
+			return permit;
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for " + host);
+		}
+	}
+
+	@Nullable
+	private CacheEntry cached(final URL url)
+	{
+		synchronized (cache)
+		{
+			return cache.get(url.toString());
+		}
+	}
+
+	private void cache(final URL url, final CacheEntry entry)
+	{
+		synchronized (cache)
+		{
+			cache.put(url.toString(), entry);
+		}
+	}
+
+	public static final class Response implements Closeable
+	{
+		public final int code;
+		@Nullable
+		public final String message;
+		@Nullable
+		public final String contentType;
+		/** Server time of the response, or 0 if unknown. */
+		public final long date;
+		/** Whether the body came from the cache after the server said it's unchanged. */
+		public final boolean fromCache;
+
+		private final InputStream body;
+		@Nullable
+		private final CountingInputStream raw;
+		private final HttpURLConnection connection;
+		private final Semaphore permit;
+		private final NetworkMetrics.Request request;
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		private Response(final int code, @Nullable final String message, @Nullable final String contentType, final long date,
+				final boolean fromCache, final InputStream body, @Nullable final CountingInputStream raw, final HttpURLConnection connection,
+				final Semaphore permit, final NetworkMetrics.Request request)
+		{
+			this.code = code;
+			this.message = message;
+			this.contentType = contentType;
+			this.date = date;
+			this.fromCache = fromCache;
+			this.body = body;
+			this.raw = raw;
+			this.connection = connection;
+			this.permit = permit;
+			this.request = request;
+		}
+
+		/**
+		 * @return decoded body; closing it is harmless but doesn't release the connection
+		 */
+		public InputStream body()
+		{
+			return body;
+		}
+
+		/**
+		 * Reads what's left of a short body so the connection can be reused, or drops the connection if too much is
+		 * left.
+		 */
+		@Override
+		public void close()
+		{
+			if (!closed.compareAndSet(false, true))
+				return;
+
+			try
+			{
+				if (raw != null)
+				{
+					final byte[] buf = new byte[4096];
+					long drained = 0;
+					int read;
+					while ((read = raw.read(buf)) != -1)
+					{
+						drained += read;
+						if (drained > MAX_DRAIN_BYTES)
+							throw new IOException("too much left to drain");
+					}
+					raw.close();
+				}
+			}
+			catch (final IOException x)
+			{
+				connection.disconnect();
+			}
+			finally
+			{
+				permit.release();
+
+				if (raw != null)
+					request.addBytesReceived(raw.getCount());
+				final String outcome = fromCache ? Integer.toString(HttpURLConnection.HTTP_NOT_MODIFIED) : Integer.toString(code);
+				if (code < HttpURLConnection.HTTP_BAD_REQUEST)
+					request.succeeded(outcome);
+				else
+					request.failed(outcome);
+			}
+		}
+	}
+
+	private static final class CacheEntry
+	{
+		@Nullable
+		final String etag;
+		@Nullable
+		final String lastModified;
+		@Nullable
+		final String contentType;
+		final byte[] body;
+
+		CacheEntry(@Nullable final String etag, @Nullable final String lastModified, @Nullable final String contentType, final byte[] body)
+		{
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Notes the moment TLS is layered onto a freshly connected socket, which splits connecting from the handshake. Being a
+	 * single instance, it doesn't get in the way of connection pooling.
+	 */
+	private static final class TimingSSLSocketFactory extends SSLSocketFactory
+	{
+		private final SSLSocketFactory delegate;
+		private final ThreadLocal<NetworkMetrics.Request> currentRequest = new ThreadLocal<NetworkMetrics.Request>();
+
+		TimingSSLSocketFactory(final SSLSocketFactory delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		void connect(final HttpURLConnection connection, final NetworkMetrics.Request request) throws IOException
+		{
+			currentRequest.set(request);
+			try
+			{
+				connection.connect();
+			}
+			finally
+			{
+				currentRequest.remove();
+			}
+
+			// no layering means plain http or a pooled connection, neither of which has a handshake
+			request.phaseDone(request.isPhaseDone(Phase.CONNECT) ? Phase.TLS : Phase.CONNECT);
+		}
+
+		@Override
+		public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) throws IOException
+		{
+			final NetworkMetrics.Request request = currentRequest.get();
+			if (request != null)
+				request.phaseDone(Phase.CONNECT);
+
+			return delegate.createSocket(socket, host, port, autoClose);
+		}
+
+		@Override
+		public Socket createSocket() throws IOException
+		{
+			return delegate.createSocket();
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port) throws IOException
+		{
+			return delegate.createSocket(host, port);
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) throws IOException
+		{
+			return delegate.createSocket(host, port, localHost, localPort);
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress host, final int port) throws IOException
+		{
+			return delegate.createSocket(host, port);
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress, final int localPort)
+				throws IOException
+		{
+			return delegate.createSocket(address, port, localAddress, localPort);
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites()
+		{
+			return delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites()
+		{
+			return delegate.getSupportedCipherSuites();
+		}
+	}
+
+	private static final class NonClosingInputStream extends FilterInputStream
+	{
+		NonClosingInputStream(@Nullable final InputStream in)
+		{
+			super(in != null ? in : new ByteArrayInputStream(new byte[0]));
+		}
+
+		@Override
+		public void close()
+		{
+			// the response owns the connection stream
+		}
+	}
+}
@@ -29,21 +29,25 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
 
-import com.matthewmitchell.bitcoin_extra_wallet.Constants;
-
 /**
  * @author Andreas Schildbach
  */
 public abstract class HttpGetThread extends Thread
 {
+	private final String operation;
 	private final String url;
 	@Nullable
 	private final String userAgent;
 
 	private static final Logger log = LoggerFactory.getLogger(HttpGetThread.class);
 
-	public HttpGetThread(final String url, @Nullable final String userAgent)
+	/**
+	 * @param operation
+	 *            what the request is for, as shown in network metrics
+	 */
+	public HttpGetThread(final String operation, final String url, @Nullable final String userAgent)
 	{
+		this.operation = operation;
 		this.url = url;
 		this.userAgent = userAgent;
 	}
@@ -51,42 +55,32 @@ public abstract class HttpGetThread extends Thread
 	@Override
 	public void run()
 	{
-		HttpURLConnection connection = null;
-
 		log.debug("querying \"" + url + "\"...");
 
 		try
 		{
-			connection = (HttpURLConnection) new URL(url).openConnection();
-			connection.setInstanceFollowRedirects(false);
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setRequestProperty("Accept-Charset", "utf-8");
-			if (userAgent != null)
-				connection.addRequestProperty("User-Agent", userAgent);
-			connection.connect();
+			final HttpClient.Response response = HttpClient.getInstance().get(operation, new URL(url), userAgent, null, true);
 
-			if (connection.getResponseCode() == HttpURLConnection.HTTP_OK)
+			try
 			{
-				final long serverTime = connection.getDate();
-				// TODO parse connection.getContentType() for charset
-
-				final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charsets.UTF_8), 64);
-				final String line = reader.readLine().trim();
-				reader.close();
-
-				handleLine(line, serverTime);
+				if (response.code == HttpURLConnection.HTTP_OK)
+				{
+					// TODO parse response.contentType for charset
+					final BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), Charsets.UTF_8), 64);
+					final String line = reader.readLine().trim();
+
+					handleLine(line, response.date);
+				}
+			}
+			finally
+			{
+				response.close();
 			}
 		}
 		catch (final Exception x)
 		{
 			handleException(x);
 		}
-		finally
-		{
-			if (connection != null)
-				connection.disconnect();
-		}
 	}
 
 	protected abstract void handleLine(String line, long serverTime);
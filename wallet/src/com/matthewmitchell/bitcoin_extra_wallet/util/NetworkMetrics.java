@@ -0,0 +1,264 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory timings of recent network requests, grouped by operation. Only the last few samples per operation are kept,
+ * and nothing is persisted.
+ */
+public final class NetworkMetrics
+{
+	public enum Phase
+	{
+		/** name resolution */
+		DNS,
+		/** TCP connect, including the TLS handshake where that can't be observed on its own */
+		CONNECT,
+		/** TLS handshake or certificate validation */
+		TLS,
+		/** from connected until the response header or first byte */
+		FIRST_BYTE,
+		/** from start to finish */
+		TOTAL
+	}
+
+	private final Map<String, Stats> operations = new LinkedHashMap<String, Stats>();
+
+	private static final int NUM_SAMPLES = 50;
+	private static final int[] PERCENTILES = { 50, 90, 99 };
+
+	private static final NetworkMetrics INSTANCE = new NetworkMetrics();
+
+	public static NetworkMetrics getInstance()
+	{
+		return INSTANCE;
+	}
+
+	NetworkMetrics()
+	{
+	}
+
+	/**
+	 * Starts timing a request. The returned request must be finished exactly once, or it isn't recorded.
+	 */
+	public Request begin(final String operation)
+	{
+		return new Request(operation);
+	}
+
+	public boolean isEmpty()
+	{
+		synchronized (operations)
+		{
+			return operations.isEmpty();
+		}
+	}
+
+	/**
+	 * Appends request counts, bytes, outcomes and phase percentiles of each operation.
+	 */
+	public void appendReport(final Appendable report) throws IOException
+	{
+		final StringBuilder text = new StringBuilder();
+
+		synchronized (operations)
+		{
+			for (final Map.Entry<String, Stats> entry : operations.entrySet())
+				entry.getValue().append(entry.getKey(), text);
+		}
+
+		report.append(text);
+	}
+
+	/**
+	 * @return percentile of the milliseconds recorded for a phase, or -1 if there are none
+	 */
+	long percentileMs(final String operation, final Phase phase, final int percentile)
+	{
+		synchronized (operations)
+		{
+			final Stats stats = operations.get(operation);
+			return stats != null ? stats.percentileMs(phase, percentile) : -1;
+		}
+	}
+
+	private void record(final Request request, final String outcome, final boolean success)
+	{
+		synchronized (operations)
+		{
+			Stats stats = operations.get(request.operation);
+			if (stats == null)
+			{
+				stats = new Stats();
+				operations.put(request.operation, stats);
+			}
+
+			stats.record(request, outcome, success);
+		}
+	}
+
+	/**
+	 * One request in flight. Phases are marked in the order they complete, each measured from the previous mark.
+	 */
+	public final class Request
+	{
+		private final String operation;
+		private final long startNanos = System.nanoTime();
+		private long markNanos = startNanos;
+		private final long[] phaseMs = new long[Phase.values().length];
+		private long bytesSent = 0;
+		private long bytesReceived = 0;
+		private boolean finished = false;
+
+		private Request(final String operation)
+		{
+			this.operation = operation;
+			Arrays.fill(phaseMs, -1);
+		}
+
+		public synchronized void phaseDone(final Phase phase)
+		{
+			final long now = System.nanoTime();
+			phaseMs[phase.ordinal()] = TimeUnit.NANOSECONDS.toMillis(now - markNanos);
+			markNanos = now;
+		}
+
+		public synchronized boolean isPhaseDone(final Phase phase)
+		{
+			return phaseMs[phase.ordinal()] >= 0;
+		}
+
+		public synchronized void addBytesSent(final long bytes)
+		{
+			bytesSent += bytes;
+		}
+
+		public synchronized void addBytesReceived(final long bytes)
+		{
+			bytesReceived += bytes;
+		}
+
+		public void succeeded(final String outcome)
+		{
+			finish(outcome, true);
+		}
+
+		public void failed(final String outcome)
+		{
+			finish(outcome, false);
+		}
+
+		public void failed(final Throwable x)
+		{
+			finish(x.getClass().getSimpleName(), false);
+		}
+
+		private void finish(final String outcome, final boolean success)
+		{
+			synchronized (this)
+			{
+				if (finished)
+					return;
+				finished = true;
+				phaseMs[Phase.TOTAL.ordinal()] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			}
+
+			record(this, outcome, success);
+		}
+	}
+
+	private static final class Stats
+	{
+		private final long[][] samples = new long[Phase.values().length][NUM_SAMPLES];
+		private final int[] numSamples = new int[Phase.values().length];
+		private final int[] nextSample = new int[Phase.values().length];
+		private final Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+		private int numRequests = 0;
+		private int numFailures = 0;
+		private long bytesSent = 0;
+		private long bytesReceived = 0;
+
+		void record(final Request request, final String outcome, final boolean success)
+		{
+			synchronized (request)
+			{
+				for (int i = 0; i < request.phaseMs.length; i++)
+				{
+					final long ms = request.phaseMs[i];
+					if (ms >= 0)
+					{
+						samples[i][nextSample[i]] = ms;
+						nextSample[i] = (nextSample[i] + 1) % NUM_SAMPLES;
+						numSamples[i] = Math.min(numSamples[i] + 1, NUM_SAMPLES);
+					}
+				}
+
+				bytesSent += request.bytesSent;
+				bytesReceived += request.bytesReceived;
+			}
+
+			numRequests++;
+			if (!success)
+				numFailures++;
+
+			final Integer count = outcomes.get(outcome);
+			outcomes.put(outcome, count != null ? count + 1 : 1);
+		}
+
+		long percentileMs(final Phase phase, final int percentile)
+		{
+			final int n = numSamples[phase.ordinal()];
+			if (n == 0)
+				return -1;
+
+			final long[] sorted = Arrays.copyOf(samples[phase.ordinal()], n);
+			Arrays.sort(sorted);
+			return sorted[(n - 1) * percentile / 100];
+		}
+
+		void append(final String operation, final StringBuilder text)
+		{
+			text.append(String.format(Locale.US, "%s: %d requests, %d failed, %d kB sent, %d kB received\n", operation, numRequests,
+					numFailures, bytesSent / 1024, bytesReceived / 1024));
+
+			for (final Phase phase : Phase.values())
+			{
+				if (numSamples[phase.ordinal()] == 0)
+					continue;
+
+				text.append(String.format(Locale.US, "  %-10s", phase.name().toLowerCase(Locale.US)));
+				for (final int percentile : PERCENTILES)
+					text.append(String.format(Locale.US, "  p%d %5d ms", percentile, percentileMs(phase, percentile)));
+				text.append('\n');
+			}
+
+			text.append("  outcomes:");
+			for (final Map.Entry<String, Integer> entry : outcomes.entrySet())
+				text.append(' ').append(entry.getKey()).append(" x").append(entry.getValue());
+			text.append('\n');
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj_extra.crypto.TrustStoreLoader;
+import org.bitcoinj_extra.protocols.payments.PaymentProtocol;
+import org.bitcoinj_extra.protocols.payments.PaymentProtocol.PkiVerificationData;
+import org.bitcoinj_extra.protocols.payments.PaymentProtocolException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.netki.tlsa.TrustIndex;
+
+/**
+ * The trusted CA certificates, loaded once and shared by BIP70 payment request verification and TLSA validation. The
+ * key store itself is never handed out, so it cannot be modified. Successful payment request chain validations are
+ * cached by certificate chain for a while; the request signature is still checked every time.
+ */
+public final class TrustStore
+{
+	private final KeyStore keyStore;
+	private final TrustIndex trustIndex;
+	private final Map<String, PkiCacheEntry> pkiCache = new LinkedHashMap<String, PkiCacheEntry>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, PkiCacheEntry> eldest)
+		{
+			return size() > MAX_PKI_CACHE_ENTRIES;
+		}
+	};
+
+	private static final int MAX_PKI_CACHE_ENTRIES = 16;
+	private static final long PKI_CACHE_TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+	private static TrustStore instance;
+	private static boolean preloading = false;
+
+	private static final Logger log = LoggerFactory.getLogger(TrustStore.class);
+
+	public static synchronized TrustStore getInstance() throws KeyStoreException
+	{
+		if (instance == null)
+		{
+			final Stopwatch watch = Stopwatch.createStarted();
+
+			try
+			{
+				instance = new TrustStore(new TrustStoreLoader.DefaultTrustStoreLoader().getKeyStore());
+			}
+			catch (final FileNotFoundException x)
+			{
+				throw new KeyStoreException(x);
+			}
+
+			watch.stop();
+			log.info("loaded {} trusted certificates, took {}", instance.trustIndex.size(), watch);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Loads the trust store on a background thread, so it is ready by the time a payment request or wallet name needs
+	 * it.
+	 */
+	public static synchronized void preload()
+	{
+		if (instance != null || preloading)
+			return;
+
+		preloading = true;
+
+		final Thread thread = new Thread("TrustStore preload")
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					getInstance();
+				}
+				catch (final KeyStoreException x)
+				{
+					log.info("problem preloading trust store", x);
+				}
+				finally
+				{
+					synchronized (TrustStore.class)
+					{
+						preloading = false;
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	TrustStore(final KeyStore keyStore) throws KeyStoreException
+	{
+		this.keyStore = keyStore;
+		this.trustIndex = TrustIndex.of(keyStore);
+	}
+
+	public TrustIndex getTrustIndex()
+	{
+		return trustIndex;
+	}
+
+	/**
+	 * @return a modifiable copy of the trusted certificates
+	 */
+	public KeyStore copyKeyStore() throws KeyStoreException
+	{
+		try
+		{
+			final KeyStore copy = KeyStore.getInstance(KeyStore.getDefaultType());
+			copy.load(null, null);
+
+			synchronized (keyStore)
+			{
+				final Enumeration<String> aliases = keyStore.aliases();
+				while (aliases.hasMoreElements())
+				{
+					final Certificate cert = keyStore.getCertificate(aliases.nextElement());
+					if (cert instanceof X509Certificate)
+						copy.setCertificateEntry(((X509Certificate) cert).getSubjectDN().toString(), cert);
+				}
+			}
+
+			return copy;
+		}
+		catch (final GeneralSecurityException x)
+		{
+			throw new KeyStoreException(x);
+		}
+		catch (final IOException x)
+		{
+			throw new KeyStoreException(x);
+		}
+	}
+
+	/**
+	 * Same as {@link PaymentProtocol#verifyPaymentRequestPki}, but a certificate chain that validated before is not
+	 * validated again until its cache entry expires, which is after an hour or when the first certificate of the chain
+	 * expires, whatever comes first.
+	 */
+	public PkiVerificationData verifyPaymentRequestPki(final Protos.PaymentRequest paymentRequest) throws PaymentProtocolException
+	{
+		final String algorithm = signatureAlgorithm(paymentRequest.getPkiType());
+		if (algorithm == null)
+			return verifyChain(paymentRequest);
+
+		final String key = paymentRequest.getPkiType() + ':' + Hashing.sha256().hashBytes(paymentRequest.getPkiData().toByteArray());
+		final long now = System.currentTimeMillis();
+
+		final PkiCacheEntry cached;
+		synchronized (pkiCache)
+		{
+			cached = pkiCache.get(key);
+			if (cached != null && now >= cached.expiresAt)
+				pkiCache.remove(key);
+		}
+
+		if (cached != null && now < cached.expiresAt)
+		{
+			verifySignature(paymentRequest, algorithm, cached.verificationData.merchantSigningKey);
+			return cached.verificationData;
+		}
+
+		final PkiVerificationData verificationData = verifyChain(paymentRequest);
+		if (verificationData != null)
+		{
+			final long expiresAt = Math.min(now + PKI_CACHE_TTL_MS, chainNotAfter(paymentRequest.getPkiData()));
+			synchronized (pkiCache)
+			{
+				pkiCache.put(key, new PkiCacheEntry(verificationData, expiresAt));
+			}
+		}
+
+		return verificationData;
+	}
+
+	int pkiCacheSize()
+	{
+		synchronized (pkiCache)
+		{
+			return pkiCache.size();
+		}
+	}
+
+	private PkiVerificationData verifyChain(final Protos.PaymentRequest paymentRequest) throws PaymentProtocolException
+	{
+		// key stores are not guaranteed to be safe for concurrent reading
+		synchronized (keyStore)
+		{
+			return PaymentProtocol.verifyPaymentRequestPki(paymentRequest, keyStore);
+		}
+	}
+
+	private static String signatureAlgorithm(final String pkiType)
+	{
+		if ("x509+sha256".equals(pkiType))
+			return "SHA256withRSA";
+		else if ("x509+sha1".equals(pkiType))
+			return "SHA1withRSA";
+		else
+			return null;
+	}
+
+	private static void verifySignature(final Protos.PaymentRequest paymentRequest, final String algorithm, final PublicKey publicKey)
+			throws PaymentProtocolException
+	{
+		try
+		{
+			final Protos.PaymentRequest.Builder unsigned = paymentRequest.toBuilder();
+			unsigned.setSignature(ByteString.EMPTY);
+
+			final Signature signature = Signature.getInstance(algorithm);
+			signature.initVerify(publicKey);
+			signature.update(unsigned.build().toByteArray());
+			if (!signature.verify(paymentRequest.getSignature().toByteArray()))
+				throw new PaymentProtocolException.PkiVerificationException("Invalid signature, this payment request is not valid.");
+		}
+		catch (final GeneralSecurityException x)
+		{
+			throw new PaymentProtocolException.PkiVerificationException(x);
+		}
+	}
+
+	private static long chainNotAfter(final ByteString pkiData)
+	{
+		try
+		{
+			final CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+			long notAfter = Long.MAX_VALUE;
+			for (final ByteString bytes : Protos.X509Certificates.parseFrom(pkiData).getCertificateList())
+			{
+				final X509Certificate cert = (X509Certificate) certificateFactory.generateCertificate(bytes.newInput());
+				notAfter = Math.min(notAfter, cert.getNotAfter().getTime());
+			}
+			return notAfter;
+		}
+		catch (final CertificateException x)
+		{
+			return 0; // don't cache
+		}
+		catch (final IOException x)
+		{
+			return 0; // don't cache
+		}
+	}
+
+	private static final class PkiCacheEntry
+	{
+		public final PkiVerificationData verificationData;
+		public final long expiresAt;
+
+		public PkiCacheEntry(final PkiVerificationData verificationData, final long expiresAt)
+		{
+			this.verificationData = verificationData;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
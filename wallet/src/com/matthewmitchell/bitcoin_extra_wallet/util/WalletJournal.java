@@ -0,0 +1,911 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj_extra.core.Coin;
+import org.bitcoinj_extra.core.Sha256Hash;
+import org.bitcoinj_extra.core.Transaction;
+import org.bitcoinj_extra.core.TransactionConfidence;
+import org.bitcoinj_extra.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj_extra.core.TransactionInput;
+import org.bitcoinj_extra.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj_extra.utils.Threading;
+import org.bitcoinj_extra.wallet.Protos;
+import org.bitcoinj_extra.wallet.Wallet;
+import org.bitcoinj_extra.wallet.WalletProtobufSerializer;
+import org.bitcoinj_extra.wallet.WalletTransaction;
+import org.bitcoinj_extra.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj_extra.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj_extra.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj_extra.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Append-only journal of wallet changes, kept in numbered segment files next to the wallet file. Changed transactions
+ * are appended as complete transaction protobufs while the wallet lock is held, so the full wallet protobuf only needs
+ * to be rewritten every now and then. A snapshot seals the current segment; once it is on disk, the sealed segments are
+ * deleted. On load, the segments are replayed in order on top of the snapshot. Segments that fail to replay are moved
+ * aside, not deleted.
+ *
+ * Records are self-contained, so replaying a record that is already part of the snapshot is harmless. A torn or
+ * corrupted record ends its segment; replay continues with the next segment, which was started after a restart.
+ */
+public final class WalletJournal
+{
+	private static final int MAGIC = 0x574a524e; // "WJRN"
+	private static final int VERSION = 1;
+	private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+	static final byte RECORD_TRANSACTION = 1;
+	static final byte RECORD_TRANSACTION_REMOVED = 2;
+	static final byte RECORD_LAST_SEEN_BLOCK = 3;
+
+	private static final WalletTransaction.Pool[] POOLS = { WalletTransaction.Pool.UNSPENT, WalletTransaction.Pool.SPENT,
+			WalletTransaction.Pool.PENDING, WalletTransaction.Pool.DEAD };
+
+	private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+	@Nullable
+	private static final Method MAKE_TX_PROTO = makeTxProtoMethod();
+
+	private final File directory;
+	private final String prefix;
+	private final long maxBytes;
+	@Nullable
+	private final Runnable compactor;
+	private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor();
+
+	@Nullable
+	private Wallet wallet;
+	private final Map<Sha256Hash, TransactionState> transactionStates = new HashMap<Sha256Hash, TransactionState>();
+	@Nullable
+	private Sha256Hash lastSeenBlockHash;
+
+	private int segment;
+	@Nullable
+	private FileOutputStream out;
+	private long bytes;
+	private boolean failed = false;
+	private int failedSegment;
+	private boolean compactionRequested = false;
+
+	private final ThreadLocal<long[]> snapshot = new ThreadLocal<long[]>();
+	private int snapshotsInFlight = 0;
+	private int deletableSegment = Integer.MAX_VALUE;
+	private boolean snapshotWritten = false;
+
+	private long numRecords = 0;
+	private long numRecordBytes = 0;
+	private long numSnapshots = 0;
+	private long snapshotTotalMs = 0;
+	private long snapshotMaxMs = 0;
+
+	/**
+	 * @param compactor
+	 *            writes a full snapshot, going through {@link #beforeSnapshot()} and {@link #afterSnapshot()}; is run on
+	 *            a background thread once the journal grows beyond {@code maxBytes} or after a reorganize
+	 */
+	public WalletJournal(final File directory, final String walletFilename, final long maxBytes, @Nullable final Runnable compactor)
+	{
+		this.directory = directory;
+		this.prefix = walletFilename + ".journal.";
+		this.maxBytes = maxBytes;
+		this.compactor = compactor;
+		this.segment = lastSegmentNumber() + 1;
+	}
+
+	/**
+	 * Transaction records are built by bitcoinj's own serializer, which doesn't expose that step publicly.
+	 */
+	public static boolean isSupported()
+	{
+		return MAKE_TX_PROTO != null;
+	}
+
+	public Protos.Wallet replay(final Protos.Wallet walletProto) throws IOException
+	{
+		final List<File> segments = segments();
+		if (segments.isEmpty())
+			return walletProto;
+
+		final Protos.Wallet.Builder builder = walletProto.toBuilder();
+		final Map<ByteString, Protos.Transaction> transactions = new LinkedHashMap<ByteString, Protos.Transaction>();
+		for (final Protos.Transaction tx : walletProto.getTransactionList())
+			transactions.put(tx.getHash(), tx);
+
+		int numApplied = 0;
+		for (final File file : segments)
+		{
+			final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			try
+			{
+				if (is.readInt() != MAGIC || is.readInt() != VERSION)
+				{
+					log.warn("ignoring journal segment with bad header: '{}'", file);
+					continue;
+				}
+
+				while (true)
+				{
+					final Record record = readRecord(is);
+					if (record == null)
+						break;
+
+					if (record.type == RECORD_TRANSACTION)
+					{
+						final Protos.Transaction tx = Protos.Transaction.parseFrom(record.payload);
+						transactions.put(tx.getHash(), tx);
+					}
+					else if (record.type == RECORD_TRANSACTION_REMOVED)
+					{
+						transactions.remove(ByteString.copyFrom(record.payload));
+					}
+					else if (record.type == RECORD_LAST_SEEN_BLOCK)
+					{
+						final DataInputStream payload = new DataInputStream(new ByteArrayInputStream(record.payload));
+						final byte[] hash = new byte[payload.readUnsignedByte()];
+						payload.readFully(hash);
+						final int height = payload.readInt();
+						final long timeSecs = payload.readLong();
+
+						if (hash.length > 0)
+							builder.setLastSeenBlockHash(ByteString.copyFrom(hash));
+						else
+							builder.clearLastSeenBlockHash();
+						builder.setLastSeenBlockHeight(height);
+						builder.setLastSeenBlockTimeSecs(timeSecs);
+					}
+					else
+					{
+						log.warn("ignoring unknown journal record type {} in '{}'", record.type, file);
+					}
+
+					numApplied++;
+				}
+			}
+			catch (final EOFException x)
+			{
+				log.info("journal segment '{}' ends with a torn header", file);
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+
+		// depth isn't journaled, as it changes with every block
+		final boolean hasLastSeenHeight = builder.hasLastSeenBlockHeight();
+		final int lastSeenHeight = builder.getLastSeenBlockHeight();
+		builder.clearTransaction();
+		for (final Protos.Transaction tx : transactions.values())
+		{
+			final Protos.TransactionConfidence confidence = tx.getConfidence();
+			if (hasLastSeenHeight && confidence.getType() == Protos.TransactionConfidence.Type.BUILDING && confidence.hasAppearedAtHeight()
+					&& lastSeenHeight >= confidence.getAppearedAtHeight())
+			{
+				final int depth = lastSeenHeight - confidence.getAppearedAtHeight() + 1;
+				builder.addTransaction(tx.toBuilder().setConfidence(confidence.toBuilder().setDepth(depth)));
+			}
+			else
+			{
+				builder.addTransaction(tx);
+			}
+		}
+
+		log.info("replayed {} journal records from {} segments", numApplied, segments.size());
+		return builder.build();
+	}
+
+	/**
+	 * Starts journaling changes of the given wallet.
+	 */
+	public void attach(final Wallet wallet)
+	{
+		final Map<Sha256Hash, TransactionState> states = new HashMap<Sha256Hash, TransactionState>();
+		for (final Transaction tx : wallet.getTransactions(true))
+		{
+			final WalletTransaction.Pool pool = poolOf(wallet, tx.getHash());
+			if (pool != null)
+				states.put(tx.getHash(), new TransactionState(confidenceKey(tx, pool), parentsOf(wallet, tx)));
+		}
+		final Sha256Hash lastSeenBlockHash = wallet.getLastBlockSeenHash();
+
+		// wallet lock is never taken while holding the journal lock
+		synchronized (this)
+		{
+			this.wallet = wallet;
+			this.lastSeenBlockHash = lastSeenBlockHash;
+			this.bytes = sizeOfSegments();
+			transactionStates.clear();
+			transactionStates.putAll(states);
+		}
+
+		wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
+		wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
+		wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
+		wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
+		wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, walletListener);
+	}
+
+	/**
+	 * Stops journaling and waits for a pending compaction, so it can't overwrite a replaced wallet file.
+	 */
+	public void detach()
+	{
+		final Wallet wallet;
+
+		synchronized (this)
+		{
+			wallet = this.wallet;
+			this.wallet = null;
+			transactionStates.clear();
+			closeSegment(false);
+		}
+
+		if (wallet != null)
+		{
+			wallet.removeCoinsReceivedEventListener(walletListener);
+			wallet.removeCoinsSentEventListener(walletListener);
+			wallet.removeChangeEventListener(walletListener);
+			wallet.removeReorganizeEventListener(walletListener);
+			wallet.removeTransactionConfidenceEventListener(walletListener);
+		}
+
+		try
+		{
+			compactionExecutor.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+				}
+			}).get(1, TimeUnit.MINUTES);
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (final Exception x)
+		{
+			log.warn("problem waiting for compaction", x);
+		}
+	}
+
+	/**
+	 * Deletes all segments, for when the wallet file is about to be replaced by an unrelated wallet.
+	 */
+	public synchronized void discard()
+	{
+		closeSegment(false);
+		for (final File file : segments())
+			file.delete();
+		bytes = 0;
+		failed = false;
+		segment = 1;
+	}
+
+	/**
+	 * Moves all segments aside into a {@code .failed} directory next to the wallet file, for when they cannot be replayed
+	 * or don't belong to the wallet being loaded. They are kept, so the changes they hold can still be recovered.
+	 *
+	 * @return directory the segments were moved to, or null if there were none
+	 */
+	@Nullable
+	public synchronized File quarantine()
+	{
+		closeSegment(false);
+
+		final List<File> segments = segments();
+		if (segments.isEmpty())
+			return null;
+
+		final File failedDirectory = new File(new File(directory, prefix + "failed"), Long.toString(System.currentTimeMillis()));
+		failedDirectory.mkdirs();
+
+		int numMoved = 0;
+		for (final File file : segments)
+		{
+			if (file.renameTo(new File(failedDirectory, file.getName())))
+				numMoved++;
+			else
+				log.error("cannot move journal segment '{}' to '{}', leaving it in place", file, failedDirectory);
+		}
+		log.warn("moved {} of {} journal segments to '{}'", numMoved, segments.size(), failedDirectory);
+
+		// continue after segments that could not be moved, never append to them
+		bytes = sizeOfSegments();
+		failed = false;
+		segment = lastSegmentNumber() + 1;
+
+		return failedDirectory;
+	}
+
+	/**
+	 * To be called right before a snapshot is serialized. Changes from now on go to a new segment.
+	 */
+	public synchronized void beforeSnapshot()
+	{
+		// a previous snapshot on this thread never finished
+		if (snapshot.get() != null)
+			finishSnapshot(false);
+
+		closeSegment(true);
+		final int sealed = segment++;
+
+		snapshot.set(new long[] { sealed, System.currentTimeMillis() });
+		snapshotsInFlight++;
+		deletableSegment = Math.min(deletableSegment, sealed);
+	}
+
+	/**
+	 * To be called once a snapshot is durably on disk.
+	 */
+	public synchronized void afterSnapshot()
+	{
+		finishSnapshot(true);
+	}
+
+	public synchronized void snapshotFailed()
+	{
+		finishSnapshot(false);
+	}
+
+	private void finishSnapshot(final boolean written)
+	{
+		final long[] current = snapshot.get();
+		if (current == null)
+			return;
+		snapshot.remove();
+
+		if (written)
+		{
+			final long ms = System.currentTimeMillis() - current[1];
+			numSnapshots++;
+			snapshotTotalMs += ms;
+			snapshotMaxMs = Math.max(snapshotMaxMs, ms);
+			snapshotWritten = true;
+		}
+
+		// overlapping snapshots can complete in any order, so only the oldest seal is known to be covered
+		if (--snapshotsInFlight == 0)
+		{
+			if (snapshotWritten)
+			{
+				for (final File file : segments())
+					if (segmentNumber(file) <= deletableSegment)
+						file.delete();
+				bytes = sizeOfSegments();
+
+				if (failed && deletableSegment >= failedSegment)
+				{
+					log.info("resuming journal after snapshot");
+					failed = false;
+				}
+			}
+
+			deletableSegment = Integer.MAX_VALUE;
+			snapshotWritten = false;
+		}
+	}
+
+	public synchronized String getStats()
+	{
+		return numRecords + " records (" + (numRecordBytes / 1024) + " kB), " + numSnapshots + " snapshots ("
+				+ (numSnapshots > 0 ? snapshotTotalMs / numSnapshots : 0) + " ms avg, " + snapshotMaxMs + " ms max), " + segments().size()
+				+ " segments (" + (bytes / 1024) + " kB)" + (failed ? ", failed" : "");
+	}
+
+	private final WalletListener walletListener = new WalletListener();
+
+	private final class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener, WalletChangeEventListener,
+			WalletReorganizeEventListener, TransactionConfidenceEventListener
+	{
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+		{
+			journalTransaction(wallet, tx);
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+		{
+			journalTransaction(wallet, tx);
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			final WalletTransaction.Pool pool = poolOf(wallet, tx.getHash());
+			if (pool == null)
+				return;
+
+			synchronized (WalletJournal.this)
+			{
+				final TransactionState state = transactionStates.get(tx.getHash());
+				if (state != null && state.confidenceKey == confidenceKey(tx, pool))
+					return;
+			}
+
+			journalTransaction(wallet, tx);
+		}
+
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			synchronized (WalletJournal.this)
+			{
+				if (wallet != WalletJournal.this.wallet)
+					return;
+
+				final Sha256Hash lastSeenBlockHash = wallet.getLastBlockSeenHash();
+				if (lastSeenBlockHash != null && !lastSeenBlockHash.equals(WalletJournal.this.lastSeenBlockHash))
+				{
+					WalletJournal.this.lastSeenBlockHash = lastSeenBlockHash;
+					appendLastSeenBlock(lastSeenBlockHash, wallet.getLastBlockSeenHeight(), wallet.getLastBlockSeenTimeSecs());
+				}
+
+				if (transactionStates.size() != transactionCount(wallet))
+					reconcile(wallet);
+			}
+		}
+
+		@Override
+		public void onReorganize(final Wallet wallet)
+		{
+			requestCompaction();
+		}
+	}
+
+	private void journalTransaction(final Wallet wallet, final Transaction tx)
+	{
+		synchronized (this)
+		{
+			if (wallet != this.wallet)
+				return;
+
+			final TransactionState state = appendTransaction(wallet, tx);
+
+			// the parents' spent outputs and pools change along with their child
+			if (state != null)
+				for (final Sha256Hash parentHash : state.parents)
+				{
+					final Transaction parent = wallet.getTransaction(parentHash);
+					if (parent != null)
+						appendTransaction(wallet, parent);
+				}
+		}
+	}
+
+	/**
+	 * Catches up on transactions that were added or removed without a coins event, e.g. by {@link Wallet#cleanup()}.
+	 */
+	private void reconcile(final Wallet wallet)
+	{
+		final List<Sha256Hash> removed = new ArrayList<Sha256Hash>();
+		for (final Map.Entry<Sha256Hash, TransactionState> entry : transactionStates.entrySet())
+			if (poolOf(wallet, entry.getKey()) == null)
+				removed.add(entry.getKey());
+
+		for (final Sha256Hash hash : removed)
+		{
+			final TransactionState state = transactionStates.remove(hash);
+			append(RECORD_TRANSACTION_REMOVED, hash.getBytes());
+
+			for (final Sha256Hash parentHash : state.parents)
+			{
+				final Transaction parent = wallet.getTransaction(parentHash);
+				if (parent != null)
+					appendTransaction(wallet, parent);
+			}
+		}
+
+		for (final Transaction tx : wallet.getTransactions(true))
+			if (!transactionStates.containsKey(tx.getHash()))
+				appendTransaction(wallet, tx);
+	}
+
+	@Nullable
+	private TransactionState appendTransaction(final Wallet wallet, final Transaction tx)
+	{
+		final WalletTransaction.Pool pool = poolOf(wallet, tx.getHash());
+		if (pool == null)
+			return null;
+
+		final byte[] proto;
+		try
+		{
+			proto = ((Protos.Transaction) MAKE_TX_PROTO.invoke(null, new WalletTransaction(pool, tx))).toByteArray();
+		}
+		catch (final Exception x)
+		{
+			log.warn("cannot serialize transaction " + tx.getHashAsString() + ", pausing journal", x);
+			fail();
+			return null;
+		}
+
+		append(RECORD_TRANSACTION, proto);
+
+		final TransactionState state = new TransactionState(confidenceKey(tx, pool), parentsOf(wallet, tx));
+		transactionStates.put(tx.getHash(), state);
+		return state;
+	}
+
+	synchronized void appendLastSeenBlock(@Nullable final Sha256Hash hash, final int height, final long timeSecs)
+	{
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream(1 + 32 + 4 + 8);
+		final DataOutputStream os = new DataOutputStream(payload);
+
+		try
+		{
+			final byte[] hashBytes = hash != null ? hash.getBytes() : new byte[0];
+			os.writeByte(hashBytes.length);
+			os.write(hashBytes);
+			os.writeInt(height);
+			os.writeLong(timeSecs);
+		}
+		catch (final IOException x)
+		{
+			throw new RuntimeException(x); // can't happen
+		}
+
+		append(RECORD_LAST_SEEN_BLOCK, payload.toByteArray());
+	}
+
+	synchronized void append(final byte type, final byte[] payload)
+	{
+		if (failed)
+			return;
+
+		try
+		{
+			if (out == null)
+				out = openSegment(segment);
+
+			final byte[] record = encodeRecord(type, payload);
+			out.write(record);
+
+			bytes += record.length;
+			numRecords++;
+			numRecordBytes += record.length;
+		}
+		catch (final IOException x)
+		{
+			log.warn("cannot append to journal, pausing until next snapshot", x);
+			fail();
+			return;
+		}
+
+		if (bytes > maxBytes)
+			requestCompaction();
+	}
+
+	private void fail()
+	{
+		failed = true;
+		failedSegment = segment;
+		closeSegment(false);
+		requestCompaction();
+	}
+
+	private synchronized void requestCompaction()
+	{
+		if (compactor == null || compactionRequested)
+			return;
+
+		compactionRequested = true;
+		compactionExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					compactor.run();
+				}
+				catch (final RuntimeException x)
+				{
+					log.warn("problem compacting journal", x);
+				}
+				finally
+				{
+					synchronized (WalletJournal.this)
+					{
+						compactionRequested = false;
+					}
+				}
+			}
+		});
+	}
+
+	private FileOutputStream openSegment(final int number) throws IOException
+	{
+		final File file = new File(directory, prefix + number);
+		final boolean exists = file.length() > 0;
+		final FileOutputStream os = new FileOutputStream(file, true);
+
+		if (!exists)
+		{
+			final DataOutputStream header = new DataOutputStream(os);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.flush();
+			bytes += 8;
+		}
+
+		return os;
+	}
+
+	private void closeSegment(final boolean sync)
+	{
+		if (out == null)
+			return;
+
+		try
+		{
+			if (sync)
+				out.getFD().sync();
+			out.close();
+		}
+		catch (final IOException x)
+		{
+			log.info("problem closing journal segment", x);
+		}
+
+		out = null;
+	}
+
+	static byte[] encodeRecord(final byte type, final byte[] payload)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(payload);
+
+		final ByteArrayOutputStream record = new ByteArrayOutputStream(9 + payload.length);
+		final DataOutputStream os = new DataOutputStream(record);
+
+		try
+		{
+			os.writeInt(1 + payload.length);
+			os.writeInt((int) crc.getValue());
+			os.writeByte(type);
+			os.write(payload);
+		}
+		catch (final IOException x)
+		{
+			throw new RuntimeException(x); // can't happen
+		}
+
+		return record.toByteArray();
+	}
+
+	/**
+	 * @return next record, or null at the end of the segment or at the first torn or corrupted record
+	 */
+	@Nullable
+	private static Record readRecord(final DataInputStream is) throws IOException
+	{
+		final int length;
+		final int checksum;
+		final byte[] body;
+
+		try
+		{
+			length = is.readInt();
+			if (length < 1 || length > MAX_RECORD_LENGTH)
+			{
+				log.info("journal segment ends with bad record length {}", length);
+				return null;
+			}
+
+			checksum = is.readInt();
+			body = new byte[length];
+			is.readFully(body);
+		}
+		catch (final EOFException x)
+		{
+			return null;
+		}
+
+		final CRC32 crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != checksum)
+		{
+			log.info("journal segment ends with bad record checksum");
+			return null;
+		}
+
+		return new Record(body[0], Arrays.copyOfRange(body, 1, body.length));
+	}
+
+	private static final class Record
+	{
+		public final byte type;
+		public final byte[] payload;
+
+		public Record(final byte type, final byte[] payload)
+		{
+			this.type = type;
+			this.payload = payload;
+		}
+	}
+
+	private static final class TransactionState
+	{
+		public final long confidenceKey;
+		public final List<Sha256Hash> parents;
+
+		public TransactionState(final long confidenceKey, final List<Sha256Hash> parents)
+		{
+			this.confidenceKey = confidenceKey;
+			this.parents = parents;
+		}
+	}
+
+	/**
+	 * Everything about confidence that is worth a record. Depth is left out on purpose, it is derived on replay.
+	 */
+	private static long confidenceKey(final Transaction tx, final WalletTransaction.Pool pool)
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+		final ConfidenceType type = confidence.getConfidenceType();
+		final long appearedAtHeight = type == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1;
+		return (appearedAtHeight << 32) | ((confidence.numBroadcastPeers() & 0xffffL) << 16) | (type.ordinal() << 8) | pool.ordinal();
+	}
+
+	private static List<Sha256Hash> parentsOf(final Wallet wallet, final Transaction tx)
+	{
+		List<Sha256Hash> parents = Collections.emptyList();
+
+		for (final TransactionInput input : tx.getInputs())
+		{
+			final Sha256Hash parentHash = input.getOutpoint().getHash();
+			if (poolOf(wallet, parentHash) != null && !parents.contains(parentHash))
+			{
+				if (parents.isEmpty())
+					parents = new ArrayList<Sha256Hash>(2);
+				parents.add(parentHash);
+			}
+		}
+
+		return parents;
+	}
+
+	@Nullable
+	private static WalletTransaction.Pool poolOf(final Wallet wallet, final Sha256Hash hash)
+	{
+		for (final WalletTransaction.Pool pool : POOLS)
+			if (wallet.getTransactionPool(pool).containsKey(hash))
+				return pool;
+
+		return null;
+	}
+
+	private static int transactionCount(final Wallet wallet)
+	{
+		int count = 0;
+		for (final WalletTransaction.Pool pool : POOLS)
+			count += wallet.getPoolSize(pool);
+		return count;
+	}
+
+	private List<File> segments()
+	{
+		final File[] files = directory.listFiles(new FilenameFilter()
+		{
+			@Override
+			public boolean accept(final File dir, final String name)
+			{
+				return name.startsWith(prefix) && segmentNumber(name) > 0;
+			}
+		});
+
+		if (files == null)
+			return Collections.emptyList();
+
+		final List<File> segments = new ArrayList<File>(Arrays.asList(files));
+		Collections.sort(segments, new Comparator<File>()
+		{
+			@Override
+			public int compare(final File lhs, final File rhs)
+			{
+				final int lhsNumber = segmentNumber(lhs);
+				final int rhsNumber = segmentNumber(rhs);
+				return lhsNumber < rhsNumber ? -1 : (lhsNumber == rhsNumber ? 0 : 1);
+			}
+		});
+		return segments;
+	}
+
+	private int segmentNumber(final File file)
+	{
+		return segmentNumber(file.getName());
+	}
+
+	private int segmentNumber(final String name)
+	{
+		try
+		{
+			return Integer.parseInt(name.substring(prefix.length()));
+		}
+		catch (final NumberFormatException x)
+		{
+			return -1;
+		}
+	}
+
+	private int lastSegmentNumber()
+	{
+		final List<File> segments = segments();
+		return segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1));
+	}
+
+	private long sizeOfSegments()
+	{
+		long size = 0;
+		for (final File file : segments())
+			size += file.length();
+		return size;
+	}
+
+	@Nullable
+	private static Method makeTxProtoMethod()
+	{
+		try
+		{
+			final Method method = WalletProtobufSerializer.class.getDeclaredMethod("makeTxProto", WalletTransaction.class);
+			method.setAccessible(true);
+			return method;
+		}
+		catch (final Exception x)
+		{
+			log.warn("wallet journal not supported, falling back to full autosave", x);
+			return null;
+		}
+	}
+}
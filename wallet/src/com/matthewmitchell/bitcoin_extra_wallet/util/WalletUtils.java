@@ -32,6 +32,7 @@ import java.text.ParseException;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
@@ -65,6 +66,9 @@ import com.matthewmitchell.bitcoin_extra_wallet.Constants;
  */
 public class WalletUtils
 {
+	// WalletProtobufSerializer.isWallet() reads ahead by a protobuf buffer of 4096 bytes
+	private static final int PROTOBUF_SNIFF_LIMIT = 8192;
+
 	public static Editable formatAddress(final Address address, final int groupSize, final int lineSize)
 	{
 		return formatHash(address.toBase58(), groupSize, lineSize);
@@ -163,26 +167,21 @@ public class WalletUtils
 		return null;
 	}
 
+	/**
+	 * @param is
+	 *            must support {@link InputStream#mark(int)}
+	 */
 	public static Wallet restoreWalletFromProtobufOrBase58(final InputStream is, final NetworkParameters expectedNetworkParameters) throws IOException
 	{
-		is.mark((int) Constants.BACKUP_MAX_CHARS);
+		// only sniff the start, so the backup can be streamed rather than held in memory for a retry
+		is.mark(PROTOBUF_SNIFF_LIMIT);
+		final boolean isProtobuf = WalletProtobufSerializer.isWallet(is);
+		is.reset();
 
-		try
-		{
+		if (isProtobuf)
 			return restoreWalletFromProtobuf(is, expectedNetworkParameters);
-		}
-		catch (final IOException x)
-		{
-			try
-			{
-				is.reset();
-				return restorePrivateKeysFromBase58(is, expectedNetworkParameters);
-			}
-			catch (final IOException x2)
-			{
-				throw new IOException("cannot read protobuf (" + x.getMessage() + ") or base58 (" + x2.getMessage() + ")", x);
-			}
-		}
+		else
+			return restorePrivateKeysFromBase58(is, expectedNetworkParameters);
 	}
 
 	public static Wallet restoreWalletFromProtobuf(final InputStream is, final NetworkParameters expectedNetworkParameters) throws IOException
@@ -378,4 +377,16 @@ public class WalletUtils
 	{
 		return transaction.getOutputs().size() > 20;
 	}
+
+	private static final Pattern PATTERN_WALLET_NAME = Pattern.compile(
+			"(?:[^@\\s]+@)?(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z][a-z0-9-]*[a-z0-9]\\.?", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * @return true if the input could be a whole wallet name: a domain name including its top level domain, optionally
+	 *         preceded by a local part and @
+	 */
+	public static boolean isPossiblyCompleteWalletName(final String input)
+	{
+		return PATTERN_WALLET_NAME.matcher(input).matches();
+	}
 }
@@ -1,6 +1,13 @@
 package com.netki;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingInputStream;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics.Phase;
 import com.netki.dns.DNSBootstrapService;
 import com.netki.dns.DNSUtil;
 import com.netki.dnssec.DNSSECResolver;
@@ -13,7 +20,6 @@ import com.netki.exceptions.WalletNameURLFailedException;
 import com.netki.tlsa.CACertService;
 import com.netki.tlsa.CertChainValidator;
 import com.netki.tlsa.TLSAValidator;
-import com.netki.tlsa.ValidSelfSignedCertException;
 
 import org.bitcoinj_extra.uri.BitcoinURI;
 import org.bitcoinj_extra.uri.BitcoinURIParseException;
@@ -22,22 +28,17 @@ import org.xbill.DNS.*;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.cert.Certificate;
-import java.security.cert.X509Certificate;
+import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
 
 /**
  * WalletNameResolver objects are both re-usable and thread-safe.
@@ -47,7 +48,6 @@ public class WalletNameResolver {
 
     private DNSSECResolver resolver;
     private TLSAValidator tlsaValidator;
-    private int backupDnsServerIndex = 0;
 
     /**
      * Setup a new WalletNameResolver with default DNSSECResolver and TLSAValidator
@@ -128,11 +128,7 @@ public class WalletNameResolver {
                 throw new WalletNameDoesNotExistException("No Wallet Name Currency List Present");
             }
         } catch (DNSSECException e) {
-            if (this.backupDnsServerIndex >= this.resolver.getBackupDnsServers().size()) {
-                throw new WalletNameLookupException(e.getMessage(), e);
-            }
-            this.resolver.useBackupDnsServer(this.backupDnsServerIndex++);
-            return this.getAvailableCurrencies(label);
+            throw new WalletNameLookupException(e.getMessage(), e);
         }
 
         return new ArrayList<String>(Arrays.asList(availableCurrencies.split(" ")));
@@ -151,26 +147,38 @@ public class WalletNameResolver {
      */
     public BitcoinURI resolve(String label, String currency, boolean validateTLSA) throws WalletNameLookupException {
 
-        String resolved;
-        label = label.toLowerCase();
-        currency = currency.toLowerCase();
-
         if (label.isEmpty()) {
             throw new WalletNameLookupException("Wallet Name Label Must Non-Empty");
         }
 
+        NetworkMetrics.Request request = NetworkMetrics.getInstance().begin("wallet name");
+        try {
+            BitcoinURI resolved = this.resolve(label, currency, validateTLSA, request);
+            request.succeeded("ok");
+            return resolved;
+        } catch (WalletNameLookupException e) {
+            request.failed(e);
+            throw e;
+        }
+    }
+
+    private BitcoinURI resolve(String label, String currency, boolean validateTLSA, NetworkMetrics.Request request) throws WalletNameLookupException {
+
+        String resolved;
+        label = label.toLowerCase();
+        currency = currency.toLowerCase();
+
         try {
             resolved = this.resolver.resolve(String.format("_%s._wallet.%s", currency, DNSUtil.ensureDot(this.preprocessWalletName(label))), Type.TXT);
             if (resolved == null || resolved.equals("")) {
                 throw new WalletNameCurrencyUnavailableException("Currency Not Available in Wallet Name");
             }
         } catch (DNSSECException e) {
-            if (this.backupDnsServerIndex >= this.resolver.getBackupDnsServers().size()) {
-                throw new WalletNameLookupException(e.getMessage(), e);
-            }
-            this.resolver.useBackupDnsServer(this.backupDnsServerIndex++);
-            return this.resolve(label, currency, validateTLSA);
+            // The DNSSECResolver already tried its backup DNS servers
+            throw new WalletNameLookupException(e.getMessage(), e);
         }
+        request.phaseDone(Phase.DNS);
+
         byte[] decodeResult = BaseEncoding.base64().decode(resolved);
         try {
             URL walletNameUrl = new URL(new String(decodeResult));
@@ -178,7 +186,6 @@ public class WalletNameResolver {
         } catch (MalformedURLException e) { /* This is not a URL */ }
 
         try {
-            this.backupDnsServerIndex = 0;
             return new BitcoinURI(resolved);
         } catch (BitcoinURIParseException e) {
             try {
@@ -199,71 +206,61 @@ public class WalletNameResolver {
      */
     public BitcoinURI processWalletNameUrl(URL url, boolean verifyTLSA) throws WalletNameLookupException {
 
-        HttpsURLConnection conn = null;
-        InputStream ins;
-        InputStreamReader isr;
-        BufferedReader in = null;
-        Certificate possibleRootCert = null;
-
-        if (verifyTLSA) {
-            try {
-                if (!this.tlsaValidator.validateTLSA(url)) {
-                    throw new WalletNameTlsaValidationException("TLSA Validation Failed");
-                }
-            } catch (ValidSelfSignedCertException ve) {
-                // TLSA Uses a Self-Signed Root Cert, We Need to Add to CACerts
-                possibleRootCert = ve.getRootCert();
-            } catch (Exception e) {
-                throw new WalletNameTlsaValidationException("TLSA Validation Failed", e);
-            }
-        }
-
+        NetworkMetrics.Request request = NetworkMetrics.getInstance().begin("wallet name endpoint");
         try {
-            conn = (HttpsURLConnection) url.openConnection();
-
-            // If we have a self-signed cert returned during TLSA Validation, add it to the SSLContext for the HTTPS Connection
-            if (possibleRootCert != null) {
-                try {
-                    KeyStore ssKeystore = KeyStore.getInstance(KeyStore.getDefaultType());
-                    ssKeystore.load(null, null);
-                    ssKeystore.setCertificateEntry(((X509Certificate) possibleRootCert).getSubjectDN().toString(), possibleRootCert);
-
-                    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                    tmf.init(ssKeystore);
+            BitcoinURI resolved = processWalletNameUrl(url, verifyTLSA, request);
+            request.succeeded("ok");
+            return resolved;
+        } catch (WalletNameLookupException e) {
+            request.failed(e);
+            throw e;
+        }
+    }
 
-                    SSLContext ctx = SSLContext.getInstance("TLS");
-                    ctx.init(null, tmf.getTrustManagers(), null);
+    private BitcoinURI processWalletNameUrl(URL url, boolean verifyTLSA, NetworkMetrics.Request request) throws WalletNameLookupException {
 
-                    conn.setSSLSocketFactory(ctx.getSocketFactory());
-                } catch (Exception e) {
-                    throw new WalletNameTlsaValidationException("Failed to Add TLSA Self Signed Certificate to HttpsURLConnection", e);
-                }
+        HttpsURLConnection conn = null;
+        BufferedReader in = null;
 
+        try {
+            // With TLSA, the certificates are validated during the handshake of this very connection
+            if (verifyTLSA) {
+                conn = this.tlsaValidator.connect(url);
+            } else {
+                conn = (HttpsURLConnection) url.openConnection();
+                conn.connect();
             }
-            ins = conn.getInputStream();
-            isr = new InputStreamReader(ins);
-            in = new BufferedReader(isr);
+            request.phaseDone(Phase.CONNECT);
+            CountingInputStream ins = new CountingInputStream(conn.getInputStream());
+            request.phaseDone(Phase.FIRST_BYTE);
+            in = new BufferedReader(new InputStreamReader(ins, Charsets.UTF_8));
 
             String inputLine;
-            String data = "";
+            StringBuilder data = new StringBuilder();
             while ((inputLine = in.readLine()) != null) {
-                data += inputLine;
+                data.append(inputLine);
             }
+            request.addBytesReceived(ins.getCount());
 
             try {
-                return new BitcoinURI(data);
+                return new BitcoinURI(data.toString());
             } catch (BitcoinURIParseException e) {
                 throw new WalletNameLookupException("Unable to create BitcoinURI", e);
             }
         } catch (IOException e) {
+            if (verifyTLSA && Iterables.any(Throwables.getCausalChain(e), Predicates.instanceOf(CertificateException.class))) {
+                throw new WalletNameTlsaValidationException("TLSA Validation Failed", e);
+            }
             throw new WalletNameURLFailedException("WalletName URL Connection Failed", e);
         } finally {
-            if (conn != null && in != null) {
+            if (in != null) {
                 try {
                     in.close();
                 } catch (IOException e) {
                     // Do Nothing
                 }
+            }
+            if (conn != null) {
                 conn.disconnect();
             }
         }
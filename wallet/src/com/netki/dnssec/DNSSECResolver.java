@@ -8,28 +8,70 @@ import org.xbill.DNS.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
- * DNSSECResolver Objects are both re-usable and thread safe.
+ * DNSSECResolver Objects are both re-usable and thread safe. Resolvers are only set up when the DNS servers change, so
+ * a long-lived instance should be shared by all lookups.
  *
+ * Each lookup races the system and backup DNS servers that are expected to be fastest, and the first validated or
+ * provably insecure answer wins. Only validation failures and unreachable servers bring in the next server. Servers are
+ * ranked by their measured latency and error rate, so slow or failing servers are demoted.
+ *
+ * Validated answers, validated proofs that there is no answer, and insecure answers are cached for their TTL.
  */
 public class DNSSECResolver {
 
-    private final List<InetAddress> dnsServers;
-    private SimpleResolver simpleResolver;
-    private ValidatingResolver validatingResolver;
+    private final DNSBootstrapService dnsBootstrapService;
+    private volatile List<InetAddress> dnsServers;
+    private volatile List<Server> servers = Collections.emptyList();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "DNSSECResolver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_CACHE_ENTRIES;
+        }
+    };
+
+    private static final int MAX_CACHE_ENTRIES = 128;
+    private static final long MAX_CACHE_TTL_SECONDS = 3600;
+    private static final String NO_ANSWER_MESSAGE = "No Query Answer Received";
+
+    // Number of servers queried at once. Each inconclusive answer brings in the next server.
+    private static final int RACE_WIDTH = 2;
 
     private static final String ROOT = ". IN DS 19036 8 2 49AAC11D7B6F6446702E54A1607371607A1A41855200FD2CE1CDDE32F24E8FB5";
 
     // Setup Backup DNS Server List with Google Public DNS Servers as defaults
-    private List<String> backupDnsServers = Arrays.asList("8.8.8.8", "8.8.4.4");
-    private String selectedDnsServer;
+    private volatile List<String> backupDnsServers = Arrays.asList("8.8.8.8", "8.8.4.4");
 
     /**
      * DNSSECResolver Constructor
@@ -38,43 +80,81 @@ public class DNSSECResolver {
      * @throws UnknownHostException Thrown if system DNS servers are not available or invalid
      */
     public DNSSECResolver(DNSBootstrapService dnsBootstrapService) throws UnknownHostException {
+        this.dnsBootstrapService = dnsBootstrapService;
         this.dnsServers = dnsBootstrapService.getSystemDNSServers();
+        if (this.dnsServers.isEmpty()) {
+            throw new UnknownHostException("No System DNS Servers");
+        }
 
-        this.selectedDnsServer = this.dnsServers.get(0).getHostAddress();
-        this.simpleResolver = new SimpleResolver(this.selectedDnsServer);
-        this.validatingResolver = new ValidatingResolver(this.simpleResolver);
+        this.updateServers(null);
     }
 
     /**
-     * Set SimpleResolver to use (used for unit testing)
+     * Set SimpleResolver to use for all lookups (used for unit testing)
      * @param sr SimpleResolver to use
      */
-    public void setSimpleResolver(SimpleResolver sr) {
-        this.simpleResolver = sr;
-        this.validatingResolver = new ValidatingResolver(sr);
+    public synchronized void setSimpleResolver(SimpleResolver sr) {
+        this.servers = Collections.singletonList(new Server(this.getSelectedDnsServer(), newValidatingResolver(sr)));
     }
 
     /**
-     * Set ValidatingResolver to use (used for unit testing)
+     * Set ValidatingResolver to use for all lookups (used for unit testing)
      * @param vr ValidatingResolver to use
      */
-    public void setValidatingResolver(ValidatingResolver vr) {
-        this.validatingResolver = vr;
+    public synchronized void setValidatingResolver(ValidatingResolver vr) {
+        this.setValidatingResolvers(Collections.singletonMap(this.getSelectedDnsServer(), vr));
+    }
+
+    /**
+     * Set ValidatingResolvers to race, keyed by server address in order of preference (used for unit testing)
+     * @param resolvers ValidatingResolvers to use
+     */
+    public synchronized void setValidatingResolvers(Map<String, ValidatingResolver> resolvers) {
+        List<Server> updated = new ArrayList<Server>(resolvers.size());
+        for (Map.Entry<String, ValidatingResolver> entry : resolvers.entrySet()) {
+            loadTrustAnchors(entry.getValue());
+            updated.add(new Server(entry.getKey(), entry.getValue()));
+        }
+        this.servers = Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * Discover the system DNS servers again, e.g. after a connectivity change. If they changed, they are preferred over
+     * the backup DNS servers until their latency has been measured.
+     *
+     * @return Whether the system DNS servers changed
+     * @throws UnknownHostException Thrown if a new system DNS server is invalid
+     */
+    public synchronized boolean refreshSystemDnsServers() throws UnknownHostException {
+        List<InetAddress> servers = this.dnsBootstrapService.getSystemDNSServers();
+        if (servers.isEmpty() || servers.equals(this.dnsServers)) {
+            return false;
+        }
+
+        this.dnsServers = servers;
+        this.updateServers(null);
+        return true;
     }
 
     /**
      * Get Selected DNS Server
-     * @return IP Address String of Selected DNS Server
+     * @return IP Address String of the DNS Server currently expected to answer fastest
      */
     public String getSelectedDnsServer() {
-        return this.selectedDnsServer;
+        return this.preferredOrder().get(0).address;
     }
 
     /**
      * Set Backup Server List
      * @param backupDnsServers List of Strings containing backup DNS server IP addresses
      */
-    public void setBackupDnsServers(List<String> backupDnsServers) { this.backupDnsServers = backupDnsServers; }
+    public synchronized void setBackupDnsServers(List<String> backupDnsServers) {
+        this.backupDnsServers = backupDnsServers;
+        try {
+            this.updateServers(null);
+        } catch (UnknownHostException ignore) {
+        }
+    }
 
     /**
      * Get Backup DNS Server List
@@ -83,17 +163,98 @@ public class DNSSECResolver {
     public List<String> getBackupDnsServers() { return this.backupDnsServers; }
 
     /**
-     * Use Backup DNS Server identified by index
+     * Prefer Backup DNS Server identified by index, until measured latency says otherwise
      * @param index of backup DNS server
      */
-    public void useBackupDnsServer(int index) {
-        this.selectedDnsServer = backupDnsServers.get(index);
-
+    public synchronized void useBackupDnsServer(int index) {
         try {
-            this.simpleResolver = new SimpleResolver(this.selectedDnsServer);
+            this.updateServers(this.backupDnsServers.get(index));
         } catch (UnknownHostException ignore) {
         }
-        this.validatingResolver = new ValidatingResolver(this.simpleResolver);
+    }
+
+    /**
+     * Rebuild the server list: the preferred server if any, then the system servers, then the backup servers. Known
+     * servers keep their resolver and health. Invalid backup servers are skipped.
+     */
+    private synchronized void updateServers(String preferred) throws UnknownHostException {
+        List<String> addresses = new ArrayList<String>();
+        if (preferred != null) {
+            addresses.add(preferred);
+        }
+        for (InetAddress dnsServer : this.dnsServers) {
+            if (!addresses.contains(dnsServer.getHostAddress())) {
+                addresses.add(dnsServer.getHostAddress());
+            }
+        }
+        int numSystemServers = addresses.size();
+        for (String backupDnsServer : this.backupDnsServers) {
+            if (!addresses.contains(backupDnsServer)) {
+                addresses.add(backupDnsServer);
+            }
+        }
+
+        List<Server> updated = new ArrayList<Server>(addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            String address = addresses.get(i);
+            Server server = this.findServer(address);
+            if (server == null) {
+                try {
+                    server = new Server(address, newValidatingResolver(new SimpleResolver(address)));
+                } catch (UnknownHostException e) {
+                    if (i < numSystemServers) {
+                        throw e;
+                    }
+                    continue;
+                }
+            }
+            updated.add(server);
+        }
+        this.servers = Collections.unmodifiableList(updated);
+    }
+
+    private Server findServer(String address) {
+        for (Server server : this.servers) {
+            if (server.address.equals(address)) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Servers, cheapest expected lookup first
+     */
+    private List<Server> preferredOrder() {
+        List<Server> order = new ArrayList<Server>(this.servers);
+        final Map<Server, Long> costs = new LinkedHashMap<Server, Long>();
+        for (Server server : order) {
+            costs.put(server, server.expectedCostMs());
+        }
+
+        // Stable, so configured order breaks ties
+        Collections.sort(order, new Comparator<Server>() {
+            @Override
+            public int compare(Server lhs, Server rhs) {
+                return costs.get(lhs).compareTo(costs.get(rhs));
+            }
+        });
+        return order;
+    }
+
+    private static ValidatingResolver newValidatingResolver(SimpleResolver sr) {
+        ValidatingResolver vr = new ValidatingResolver(sr);
+        loadTrustAnchors(vr);
+        return vr;
+    }
+
+    private static void loadTrustAnchors(ValidatingResolver vr) {
+        try {
+            vr.loadTrustAnchors(new ByteArrayInputStream(ROOT.getBytes("ASCII")));
+        } catch (IOException e) {
+            // The trust anchor is a constant, so this can't happen
+            throw new IllegalStateException("Unable to Load Trust Anchor", e);
+        }
     }
 
     /**
@@ -106,46 +267,250 @@ public class DNSSECResolver {
      */
     public String resolve(String label, int type) throws DNSSECException {
 
-        // Setup Resolver
-        try {
-            this.validatingResolver.loadTrustAnchors(new ByteArrayInputStream(ROOT.getBytes("ASCII")));
-        } catch (UnknownHostException e) {
-            throw new DNSSECException("Unknown DNS Host: " + this.selectedDnsServer);
-        } catch (UnsupportedEncodingException e) {
-            throw new DNSSECException("Unsupported Trust Anchor Encoding");
-        } catch (IOException e) {
-            throw new DNSSECException("Resolver Creation Exception: " + e.getMessage());
+        String cacheKey = DNSUtil.ensureDot(label).toLowerCase(Locale.US) + " " + type;
+        CacheEntry cached = this.getCached(cacheKey);
+        if (cached != null) {
+            if (cached.noAnswer) {
+                throw new DNSSECException(NO_ANSWER_MESSAGE);
+            }
+            return cached.value;
         }
 
+        Message query = Message.newQuery(Record.newRecord(Name.fromConstantString(DNSUtil.ensureDot(label)), type, DClass.IN));
+        List<Server> order = this.preferredOrder();
+        CompletionService<Answer> completion = new ExecutorCompletionService<Answer>(this.executor);
+        List<Future<Answer>> futures = new ArrayList<Future<Answer>>(order.size());
+        boolean interrupted = false;
+
         try {
-            Record qr = Record.newRecord(Name.fromConstantString(DNSUtil.ensureDot(label)), type, DClass.IN);
-            Message response = this.validatingResolver.send(Message.newQuery(qr));
-
-            if (response.getHeader().getFlag(Flags.AD) && response.getRcode() == Rcode.NOERROR) {
-                for (RRset set : response.getSectionRRsets(Section.ANSWER)) {
-                    Iterator<?> iter = set.rrs();
-                    while(iter.hasNext()) {
-                        Record record = (Record)iter.next();
-                        if (record.getType() == type) {
-                            return record.rdataToString().replace("\"","");
-                        }
+            while (futures.size() < Math.min(RACE_WIDTH, order.size())) {
+                futures.add(completion.submit(this.query(order.get(futures.size()), futures.size(), query, type, cacheKey)));
+            }
+            int inFlight = futures.size();
+
+            // Inconclusive outcome of the most preferred server, used if no server gives a validated answer
+            Answer fallback = null;
+
+            while (inFlight > 0) {
+                Answer answer = completion.take().get();
+                inFlight--;
+
+                if (answer.conclusive) {
+                    return answer.get();
+                }
+                if (fallback == null || (answer.responded && !fallback.responded)
+                        || (answer.responded == fallback.responded && answer.rank < fallback.rank)) {
+                    fallback = answer;
+                }
+                if (futures.size() < order.size()) {
+                    futures.add(completion.submit(this.query(order.get(futures.size()), futures.size(), query, type, cacheKey)));
+                    inFlight++;
+                }
+            }
+
+            if (fallback == null) {
+                throw new DNSSECException("No DNS Servers Available");
+            }
+            return fallback.get();
+
+        } catch (InterruptedException e) {
+            interrupted = true;
+            Thread.currentThread().interrupt();
+            throw new DNSSECException("DNSSEC Lookup Interrupted");
+        } catch (ExecutionException e) {
+            throw new DNSSECException("DNSSEC Lookup Failure: " + e.getCause());
+        } finally {
+            // Queries that are already running are left to finish, so their latency still counts towards server health
+            for (Future<Answer> future : futures) {
+                future.cancel(interrupted);
+            }
+        }
+    }
+
+    private Callable<Answer> query(final Server server, final int rank, final Message query, final int type, final String cacheKey) {
+        return new Callable<Answer>() {
+            @Override
+            public Answer call() {
+                long start = System.nanoTime();
+                try {
+                    Answer answer = DNSSECResolver.this.evaluate(server.resolver.send((Message) query.clone()), rank, type, cacheKey);
+                    if (!answer.conclusive) {
+                        // Validation failed on this server, e.g. because it strips signatures, or the server failed
+                        server.recordFailure();
+                    } else {
+                        server.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
                     }
+                    return answer;
+                } catch (IOException e) {
+                    server.recordFailure();
+                    return new Answer(rank, false, false, null, new DNSSECException("DNSSEC Lookup Failure: " + e.getMessage()));
                 }
-                throw new DNSSECException("No Query Answer Received");
             }
+        };
+    }
+
+    private Answer evaluate(Message response, int rank, int type, String cacheKey) {
 
-            for (RRset set : response.getSectionRRsets(Section.ADDITIONAL)) {
-                if (set.getName().equals(Name.root) && set.getType() == type && set.getDClass() == ValidatingResolver.VALIDATION_REASON_QCLASS) {
-                    String exceptionMessage = ((TXTRecord) set.first()).getStrings().get(0).toString();
-                    throw new DNSSECException(exceptionMessage);
+        boolean validated = response.getHeader().getFlag(Flags.AD);
+        int rcode = validated ? response.getRcode() : Rcode.SERVFAIL;
+
+        if (validated && rcode == Rcode.NOERROR) {
+            for (RRset set : response.getSectionRRsets(Section.ANSWER)) {
+                Iterator<?> iter = set.rrs();
+                while(iter.hasNext()) {
+                    Record record = (Record)iter.next();
+                    if (record.getType() == type) {
+                        String value = record.rdataToString().replace("\"","");
+                        this.putCached(cacheKey, value, false, record.getTTL());
+                        return new Answer(rank, true, true, value, null);
+                    }
                 }
             }
+            this.putCached(cacheKey, null, true, negativeTtl(response));
+            return new Answer(rank, true, true, null, new DNSSECException(NO_ANSWER_MESSAGE));
+        }
 
-        } catch (IOException e) {
-            throw new DNSSECException("DNSSEC Lookup Failure: " + e.getMessage());
+        for (RRset set : response.getSectionRRsets(Section.ADDITIONAL)) {
+            if (set.getName().equals(Name.root) && set.getType() == type && set.getDClass() == ValidatingResolver.VALIDATION_REASON_QCLASS) {
+                String exceptionMessage = ((TXTRecord) set.first()).getStrings().get(0).toString();
+                return new Answer(rank, false, true, null, new DNSSECException(exceptionMessage));
+            }
         }
 
-        // No Valid Positive Response Returned and No Validating Failure Reason Negative DNS/DNSSEC Response Returned
-        return null;
+        if (validated && rcode == Rcode.NXDOMAIN) {
+            this.putCached(cacheKey, null, false, negativeTtl(response));
+            return new Answer(rank, true, true, null, null);
+        }
+
+        // No Validating Failure Reason, so the zone is proven to be unsigned and no other server can validate it either
+        int insecureRcode = response.getRcode();
+        if (!validated && (insecureRcode == Rcode.NOERROR || insecureRcode == Rcode.NXDOMAIN)) {
+            this.putCached(cacheKey, null, false, insecureRcode == Rcode.NOERROR ? answerTtl(response, type) : negativeTtl(response));
+            return new Answer(rank, true, true, null, null);
+        }
+
+        // Server Failure Without a Validating Failure Reason
+        return new Answer(rank, false, true, null, null);
+    }
+
+    private CacheEntry getCached(String key) {
+        synchronized (this.cache) {
+            CacheEntry entry = this.cache.get(key);
+            if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+                this.cache.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void putCached(String key, String value, boolean noAnswer, long ttlSeconds) {
+        if (ttlSeconds <= 0) {
+            return;
+        }
+        long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.min(ttlSeconds, MAX_CACHE_TTL_SECONDS));
+        synchronized (this.cache) {
+            this.cache.put(key, new CacheEntry(value, noAnswer, expiresAt));
+        }
+    }
+
+    /**
+     * Answers are cached for the smallest TTL of their records, or like negative answers if there are none
+     */
+    private static long answerTtl(Message response, int type) {
+        long ttl = -1;
+        for (Record record : response.getSectionArray(Section.ANSWER)) {
+            if (record.getType() == type) {
+                ttl = ttl < 0 ? record.getTTL() : Math.min(ttl, record.getTTL());
+            }
+        }
+        return ttl >= 0 ? ttl : negativeTtl(response);
+    }
+
+    /**
+     * Negative answers are cached for the smaller of the SOA TTL and its minimum field (RFC 2308)
+     */
+    private static long negativeTtl(Message response) {
+        for (Record record : response.getSectionArray(Section.AUTHORITY)) {
+            if (record instanceof SOARecord) {
+                return Math.min(record.getTTL(), ((SOARecord) record).getMinimum());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * One DNS server with its own resolver, plus its smoothed latency and a decaying error rate.
+     */
+    private static final class Server {
+        final String address;
+        final ValidatingResolver resolver;
+        private long latencyMs = -1;
+        private double errorRate = 0;
+
+        private static final double WEIGHT = 0.2;
+        private static final long UNKNOWN_LATENCY_MS = 1000;
+        private static final long TIMEOUT_MS = 10000;
+
+        Server(String address, ValidatingResolver resolver) {
+            this.address = address;
+            this.resolver = resolver;
+        }
+
+        synchronized void recordSuccess(long latencyMs) {
+            this.latencyMs = this.latencyMs < 0 ? latencyMs : (long) (this.latencyMs * (1 - WEIGHT) + latencyMs * WEIGHT);
+            this.errorRate *= 1 - WEIGHT;
+        }
+
+        synchronized void recordFailure() {
+            this.errorRate = this.errorRate * (1 - WEIGHT) + WEIGHT;
+        }
+
+        /**
+         * Typical latency, plus a timeout's worth for the chance of failing
+         */
+        synchronized long expectedCostMs() {
+            return (this.latencyMs >= 0 ? this.latencyMs : UNKNOWN_LATENCY_MS) + (long) (this.errorRate * TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Outcome of one query to one server
+     */
+    private static final class Answer {
+        final int rank;
+        // Validated or proven insecure, so no other server can do better
+        final boolean conclusive;
+        // False if the server could not be reached
+        final boolean responded;
+        final String value;
+        final DNSSECException exception;
+
+        Answer(int rank, boolean conclusive, boolean responded, String value, DNSSECException exception) {
+            this.rank = rank;
+            this.conclusive = conclusive;
+            this.responded = responded;
+            this.value = value;
+            this.exception = exception;
+        }
+
+        String get() throws DNSSECException {
+            if (this.exception != null) {
+                throw this.exception;
+            }
+            return this.value;
+        }
+    }
+
+    private static final class CacheEntry {
+        final String value;
+        final boolean noAnswer;
+        final long expiresAt;
+
+        CacheEntry(String value, boolean noAnswer, long expiresAt) {
+            this.value = value;
+            this.noAnswer = noAnswer;
+            this.expiresAt = expiresAt;
+        }
     }
 }
@@ -1,31 +1,25 @@
 package com.netki.tlsa;
 
-import java.io.IOException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.Enumeration;
 
-import org.bitcoinj_extra.crypto.TrustStoreLoader;
+import com.matthewmitchell.bitcoin_extra_wallet.util.TrustStore;
 
 public class CACertService {
 
     private static CACertService ourInstance = null;
-    private static KeyStore caCertKeystore = null;
+    private static TrustStore caCertStore = null;
 
     /**
      * Default Constructor for CACertService
      *
-     * Builds a CA Certificate KeyStore based on $JAVA_HOME/lib/security/cacerts
+     * Uses the shared trust store, which is loaded only once for both TLSA and BIP70
      *
      * @throws KeyStoreException
      */
     private CACertService() throws KeyStoreException {
         try {
-            caCertKeystore = new TrustStoreLoader.DefaultTrustStoreLoader().getKeyStore();
+            caCertStore = TrustStore.getInstance();
         } catch (Exception e) {
             throw new KeyStoreException("Unable to Create CA Cert KeyStore: " + e.getMessage());
         }
@@ -37,13 +31,22 @@ public class CACertService {
      * @return Instance of CACertService
      * @throws KeyStoreException Thrown if new CACertService object creation fails
      */
-    public static CACertService getInstance() throws KeyStoreException {
+    public static synchronized CACertService getInstance() throws KeyStoreException {
         if(ourInstance == null) {
             ourInstance = new CACertService();
         }
         return ourInstance;
     }
 
+    /**
+     * Get the index of the currently loaded CA Certificates, built once as it is immutable
+     *
+     * @return TrustIndex of the CA Certificates
+     */
+    public TrustIndex getCaCertIndex() {
+        return CACertService.caCertStore.getTrustIndex();
+    }
+
     /**
      * Get a copy of the currently loaded CA Certificate KeyStore
      *
@@ -51,22 +54,9 @@ public class CACertService {
      */
     public KeyStore getCaCertKeystore() {
         try {
-            KeyStore returnKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-            returnKeyStore.load(null, null);
-            Enumeration<String> e = CACertService.caCertKeystore.aliases();
-            while(e.hasMoreElements()) {
-                Certificate cert = CACertService.caCertKeystore.getCertificate(e.nextElement());
-                returnKeyStore.setCertificateEntry(((X509Certificate) cert).getSubjectDN().toString(), cert);
-            }
-            return CACertService.caCertKeystore;
+            return CACertService.caCertStore.copyKeyStore();
         } catch (KeyStoreException e) {
             return null;
-        } catch (CertificateException e) {
-            return null;
-        } catch (NoSuchAlgorithmException e) {
-            return null;
-        } catch (IOException e) {
-            return null;
         }
     }
 }
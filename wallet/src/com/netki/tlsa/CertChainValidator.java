@@ -11,6 +11,9 @@ import java.util.*;
 
 public class CertChainValidator {
 
+    // Guards against issuer loops, e.g. cross-signed certificates
+    private static final int MAX_CHAIN_DEPTH = 10;
+
     /**
      * Validate keychain
      *
@@ -26,96 +29,72 @@ public class CertChainValidator {
 
     public boolean validateKeyChain(X509Certificate client, KeyStore keyStore) throws KeyStoreException, CertificateException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
 
-        X509Certificate[] certs = new X509Certificate[keyStore.size()];
-        int i = 0;
-
-        Enumeration<String> alias = keyStore.aliases();
-
-        while (alias.hasMoreElements()) {
-            certs[i++] = (X509Certificate) keyStore.getCertificate(alias.nextElement());
-        }
-
-        return validateKeyChain(client, certs);
+        return validateKeyChain(client, TrustIndex.of(keyStore), Collections.<Certificate>emptyList());
     }
 
 
     /**
      * Validate keychain
      *
-     * @param client       is the client X509Certificate
-     * @param trustedCerts is Array containing all trusted X509Certificate
-     * @return true if validation until root certificate success, false otherwise
+     * Issuers are looked up by key identifier or subject, so the cost depends on the chain depth rather than on the
+     * number of trusted certificates.
+     *
+     * @param client        is the client X509Certificate
+     * @param trusted       is the index of all trusted X509Certificates
+     * @param intermediates are additional certificates, e.g. sent by the server, that may only link the client to a
+     *                      trusted certificate; a self-signed certificate among them is not trusted
+     * @return true if validation until a trusted certificate success, false otherwise
      * @throws CertificateException Certificate is invalid
      * @throws InvalidAlgorithmParameterException Algorithm parameter is invalid
      * @throws NoSuchAlgorithmException No Such Algorithm Exists
      * @throws NoSuchProviderException No Such Security Provider Exists
      */
 
-    private boolean validateKeyChain(X509Certificate client, X509Certificate... trustedCerts) throws CertificateException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
-
-        boolean found = false;
-        int i = trustedCerts.length;
+    public boolean validateKeyChain(X509Certificate client, TrustIndex trusted, Collection<? extends Certificate> intermediates) throws CertificateException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
 
+        TrustIndex overlay = TrustIndex.of(intermediates);
         CertificateFactory cf = CertificateFactory.getInstance("X.509");
-
-        TrustAnchor anchor;
-        Set<TrustAnchor> anchors;
-        CertPath path;
-        List<Certificate> list;
-        PKIXParameters params;
         CertPathValidator validator = CertPathValidator.getInstance("PKIX");
 
-        while (!found && i > 0) {
-            anchor = new TrustAnchor(trustedCerts[--i], null);
-            anchors = Collections.singleton(anchor);
+        return validateKeyChain(client, trusted, overlay, cf, validator, MAX_CHAIN_DEPTH);
+    }
 
-            list = Arrays.asList(new Certificate[]{client});
-            path = cf.generateCertPath(list);
-            params = new PKIXParameters(anchors);
-            params.setRevocationEnabled(false);
 
-            if (client.getIssuerDN().equals(trustedCerts[i].getSubjectDN())) {
+    private boolean validateKeyChain(X509Certificate client, TrustIndex trusted, TrustIndex overlay, CertificateFactory cf, CertPathValidator validator, int depth) throws CertificateException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
 
-                try {
-                    validator.validate(path, params);
-                    if (isSelfSigned(trustedCerts[i])) {
-                        // found root ca
-                        found = true;
-                    } else if (!client.equals(trustedCerts[i])) {
-                        // find parent ca
-                        found = validateKeyChain(trustedCerts[i], trustedCerts);
-                    }
+        if (depth == 0) {
+            return false;
+        }
 
-                } catch (CertPathValidatorException e) {
-                    // validation fail, check next certificate in the trustedCerts array
-                }
+        CertPath path = cf.generateCertPath(Collections.singletonList(client));
 
-            }
+        for (TrustIndex index : Arrays.asList(trusted, overlay)) {
+            for (X509Certificate issuer : index.findIssuers(client)) {
 
-        }
-
-        return found;
-    }
+                if (!client.getIssuerX500Principal().equals(issuer.getSubjectX500Principal())) {
+                    continue;
+                }
 
+                PKIXParameters params = new PKIXParameters(Collections.singleton(new TrustAnchor(issuer, null)));
+                params.setRevocationEnabled(false);
 
-    /**
-     * @param cert is X509Certificate that will be tested
-     * @return true if cert is self signed, false otherwise
-     * @throws CertificateException Certificate is Invalid
-     * @throws NoSuchAlgorithmException Algorithm is Invalid
-     * @throws NoSuchProviderException No Such Security Provider Exists
-     */
-    private boolean isSelfSigned(X509Certificate cert) throws CertificateException, NoSuchAlgorithmException, NoSuchProviderException {
+                try {
+                    validator.validate(path, params);
+                } catch (CertPathValidatorException e) {
+                    // validation fail, check next candidate issuer
+                    continue;
+                }
 
-        try {
-            PublicKey key = cert.getPublicKey();
-            cert.verify(key);
-            return true;
-        } catch (SignatureException sigEx) {
-            return false;
-        } catch (InvalidKeyException keyEx) {
-            return false;
+                if (index == trusted) {
+                    // found trust anchor
+                    return true;
+                } else if (!client.equals(issuer) && validateKeyChain(issuer, trusted, overlay, cf, validator, depth - 1)) {
+                    // found parent ca, which has to lead to a trust anchor itself; a root sent along is not one
+                    return true;
+                }
+            }
         }
 
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,8 @@
 package com.netki.tlsa;
 
 import com.google.common.io.BaseEncoding;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics;
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics.Phase;
 import com.netki.dns.DNSBootstrapService;
 import com.netki.dns.DNSUtil;
 import com.netki.dnssec.DNSSECResolver;
@@ -17,7 +19,19 @@ import java.security.cert.*;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TLSAValidator objects are both re-usable and threadsafe.
@@ -29,6 +43,32 @@ public class TLSAValidator {
     private CACertService caCertService;
     private CertChainValidator chainValidator;
 
+    private final Map<String, TlsaTrustManager> trustManagers = new LinkedHashMap<String, TlsaTrustManager>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TlsaTrustManager> eldest) {
+            return size() > MAX_TRUSTED_HOSTS;
+        }
+    };
+
+    // Runs TLSA record lookups while the TLS handshake is under way
+    private final ThreadPoolExecutor lookupExecutor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TLSAValidator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // TLSA record lookup for the handshake in progress on the current thread
+    private static final ThreadLocal<Future<TLSARecord>> pendingLookup = new ThreadLocal<Future<TLSARecord>>();
+
+    private static final int MAX_TRUSTED_HOSTS = 16;
+    private static final int LOOKUP_THREADS = 2;
+    private static final int SESSION_TIMEOUT_SECONDS = 300;
+    private static final long VALIDATED_CERT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
     /**
      * Default TLSAValidator constructor
      *
@@ -39,6 +79,7 @@ public class TLSAValidator {
             this.dnssecResolver = new DNSSECResolver(new DNSBootstrapService());
             this.caCertService = CACertService.getInstance();
             this.chainValidator = new CertChainValidator();
+            this.lookupExecutor.allowCoreThreadTimeOut(true);
         } catch (Exception e) {
             throw new ExceptionInInitializerError("Unable to initialize defaults");
         }
@@ -55,6 +96,7 @@ public class TLSAValidator {
         this.dnssecResolver = dnssecResolver;
         this.caCertService = caCertService;
         this.chainValidator = chainValidator;
+        this.lookupExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -78,8 +120,35 @@ public class TLSAValidator {
             return false;
         }
 
+        return validateTLSA(tlsaRecord, certs);
+    }
+
+    /**
+     * Validates server certificates against a TLSA Record
+     *
+     * @param tlsaRecord TLSA Record of the server
+     * @param certs Certificates presented by the server, server certificate first
+     * @return TLSA Validated or not (boolean)
+     * @throws ValidSelfSignedCertException Return Matching Self Signed Cert for Inclusion into CertStore
+     */
+    private boolean validateTLSA(TLSARecord tlsaRecord, List<Certificate> certs) throws ValidSelfSignedCertException {
+
+        // The server only proves it holds the key of the first certificate, so every usage has to lead to that one
+        Certificate serverCert = certs.get(0);
+
         // Get Cert Matching Selector and Matching Type Fields
-        Certificate matchingCert = getMatchingCert(tlsaRecord, certs);
+        Certificate matchingCert;
+        switch(tlsaRecord.getCertificateUsage()) {
+            case TLSARecord.CertificateUsage.SERVICE_CERTIFICATE_CONSTRAINT:
+            case TLSARecord.CertificateUsage.DOMAIN_ISSUED_CERTIFICATE:
+                matchingCert = getMatchingCert(tlsaRecord, certs.subList(0, 1));
+                break;
+            case TLSARecord.CertificateUsage.CA_CONSTRAINT:
+                matchingCert = getMatchingCert(tlsaRecord, certs.subList(1, certs.size()));
+                break;
+            default:
+                matchingCert = getMatchingCert(tlsaRecord, certs);
+        }
         if (matchingCert == null) {
             return false;
         }
@@ -87,23 +156,28 @@ public class TLSAValidator {
         // Check for single cert / self-signed and validate
         switch(tlsaRecord.getCertificateUsage()) {
             case TLSARecord.CertificateUsage.CA_CONSTRAINT:
-                if(isValidCertChain(matchingCert, certs) && matchingCert != certs.get(0)) {
+                // Valid by PKIX, and issued under the matching CA rather than just sent along with it
+                if(isValidCertChain(serverCert, certs) && matchingCert != serverCert && isValidCertChain(serverCert, matchingCert, certs)) {
                     return true;
                 }
                 break;
             case TLSARecord.CertificateUsage.SERVICE_CERTIFICATE_CONSTRAINT:
-                if(isValidCertChain(matchingCert, certs) && matchingCert == certs.get(0)) {
+                if(isValidCertChain(serverCert, certs) && matchingCert == serverCert) {
                     return true;
                 }
                 break;
             case TLSARecord.CertificateUsage.TRUST_ANCHOR_ASSERTION:
-                if(isValidCertChain(certs.get(0), certs) && matchingCert == certs.get(certs.size() - 1)) {
+                // The matching certificate is the only trust anchor, the CA Certificates don't count
+                if(isValidCertChain(serverCert, matchingCert, certs)) {
                     throw new ValidSelfSignedCertException(matchingCert);
                 }
                 break;
             case TLSARecord.CertificateUsage.DOMAIN_ISSUED_CERTIFICATE:
                 // We've found a matching cert that does not require PKIX Chain Validation [RFC6698]
-                throw new ValidSelfSignedCertException(matchingCert);
+                if(matchingCert == serverCert) {
+                    throw new ValidSelfSignedCertException(matchingCert);
+                }
+                break;
         }
 
         return false;
@@ -118,12 +192,36 @@ public class TLSAValidator {
     public boolean isValidCertChain(Certificate targetCert, List<Certificate> certs) {
 
         try {
-            KeyStore cacerts = this.caCertService.getCaCertKeystore();
+            // Intermediates only count for this validation, the CA Certificates stay untouched
+            List<Certificate> intermediates = new ArrayList<Certificate>(certs.size());
             for (Certificate cert : certs) {
                 if (cert == targetCert) continue;
-                cacerts.setCertificateEntry(((X509Certificate) cert).getSubjectDN().toString(), cert);
+                intermediates.add(cert);
             }
-            return this.chainValidator.validateKeyChain((X509Certificate) targetCert, cacerts);
+            return this.chainValidator.validateKeyChain((X509Certificate) targetCert, this.caCertService.getCaCertIndex(), intermediates);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Validate whether the target cert is issued under the given trust anchor, using any included intermediate
+     * certificates but not the CA Certificate KeyStore
+     * @param targetCert Target certificate to validate
+     * @param trustAnchor The only certificate trusted during validation
+     * @param certs Intermediate certificates to using during validation
+     * @return isCertChainValid?
+     */
+    public boolean isValidCertChain(Certificate targetCert, Certificate trustAnchor, List<Certificate> certs) {
+
+        try {
+            List<Certificate> intermediates = new ArrayList<Certificate>(certs.size());
+            for (Certificate cert : certs) {
+                if (cert == targetCert || cert == trustAnchor) continue;
+                intermediates.add(cert);
+            }
+            return this.chainValidator.validateKeyChain((X509Certificate) targetCert, TrustIndex.of(Collections.singletonList(trustAnchor)), intermediates);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -180,6 +278,170 @@ public class TLSAValidator {
         return null;
     }
 
+    /**
+     * Open an HTTPS connection whose TLS handshake only succeeds if the server certificates match the URL's TLSA
+     * record, so validation happens on the connection that is then used for the request. TLS sessions are resumed,
+     * and a server certificate that was validated for the host is trusted again for a few minutes.
+     *
+     * @param url HTTPS URL to open
+     * @return Unconnected HttpsURLConnection; a failed TLSA validation surfaces as an IOException caused by a
+     *         CertificateException when connecting
+     * @throws IOException Thrown if the connection cannot be created
+     */
+    public HttpsURLConnection openConnection(URL url) throws IOException {
+
+        HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+        try {
+            conn.setSSLSocketFactory(this.getTrustManager(url).socketFactory);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to Set Up TLSA Validating Connection", e);
+        }
+        return conn;
+    }
+
+    /**
+     * Connect to url like openConnection(), looking up the TLSA record while TCP and TLS handshakes are under way,
+     * so resolution takes about as long as the slower of the two rather than their sum. The handshake waits for the
+     * lookup once the server certificates arrive and is aborted if there is no record; if connecting fails, or no
+     * certificates need validating, the lookup is cancelled.
+     *
+     * @param url HTTPS URL to connect to
+     * @return Connected HttpsURLConnection
+     * @throws IOException Thrown if connecting fails, caused by a CertificateException if TLSA validation failed
+     */
+    public HttpsURLConnection connect(final URL url) throws IOException {
+
+        HttpsURLConnection conn = this.openConnection(url);
+
+        Future<TLSARecord> lookup = this.lookupExecutor.submit(new Callable<TLSARecord>() {
+            @Override
+            public TLSARecord call() {
+                NetworkMetrics.Request request = NetworkMetrics.getInstance().begin("tlsa record");
+                TLSARecord tlsaRecord = getTLSARecord(url);
+                request.phaseDone(Phase.DNS);
+                if (tlsaRecord != null) {
+                    request.succeeded("ok");
+                } else if (Thread.currentThread().isInterrupted()) {
+                    request.failed("cancelled");
+                } else {
+                    request.failed("none");
+                }
+                return tlsaRecord;
+            }
+        });
+
+        // The connection is only touched on this thread, a missing record surfaces in the trust manager
+        pendingLookup.set(lookup);
+        try {
+            conn.connect();
+            return conn;
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        } finally {
+            pendingLookup.remove();
+            // Not needed any more, or not at all if the connection was pooled or its certificate validated recently
+            lookup.cancel(true);
+        }
+    }
+
+    private TlsaTrustManager getTrustManager(URL url) throws GeneralSecurityException {
+
+        int port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+        String key = url.getHost().toLowerCase(Locale.US) + ":" + port;
+
+        synchronized (this.trustManagers) {
+            TlsaTrustManager trustManager = this.trustManagers.get(key);
+            if (trustManager == null) {
+                trustManager = new TlsaTrustManager(url);
+                this.trustManagers.put(key, trustManager);
+            }
+            return trustManager;
+        }
+    }
+
+    /**
+     * Trusts the servers of one host and port by their TLSA record. Has its own SSLContext, so TLS sessions are cached
+     * per host.
+     */
+    private final class TlsaTrustManager implements X509TrustManager {
+
+        private final URL url;
+        private final SSLSocketFactory socketFactory;
+        private X509Certificate validatedCert;
+        private long validatedUntil;
+
+        TlsaTrustManager(URL url) throws GeneralSecurityException {
+            this.url = url;
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[]{this}, null);
+            context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+            this.socketFactory = context.getSocketFactory();
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+
+            if (chain == null || chain.length == 0) {
+                throw new CertificateException("No Server Certificates");
+            }
+
+            synchronized (this) {
+                if (chain[0].equals(this.validatedCert) && System.currentTimeMillis() < this.validatedUntil) {
+                    return;
+                }
+            }
+
+            TLSARecord tlsaRecord = awaitTLSARecord(this.url);
+            if (tlsaRecord == null) {
+                throw new CertificateException("No TLSA Record");
+            }
+
+            try {
+                if (!validateTLSA(tlsaRecord, new ArrayList<Certificate>(Arrays.asList(chain)))) {
+                    throw new CertificateException("TLSA Validation Failed");
+                }
+            } catch (ValidSelfSignedCertException e) {
+                // The TLSA record names a trust anchor in the chain, or the server certificate itself
+            }
+
+            synchronized (this) {
+                this.validatedCert = chain[0];
+                this.validatedUntil = System.currentTimeMillis() + VALIDATED_CERT_TIMEOUT_MS;
+            }
+        }
+
+        private TLSARecord awaitTLSARecord(URL url) throws CertificateException {
+
+            Future<TLSARecord> lookup = pendingLookup.get();
+            if (lookup == null) {
+                return getTLSARecord(url);
+            }
+
+            try {
+                return lookup.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CertificateException("TLSA Record Lookup Interrupted");
+            } catch (CancellationException e) {
+                throw new CertificateException("TLSA Record Lookup Cancelled");
+            } catch (ExecutionException e) {
+                throw new CertificateException("TLSA Record Lookup Failed", e.getCause());
+            }
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            throw new CertificateException("Client Certificates Not Supported");
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+
     /**
      * Gets all certificates from an HTTPS endpoint URL
      *
@@ -247,7 +509,7 @@ public class TLSAValidator {
             return null;
         }
 
-        if (recordValue.equals("")) return null;
+        if (recordValue == null || recordValue.equals("")) return null;
 
         // Process TLSA Record
         String[] tlsaValues = recordValue.split(" ");
@@ -0,0 +1,146 @@
+package com.netki.tlsa;
+
+import com.google.common.io.BaseEncoding;
+import org.spongycastle.asn1.ASN1OctetString;
+import org.spongycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.spongycastle.asn1.x509.Extension;
+import org.spongycastle.asn1.x509.SubjectKeyIdentifier;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of certificates by subject and subject key identifier, so the possible issuers of a certificate can
+ * be looked up instead of scanned for. TrustIndex objects are thread safe.
+ */
+public final class TrustIndex {
+
+    public static final TrustIndex EMPTY = new TrustIndex(Collections.<X509Certificate>emptyList());
+
+    private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<X500Principal, List<X509Certificate>>();
+    private final Map<String, List<X509Certificate>> byKeyId = new HashMap<String, List<X509Certificate>>();
+    private final int size;
+
+    private TrustIndex(Collection<X509Certificate> certs) {
+        for (X509Certificate cert : certs) {
+            put(this.bySubject, cert.getSubjectX500Principal(), cert);
+            String keyId = subjectKeyId(cert);
+            if (keyId != null) {
+                put(this.byKeyId, keyId, cert);
+            }
+        }
+        this.size = certs.size();
+    }
+
+    /**
+     * Index the given certificates. Certificates that are not X.509 are skipped.
+     *
+     * @param certs Certificates to index
+     * @return TrustIndex of certs
+     */
+    public static TrustIndex of(Collection<? extends Certificate> certs) {
+        List<X509Certificate> x509Certs = new ArrayList<X509Certificate>(certs.size());
+        for (Certificate cert : certs) {
+            if (cert instanceof X509Certificate) {
+                x509Certs.add((X509Certificate) cert);
+            }
+        }
+        return x509Certs.isEmpty() ? EMPTY : new TrustIndex(x509Certs);
+    }
+
+    /**
+     * Index the certificates of a KeyStore
+     *
+     * @param keyStore KeyStore containing trusted certificates
+     * @return TrustIndex of the KeyStore's certificates
+     * @throws KeyStoreException KeyStore is invalid
+     */
+    public static TrustIndex of(KeyStore keyStore) throws KeyStoreException {
+        List<Certificate> certs = new ArrayList<Certificate>(keyStore.size());
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            Certificate cert = keyStore.getCertificate(aliases.nextElement());
+            if (cert != null) {
+                certs.add(cert);
+            }
+        }
+        return of(certs);
+    }
+
+    /**
+     * Find certificates that may have issued cert, by authority key identifier if cert has one and it is indexed,
+     * otherwise by issuer name. Signatures are not checked.
+     *
+     * @param cert Certificate to find issuers of
+     * @return Possible issuers, may be empty
+     */
+    public List<X509Certificate> findIssuers(X509Certificate cert) {
+        String keyId = authorityKeyId(cert);
+        if (keyId != null) {
+            List<X509Certificate> issuers = this.byKeyId.get(keyId);
+            if (issuers != null) {
+                return Collections.unmodifiableList(issuers);
+            }
+        }
+
+        List<X509Certificate> issuers = this.bySubject.get(cert.getIssuerX500Principal());
+        return issuers != null ? Collections.unmodifiableList(issuers) : Collections.<X509Certificate>emptyList();
+    }
+
+    /**
+     * @return Number of indexed certificates
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private static <K> void put(Map<K, List<X509Certificate>> map, K key, X509Certificate cert) {
+        List<X509Certificate> certs = map.get(key);
+        if (certs == null) {
+            certs = new ArrayList<X509Certificate>(1);
+            map.put(key, certs);
+        }
+        certs.add(cert);
+    }
+
+    static String subjectKeyId(X509Certificate cert) {
+        byte[] extension = cert.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+        if (extension == null) {
+            return null;
+        }
+        try {
+            return BaseEncoding.base16().encode(SubjectKeyIdentifier.getInstance(extensionOctets(extension)).getKeyIdentifier());
+        } catch (IllegalArgumentException e) {
+            // Malformed extension, fall back to the subject
+            return null;
+        }
+    }
+
+    static String authorityKeyId(X509Certificate cert) {
+        byte[] extension = cert.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+        if (extension == null) {
+            return null;
+        }
+        try {
+            byte[] keyId = AuthorityKeyIdentifier.getInstance(extensionOctets(extension)).getKeyIdentifier();
+            return keyId != null ? BaseEncoding.base16().encode(keyId) : null;
+        } catch (IllegalArgumentException e) {
+            // Malformed extension, fall back to the issuer name
+            return null;
+        }
+    }
+
+    private static byte[] extensionOctets(byte[] extension) {
+        return ASN1OctetString.getInstance(extension).getOctets();
+    }
+}
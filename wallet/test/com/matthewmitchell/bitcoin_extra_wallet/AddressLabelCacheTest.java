@@ -0,0 +1,207 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import android.content.Context;
+
+public class AddressLabelCacheTest
+{
+	@Test
+	public void loadsAddressBookOnce()
+	{
+		final FakeDatabase database = new FakeDatabase();
+		database.labels.put("a", "Alice");
+		database.labels.put("b", null);
+		final AddressLabelCache cache = new AddressLabelCache(10, database);
+
+		assertEquals("Alice", cache.resolveLabel(null, "a"));
+		assertNull(cache.resolveLabel(null, "b"));
+		assertNull(cache.resolveLabel(null, "c")); // not in the address book
+		assertEquals(Collections.singletonMap("a", "Alice"), cache.resolveLabels(null, Arrays.asList("a", "b", "c")));
+
+		assertEquals(1, database.numQueries);
+		assertEquals(6, cache.getHits());
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed()
+	{
+		final FakeDatabase database = new FakeDatabase();
+		database.labels.put("a", "Alice");
+		database.labels.put("b", "Bob");
+		final AddressLabelCache cache = new AddressLabelCache(2, database);
+
+		assertEquals("Alice", cache.resolveLabel(null, "a"));
+		database.labels.put("c", "Carol");
+		cache.onLabelWritten("c", "Carol");
+		assertEquals(2, cache.size());
+
+		// b was used least recently
+		assertEquals(1, database.numQueries);
+		assertEquals("Alice", cache.resolveLabel(null, "a"));
+		assertEquals("Carol", cache.resolveLabel(null, "c"));
+		assertEquals(1, database.numQueries);
+		assertEquals("Bob", cache.resolveLabel(null, "b"));
+		assertEquals(2, database.numQueries);
+
+		// now that the cache is no longer complete, unknown addresses are queried as well
+		assertNull(cache.resolveLabel(null, "d"));
+		assertEquals(3, database.numQueries);
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void addressBookLargerThanCache()
+	{
+		final FakeDatabase database = new FakeDatabase();
+		database.labels.put("a", "Alice");
+		database.labels.put("b", "Bob");
+		database.labels.put("c", "Carol");
+		final AddressLabelCache cache = new AddressLabelCache(2, database);
+
+		final Map<String, String> labels = cache.resolveLabels(null, Arrays.asList("a", "b", "c", "d"));
+		assertEquals(3, labels.size());
+		assertEquals("Alice", labels.get("a"));
+		assertEquals("Bob", labels.get("b"));
+		assertEquals("Carol", labels.get("c"));
+
+		// one load, then one batch for the evicted and unknown addresses
+		assertEquals(2, database.numQueries);
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void coherentOnInsert()
+	{
+		final FakeDatabase database = new FakeDatabase();
+		database.labels.put("a", "Alice");
+		final AddressLabelCache cache = new AddressLabelCache(10, database);
+		assertNull(cache.resolveLabel(null, "b"));
+
+		database.labels.put("b", "Bob");
+		cache.onLabelWritten("b", "Bob");
+
+		assertEquals("Bob", cache.resolveLabel(null, "b"));
+		assertEquals("Bob", cache.resolveLabels(null, Arrays.asList("b")).get("b"));
+		assertEquals(1, database.numQueries);
+	}
+
+	@Test
+	public void coherentOnUpdate()
+	{
+		final FakeDatabase database = new FakeDatabase();
+		database.labels.put("a", "Alice");
+		final AddressLabelCache cache = new AddressLabelCache(10, database);
+		assertEquals("Alice", cache.resolveLabel(null, "a"));
+
+		database.labels.put("a", "Alicia");
+		cache.onLabelWritten("a", "Alicia");
+
+		assertEquals("Alicia", cache.resolveLabel(null, "a"));
+		assertEquals(1, database.numQueries);
+	}
+
+	@Test
+	public void coherentOnDelete()
+	{
+		final FakeDatabase database = new FakeDatabase();
+		database.labels.put("a", "Alice");
+		final AddressLabelCache cache = new AddressLabelCache(10, database);
+		assertEquals("Alice", cache.resolveLabel(null, "a"));
+
+		database.labels.remove("a");
+		cache.onAddressDeleted("a");
+
+		assertNull(cache.resolveLabel(null, "a"));
+		assertEquals(0, cache.resolveLabels(null, Arrays.asList("a")).size());
+		assertEquals(1, database.numQueries);
+	}
+
+	@Test
+	public void writeDuringQueryIsNotOverwritten()
+	{
+		final FakeDatabase database = new FakeDatabase();
+		database.labels.put("a", "Alice");
+		database.labels.put("b", "Bob");
+		final AddressLabelCache cache = new AddressLabelCache(1, database);
+
+		// the label changes after the query has read it, but before the result is cached
+		database.onQuery = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				database.onQuery = null;
+				cache.onLabelWritten("a", "Alicia");
+			}
+		};
+		assertEquals("Alice", cache.resolveLabel(null, "a"));
+
+		assertEquals("Alicia", cache.resolveLabel(null, "a"));
+	}
+
+	private static final class FakeDatabase implements AddressLabelCache.Database
+	{
+		public final Map<String, String> labels = new LinkedHashMap<String, String>();
+		public int numQueries = 0;
+		public Runnable onQuery;
+
+		@Override
+		public Map<String, String> queryAllLabels(final Context context)
+		{
+			numQueries++;
+			return new LinkedHashMap<String, String>(labels);
+		}
+
+		@Override
+		public String queryLabel(final Context context, final String address)
+		{
+			numQueries++;
+			final String label = labels.get(address);
+			if (onQuery != null)
+				onQuery.run();
+			return label;
+		}
+
+		@Override
+		public Map<String, String> queryLabels(final Context context, final Collection<String> addresses)
+		{
+			numQueries++;
+			final Map<String, String> result = new HashMap<String, String>();
+			for (final String address : addresses)
+				if (labels.get(address) != null)
+					result.put(address, labels.get(address));
+			if (onQuery != null)
+				onQuery.run();
+			return result;
+		}
+	}
+}
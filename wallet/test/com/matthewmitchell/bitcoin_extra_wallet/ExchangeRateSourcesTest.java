@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.matthewmitchell.bitcoin_extra_wallet.util.StandInHttpServer;
+
+public class ExchangeRateSourcesTest
+{
+	private static final String USER_AGENT = "test";
+
+	private StandInHttpServer primary;
+	private StandInHttpServer secondary;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		primary = new StandInHttpServer("{\"USD\":{\"last\":\"600\"}}");
+		secondary = new StandInHttpServer("{\"USD\":{\"last\":\"601\"}}");
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown()
+	{
+		primary.stop();
+		secondary.stop();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void preferredSourceAnswers() throws Exception
+	{
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = sources(5000).requestExchangeRates(USER_AGENT);
+
+		assertEquals("primary", rates.get("USD").source);
+		assertEquals(0, secondary.numRequests.get());
+	}
+
+	@Test
+	public void hedgesSlowSource() throws Exception
+	{
+		primary.delayMs = 3000;
+
+		final long start = System.currentTimeMillis();
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = sources(100).requestExchangeRates(USER_AGENT);
+
+		assertEquals("secondary", rates.get("USD").source);
+		assertTrue(System.currentTimeMillis() - start < 2000);
+	}
+
+	@Test
+	public void failsOverWithoutWaiting() throws Exception
+	{
+		primary.status = 503;
+
+		final long start = System.currentTimeMillis();
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = sources(5000).requestExchangeRates(USER_AGENT);
+
+		assertEquals("secondary", rates.get("USD").source);
+		assertTrue(System.currentTimeMillis() - start < 2000);
+	}
+
+	@Test
+	public void allSourcesFail() throws Exception
+	{
+		primary.status = 500;
+		secondary.body = "{}";
+
+		assertNull(sources(100).requestExchangeRates(USER_AGENT));
+	}
+
+	@Test
+	public void unhealthySourceLosesPreference() throws Exception
+	{
+		primary.status = 500;
+		final ExchangeRateSources sources = sources(5000);
+		assertEquals("primary", sources.getSource(sources.preferredOrder().get(0)).getName());
+
+		sources.requestExchangeRates(USER_AGENT);
+
+		assertEquals("secondary", sources.getSource(sources.preferredOrder().get(0)).getName());
+		assertEquals("secondary", sources.requestExchangeRates(USER_AGENT).get("USD").source);
+		assertEquals(1, primary.numRequests.get());
+	}
+
+	private ExchangeRateSources sources(final long defaultHedgeDelayMs) throws Exception
+	{
+		return new ExchangeRateSources(Arrays.asList(new HttpExchangeRateSource(primary.url(), "primary", "last"), new HttpExchangeRateSource(
+				secondary.url(), "secondary", "last")), executor, defaultHedgeDelayMs);
+	}
+}
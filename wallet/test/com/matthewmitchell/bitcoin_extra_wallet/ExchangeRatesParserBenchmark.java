@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bitcoinj_extra.utils.Fiat;
+import org.bitcoinj_extra.utils.MonetaryFormat;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.matthewmitchell.bitcoin_extra_wallet.util.Io;
+
+/**
+ * Compares the streaming exchange rates parser with the former DOM based one on the recorded BitcoinAverage response,
+ * including gunzipping as on the wire. Not run as part of the tests; start from the IDE or with {@code java -cp}.
+ */
+public class ExchangeRatesParserBenchmark
+{
+	private static final String[] FIELDS = new String[] { "24h_avg", "last" };
+	private static final int WARMUP_ROUNDS = 2000;
+	private static final int ROUNDS = 5000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final InputStream recorded = ExchangeRatesParserBenchmark.class.getResourceAsStream("exchange-rates-bitcoinaverage");
+		final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		final GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+		ByteStreams.copy(recorded, gzip);
+		gzip.close();
+		recorded.close();
+		final byte[] response = gzipped.toByteArray();
+
+		final Map<String, ExchangeRatesProvider.ExchangeRate> streamed = parseStreaming(response);
+		final Map<String, ExchangeRatesProvider.ExchangeRate> dom = parseDom(response);
+		if (!streamed.keySet().equals(dom.keySet()))
+			throw new IllegalStateException("currencies differ: " + streamed.keySet() + " vs " + dom.keySet());
+		for (final String currencyCode : streamed.keySet())
+			if (!streamed.get(currencyCode).rate.fiat.equals(dom.get(currencyCode).rate.fiat))
+				throw new IllegalStateException("rates differ for " + currencyCode);
+
+		System.out.println(response.length + " bytes gzipped, " + streamed.size() + " rates");
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			parseStreaming(response);
+			parseDom(response);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			parseDom(response);
+		final long domNanos = (System.nanoTime() - start) / ROUNDS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			parseStreaming(response);
+		final long streamingNanos = (System.nanoTime() - start) / ROUNDS;
+
+		System.out.printf("dom:       %8d us/op%n", domNanos / 1000);
+		System.out.printf("streaming: %8d us/op%n", streamingNanos / 1000);
+	}
+
+	private static Map<String, ExchangeRatesProvider.ExchangeRate> parseStreaming(final byte[] response) throws Exception
+	{
+		final Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(response)), Charsets.UTF_8);
+		try
+		{
+			return HttpExchangeRateSource.parseExchangeRates(reader, "benchmark", FIELDS);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static Map<String, ExchangeRatesProvider.ExchangeRate> parseDom(final byte[] response) throws Exception
+	{
+		final Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(response)), Charsets.UTF_8);
+		final StringBuilder content = new StringBuilder();
+		Io.copy(reader, content);
+		reader.close();
+
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = new TreeMap<String, ExchangeRatesProvider.ExchangeRate>();
+
+		final JSONObject head = new JSONObject(content.toString());
+		for (final Iterator<String> i = head.keys(); i.hasNext();)
+		{
+			final String currencyCode = Strings.emptyToNull(i.next());
+			if (currencyCode != null && !"timestamp".equals(currencyCode) && !MonetaryFormat.CODE_BTC.equals(currencyCode)
+					&& !MonetaryFormat.CODE_MBTC.equals(currencyCode) && !MonetaryFormat.CODE_UBTC.equals(currencyCode))
+			{
+				final JSONObject o = head.getJSONObject(currencyCode);
+
+				for (final String field : FIELDS)
+				{
+					final String rateStr = o.optString(field, null);
+
+					if (rateStr != null)
+					{
+						try
+						{
+							final Fiat rate = Fiat.parseFiat(currencyCode, rateStr);
+
+							if (rate.signum() > 0)
+							{
+								rates.put(currencyCode, new ExchangeRatesProvider.ExchangeRate(new org.bitcoinj_extra.utils.ExchangeRate(rate), "benchmark"));
+								break;
+							}
+						}
+						catch (final NumberFormatException x)
+						{
+							// try next field
+						}
+					}
+				}
+			}
+		}
+
+		return rates;
+	}
+}
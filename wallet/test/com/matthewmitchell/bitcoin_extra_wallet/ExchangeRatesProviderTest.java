@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bitcoinj_extra.core.Coin;
+import org.bitcoinj_extra.utils.Fiat;
+import org.junit.Test;
+
+public class ExchangeRatesProviderTest
+{
+	@Test
+	public void persistedRatesRoundTrip() throws Exception
+	{
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = new TreeMap<String, ExchangeRatesProvider.ExchangeRate>();
+		rates.put("EUR", rate(Coin.COIN, Fiat.parseFiat("EUR", "512.34"), "test"));
+		rates.put("USD", rate(Coin.COIN, Fiat.parseFiat("USD", "578.9012"), "test"));
+		rates.put("XYZ", rate(Coin.MILLICOIN, Fiat.parseFiat("XYZ", "1.5"), null));
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream os = new DataOutputStream(bytes);
+		ExchangeRatesProvider.writeExchangeRates(os, rates, 1465642781000L);
+		os.close();
+
+		final Map<String, ExchangeRatesProvider.ExchangeRate> restored = new TreeMap<String, ExchangeRatesProvider.ExchangeRate>();
+		final DataInputStream is = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(1465642781000L, ExchangeRatesProvider.readExchangeRates(is, restored));
+
+		assertEquals(rates.keySet(), restored.keySet());
+		for (final String currencyCode : rates.keySet())
+		{
+			assertEquals(rates.get(currencyCode).rate.coin, restored.get(currencyCode).rate.coin);
+			assertEquals(rates.get(currencyCode).rate.fiat, restored.get(currencyCode).rate.fiat);
+			assertEquals(rates.get(currencyCode).source, restored.get(currencyCode).source);
+		}
+		assertNull(restored.get("XYZ").source);
+	}
+
+	private static ExchangeRatesProvider.ExchangeRate rate(final Coin coin, final Fiat fiat, final String source)
+	{
+		return new ExchangeRatesProvider.ExchangeRate(new org.bitcoinj_extra.utils.ExchangeRate(coin, fiat), source);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.bitcoinj_extra.utils.Fiat;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.matthewmitchell.bitcoin_extra_wallet.util.StandInHttpServer;
+
+public class HttpExchangeRateSourceTest
+{
+	private static final String[] FIELDS = new String[] { "24h_avg", "last" };
+
+	@Test
+	public void recordedResponse() throws Exception
+	{
+		final Reader reader = new InputStreamReader(getClass().getResourceAsStream("exchange-rates-bitcoinaverage"), Charsets.UTF_8);
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = HttpExchangeRateSource.parseExchangeRates(reader, "test", FIELDS);
+		reader.close();
+
+		assertEquals(168, rates.size());
+		assertEquals(Fiat.parseFiat("AED", "189828.53"), rates.get("AED").rate.fiat);
+		assertEquals("test", rates.get("AED").source);
+		assertEquals(Fiat.parseFiat("EEK", "281963.02"), rates.get("EEK").rate.fiat); // falls back to last
+		assertFalse(rates.containsKey("ZWL")); // no positive rate
+		assertFalse(rates.containsKey("BTC"));
+		assertFalse(rates.containsKey("timestamp"));
+	}
+
+	@Test
+	public void preferredFieldWinsRegardlessOfOrder() throws Exception
+	{
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = parse("{\"USD\":{\"last\":\"600.5\",\"24h_avg\":590.25}}");
+
+		assertEquals(Fiat.parseFiat("USD", "590.25"), rates.get("USD").rate.fiat);
+	}
+
+	@Test
+	public void skipsUnusableValues() throws Exception
+	{
+		final Map<String, ExchangeRatesProvider.ExchangeRate> rates = parse("{\"\":{\"last\":1},\"EUR\":{\"24h_avg\":\"n/a\",\"last\":-1,"
+				+ "\"nested\":{\"last\":2},\"list\":[1,2]},\"USD\":[600],\"GBP\":{\"24h_avg\":true,\"last\":400}}");
+
+		assertEquals(1, rates.size());
+		assertTrue(rates.containsKey("GBP"));
+		assertEquals(Fiat.parseFiat("GBP", "400"), rates.get("GBP").rate.fiat);
+	}
+
+	@Test
+	public void gzippedResponse() throws Exception
+	{
+		final StandInHttpServer server = new StandInHttpServer("{\"USD\":{\"24h_avg\":590.25}}");
+		server.gzip = true;
+
+		try
+		{
+			final Map<String, ExchangeRatesProvider.ExchangeRate> rates = new HttpExchangeRateSource(server.url(), "test", FIELDS)
+					.requestExchangeRates("test");
+			assertEquals(Fiat.parseFiat("USD", "590.25"), rates.get("USD").rate.fiat);
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void httpError() throws Exception
+	{
+		final StandInHttpServer server = new StandInHttpServer("{\"USD\":{\"24h_avg\":590.25}}");
+		server.status = 500;
+
+		try
+		{
+			new HttpExchangeRateSource(server.url(), "test", FIELDS).requestExchangeRates("test");
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void noUsableRates() throws Exception
+	{
+		final StandInHttpServer server = new StandInHttpServer("{\"timestamp\":\"now\"}");
+
+		try
+		{
+			new HttpExchangeRateSource(server.url(), "test", FIELDS).requestExchangeRates("test");
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	private static Map<String, ExchangeRatesProvider.ExchangeRate> parse(final String json) throws Exception
+	{
+		return HttpExchangeRateSource.parseExchangeRates(new StringReader(json), "test", FIELDS);
+	}
+}
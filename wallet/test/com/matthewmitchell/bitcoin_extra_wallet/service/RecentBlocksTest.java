@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj_extra.core.Address;
+import org.bitcoinj_extra.core.ECKey;
+import org.bitcoinj_extra.core.NetworkParameters;
+import org.bitcoinj_extra.core.StoredBlock;
+import org.bitcoinj_extra.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecentBlocksTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+	private final List<StoredBlock> chain = new ArrayList<StoredBlock>();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		chain.add(new StoredBlock(PARAMS.getGenesisBlock(), BigInteger.ONE, 0));
+		for (int i = 1; i <= 10; i++)
+			chain.add(next(chain.get(i - 1)));
+	}
+
+	@Test
+	public void emptyRing()
+	{
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+		assertFalse(new RecentBlocks(4).get(null, 10, blocks));
+		assertTrue(blocks.isEmpty());
+	}
+
+	@Test
+	public void keepsMostRecent()
+	{
+		final RecentBlocks recentBlocks = new RecentBlocks(4);
+		for (final StoredBlock block : chain)
+			recentBlocks.pushChainHead(block);
+		recentBlocks.pushChainHead(chain.get(10)); // repeated head is ignored
+		assertEquals(4, recentBlocks.size());
+
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+		assertTrue(recentBlocks.get(null, 10, blocks));
+		assertEquals(4, blocks.size());
+		assertSame(chain.get(10), blocks.get(0));
+		assertSame(chain.get(7), blocks.get(3));
+	}
+
+	@Test
+	public void pagesByCursor()
+	{
+		final RecentBlocks recentBlocks = new RecentBlocks(8);
+		for (final StoredBlock block : chain)
+			recentBlocks.pushChainHead(block);
+
+		final List<StoredBlock> first = new ArrayList<StoredBlock>();
+		assertTrue(recentBlocks.get(null, 3, first));
+		assertSame(chain.get(8), first.get(2));
+
+		final List<StoredBlock> second = new ArrayList<StoredBlock>();
+		assertTrue(recentBlocks.get(first.get(2), 3, second));
+		assertEquals(3, second.size());
+		assertSame(chain.get(7), second.get(0));
+		assertSame(chain.get(5), second.get(2));
+
+		// cursor older than the ring
+		assertFalse(recentBlocks.get(chain.get(1), 3, new ArrayList<StoredBlock>()));
+	}
+
+	@Test
+	public void appendOlder()
+	{
+		final RecentBlocks recentBlocks = new RecentBlocks(4);
+		recentBlocks.pushChainHead(chain.get(10));
+		recentBlocks.appendOlder(chain.get(8)); // not adjacent
+		assertEquals(1, recentBlocks.size());
+
+		for (int i = 9; i >= 5; i--)
+			recentBlocks.appendOlder(chain.get(i));
+		assertEquals(4, recentBlocks.size());
+
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+		recentBlocks.get(null, 10, blocks);
+		assertSame(chain.get(7), blocks.get(3));
+	}
+
+	@Test
+	public void reorganizeStartsOver() throws Exception
+	{
+		final RecentBlocks recentBlocks = new RecentBlocks(8);
+		for (final StoredBlock block : chain)
+			recentBlocks.pushChainHead(block);
+
+		final StoredBlock fork = next(chain.get(9));
+		recentBlocks.pushChainHead(fork);
+		assertEquals(1, recentBlocks.size());
+
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+		recentBlocks.get(null, 10, blocks);
+		assertEquals(1, blocks.size());
+		assertSame(fork, blocks.get(0));
+		assertFalse(recentBlocks.get(chain.get(10), 3, new ArrayList<StoredBlock>()));
+	}
+
+	private static StoredBlock next(final StoredBlock prev) throws Exception
+	{
+		final Address to = new ECKey().toAddress(PARAMS);
+		return prev.build(prev.getHeader().createNextBlock(to));
+	}
+}
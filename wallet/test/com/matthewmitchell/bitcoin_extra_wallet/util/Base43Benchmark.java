@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the limb based Base43 codec with the former digit at a time one, on random payloads from the size of a small
+ * transaction up to a large payment request. Not run as part of the tests; start from the IDE or with
+ * {@code java -cp}.
+ */
+public class Base43Benchmark
+{
+	private static final int[] SIZES = new int[] { 100, 1000, 10000, 50000 };
+	private static final int BYTES_PER_SIZE = 100000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Random random = new Random(43);
+
+		System.out.printf("%8s %14s %14s %14s %14s%n", "bytes", "legacy enc", "limb enc", "legacy dec", "limb dec");
+
+		for (final int size : SIZES)
+		{
+			final byte[] bytes = new byte[size];
+			random.nextBytes(bytes);
+			final String encoded = Base43.encode(bytes);
+			if (!encoded.equals(LegacyBase43.encode(bytes)) || !Arrays.equals(bytes, Base43.decode(encoded)))
+				throw new IllegalStateException("codecs differ at " + size + " bytes");
+
+			final int rounds = Math.max(2, BYTES_PER_SIZE / size);
+
+			// warm up
+			for (int i = 0; i < rounds; i++)
+			{
+				LegacyBase43.encode(bytes);
+				Base43.encode(bytes);
+				LegacyBase43.decode(encoded);
+				Base43.decode(encoded);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				LegacyBase43.encode(bytes);
+			final long legacyEncodeNanos = (System.nanoTime() - start) / rounds;
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				Base43.encode(bytes);
+			final long encodeNanos = (System.nanoTime() - start) / rounds;
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				LegacyBase43.decode(encoded);
+			final long legacyDecodeNanos = (System.nanoTime() - start) / rounds;
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				Base43.decode(encoded);
+			final long decodeNanos = (System.nanoTime() - start) / rounds;
+
+			System.out.printf("%8d %11d us %11d us %11d us %11d us%n", size, legacyEncodeNanos / 1000, encodeNanos / 1000,
+					legacyDecodeNanos / 1000, decodeNanos / 1000);
+		}
+	}
+}
@@ -20,6 +20,9 @@ package com.matthewmitchell.bitcoin_extra_wallet.util;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 
 /**
@@ -50,4 +53,61 @@ public class Base43Test
 
 		assertArrayEquals("Hello World".getBytes(), Base43.decode("RNO2-MYFN0D35RHM"));
 	}
+
+	@Test
+	public void encodeSameAsLegacy() throws Exception
+	{
+		final Random random = new Random(43);
+		for (int i = 0; i < 1000; i++)
+		{
+			final byte[] bytes = randomBytes(random);
+			assertEquals(Arrays.toString(bytes), LegacyBase43.encode(bytes), Base43.encode(bytes));
+		}
+	}
+
+	@Test
+	public void decodeSameAsLegacy() throws Exception
+	{
+		final Random random = new Random(43);
+		final char[] alphabet = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$*+-./:".toCharArray();
+		for (int i = 0; i < 1000; i++)
+		{
+			// random strings are not necessarily canonical encodings
+			final char[] chars = new char[random.nextInt(200)];
+			final int zeroCount = random.nextInt(4) == 0 ? random.nextInt(chars.length + 1) : 0;
+			for (int j = 0; j < chars.length; j++)
+				chars[j] = j < zeroCount ? '0' : alphabet[random.nextInt(alphabet.length)];
+			final String str = new String(chars);
+			assertArrayEquals(str, LegacyBase43.decode(str), Base43.decode(str));
+		}
+	}
+
+	@Test
+	public void roundTrip() throws Exception
+	{
+		final Random random = new Random(43);
+		for (int i = 0; i < 1000; i++)
+		{
+			final byte[] bytes = randomBytes(random);
+			assertArrayEquals(bytes, Base43.decode(Base43.encode(bytes)));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeIllegalCharacter() throws Exception
+	{
+		Base43.decode("RNO2-MYFN0D35rHM");
+	}
+
+	private static byte[] randomBytes(final Random random)
+	{
+		final byte[] bytes = new byte[random.nextInt(300)];
+		random.nextBytes(bytes);
+
+		// exercise leading zeroes and all-zero inputs
+		final int zeroCount = random.nextInt(4) == 0 ? random.nextInt(bytes.length + 1) : 0;
+		Arrays.fill(bytes, 0, zeroCount, (byte) 0);
+
+		return bytes;
+	}
 }
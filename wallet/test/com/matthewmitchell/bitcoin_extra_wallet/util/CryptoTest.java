@@ -25,12 +25,19 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.bitcoinj_extra.wallet.WalletProtobufSerializer;
 import org.junit.Test;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
 
 /**
  * @author Andreas Schildbach
@@ -40,6 +47,7 @@ public class CryptoTest
 	private static final String PLAIN_TEXT = "plain text";
 	private static final byte[] PLAIN_BYTES = PLAIN_TEXT.getBytes();
 	private static final char[] PASSWORD = "password".toCharArray();
+	private static final byte[] SALT = { 1, 2, 3, 4, 5, 6, 7, 8 };
 
 	@Test
 	public void roundtripText() throws Exception
@@ -107,6 +115,56 @@ public class CryptoTest
 		assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backupCrLf)));
 	}
 
+	@Test
+	public void streamingEncryptMatchesEncrypt() throws Exception
+	{
+		final Random random = new Random(0);
+
+		for (final int size : new int[] { 0, 1, 15, 16, 17, 56, 57, 58, 1000, 1024 * 1024 + 3 })
+		{
+			final byte[] plainBytes = new byte[size];
+			random.nextBytes(plainBytes);
+
+			final StringWriter cipherText = new StringWriter();
+			final OutputStream os = Crypto.encryptingStream(cipherText, PASSWORD, SALT);
+			// odd chunks, so writes don't line up with cipher blocks or base64 groups
+			for (int offset = 0; offset < size; offset += 7)
+				os.write(plainBytes, offset, Math.min(7, size - offset));
+			os.close();
+
+			assertEquals("size " + size, Crypto.encrypt(plainBytes, PASSWORD, SALT), cipherText.toString());
+		}
+	}
+
+	@Test
+	public void streamingDecryptMatchesDecrypt() throws Exception
+	{
+		final byte[] plainBytes = new byte[100000];
+		new Random(0).nextBytes(plainBytes);
+
+		final InputStream is = Crypto.decryptingStream(new StringReader(Crypto.encrypt(plainBytes, PASSWORD)), PASSWORD);
+		assertArrayEquals(plainBytes, ByteStreams.toByteArray(is));
+		is.close();
+	}
+
+	@Test
+	public void streamingBackups() throws Exception
+	{
+		for (final String filename : Arrays.asList("bitcoin-wallet-backup-testnet-3.50", "bitcoin-wallet-backup-testnet-3.50-crlf"))
+		{
+			final String backup = readBackupFromResource(filename);
+			final InputStream is = Crypto.decryptingStream(new StringReader(backup), PASSWORD);
+			assertArrayEquals(Crypto.decryptBytes(backup, PASSWORD), ByteStreams.toByteArray(is));
+			is.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void streamingDecryptOutOfSalt() throws Exception
+	{
+		Crypto.decryptingStream(new StringReader("U2FsdGVkX18="), PASSWORD);
+	}
+
 	private String readBackupFromResource(final String filename) throws IOException
 	{
 		final BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(filename), Charsets.UTF_8));
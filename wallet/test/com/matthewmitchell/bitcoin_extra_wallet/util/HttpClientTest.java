@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+
+public class HttpClientTest
+{
+	private static final String BODY = "{\"USD\":{\"last\":\"600\"}}";
+
+	private StandInHttpServer server;
+	private final NetworkMetrics metrics = new NetworkMetrics();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		server = new StandInHttpServer(BODY);
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop();
+	}
+
+	@Test
+	public void reusesConnection() throws Exception
+	{
+		final HttpClient client = new HttpClient(4, metrics);
+		for (int i = 0; i < 3; i++)
+			assertEquals(BODY, get(client, false));
+
+		assertEquals(3, server.numRequests.get());
+		assertEquals(1, server.clientPorts.size());
+	}
+
+	@Test
+	public void revalidatesWithETag() throws Exception
+	{
+		server.etag = "\"abc\"";
+		final HttpClient client = new HttpClient(4, metrics);
+
+		assertEquals(BODY, get(client, true));
+		final HttpClient.Response response = client.get("test", server.url(), "test", null, true);
+		try
+		{
+			assertEquals(200, response.code);
+			assertTrue(response.fromCache);
+			assertEquals(BODY, read(response));
+		}
+		finally
+		{
+			response.close();
+		}
+
+		assertEquals(1, server.numNotModified.get());
+	}
+
+	@Test
+	public void onlyRevalidatesWhenAsked() throws Exception
+	{
+		server.etag = "\"abc\"";
+		final HttpClient client = new HttpClient(4, metrics);
+
+		get(client, false);
+		get(client, false);
+
+		assertEquals(0, server.numNotModified.get());
+	}
+
+	@Test
+	public void gunzips() throws Exception
+	{
+		server.gzip = true;
+		final HttpClient client = new HttpClient(4, metrics);
+
+		assertEquals(BODY, get(client, false));
+		assertEquals(BODY, get(client, false));
+		assertEquals(1, server.clientPorts.size());
+	}
+
+	@Test
+	public void errorBody() throws Exception
+	{
+		server.status = 503;
+		final HttpClient.Response response = new HttpClient(4, metrics).get("test", server.url(), "test", null, false);
+		try
+		{
+			assertEquals(503, response.code);
+			assertFalse(response.fromCache);
+			assertEquals(BODY, read(response));
+		}
+		finally
+		{
+			response.close();
+		}
+	}
+
+	@Test
+	public void recordsMetrics() throws Exception
+	{
+		final HttpClient client = new HttpClient(4, metrics);
+		get(client, false);
+		get(client, false);
+		server.status = 503;
+		get(client, false);
+
+		assertTrue(metrics.percentileMs("test", NetworkMetrics.Phase.DNS, 50) >= 0);
+		assertTrue(metrics.percentileMs("test", NetworkMetrics.Phase.CONNECT, 50) >= 0);
+		assertEquals(-1, metrics.percentileMs("test", NetworkMetrics.Phase.TLS, 50));
+		assertTrue(metrics.percentileMs("test", NetworkMetrics.Phase.FIRST_BYTE, 50) >= 0);
+		assertTrue(metrics.percentileMs("test", NetworkMetrics.Phase.TOTAL, 50) >= 0);
+
+		final StringBuilder report = new StringBuilder();
+		metrics.appendReport(report);
+		assertTrue(report.toString(), report.toString().startsWith("test: 3 requests, 1 failed"));
+		assertTrue(report.toString(), report.toString().contains("outcomes: 200 x2 503 x1"));
+	}
+
+	@Test
+	public void limitsRequestsPerHost() throws Exception
+	{
+		server.delayMs = 200;
+		final HttpClient client = new HttpClient(2, metrics);
+
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++)
+		{
+			final Thread thread = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						get(client, false);
+					}
+					catch (final Exception x)
+					{
+						throw new RuntimeException(x);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (final Thread thread : threads)
+			thread.join();
+
+		assertEquals(5, server.numRequests.get());
+		assertEquals(2, server.maxConcurrentRequests.get());
+	}
+
+	private String get(final HttpClient client, final boolean revalidate) throws Exception
+	{
+		final HttpClient.Response response = client.get("test", server.url(), "test", null, revalidate);
+		try
+		{
+			return read(response);
+		}
+		finally
+		{
+			response.close();
+		}
+	}
+
+	private static String read(final HttpClient.Response response) throws Exception
+	{
+		return CharStreams.toString(new InputStreamReader(response.body(), Charsets.UTF_8));
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.matthewmitchell.bitcoin_extra_wallet.util.NetworkMetrics.Phase;
+
+public class NetworkMetricsTest
+{
+	private final NetworkMetrics metrics = new NetworkMetrics();
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertTrue(metrics.isEmpty());
+		assertEquals(-1, metrics.percentileMs("op", Phase.TOTAL, 50));
+
+		final StringBuilder report = new StringBuilder();
+		metrics.appendReport(report);
+		assertEquals("", report.toString());
+	}
+
+	@Test
+	public void recordsOnlyMarkedPhases() throws Exception
+	{
+		final NetworkMetrics.Request request = metrics.begin("op");
+		request.phaseDone(Phase.DNS);
+		request.addBytesSent(2048);
+		request.addBytesReceived(4096);
+		request.succeeded("ok");
+
+		assertFalse(metrics.isEmpty());
+		assertTrue(metrics.percentileMs("op", Phase.DNS, 50) >= 0);
+		assertEquals(-1, metrics.percentileMs("op", Phase.CONNECT, 50));
+		assertTrue(metrics.percentileMs("op", Phase.TOTAL, 50) >= metrics.percentileMs("op", Phase.DNS, 50));
+
+		final StringBuilder report = new StringBuilder();
+		metrics.appendReport(report);
+		assertTrue(report.toString(), report.toString().startsWith("op: 1 requests, 0 failed, 2 kB sent, 4 kB received\n"));
+	}
+
+	@Test
+	public void finishesOnce() throws Exception
+	{
+		final NetworkMetrics.Request request = metrics.begin("op");
+		request.failed(new IOException());
+		request.succeeded("ok");
+
+		final StringBuilder report = new StringBuilder();
+		metrics.appendReport(report);
+		assertTrue(report.toString(), report.toString().startsWith("op: 1 requests, 1 failed"));
+		assertTrue(report.toString(), report.toString().contains("outcomes: IOException x1\n"));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server answering every request with a fixed body, optionally late, gzipped, with an ETag or with an error
+ * status.
+ */
+public final class StandInHttpServer
+{
+	public volatile String body;
+	public volatile int status = 200;
+	public volatile long delayMs = 0;
+	public volatile boolean gzip = false;
+	@Nullable
+	public volatile String etag = null;
+	public final AtomicInteger numRequests = new AtomicInteger();
+	public final AtomicInteger numNotModified = new AtomicInteger();
+	public final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+	/** Client ports seen, one per connection. */
+	public final Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	private final AtomicInteger concurrentRequests = new AtomicInteger();
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	public StandInHttpServer(final String body) throws IOException
+	{
+		this.body = body;
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				numRequests.incrementAndGet();
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				final int concurrent = concurrentRequests.incrementAndGet();
+				synchronized (maxConcurrentRequests)
+				{
+					maxConcurrentRequests.set(Math.max(maxConcurrentRequests.get(), concurrent));
+				}
+
+				try
+				{
+					respond(exchange);
+				}
+				finally
+				{
+					concurrentRequests.decrementAndGet();
+				}
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	private void respond(final HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			Thread.sleep(delayMs);
+		}
+		catch (final InterruptedException x)
+		{
+			exchange.close();
+			return;
+		}
+
+		final String etag = this.etag;
+		if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+		{
+			numNotModified.incrementAndGet();
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		if (etag != null)
+			exchange.getResponseHeaders().add("ETag", etag);
+
+		byte[] content = body.getBytes(Charsets.UTF_8);
+		if (gzip)
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final GZIPOutputStream gzipped = new GZIPOutputStream(bytes);
+			gzipped.write(content);
+			gzipped.close();
+			content = bytes.toByteArray();
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+		}
+
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, content.length);
+		final OutputStream os = exchange.getResponseBody();
+		os.write(content);
+		os.close();
+	}
+
+	public URL url() throws IOException
+	{
+		return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/ticker");
+	}
+
+	public void stop()
+	{
+		executor.shutdownNow();
+		server.stop(0);
+	}
+}
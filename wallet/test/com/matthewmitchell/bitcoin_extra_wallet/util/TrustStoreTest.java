@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj_extra.protocols.payments.PaymentProtocol;
+import org.bitcoinj_extra.protocols.payments.PaymentProtocol.PkiVerificationData;
+import org.bitcoinj_extra.protocols.payments.PaymentProtocolException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netki.tlsa.TestCertificates;
+
+public class TrustStoreTest
+{
+	private static KeyStore keyStore;
+	private static X509Certificate merchant;
+	private static KeyPair merchantKeys;
+	private static X509Certificate untrustedMerchant;
+	private static KeyPair untrustedMerchantKeys;
+
+	@BeforeClass
+	public static void generateCertificates() throws Exception
+	{
+		final KeyPair rootKeys = TestCertificates.generateKeyPair();
+		final X509Certificate root = TestCertificates.generateRoot("CN=Test Root, O=Test, C=GB", rootKeys);
+		merchantKeys = TestCertificates.generateKeyPair();
+		merchant = TestCertificates.generateIssued("CN=merchant.example.com, O=Merchant", merchantKeys, root, rootKeys, false);
+
+		final KeyPair otherRootKeys = TestCertificates.generateKeyPair();
+		final X509Certificate otherRoot = TestCertificates.generateRoot("CN=Other Root, O=Test, C=GB", otherRootKeys);
+		untrustedMerchantKeys = TestCertificates.generateKeyPair();
+		untrustedMerchant = TestCertificates.generateIssued("CN=impostor.example.com, O=Impostor", untrustedMerchantKeys, otherRoot,
+				otherRootKeys, false);
+
+		keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		keyStore.load(null, null);
+		keyStore.setCertificateEntry("root", root);
+	}
+
+	@Test
+	public void cachesValidatedChain() throws Exception
+	{
+		final TrustStore trustStore = new TrustStore(keyStore);
+
+		final PkiVerificationData first = trustStore.verifyPaymentRequestPki(paymentRequest("first", merchant, merchantKeys));
+		assertNotNull(first.displayName);
+		assertEquals(1, trustStore.pkiCacheSize());
+
+		// a different request signed by the same merchant is answered from the cache
+		final PkiVerificationData second = trustStore.verifyPaymentRequestPki(paymentRequest("second", merchant, merchantKeys));
+		assertEquals(first.displayName, second.displayName);
+		assertEquals(1, trustStore.pkiCacheSize());
+	}
+
+	@Test
+	public void checksSignatureOfCachedChain() throws Exception
+	{
+		final TrustStore trustStore = new TrustStore(keyStore);
+		trustStore.verifyPaymentRequestPki(paymentRequest("first", merchant, merchantKeys));
+
+		final Protos.PaymentRequest tampered = paymentRequest("second", merchant, merchantKeys).toBuilder()
+				.setSerializedPaymentDetails(details("tampered").toByteString()).build();
+		try
+		{
+			trustStore.verifyPaymentRequestPki(tampered);
+			fail();
+		}
+		catch (final PaymentProtocolException.PkiVerificationException x)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void doesNotCacheUntrustedChain() throws Exception
+	{
+		final TrustStore trustStore = new TrustStore(keyStore);
+
+		try
+		{
+			trustStore.verifyPaymentRequestPki(paymentRequest("first", untrustedMerchant, untrustedMerchantKeys));
+			fail();
+		}
+		catch (final PaymentProtocolException.PkiVerificationException x)
+		{
+			// expected
+		}
+		assertEquals(0, trustStore.pkiCacheSize());
+	}
+
+	@Test
+	public void copyKeyStore() throws Exception
+	{
+		final TrustStore trustStore = new TrustStore(keyStore);
+
+		final KeyStore copy = trustStore.copyKeyStore();
+		assertNotSame(keyStore, copy);
+		assertEquals(1, copy.size());
+		assertEquals(1, trustStore.getTrustIndex().size());
+	}
+
+	private static Protos.PaymentRequest paymentRequest(final String memo, final X509Certificate cert, final KeyPair keys)
+	{
+		final Protos.PaymentRequest.Builder paymentRequest = Protos.PaymentRequest.newBuilder();
+		paymentRequest.setSerializedPaymentDetails(details(memo).toByteString());
+		PaymentProtocol.signPaymentRequest(paymentRequest, new X509Certificate[] { cert }, keys.getPrivate());
+		return paymentRequest.build();
+	}
+
+	private static Protos.PaymentDetails details(final String memo)
+	{
+		return Protos.PaymentDetails.newBuilder().setTime(System.currentTimeMillis() / 1000).setMemo(memo).build();
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.matthewmitchell.bitcoin_extra_wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bitcoinj_extra.core.Sha256Hash;
+import org.bitcoinj_extra.wallet.Protos;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+import com.google.protobuf.ByteString;
+
+public class WalletJournalTest
+{
+	private static final String WALLET_FILENAME = "wallet-protobuf-testnet";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ExecutorService otherThread;
+
+	@Before
+	public void setUp()
+	{
+		otherThread = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown()
+	{
+		otherThread.shutdownNow();
+	}
+
+	@Test
+	public void replayWithoutSegments() throws Exception
+	{
+		final Protos.Wallet snapshot = wallet(tx(1, Protos.TransactionConfidence.Type.PENDING, -1));
+		assertSame(snapshot, journal().replay(snapshot));
+	}
+
+	@Test
+	public void replayInOrder() throws Exception
+	{
+		final WalletJournal first = journal();
+		first.append(WalletJournal.RECORD_TRANSACTION, tx(1, Protos.TransactionConfidence.Type.BUILDING, 100).toByteArray());
+		first.append(WalletJournal.RECORD_TRANSACTION, tx(2, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+
+		// restart
+		final WalletJournal second = journal();
+		second.append(WalletJournal.RECORD_TRANSACTION_REMOVED, hash(2).toByteArray());
+		second.appendLastSeenBlock(Sha256Hash.wrap(hash(9).toByteArray()), 105, 1234);
+		assertEquals(2, segments().length);
+
+		final Protos.Wallet replayed = journal().replay(wallet(tx(1, Protos.TransactionConfidence.Type.PENDING, -1)));
+		final Map<ByteString, Protos.Transaction> transactions = transactions(replayed);
+		assertEquals(1, transactions.size());
+		final Protos.TransactionConfidence confidence = transactions.get(hash(1)).getConfidence();
+		assertEquals(Protos.TransactionConfidence.Type.BUILDING, confidence.getType());
+		assertEquals(6, confidence.getDepth());
+		assertEquals(hash(9), replayed.getLastSeenBlockHash());
+		assertEquals(105, replayed.getLastSeenBlockHeight());
+		assertEquals(1234, replayed.getLastSeenBlockTimeSecs());
+	}
+
+	@Test
+	public void tornRecordEndsSegment() throws Exception
+	{
+		final WalletJournal first = journal();
+		first.append(WalletJournal.RECORD_TRANSACTION, tx(1, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		first.append(WalletJournal.RECORD_TRANSACTION, tx(2, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		truncate(segments()[0], 3);
+
+		// restart after crash
+		journal().append(WalletJournal.RECORD_TRANSACTION, tx(3, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+
+		final Map<ByteString, Protos.Transaction> transactions = transactions(journal().replay(wallet()));
+		assertTrue(transactions.containsKey(hash(1)));
+		assertFalse(transactions.containsKey(hash(2)));
+		assertTrue(transactions.containsKey(hash(3)));
+	}
+
+	@Test
+	public void corruptRecordEndsSegment() throws Exception
+	{
+		final WalletJournal first = journal();
+		first.append(WalletJournal.RECORD_TRANSACTION, tx(1, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		first.append(WalletJournal.RECORD_TRANSACTION, tx(2, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		flipByte(segments()[0], 8 + 4 + 4 + 1 + 5); // inside payload of first record
+
+		journal().append(WalletJournal.RECORD_TRANSACTION, tx(3, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+
+		final Map<ByteString, Protos.Transaction> transactions = transactions(journal().replay(wallet()));
+		assertFalse(transactions.containsKey(hash(1)));
+		assertFalse(transactions.containsKey(hash(2)));
+		assertTrue(transactions.containsKey(hash(3)));
+	}
+
+	@Test
+	public void snapshotDeletesSealedSegments() throws Exception
+	{
+		final WalletJournal journal = journal();
+		journal.append(WalletJournal.RECORD_TRANSACTION, tx(1, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		journal.beforeSnapshot();
+		journal.append(WalletJournal.RECORD_TRANSACTION, tx(2, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		journal.afterSnapshot();
+
+		assertEquals(1, segments().length);
+		final Map<ByteString, Protos.Transaction> transactions = transactions(journal().replay(wallet()));
+		assertFalse(transactions.containsKey(hash(1)));
+		assertTrue(transactions.containsKey(hash(2)));
+	}
+
+	@Test
+	public void failedSnapshotKeepsSegments() throws Exception
+	{
+		final WalletJournal journal = journal();
+		journal.append(WalletJournal.RECORD_TRANSACTION, tx(1, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		journal.beforeSnapshot();
+		journal.snapshotFailed();
+
+		assertTrue(transactions(journal().replay(wallet())).containsKey(hash(1)));
+	}
+
+	@Test
+	public void overlappingSnapshots() throws Exception
+	{
+		final WalletJournal journal = journal();
+		journal.append(WalletJournal.RECORD_TRANSACTION, tx(1, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		otherThread.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				journal.beforeSnapshot();
+			}
+		}).get();
+		journal.append(WalletJournal.RECORD_TRANSACTION, tx(2, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		journal.beforeSnapshot();
+		journal.append(WalletJournal.RECORD_TRANSACTION, tx(3, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+
+		// the newer snapshot finishes first, but the older one may still overwrite it
+		journal.afterSnapshot();
+		assertEquals(3, segments().length);
+
+		otherThread.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				journal.afterSnapshot();
+			}
+		}).get();
+
+		final Map<ByteString, Protos.Transaction> transactions = transactions(journal().replay(wallet()));
+		assertFalse(transactions.containsKey(hash(1)));
+		assertTrue(transactions.containsKey(hash(2)));
+		assertTrue(transactions.containsKey(hash(3)));
+	}
+
+	@Test
+	public void failedReplayKeepsSegments() throws Exception
+	{
+		final WalletJournal first = journal();
+		first.append(WalletJournal.RECORD_TRANSACTION, tx(1, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		first.append(WalletJournal.RECORD_TRANSACTION, new byte[] { (byte) 0xff }); // intact record, but not a transaction
+		final File segment = segments()[0];
+		final byte[] contents = Files.toByteArray(segment);
+
+		final WalletJournal journal = journal();
+		try
+		{
+			journal.replay(wallet());
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+
+		final File failedDirectory = journal.quarantine();
+		assertNotNull(failedDirectory);
+		assertFalse(segment.exists());
+		assertArrayEquals(contents, Files.toByteArray(new File(failedDirectory, segment.getName())));
+
+		// the journal starts over without the quarantined segment
+		final Protos.Wallet snapshot = wallet(tx(2, Protos.TransactionConfidence.Type.PENDING, -1));
+		assertSame(snapshot, journal().replay(snapshot));
+		journal.append(WalletJournal.RECORD_TRANSACTION, tx(3, Protos.TransactionConfidence.Type.PENDING, -1).toByteArray());
+		assertTrue(transactions(journal().replay(snapshot)).containsKey(hash(3)));
+		assertArrayEquals(contents, Files.toByteArray(new File(failedDirectory, segment.getName())));
+	}
+
+	private WalletJournal journal()
+	{
+		return new WalletJournal(folder.getRoot(), WALLET_FILENAME, Long.MAX_VALUE, null);
+	}
+
+	private File[] segments()
+	{
+		final File[] files = folder.getRoot().listFiles();
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static ByteString hash(final int n)
+	{
+		final byte[] hash = new byte[32];
+		Arrays.fill(hash, (byte) n);
+		return ByteString.copyFrom(hash);
+	}
+
+	private static Protos.Transaction tx(final int n, final Protos.TransactionConfidence.Type type, final int appearedAtHeight)
+	{
+		final Protos.TransactionConfidence.Builder confidence = Protos.TransactionConfidence.newBuilder().setType(type);
+		if (appearedAtHeight >= 0)
+			confidence.setAppearedAtHeight(appearedAtHeight);
+
+		return Protos.Transaction.newBuilder().setVersion(1).setHash(hash(n))
+				.setPool(type == Protos.TransactionConfidence.Type.BUILDING ? Protos.Transaction.Pool.UNSPENT : Protos.Transaction.Pool.PENDING)
+				.setConfidence(confidence).build();
+	}
+
+	private static Protos.Wallet wallet(final Protos.Transaction... transactions)
+	{
+		return Protos.Wallet.newBuilder().setNetworkIdentifier("org.bitcoin.test").addAllTransaction(Arrays.asList(transactions)).build();
+	}
+
+	private static Map<ByteString, Protos.Transaction> transactions(final Protos.Wallet wallet)
+	{
+		final Map<ByteString, Protos.Transaction> transactions = new HashMap<ByteString, Protos.Transaction>();
+		for (final Protos.Transaction tx : wallet.getTransactionList())
+			transactions.put(tx.getHash(), tx);
+		return transactions;
+	}
+
+	private static void truncate(final File file, final int numBytes) throws Exception
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - numBytes);
+		raf.close();
+	}
+
+	private static void flipByte(final File file, final long position) throws Exception
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(position);
+		final int b = raf.read();
+		raf.seek(position);
+		raf.write(b ^ 0xff);
+		raf.close();
+	}
+}
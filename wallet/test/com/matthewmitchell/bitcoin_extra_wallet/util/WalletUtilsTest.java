@@ -17,6 +17,9 @@
 
 package com.matthewmitchell.bitcoin_extra_wallet.util;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 
 import org.bitcoinj_extra.params.MainNetParams;
@@ -46,4 +49,23 @@ public class WalletUtilsTest
 	{
 		WalletUtils.restoreWalletFromProtobufOrBase58(getClass().getResourceAsStream("backup-base58-testnet"), MainNetParams.get());
 	}
+
+	@Test
+	public void isPossiblyCompleteWalletName()
+	{
+		assertTrue(WalletUtils.isPossiblyCompleteWalletName("wallet.domain.com"));
+		assertTrue(WalletUtils.isPossiblyCompleteWalletName("wallet.domain.com."));
+		assertTrue(WalletUtils.isPossiblyCompleteWalletName("gimme@mattdavid.me"));
+		assertTrue(WalletUtils.isPossiblyCompleteWalletName("Wallet.Xn--P1ai"));
+
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName(""));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("wallet"));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("wallet."));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("wallet.domain.c"));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("wallet..com"));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("gimme@"));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("gimme@mattdavid"));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("1CpLXM15vjULK3ZPGUTDMUcGATGR9xGitv"));
+		assertFalse(WalletUtils.isPossiblyCompleteWalletName("bitcoin:1CpLXM15vjULK3ZPGUTDMUcGATGR9xGitv?label=a.b"));
+	}
 }
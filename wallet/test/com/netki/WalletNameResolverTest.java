@@ -16,7 +16,6 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import org.xbill.DNS.Type;
 
 import java.net.URL;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Exchanger;
 
@@ -44,12 +43,6 @@ public class WalletNameResolverTest {
             doCallRealMethod().when(this.testObj).setDNSSECResolver(any(DNSSECResolver.class));
             doCallRealMethod().when(this.testObj).setTlsaValidator(any(TLSAValidator.class));
 
-            // Setup Backup
-            doCallRealMethod().when(this.mockResolver).getBackupDnsServers();
-            doCallRealMethod().when(this.mockResolver).setBackupDnsServers(any(List.class));
-            doCallRealMethod().when(this.mockResolver).useBackupDnsServer(any(Integer.class));
-            this.mockResolver.setBackupDnsServers(Arrays.asList("8.8.8.8", "8.8.4.4"));
-
             this.testObj.setDNSSECResolver(this.mockResolver);
             this.testObj.setTlsaValidator(this.mockTlsaValidator);
         } catch (WalletNameLookupException e) {
@@ -144,7 +137,7 @@ public class WalletNameResolverTest {
             fail("Expected Exception");
         } catch (WalletNameLookupException e) {
             try {
-                verify(this.mockResolver, times(3)).resolve(eq("_wallet.wallet.domain.com."), eq(Type.TXT));
+                verify(this.mockResolver, times(1)).resolve(eq("_wallet.wallet.domain.com."), eq(Type.TXT));
                 assertEquals("message", e.getMessage());
             } catch(Exception e1) {
                 fail("Unknown Test Failure: " + e.getMessage());
@@ -152,27 +145,6 @@ public class WalletNameResolverTest {
         }
     }
 
-    @Test
-    public void getAvailableCurrencies_RetriedException() {
-        try {
-            when(this.mockResolver.resolve(eq("_wallet.wallet.domain.com."), eq(Type.TXT))).thenThrow(new DNSSECException("message")).thenReturn("btc ltc");
-        } catch (Exception e) {
-            fail("Failure to Setup Test: " + e.getMessage());
-        }
-
-        try {
-            List<String> currencies = this.testObj.getAvailableCurrencies("wallet.domain.com");
-            assertNotNull(currencies);
-            assertEquals(2, currencies.size());
-            assertTrue(currencies.contains("btc"));
-            assertTrue(currencies.contains("ltc"));
-            assertFalse(currencies.contains("dgc"));
-            verify(this.mockResolver, times(2)).resolve(eq("_wallet.wallet.domain.com."), eq(Type.TXT));
-        } catch (Exception e) {
-            fail("Unknown Test Failure: " + e.getMessage());
-        }
-    }
-
     /*
      * Test resolve()
      */
@@ -302,7 +274,7 @@ public class WalletNameResolverTest {
         } catch (WalletNameLookupException e) {
             try {
                 assertEquals("message", e.getMessage());
-                verify(this.mockResolver, times(3)).resolve(anyString(), eq(Type.TXT));
+                verify(this.mockResolver, times(1)).resolve(anyString(), eq(Type.TXT));
                 verify(this.mockTlsaValidator, never()).validateTLSA(any(URL.class));
                 verify(this.testObj, never()).processWalletNameUrl(any(URL.class), anyBoolean());
             } catch (Exception e1) {
@@ -313,26 +285,6 @@ public class WalletNameResolverTest {
         }
     }
 
-    @Test
-    public void resolve_ResolutionExceptionRetry() {
-        try {
-            when(this.mockResolver.resolve(eq("_btc._wallet.wallet.domain.com."), eq(Type.TXT))).thenThrow(new DNSSECException("message")).thenReturn("1CpLXM15vjULK3ZPGUTDMUcGATGR9xGitv");
-        } catch (Exception e) {
-            fail("Failure to Setup Test: " + e.getMessage());
-        }
-
-        try {
-            BitcoinURI result = this.testObj.resolve("wallet.domain.com", "btc", true);
-            assertNotNull(result.getAddress());
-            assertEquals("1CpLXM15vjULK3ZPGUTDMUcGATGR9xGitv", result.getAddress().toString());
-            verify(this.mockResolver, times(2)).resolve(anyString(), eq(Type.TXT));
-            verify(this.mockTlsaValidator, never()).validateTLSA(any(URL.class));
-            verify(this.testObj, never()).processWalletNameUrl(any(URL.class), anyBoolean());
-        } catch (Exception e) {
-            fail("Unknown Test Failure: " + e.getMessage());
-        }
-    }
-
     @Test
     public void resolve_URLException() {
         try {
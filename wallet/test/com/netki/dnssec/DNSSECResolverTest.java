@@ -10,15 +10,20 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
 import org.xbill.DNS.*;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class DNSSECResolverTest {
 
@@ -116,86 +121,197 @@ public class DNSSECResolverTest {
     }
 
     @Test
-    public void resolveTrustAnchorUnknownHostException() {
-
+    public void resolveLoadsTrustAnchorsOnce() {
         try {
-            doThrow(new UnknownHostException()).when(this.mockValidatingResolver).loadTrustAnchors(any(InputStream.class));
-        } catch (IOException e) {
+            testObj.resolve("wallet.domain.com", Type.TXT);
+            testObj.resolve("wallet.domain.com", Type.TXT);
+
+            // Verify Calls
+            verify(this.mockValidatingResolver, times(1)).loadTrustAnchors(any(InputStream.class));
+            verify(this.mockValidatingResolver, times(2)).send(any(Message.class));
+        } catch (Exception e) {
             e.printStackTrace();
+            fail("Unexpected Exception Occurred");
         }
+    }
+
+    @Test
+    public void resolveCachesValidatedAnswer() {
         try {
+            assertEquals("\\textresult\\", testObj.resolve("wallet.domain.com", Type.TXT));
+            assertEquals("\\textresult\\", testObj.resolve("WALLET.domain.com.", Type.TXT));
 
-            String result = testObj.resolve("wallet.domain.com", Type.TXT);
-            assertEquals("Text Record Value is Incorrect", "\\textresult\\", result);
-            fail("resolve should throw DNSSEC Exception");
+            verify(this.mockValidatingResolver, times(1)).send(any(Message.class));
         } catch (Exception e) {
-            if(e instanceof DNSSECException) {
-                assertTrue(true);
-                assertEquals("Unknown DNS Host: 8.8.8.8", e.getMessage());
-                try {
-                    verify(this.mockValidatingResolver).loadTrustAnchors(any(InputStream.class));
-                    verify(this.mockValidatingResolver, times(0)).send(any(Message.class));
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
-            }
+            e.printStackTrace();
+            fail("Unexpected Exception Occurred");
         }
     }
 
     @Test
-    public void resolveTrustAnchorUnsupportedEncodingException() {
+    public void resolveCachesInsecureAnswer() {
+
+        this.spyHeader.unsetFlag(Flags.AD);
 
         try {
-            doThrow(new UnsupportedEncodingException()).when(this.mockValidatingResolver).loadTrustAnchors(any(InputStream.class));
-        } catch (IOException e) {
+            assertNull(testObj.resolve("wallet.domain.com", Type.TXT));
+            assertNull(testObj.resolve("wallet.domain.com", Type.TXT));
+
+            verify(this.mockValidatingResolver, times(1)).send(any(Message.class));
+        } catch (Exception e) {
             e.printStackTrace();
+            fail("Unexpected Exception Occurred");
         }
-        try {
+    }
 
-            String result = testObj.resolve("wallet.domain.com", Type.TXT);
-            assertEquals("Text Record Value is Incorrect", "\\textresult\\", result);
-            fail("resolve should throw DNSSEC Exception");
-        } catch (Exception e) {
-            if(e instanceof DNSSECException) {
-                assertTrue(true);
-                assertEquals("Unsupported Trust Anchor Encoding", e.getMessage());
-                try {
-                    verify(this.mockValidatingResolver).loadTrustAnchors(any(InputStream.class));
-                    verify(this.mockValidatingResolver, times(0)).send(any(Message.class));
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
+    @Test
+    public void resolveCachesValidatedNoAnswer() throws Exception {
+
+        this.responseMessage.removeAllRecords(Section.ANSWER);
+        this.responseMessage.addRecord(new SOARecord(new Name("domain.com."), DClass.IN, 3600L, new Name("ns.domain.com."),
+                new Name("admin.domain.com."), 1L, 3600L, 600L, 86400L, 300L), Section.AUTHORITY);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                testObj.resolve("wallet.domain.com", Type.TXT);
+                fail("resolve should throw DNSSEC Exception");
+            } catch (DNSSECException e) {
+                assertEquals("No Query Answer Received", e.getMessage());
             }
         }
+
+        verify(this.mockValidatingResolver, times(1)).send(any(Message.class));
     }
 
     @Test
-    public void resolveTrustAnchorIOException() {
+    public void setValidatingResolverTrustAnchorIOException() {
 
+        ValidatingResolver failingResolver = mock(ValidatingResolver.class);
         try {
-            doThrow(new IOException("Error Message")).when(this.mockValidatingResolver).loadTrustAnchors(any(InputStream.class));
+            doThrow(new IOException("Error Message")).when(failingResolver).loadTrustAnchors(any(InputStream.class));
         } catch (IOException e) {
             e.printStackTrace();
         }
+
         try {
+            testObj.setValidatingResolver(failingResolver);
+            fail("setValidatingResolver should throw IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Unable to Load Trust Anchor", e.getMessage());
+        }
+    }
 
-            String result = testObj.resolve("wallet.domain.com", Type.TXT);
-            assertEquals("Text Record Value is Incorrect", "\\textresult\\", result);
-            fail("resolve should throw DNSSEC Exception");
-        } catch (Exception e) {
-            if(e instanceof DNSSECException) {
-                assertTrue(true);
-                assertEquals("Resolver Creation Exception: Error Message", e.getMessage());
-                try {
-                    verify(this.mockValidatingResolver).loadTrustAnchors(any(InputStream.class));
-                    verify(this.mockValidatingResolver, times(0)).send(any(Message.class));
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
-            }
+    @Test
+    public void refreshSystemDnsServers() {
+        try {
+            assertEquals("8.8.8.8", testObj.getSelectedDnsServer());
+            assertFalse(testObj.refreshSystemDnsServers());
+            assertEquals("8.8.8.8", testObj.getSelectedDnsServer());
+
+            List<InetAddress> addrList = new ArrayList<InetAddress>();
+            addrList.add(InetAddress.getByName("192.168.1.1"));
+            when(this.mockDNSBootstrapService.getSystemDNSServers()).thenReturn(addrList);
+
+            assertTrue(testObj.refreshSystemDnsServers());
+            assertEquals("192.168.1.1", testObj.getSelectedDnsServer());
+            verify(this.mockDNSBootstrapService, times(3)).getSystemDNSServers();
+        } catch (UnknownHostException e) {
+            fail("UnknownHostException Caught");
         }
     }
 
+    @Test
+    public void resolveRacesPastFailingServer() throws Exception {
+
+        ValidatingResolver failingResolver = mock(ValidatingResolver.class);
+        doThrow(new IOException("IO Failure")).when(failingResolver).send(any(Message.class));
+
+        Map<String, ValidatingResolver> resolvers = new LinkedHashMap<String, ValidatingResolver>();
+        resolvers.put("192.168.1.1", failingResolver);
+        resolvers.put("8.8.8.8", this.mockValidatingResolver);
+        testObj.setValidatingResolvers(resolvers);
+        assertEquals("192.168.1.1", testObj.getSelectedDnsServer());
+
+        assertEquals("\\textresult\\", testObj.resolve("wallet.domain.com", Type.TXT));
+        verify(failingResolver, timeout(1000)).send(any(Message.class));
+
+        // The server that answered is preferred from now on
+        assertEquals("8.8.8.8", testObj.getSelectedDnsServer());
+    }
+
+    @Test
+    public void resolveDoesNotWaitForSlowServer() throws Exception {
+
+        ValidatingResolver slowResolver = mock(ValidatingResolver.class);
+        when(slowResolver.send(any(Message.class))).thenAnswer(new Answer<Message>() {
+            @Override
+            public Message answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(5000);
+                return new Message();
+            }
+        });
+
+        Map<String, ValidatingResolver> resolvers = new LinkedHashMap<String, ValidatingResolver>();
+        resolvers.put("192.168.1.1", slowResolver);
+        resolvers.put("8.8.8.8", this.mockValidatingResolver);
+        testObj.setValidatingResolvers(resolvers);
+
+        long start = System.nanoTime();
+        assertEquals("\\textresult\\", testObj.resolve("wallet.domain.com", Type.TXT));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2500);
+    }
+
+    @Test
+    public void resolvePrefersValidatedAnswer() throws Exception {
+
+        Message bogusMessage = new Message();
+        bogusMessage.getHeader().setRcode(Rcode.SERVFAIL);
+        List<String> failList = new ArrayList<String>();
+        failList.add("Failure Error 1");
+        bogusMessage.addRecord(new TXTRecord(Name.root, ValidatingResolver.VALIDATION_REASON_QCLASS, 800, failList), Section.ADDITIONAL);
+        ValidatingResolver bogusResolver = mock(ValidatingResolver.class);
+        when(bogusResolver.send(any(Message.class))).thenReturn(bogusMessage);
+
+        Map<String, ValidatingResolver> resolvers = new LinkedHashMap<String, ValidatingResolver>();
+        resolvers.put("192.168.1.1", bogusResolver);
+        resolvers.put("8.8.8.8", this.mockValidatingResolver);
+        testObj.setValidatingResolvers(resolvers);
+
+        assertEquals("\\textresult\\", testObj.resolve("wallet.domain.com", Type.TXT));
+        verify(this.mockValidatingResolver, times(1)).send(any(Message.class));
+    }
+
+    @Test
+    public void resolveAcceptsInsecureAnswer() throws Exception {
+
+        this.spyHeader.unsetFlag(Flags.AD);
+
+        ValidatingResolver slowResolver = mock(ValidatingResolver.class);
+        when(slowResolver.send(any(Message.class))).thenAnswer(new Answer<Message>() {
+            @Override
+            public Message answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(5000);
+                return new Message();
+            }
+        });
+        ValidatingResolver nextResolver = mock(ValidatingResolver.class);
+
+        Map<String, ValidatingResolver> resolvers = new LinkedHashMap<String, ValidatingResolver>();
+        resolvers.put("192.168.1.1", this.mockValidatingResolver);
+        resolvers.put("192.168.1.2", slowResolver);
+        resolvers.put("8.8.8.8", nextResolver);
+        testObj.setValidatingResolvers(resolvers);
+
+        // An unsigned zone can't be validated by any server, so neither the slow nor the next server is waited for
+        long start = System.nanoTime();
+        assertNull(testObj.resolve("wallet.domain.com", Type.TXT));
+        assertNull(testObj.resolve("wallet.domain.com", Type.TXT));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2500);
+
+        verify(this.mockValidatingResolver, times(1)).send(any(Message.class));
+        verify(nextResolver, never()).send(any(Message.class));
+    }
+
     @Test
     public void resolveFlagNotAD() {
 
@@ -0,0 +1,132 @@
+package com.netki.tlsa;
+
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Compares the indexed chain validation with the former scan over all trusted certificates, on a fixture set of CA
+ * certificates about the size of the Android trust store. Not run as part of the tests; start from the IDE or with
+ * {@code java -cp}.
+ */
+public class CertChainValidatorBenchmark {
+
+    private static final int NUM_CAS = 150;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+
+        List<X509Certificate> cas = new ArrayList<X509Certificate>(NUM_CAS);
+        for (int i = 0; i < NUM_CAS - 1; i++) {
+            cas.add(TestCertificates.generateRoot("CN=Fixture Root " + i + ", O=Test, C=GB", TestCertificates.generateKeyPair()));
+        }
+
+        KeyPair rootKeys = TestCertificates.generateKeyPair();
+        KeyPair intermediateKeys = TestCertificates.generateKeyPair();
+        X509Certificate root = TestCertificates.generateRoot("CN=Test Root, O=Test, C=GB", rootKeys);
+        X509Certificate intermediate = TestCertificates.generateIssued("CN=Test Intermediate, O=Test, C=GB", intermediateKeys, root, rootKeys, true);
+        X509Certificate leaf = TestCertificates.generateIssued("CN=wallet.domain.com", TestCertificates.generateKeyPair(), intermediate, intermediateKeys, false);
+        cas.add(root);
+
+        KeyStore caCertKeystore = KeyStore.getInstance(KeyStore.getDefaultType());
+        caCertKeystore.load(null, null);
+        for (X509Certificate ca : cas) {
+            caCertKeystore.setCertificateEntry(ca.getSubjectDN().toString(), ca);
+        }
+
+        CertChainValidator validator = new CertChainValidator();
+        long start = System.nanoTime();
+        TrustIndex caCertIndex = TrustIndex.of(caCertKeystore);
+        long indexNanos = System.nanoTime() - start;
+
+        List<Certificate> intermediates = Collections.<Certificate>singletonList(intermediate);
+        if (!validateByScan(leaf, caCertKeystore, intermediate) || !validator.validateKeyChain(leaf, caCertIndex, intermediates)) {
+            throw new IllegalStateException("chain does not validate");
+        }
+
+        System.out.println(NUM_CAS + " trusted certificates, chain depth 3, index built in " + indexNanos / 1000 + " us");
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            validateByScan(leaf, caCertKeystore, intermediate);
+            validator.validateKeyChain(leaf, caCertIndex, intermediates);
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            validateByScan(leaf, caCertKeystore, intermediate);
+        }
+        long scanNanos = (System.nanoTime() - start) / ROUNDS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            validator.validateKeyChain(leaf, caCertIndex, intermediates);
+        }
+        long indexedNanos = (System.nanoTime() - start) / ROUNDS;
+
+        System.out.printf("scan:    %8d us/op%n", scanNanos / 1000);
+        System.out.printf("indexed: %8d us/op%n", indexedNanos / 1000);
+    }
+
+    /**
+     * The former validation: copy the keystore with the intermediate added, then at every level try all certificates
+     */
+    private static boolean validateByScan(X509Certificate client, KeyStore caCertKeystore, X509Certificate intermediate) throws Exception {
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        Enumeration<String> aliases = caCertKeystore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            keyStore.setCertificateEntry(alias, caCertKeystore.getCertificate(alias));
+        }
+        keyStore.setCertificateEntry(intermediate.getSubjectDN().toString(), intermediate);
+
+        X509Certificate[] certs = new X509Certificate[keyStore.size()];
+        int i = 0;
+        aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            certs[i++] = (X509Certificate) keyStore.getCertificate(aliases.nextElement());
+        }
+
+        return validateByScan(client, certs);
+    }
+
+    private static boolean validateByScan(X509Certificate client, X509Certificate... trustedCerts) throws Exception {
+
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        CertPathValidator validator = CertPathValidator.getInstance("PKIX");
+
+        for (int i = trustedCerts.length - 1; i >= 0; i--) {
+            CertPath path = cf.generateCertPath(Collections.singletonList(client));
+            PKIXParameters params = new PKIXParameters(Collections.singleton(new TrustAnchor(trustedCerts[i], null)));
+            params.setRevocationEnabled(false);
+
+            if (client.getIssuerDN().equals(trustedCerts[i].getSubjectDN())) {
+                try {
+                    validator.validate(path, params);
+                    if (trustedCerts[i].getSubjectX500Principal().equals(trustedCerts[i].getIssuerX500Principal())) {
+                        return true;
+                    } else if (!client.equals(trustedCerts[i]) && validateByScan(trustedCerts[i], trustedCerts)) {
+                        return true;
+                    }
+                } catch (CertPathValidatorException e) {
+                    // check next certificate
+                }
+            }
+        }
+
+        return false;
+    }
+}
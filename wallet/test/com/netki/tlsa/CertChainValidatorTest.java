@@ -0,0 +1,117 @@
+package com.netki.tlsa;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CertChainValidatorTest {
+
+    private static X509Certificate root;
+    private static X509Certificate intermediate;
+    private static X509Certificate leaf;
+    private static X509Certificate impostorRoot;
+
+    private final CertChainValidator testObj = new CertChainValidator();
+
+    @BeforeClass
+    public static void generateChain() throws Exception {
+        KeyPair rootKeys = TestCertificates.generateKeyPair();
+        KeyPair intermediateKeys = TestCertificates.generateKeyPair();
+
+        root = TestCertificates.generateRoot("CN=Test Root, O=Test, C=GB", rootKeys);
+        intermediate = TestCertificates.generateIssued("CN=Test Intermediate, O=Test, C=GB", intermediateKeys, root, rootKeys, true);
+        leaf = TestCertificates.generateIssued("CN=wallet.domain.com", TestCertificates.generateKeyPair(), intermediate, intermediateKeys, false);
+
+        // Same subject as the root, different key
+        impostorRoot = TestCertificates.generateRoot("CN=Test Root, O=Test, C=GB", TestCertificates.generateKeyPair());
+    }
+
+    @Test
+    public void validateKeyChain_IntermediateOverlay() throws Exception {
+        TrustIndex trusted = TrustIndex.of(Collections.singletonList(root));
+
+        assertTrue(testObj.validateKeyChain(leaf, trusted, Collections.singletonList(intermediate)));
+
+        // The overlay is only used for that one validation
+        assertEquals(1, trusted.size());
+        assertFalse(testObj.validateKeyChain(leaf, trusted, Collections.<Certificate>emptyList()));
+    }
+
+    @Test
+    public void validateKeyChain_MissingRoot() throws Exception {
+        TrustIndex trusted = TrustIndex.of(Collections.singletonList(TestCertificates.generateRoot("CN=Other Root, O=Test, C=GB", TestCertificates.generateKeyPair())));
+
+        assertFalse(testObj.validateKeyChain(leaf, trusted, Collections.singletonList(intermediate)));
+    }
+
+    @Test
+    public void validateKeyChain_ImpostorRoot() throws Exception {
+        TrustIndex trusted = TrustIndex.of(Collections.singletonList(impostorRoot));
+
+        assertFalse(testObj.validateKeyChain(leaf, trusted, Collections.singletonList(intermediate)));
+    }
+
+    @Test
+    public void validateKeyChain_RootInOverlay() throws Exception {
+        // A root sent along with the chain is no trust anchor
+        assertFalse(testObj.validateKeyChain(leaf, TrustIndex.EMPTY, Arrays.asList(intermediate, root)));
+
+        KeyPair attackerKeys = TestCertificates.generateKeyPair();
+        X509Certificate attackerRoot = TestCertificates.generateRoot("CN=Attacker Root, O=Test, C=GB", attackerKeys);
+        X509Certificate attackerLeaf = TestCertificates.generateIssued("CN=wallet.domain.com", TestCertificates.generateKeyPair(), attackerRoot, attackerKeys, false);
+        TrustIndex trusted = TrustIndex.of(Collections.singletonList(root));
+
+        assertFalse(testObj.validateKeyChain(attackerLeaf, trusted, Arrays.asList(intermediate, attackerRoot)));
+
+        // The trusted root may still be sent along
+        assertTrue(testObj.validateKeyChain(leaf, trusted, Arrays.asList(intermediate, root)));
+    }
+
+    @Test
+    public void validateKeyChain_IntermediateAsAnchor() throws Exception {
+        // Any trusted certificate ends the chain, as for a CA pinned by a TLSA record
+        TrustIndex trusted = TrustIndex.of(Collections.singletonList(intermediate));
+
+        assertTrue(testObj.validateKeyChain(leaf, trusted, Collections.<Certificate>emptyList()));
+        assertFalse(testObj.validateKeyChain(intermediate, trusted, Collections.<Certificate>emptyList()));
+    }
+
+    @Test
+    public void validateKeyChain_KeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("impostor", impostorRoot);
+        keyStore.setCertificateEntry("root", root);
+        keyStore.setCertificateEntry("intermediate", intermediate);
+
+        assertTrue(testObj.validateKeyChain(leaf, keyStore));
+    }
+
+    @Test
+    public void findIssuers_ByKeyIdentifier() throws Exception {
+        TrustIndex trusted = TrustIndex.of(Arrays.asList(impostorRoot, root));
+
+        List<X509Certificate> issuers = trusted.findIssuers(intermediate);
+        assertEquals(1, issuers.size());
+        assertSame(root, issuers.get(0));
+    }
+
+    @Test
+    public void findIssuers_BySubject() throws Exception {
+        // The intermediate's authority key identifier isn't indexed, so candidates come by issuer name
+        TrustIndex trusted = TrustIndex.of(Collections.singletonList(impostorRoot));
+
+        assertEquals(Collections.singletonList(impostorRoot), trusted.findIssuers(intermediate));
+        assertTrue(trusted.findIssuers(leaf).isEmpty());
+        assertTrue(TrustIndex.EMPTY.findIssuers(leaf).isEmpty());
+    }
+}
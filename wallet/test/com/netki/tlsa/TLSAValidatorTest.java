@@ -1,5 +1,9 @@
 package com.netki.tlsa;
 
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.io.BaseEncoding;
 import com.netki.dnssec.DNSSECResolver;
 import com.netki.exceptions.DNSSECException;
 import org.spongycastle.asn1.x500.X500Name;
@@ -16,40 +20,104 @@ import org.spongycastle.operator.OperatorCreationException;
 import org.spongycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.powermock.api.mockito.PowerMockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.xbill.DNS.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
 import java.security.*;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.spec.RSAPrivateKeySpec;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest(TLSAValidator.class)
+@PowerMockIgnore({"javax.net.ssl.*", "javax.security.*"})
 public class TLSAValidatorTest {
 
     private DNSSECResolver mockResolver;
     private CACertService caCertService;
     private CertChainValidator chainValidator;
 
+    private static final URL WALLET_URL;
+
+    // Chains of the trust store, of a private CA, and of an attacker, all for wallet.domain.com
+    private static X509Certificate root;
+    private static X509Certificate intermediate;
+    private static X509Certificate leaf;
+    private static X509Certificate otherIntermediate;
+    private static X509Certificate otherLeaf;
+    private static X509Certificate privateRoot;
+    private static X509Certificate privateLeaf;
+    private static X509Certificate attackerRoot;
+    private static X509Certificate attackerLeaf;
+
+    // Served by the local TLS server, issued by the private root
+    private static KeyPair serverKeys;
+    private static X509Certificate serverCert;
+    private static final char[] SERVER_KEY_PASSWORD = "password".toCharArray();
+
+    static {
+        try {
+            WALLET_URL = new URL("https://wallet.domain.com");
+        } catch (MalformedURLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private TLSAValidator testObj;
+    private final List<ServerSocket> serverSockets = new ArrayList<ServerSocket>();
     private TLSARecord testRecord;
     private List<Certificate> certs;
     private byte[] certData;
 
+    @BeforeClass
+    public static void generateChains() throws Exception {
+        KeyPair rootKeys = TestCertificates.generateKeyPair();
+        KeyPair intermediateKeys = TestCertificates.generateKeyPair();
+        KeyPair otherIntermediateKeys = TestCertificates.generateKeyPair();
+        KeyPair privateRootKeys = TestCertificates.generateKeyPair();
+        KeyPair attackerRootKeys = TestCertificates.generateKeyPair();
+
+        root = TestCertificates.generateRoot("CN=Test Root, O=Test, C=GB", rootKeys);
+        intermediate = TestCertificates.generateIssued("CN=Test Intermediate, O=Test, C=GB", intermediateKeys, root, rootKeys, true);
+        leaf = TestCertificates.generateIssued("CN=wallet.domain.com", TestCertificates.generateKeyPair(), intermediate, intermediateKeys, false);
+        otherIntermediate = TestCertificates.generateIssued("CN=Other Intermediate, O=Test, C=GB", otherIntermediateKeys, root, rootKeys, true);
+        otherLeaf = TestCertificates.generateIssued("CN=wallet.domain.com", TestCertificates.generateKeyPair(), otherIntermediate, otherIntermediateKeys, false);
+        privateRoot = TestCertificates.generateRoot("CN=Private Root, O=Test, C=GB", privateRootKeys);
+        privateLeaf = TestCertificates.generateIssued("CN=wallet.domain.com", TestCertificates.generateKeyPair(), privateRoot, privateRootKeys, false);
+        attackerRoot = TestCertificates.generateRoot("CN=Private Root, O=Test, C=GB", attackerRootKeys);
+        attackerLeaf = TestCertificates.generateIssued("CN=wallet.domain.com", TestCertificates.generateKeyPair(), attackerRoot, attackerRootKeys, false);
+        serverKeys = TestCertificates.generateKeyPair();
+        serverCert = TestCertificates.generateIssued("CN=localhost", serverKeys, privateRoot, privateRootKeys, false);
+    }
+
     @Before
     public void setUp() {
         this.mockResolver = mock(DNSSECResolver.class);
@@ -76,6 +144,13 @@ public class TLSAValidatorTest {
 
     @After
     public void tearDown() {
+        for (ServerSocket serverSocket : this.serverSockets) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // Do Nothing
+            }
+        }
         reset(this.mockResolver);
         reset(this.caCertService);
         reset(this.chainValidator);
@@ -148,6 +223,7 @@ public class TLSAValidatorTest {
         when(testObj.getUrlCerts(any(URL.class))).thenReturn(certs);
         when(testObj.getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class))).thenReturn(certs.get(1));
         when(testObj.isValidCertChain(any(Certificate.class), anyListOf(Certificate.class))).thenReturn(true);
+        when(testObj.isValidCertChain(any(Certificate.class), any(Certificate.class), anyListOf(Certificate.class))).thenReturn(true);
 
         try {
             when(testObj.validateTLSA(any(URL.class))).thenCallRealMethod();
@@ -161,6 +237,7 @@ public class TLSAValidatorTest {
             verify(testObj).getUrlCerts(any(URL.class));
             verify(testObj).getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class));
             verify(testObj).isValidCertChain(any(Certificate.class), anyListOf(Certificate.class));
+            verify(testObj).isValidCertChain(eq(certs.get(0)), eq(certs.get(1)), anyListOf(Certificate.class));
         } catch (Exception e) {
             e.printStackTrace();
             fail("Unknown Exception Occurred in Test");
@@ -333,7 +410,7 @@ public class TLSAValidatorTest {
         when(testObj.getTLSARecord(any(URL.class))).thenReturn(this.testRecord);
         when(testObj.getUrlCerts(any(URL.class))).thenReturn(certs);
         when(testObj.getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class))).thenReturn(certs.get(2));
-        when(testObj.isValidCertChain(any(Certificate.class), anyListOf(Certificate.class))).thenReturn(true);
+        when(testObj.isValidCertChain(any(Certificate.class), any(Certificate.class), anyListOf(Certificate.class))).thenReturn(true);
 
         try {
             when(testObj.validateTLSA(any(URL.class))).thenCallRealMethod();
@@ -349,7 +426,8 @@ public class TLSAValidatorTest {
             verify(testObj).getTLSARecord(any(URL.class));
             verify(testObj).getUrlCerts(any(URL.class));
             verify(testObj).getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class));
-            verify(testObj).isValidCertChain(any(Certificate.class), anyListOf(Certificate.class));
+            verify(testObj).isValidCertChain(eq(certs.get(0)), any(Certificate.class), anyListOf(Certificate.class));
+            verify(testObj, never()).isValidCertChain(any(Certificate.class), anyListOf(Certificate.class));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -370,7 +448,7 @@ public class TLSAValidatorTest {
         when(testObj.getTLSARecord(any(URL.class))).thenReturn(this.testRecord);
         when(testObj.getUrlCerts(any(URL.class))).thenReturn(certs);
         when(testObj.getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class))).thenReturn(certs.get(0));
-        when(testObj.isValidCertChain(any(Certificate.class), anyListOf(Certificate.class))).thenReturn(true);
+        when(testObj.isValidCertChain(any(Certificate.class), any(Certificate.class), anyListOf(Certificate.class))).thenReturn(false);
         try {
             when(testObj.validateTLSA(any(URL.class))).thenCallRealMethod();
         } catch (ValidSelfSignedCertException ve) {}
@@ -382,7 +460,8 @@ public class TLSAValidatorTest {
             verify(testObj).getTLSARecord(any(URL.class));
             verify(testObj).getUrlCerts(any(URL.class));
             verify(testObj).getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class));
-            verify(testObj).isValidCertChain(any(Certificate.class), anyListOf(Certificate.class));
+            verify(testObj).isValidCertChain(eq(certs.get(0)), any(Certificate.class), anyListOf(Certificate.class));
+            verify(testObj, never()).isValidCertChain(any(Certificate.class), anyListOf(Certificate.class));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -403,7 +482,7 @@ public class TLSAValidatorTest {
         when(testObj.getTLSARecord(any(URL.class))).thenReturn(this.testRecord);
         when(testObj.getUrlCerts(any(URL.class))).thenReturn(certs);
         when(testObj.getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class))).thenReturn(certs.get(2));
-        when(testObj.isValidCertChain(any(Certificate.class), anyListOf(Certificate.class))).thenReturn(false);
+        when(testObj.isValidCertChain(any(Certificate.class), any(Certificate.class), anyListOf(Certificate.class))).thenReturn(false);
         try {
             when(testObj.validateTLSA(any(URL.class))).thenCallRealMethod();
         } catch (ValidSelfSignedCertException ve) {}
@@ -415,7 +494,8 @@ public class TLSAValidatorTest {
             verify(testObj).getTLSARecord(any(URL.class));
             verify(testObj).getUrlCerts(any(URL.class));
             verify(testObj).getMatchingCert(any(TLSARecord.class), anyListOf(Certificate.class));
-            verify(testObj).isValidCertChain(any(Certificate.class), anyListOf(Certificate.class));
+            verify(testObj).isValidCertChain(eq(certs.get(0)), any(Certificate.class), anyListOf(Certificate.class));
+            verify(testObj, never()).isValidCertChain(any(Certificate.class), anyListOf(Certificate.class));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -574,6 +654,92 @@ public class TLSAValidatorTest {
         }
     }
 
+    /*
+     * TEST:
+     * TLSAValidator.validateTLSA() on generated certificate chains, checking that the TLSA match leads to the
+     * certificate the server proves to hold the key of
+     */
+    @Test
+    public void validateTLSA_CAConstraint_Chain() throws Exception {
+
+        // Pinned CA
+        TLSAValidator validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.CA_CONSTRAINT, intermediate), leaf, intermediate);
+        assertTrue(validator.validateTLSA(WALLET_URL));
+
+        // Certificate of another CA of the trust store, with the pinned CA sent along
+        validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.CA_CONSTRAINT, intermediate), otherLeaf, otherIntermediate, intermediate);
+        assertFalse(validator.validateTLSA(WALLET_URL));
+
+        // Pinned CA that is not valid by PKIX
+        validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.CA_CONSTRAINT, privateRoot), privateLeaf, privateRoot);
+        assertFalse(validator.validateTLSA(WALLET_URL));
+    }
+
+    @Test
+    public void validateTLSA_ServiceConstraint_Chain() throws Exception {
+
+        TLSAValidator validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.SERVICE_CERTIFICATE_CONSTRAINT, leaf), leaf, intermediate);
+        assertTrue(validator.validateTLSA(WALLET_URL));
+
+        // Pinned certificate sent along after the certificate of the server
+        validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.SERVICE_CERTIFICATE_CONSTRAINT, leaf), otherLeaf, otherIntermediate, leaf, intermediate);
+        assertFalse(validator.validateTLSA(WALLET_URL));
+
+        // Pinned certificate that is not valid by PKIX
+        validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.SERVICE_CERTIFICATE_CONSTRAINT, privateLeaf), privateLeaf, privateRoot);
+        assertFalse(validator.validateTLSA(WALLET_URL));
+    }
+
+    @Test
+    public void validateTLSA_TrustAnchor_Chain() throws Exception {
+
+        TLSAValidator validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.TRUST_ANCHOR_ASSERTION, privateRoot), privateLeaf, privateRoot);
+        try {
+            validator.validateTLSA(WALLET_URL);
+            fail("Pinned Trust Anchor Not Accepted");
+        } catch (ValidSelfSignedCertException ve) {
+            assertEquals(privateRoot, ve.getRootCert());
+        }
+
+        // Attacker's own root inserted before the pinned trust anchor
+        validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.TRUST_ANCHOR_ASSERTION, privateRoot), attackerLeaf, attackerRoot, privateRoot);
+        assertFalse(validator.validateTLSA(WALLET_URL));
+
+        // Certificate of the trust store, the pinned trust anchor is the only one
+        validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.TRUST_ANCHOR_ASSERTION, privateRoot), leaf, intermediate, privateRoot);
+        assertFalse(validator.validateTLSA(WALLET_URL));
+    }
+
+    @Test
+    public void validateTLSA_DomainIssued_Chain() throws Exception {
+
+        TLSAValidator validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.DOMAIN_ISSUED_CERTIFICATE, privateLeaf), privateLeaf, privateRoot);
+        try {
+            validator.validateTLSA(WALLET_URL);
+            fail("Pinned Certificate Not Accepted");
+        } catch (ValidSelfSignedCertException ve) {
+            assertEquals(privateLeaf, ve.getRootCert());
+        }
+
+        // Pinned certificate sent along after the attacker's own certificate
+        validator = chainTestObj(tlsaRecord(TLSARecord.CertificateUsage.DOMAIN_ISSUED_CERTIFICATE, privateLeaf), attackerLeaf, privateLeaf);
+        assertFalse(validator.validateTLSA(WALLET_URL));
+    }
+
+    private TLSAValidator chainTestObj(TLSARecord tlsaRecord, Certificate... presented) throws Exception {
+        when(this.caCertService.getCaCertIndex()).thenReturn(TrustIndex.of(Collections.singletonList(root)));
+
+        TLSAValidator validator = spy(new TLSAValidator(this.mockResolver, this.caCertService, new CertChainValidator()));
+        doReturn(tlsaRecord).when(validator).getTLSARecord(any(URL.class));
+        doReturn(new ArrayList<Certificate>(Arrays.asList(presented))).when(validator).getUrlCerts(any(URL.class));
+        return validator;
+    }
+
+    private static TLSARecord tlsaRecord(int usage, Certificate cert) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(cert.getPublicKey().getEncoded());
+        return new TLSARecord(new Name("_443._tcp.wallet.domain.com."), DClass.IN, 800, usage, TLSARecord.Selector.SUBJECT_PUBLIC_KEY_INFO, TLSARecord.MatchingType.SHA256, digest);
+    }
+
     /*
      * TEST:
      * TLSAValidator.isValidCertChain()
@@ -581,8 +747,8 @@ public class TLSAValidatorTest {
     @Test
     public void isValidCertChain_GoRight() {
 
-        // Setup Mock Keystore
-        KeyStore testKeyStore;
+        // Setup CA Cert Index
+        TrustIndex testIndex;
 
         // Setup Arg Certs
         List<Certificate> certList = new ArrayList<Certificate>();
@@ -591,10 +757,7 @@ public class TLSAValidatorTest {
         Certificate testCert;
         try {
 
-            testKeyStore = spy(KeyStore.getInstance(KeyStore.getDefaultType()));
-            Certificate cert1 = generateCertificate("CN=Test1, L=Los Angeles, C=US");
-            testKeyStore.load(null);
-            testKeyStore.setCertificateEntry("cert1", cert1);
+            testIndex = TrustIndex.of(Collections.singletonList(generateCertificate("CN=Test1, L=Los Angeles, C=US")));
 
             certList1 = generateCertificate("CN=Test, L=Los Angeles, C=US");
             certList2 = generateCertificate("CN=Test2, L=Los Angeles, C=US");
@@ -602,16 +765,15 @@ public class TLSAValidatorTest {
             certList.add(certList2);
 
             testCert = generateCertificate("CN=TestCert, L=Los Angeles, C=US");
+            certList.add(testCert);
         } catch (Exception e) {
             fail("Test Setup Failure: " + e.getMessage());
             return;
         }
 
         try {
-            PowerMockito.mockStatic(KeyStore.class);
-            PowerMockito.when(KeyStore.getInstance(KeyStore.getDefaultType())).thenReturn(testKeyStore);
-            when(this.caCertService.getCaCertKeystore()).thenReturn(testKeyStore);
-            when(this.chainValidator.validateKeyChain(any(X509Certificate.class), any(KeyStore.class))).thenReturn(true);
+            when(this.caCertService.getCaCertIndex()).thenReturn(testIndex);
+            when(this.chainValidator.validateKeyChain(any(X509Certificate.class), any(TrustIndex.class), anyCollectionOf(Certificate.class))).thenReturn(true);
         } catch (Exception e) {
             fail("Test Setup Failure: " + e.getMessage());
         }
@@ -627,9 +789,9 @@ public class TLSAValidatorTest {
         // Validate Test
         try {
             assertTrue(result);
-            verify(this.caCertService, times(1)).getCaCertKeystore();
-            //verify(testKeyStore, times(2)).setCertificateEntry(anyString(), any(Certificate.class));
-            verify(this.chainValidator, times(1)).validateKeyChain(eq((X509Certificate) testCert), any(KeyStore.class));
+            verify(this.caCertService, times(1)).getCaCertIndex();
+            verify(this.caCertService, never()).getCaCertKeystore();
+            verify(this.chainValidator, times(1)).validateKeyChain(eq((X509Certificate) testCert), eq(testIndex), eq(Arrays.asList(certList1, certList2)));
         } catch (Exception e) {
             fail("Unexpected Exception Caught in Test Validation: " + e.getMessage());
         }
@@ -638,6 +800,217 @@ public class TLSAValidatorTest {
 
     // TODO: Test Exception Case returns False
 
+    /*
+     * TEST:
+     * TLSAValidator.openConnection()
+     */
+    @Test
+    public void openConnection_SocketFactoryPerHost() throws Exception {
+
+        this.testObj = new TLSAValidator(this.mockResolver, this.caCertService, this.chainValidator);
+
+        HttpsURLConnection conn1 = this.testObj.openConnection(new URL("https://wallet.domain.com/resolve/1"));
+        HttpsURLConnection conn2 = this.testObj.openConnection(new URL("https://WALLET.domain.com:443/resolve/2"));
+        HttpsURLConnection conn3 = this.testObj.openConnection(new URL("https://other.domain.com/resolve/1"));
+
+        // TLS sessions and validated certificates are kept per host
+        assertSame(conn1.getSSLSocketFactory(), conn2.getSSLSocketFactory());
+        assertNotSame(conn1.getSSLSocketFactory(), conn3.getSSLSocketFactory());
+        assertNotSame(HttpsURLConnection.getDefaultSSLSocketFactory(), conn1.getSSLSocketFactory());
+
+        // Nothing is looked up before connecting
+        verify(this.mockResolver, never()).resolve(anyString(), anyInt());
+    }
+
+    /*
+     * TEST:
+     * TLSAValidator.connect() against a local TLS server
+     */
+    @Test(timeout = 10000)
+    public void connect_GoRight() throws Exception {
+
+        when(this.mockResolver.resolve(anyString(), anyInt())).thenReturn(tlsaRecordValue(serverCert));
+        URL url = startTlsServer();
+
+        this.testObj = new TLSAValidator(this.mockResolver, this.caCertService, new CertChainValidator());
+        HttpsURLConnection conn = this.testObj.connect(url);
+        try {
+            assertEquals(serverCert, conn.getServerCertificates()[0]);
+        } finally {
+            conn.disconnect();
+        }
+
+        verify(this.mockResolver).resolve(eq(String.format("_%s._tcp.localhost.", url.getPort())), eq(Type.TLSA));
+    }
+
+    @Test(timeout = 10000)
+    public void connect_NoRecord() throws Exception {
+
+        // Answer only after the server certificates have arrived, the handshake has to wait for it
+        when(this.mockResolver.resolve(anyString(), anyInt())).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(500);
+                return null;
+            }
+        });
+        URL url = startTlsServer();
+
+        this.testObj = new TLSAValidator(this.mockResolver, this.caCertService, new CertChainValidator());
+        try {
+            this.testObj.connect(url);
+            fail("Connected Without TLSA Record");
+        } catch (IOException e) {
+            assertTrue(hasCertificateException(e));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void connect_FailsCancelsLookup() throws Exception {
+
+        final CountDownLatch lookupStarted = new CountDownLatch(1);
+        final CountDownLatch lookupInterrupted = new CountDownLatch(1);
+        when(this.mockResolver.resolve(anyString(), anyInt())).thenAnswer(blockingAnswer(lookupStarted, lookupInterrupted));
+
+        // Close connections once the lookup is under way, before any certificates are sent
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        this.serverSockets.add(serverSocket);
+        startDaemon(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        lookupStarted.await();
+                        socket.close();
+                    }
+                } catch (Exception e) {
+                    // server closed
+                }
+            }
+        });
+
+        this.testObj = new TLSAValidator(this.mockResolver, this.caCertService, new CertChainValidator());
+        try {
+            this.testObj.connect(new URL("https://localhost:" + serverSocket.getLocalPort() + "/"));
+            fail("Connected to Closing Server");
+        } catch (IOException e) {
+            assertFalse(hasCertificateException(e));
+        }
+
+        assertTrue(lookupInterrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void connect_ValidatedCertCancelsLookup() throws Exception {
+
+        final String recordValue = tlsaRecordValue(serverCert);
+        final CountDownLatch lookupStarted = new CountDownLatch(1);
+        final CountDownLatch lookupInterrupted = new CountDownLatch(1);
+        final Answer<String> blockingAnswer = blockingAnswer(lookupStarted, lookupInterrupted);
+        when(this.mockResolver.resolve(anyString(), anyInt())).thenAnswer(new Answer<String>() {
+            private int calls = 0;
+
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                synchronized (this) {
+                    if (this.calls++ == 0) {
+                        return recordValue;
+                    }
+                }
+                return blockingAnswer.answer(invocation);
+            }
+        });
+        URL url = startTlsServer();
+
+        this.testObj = new TLSAValidator(this.mockResolver, this.caCertService, new CertChainValidator());
+        this.testObj.connect(url).disconnect();
+
+        // The second lookup would never finish, the connection must not wait for it
+        HttpsURLConnection conn = this.testObj.connect(url);
+        conn.disconnect();
+
+        if (lookupStarted.await(1, TimeUnit.SECONDS)) {
+            assertTrue(lookupInterrupted.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private URL startTlsServer() throws Exception {
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("server", serverKeys.getPrivate(), SERVER_KEY_PASSWORD, new Certificate[]{serverCert, privateRoot});
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, SERVER_KEY_PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        final ServerSocket serverSocket = context.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getByName("localhost"));
+        this.serverSockets.add(serverSocket);
+        startDaemon(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        startDaemon(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    // Reading does the handshake, then waits for the client to close
+                                    while (socket.getInputStream().read() != -1) {
+                                        // discard
+                                    }
+                                    socket.close();
+                                } catch (IOException e) {
+                                    // handshake failed or client gone
+                                }
+                            }
+                        });
+                    }
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+
+        return new URL("https://localhost:" + serverSocket.getLocalPort() + "/");
+    }
+
+    private static void startDaemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "TLSAValidatorTest server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Resolver answer that blocks until interrupted, as a lookup that is only ended by being cancelled
+     */
+    private static Answer<String> blockingAnswer(final CountDownLatch started, final CountDownLatch interrupted) {
+        return new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        };
+    }
+
+    private static String tlsaRecordValue(Certificate cert) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(cert.getPublicKey().getEncoded());
+        return String.format("%d %d %d %s", TLSARecord.CertificateUsage.DOMAIN_ISSUED_CERTIFICATE, TLSARecord.Selector.SUBJECT_PUBLIC_KEY_INFO,
+                TLSARecord.MatchingType.SHA256, BaseEncoding.base16().encode(digest));
+    }
+
+    private static boolean hasCertificateException(Throwable t) {
+        return Iterables.any(Throwables.getCausalChain(t), Predicates.instanceOf(CertificateException.class));
+    }
+
     /*
      * TEST:
      * getMatchingCert
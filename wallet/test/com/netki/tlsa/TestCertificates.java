@@ -0,0 +1,69 @@
+package com.netki.tlsa;
+
+import org.spongycastle.asn1.x509.BasicConstraints;
+import org.spongycastle.asn1.x509.Extension;
+import org.spongycastle.cert.X509v3CertificateBuilder;
+import org.spongycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.spongycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.spongycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.spongycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Certificate chains for CertChainValidator and TrustStore tests and benchmarks
+ */
+public final class TestCertificates {
+
+    private static final AtomicLong serial = new AtomicLong(1);
+
+    private TestCertificates() {
+    }
+
+    public static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Create a self-signed CA certificate
+     *
+     * @param dn the X.509 Distinguished Name, eg "CN=Test Root, O=Test, C=GB"
+     */
+    public static X509Certificate generateRoot(String dn, KeyPair keys) throws Exception {
+        return generateCertificate(dn, keys.getPublic(), new X500Principal(dn), keys, true);
+    }
+
+    /**
+     * Create a certificate issued by issuer
+     *
+     * @param dn the X.509 Distinguished Name, eg "CN=Test Intermediate, O=Test, C=GB"
+     */
+    public static X509Certificate generateIssued(String dn, KeyPair keys, X509Certificate issuer, KeyPair issuerKeys, boolean ca) throws Exception {
+        return generateCertificate(dn, keys.getPublic(), issuer.getSubjectX500Principal(), issuerKeys, ca);
+    }
+
+    private static X509Certificate generateCertificate(String dn, PublicKey publicKey, X500Principal issuer, KeyPair issuerKeys, boolean ca) throws Exception {
+
+        Date notBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365));
+        JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, BigInteger.valueOf(serial.getAndIncrement()),
+                notBefore, notAfter, new X500Principal(dn), publicKey);
+        builder.addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(publicKey));
+        builder.addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(issuerKeys.getPublic()));
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+
+        return new JcaX509CertificateConverter().getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKeys.getPrivate())));
+    }
+}